@@ -29,10 +29,15 @@ package haven;
 import java.util.List;
 
 public class Avatar extends GAttrib {
+    public static final int slot = GAttrib.slot(Avatar.class);
     public Avatar(Gob gob) {
 	super(gob);
     }
 	
     void setlayers(List<Indir<Resource>> layers) {
     }
+
+    public boolean idle() {
+	return(true);
+    }
 }
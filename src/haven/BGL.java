@@ -32,795 +32,2206 @@ import java.util.*;
 import java.io.*;
 import java.lang.reflect.*;
 
+/*
+ * Recorded GL calls are encoded into flat arrays rather than as
+ * closures: every command is an opcode followed by its integer
+ * arguments in ibuf, while float, long and object arguments go to
+ * their own streams in the same order. run() replays them with a
+ * single switch, and reset() lets the same arrays record the next
+ * frame.
+ */
 public class BGL {
-    private static abstract class Command {
-	public abstract void run(GL2 gl);
+    public interface ID {
+	public int glid();
     }
 
-    private static class BufState {
-	Buffer buf;
-	int position, limit;
+    public interface Request {
+	public void run(GL2 gl);
+    }
 
-	BufState(Buffer buf) {
-	    if((this.buf = buf) != null) {
-		position = buf.position();
-		limit = buf.limit();
+    private int[] ibuf;
+    private float[] fbuf;
+    private long[] lbuf;
+    private Object[] rbuf;
+    private int n = 0, in = 0, fn = 0, ln = 0, rn = 0, nreq = 0;
+
+    public BGL(int c) {
+	ibuf = new int[c * 4];
+	fbuf = new float[c];
+	lbuf = new long[Math.max(c / 8, 8)];
+	rbuf = new Object[c];
+    }
+    public BGL() {this(128);}
+
+    private static final int OP_bglCheckErr = 0;
+    private static final int OP_bglCreate = 1;
+    private static final int OP_bglSubmit = 2;
+    private static final int OP_bglCopyBufferf = 3;
+    private static final int OP_bglCopyBufferf2 = 4;
+    private static final int OP_glActiveTexture = 5;
+    private static final int OP_glAlphaFunc = 6;
+    private static final int OP_glAttachShader = 7;
+    private static final int OP_glBegin = 8;
+    private static final int OP_glBindBuffer = 9;
+    private static final int OP_glBindFramebuffer = 10;
+    private static final int OP_glBindRenderbuffer = 11;
+    private static final int OP_glBindTexture = 12;
+    private static final int OP_glBindVertexArray = 13;
+    private static final int OP_glBlendEquationSeparate = 14;
+    private static final int OP_glBlendFunc = 15;
+    private static final int OP_glBufferData = 16;
+    private static final int OP_glCallList = 17;
+    private static final int OP_glClear = 18;
+    private static final int OP_glClearColor = 19;
+    private static final int OP_glClearDepth = 20;
+    private static final int OP_glColor3f = 21;
+    private static final int OP_glColor4f = 22;
+    private static final int OP_glColor4fv = 23;
+    private static final int OP_glColorMask = 24;
+    private static final int OP_glColorPointer = 25;
+    private static final int OP_glColorPointer2 = 26;
+    private static final int OP_glCompileShaderARB = 27;
+    private static final int OP_glDeleteBuffers = 28;
+    private static final int OP_glDeleteFramebuffers = 29;
+    private static final int OP_glDeleteLists = 30;
+    private static final int OP_glDeleteObjectARB = 31;
+    private static final int OP_glDeleteRenderbuffers = 32;
+    private static final int OP_glDeleteTextures = 33;
+    private static final int OP_glDeleteVertexArrays = 34;
+    private static final int OP_glDepthFunc = 35;
+    private static final int OP_glDepthMask = 36;
+    private static final int OP_glDisable = 37;
+    private static final int OP_glDisableClientState = 38;
+    private static final int OP_glDisableVertexAttribArray = 39;
+    private static final int OP_glDisableVertexAttribArray2 = 40;
+    private static final int OP_glDrawBuffer = 41;
+    private static final int OP_glDrawBuffers = 42;
+    private static final int OP_glDrawArrays = 43;
+    private static final int OP_glDrawElementsInstanced = 44;
+    private static final int OP_glDrawElements = 45;
+    private static final int OP_glDrawRangeElements = 46;
+    private static final int OP_glDrawRangeElements2 = 47;
+    private static final int OP_glEnable = 48;
+    private static final int OP_glEnableClientState = 49;
+    private static final int OP_glEnableVertexAttribArray = 50;
+    private static final int OP_glEnableVertexAttribArray2 = 51;
+    private static final int OP_glEnd = 52;
+    private static final int OP_glEndList = 53;
+    private static final int OP_glFogi = 54;
+    private static final int OP_glFogf = 55;
+    private static final int OP_glFogfv = 56;
+    private static final int OP_glFramebufferTexture2D = 57;
+    private static final int OP_glFramebufferRenderbuffer = 58;
+    private static final int OP_glLightf = 59;
+    private static final int OP_glLightfv = 60;
+    private static final int OP_glLightModelfv = 61;
+    private static final int OP_glLightModeli = 62;
+    private static final int OP_glLineWidth = 63;
+    private static final int OP_glLinkProgram = 64;
+    private static final int OP_glLoadMatrixf = 65;
+    private static final int OP_glMaterialf = 66;
+    private static final int OP_glMaterialfv = 67;
+    private static final int OP_glMatrixMode = 68;
+    private static final int OP_glNewList = 69;
+    private static final int OP_glNormal3f = 70;
+    private static final int OP_glNormalPointer = 71;
+    private static final int OP_glNormalPointer2 = 72;
+    private static final int OP_glPixelStorei = 73;
+    private static final int OP_glPointSize = 74;
+    private static final int OP_glPolygonMode = 75;
+    private static final int OP_glPolygonOffset = 76;
+    private static final int OP_glReadBuffer = 77;
+    private static final int OP_glRenderbufferStorage = 78;
+    private static final int OP_glRenderbufferStorageMultisample = 79;
+    private static final int OP_glSampleCoverage = 80;
+    private static final int OP_glScissor = 81;
+    private static final int OP_glShaderSourceARB = 82;
+    private static final int OP_glTexCoord2f = 83;
+    private static final int OP_glTexCoordPointer = 84;
+    private static final int OP_glTexCoordPointer2 = 85;
+    private static final int OP_glTexImage2D = 86;
+    private static final int OP_glTexSubImage2D = 87;
+    private static final int OP_glTexImage2DMultisample = 88;
+    private static final int OP_glTexParameterf = 89;
+    private static final int OP_glTexParameteri = 90;
+    private static final int OP_glUniform1f = 91;
+    private static final int OP_glUniform2f = 92;
+    private static final int OP_glUniform3f = 93;
+    private static final int OP_glUniform4f = 94;
+    private static final int OP_glUniform4fv = 95;
+    private static final int OP_glUniform1i = 96;
+    private static final int OP_glUniformMatrix3fv = 97;
+    private static final int OP_glUniformMatrix4fv = 98;
+    private static final int OP_glUseProgramObjectARB = 99;
+    private static final int OP_glVertex2f = 100;
+    private static final int OP_glVertex2i = 101;
+    private static final int OP_glVertex3f = 102;
+    private static final int OP_glVertex3i = 103;
+    private static final int OP_glVertexAttribDivisor = 104;
+    private static final int OP_glVertexAttribDivisor2 = 105;
+    private static final int OP_glVertexAttribPointer = 106;
+    private static final int OP_glVertexAttribPointer2 = 107;
+    private static final int OP_glVertexAttribPointer3 = 108;
+    private static final int OP_glVertexPointer = 109;
+    private static final int OP_glVertexPointer2 = 110;
+    private static final int OP_glViewport = 111;
+    private static final int OP_joglSetSwapInterval = 112;
+
+    private static final String[] opnames = {
+	"bglCheckErr", "bglCreate", "bglSubmit", "bglCopyBufferf", "bglCopyBufferf", "glActiveTexture",
+	"glAlphaFunc", "glAttachShader", "glBegin", "glBindBuffer", "glBindFramebuffer",
+	"glBindRenderbuffer", "glBindTexture", "glBindVertexArray", "glBlendEquationSeparate",
+	"glBlendFunc", "glBufferData", "glCallList", "glClear", "glClearColor", "glClearDepth",
+	"glColor3f", "glColor4f", "glColor4fv", "glColorMask", "glColorPointer", "glColorPointer",
+	"glCompileShaderARB", "glDeleteBuffers", "glDeleteFramebuffers", "glDeleteLists",
+	"glDeleteObjectARB", "glDeleteRenderbuffers", "glDeleteTextures", "glDeleteVertexArrays",
+	"glDepthFunc", "glDepthMask", "glDisable", "glDisableClientState", "glDisableVertexAttribArray",
+	"glDisableVertexAttribArray", "glDrawBuffer", "glDrawBuffers", "glDrawArrays",
+	"glDrawElementsInstanced", "glDrawElements", "glDrawRangeElements", "glDrawRangeElements",
+	"glEnable", "glEnableClientState", "glEnableVertexAttribArray", "glEnableVertexAttribArray",
+	"glEnd", "glEndList", "glFogi", "glFogf", "glFogfv", "glFramebufferTexture2D",
+	"glFramebufferRenderbuffer", "glLightf", "glLightfv", "glLightModelfv", "glLightModeli",
+	"glLineWidth", "glLinkProgram", "glLoadMatrixf", "glMaterialf", "glMaterialfv", "glMatrixMode",
+	"glNewList", "glNormal3f", "glNormalPointer", "glNormalPointer", "glPixelStorei", "glPointSize",
+	"glPolygonMode", "glPolygonOffset", "glReadBuffer", "glRenderbufferStorage",
+	"glRenderbufferStorageMultisample", "glSampleCoverage", "glScissor", "glShaderSourceARB",
+	"glTexCoord2f", "glTexCoordPointer", "glTexCoordPointer", "glTexImage2D", "glTexSubImage2D",
+	"glTexImage2DMultisample", "glTexParameterf", "glTexParameteri", "glUniform1f", "glUniform2f",
+	"glUniform3f", "glUniform4f", "glUniform4fv", "glUniform1i", "glUniformMatrix3fv",
+	"glUniformMatrix4fv", "glUseProgramObjectARB", "glVertex2f", "glVertex2i", "glVertex3f",
+	"glVertex3i", "glVertexAttribDivisor", "glVertexAttribDivisor", "glVertexAttribPointer",
+	"glVertexAttribPointer", "glVertexAttribPointer", "glVertexPointer", "glVertexPointer",
+	"glViewport", "joglSetSwapInterval"
+    };
+    private static final String[] opsigs = {
+	"", "r", "r", "ririi", "ririi", "i", "if", "rr", "i", "ir", "ir", "ir", "ir", "r", "ii", "ii",
+	"ilbi", "r", "i", "ffff", "d", "fff", "ffff", "ri", "zzzz", "iiil", "iiib", "r", "iri", "iri",
+	"ri", "r", "iri", "iri", "iri", "i", "z", "i", "i", "r", "ri", "i", "iri", "iii", "iiili", "iiib",
+	"iiiiib", "iiiiil", "i", "i", "r", "ri", "", "", "ii", "if", "iri", "iiiri", "iiir", "iif",
+	"iiri", "iri", "ii", "f", "r", "ri", "iif", "iiri", "i", "ri", "fff", "iil", "iib", "ii", "f",
+	"ii", "ff", "i", "iiii", "iiiii", "fz", "iiii", "rirri", "ff", "iiil", "iiib", "iiiiiiiib",
+	"iiiiiiiib", "iiiiiz", "iif", "iii", "rf", "rff", "rfff", "rffff", "riri", "ri", "rizri", "rizri",
+	"r", "ff", "ii", "fff", "iii", "ri", "rii", "riizib", "riizil", "riiizil", "iiil", "iiib", "iiii",
+	"i"
+    };
+    private static final String[][] opargs = {
+	{}, {"ob"}, {"req"}, {"dst", "doff", "src", "soff", "len"}, {"dst", "doff", "src", "soff", "len"},
+	{"texture"}, {"func", "val"}, {"program", "shader"}, {"mode"}, {"target", "buffer"},
+	{"target", "buffer"}, {"target", "buffer"}, {"target", "texture"}, {"array"}, {"cmode", "amode"},
+	{"sfac", "dfac"}, {"target", "size", "data", "usage"}, {"list"}, {"mask"}, {"r", "g", "b", "a"},
+	{"d"}, {"r", "g", "b"}, {"r", "g", "b", "a"}, {"v", "n"}, {"r", "g", "b", "a"},
+	{"size", "type", "stride", "pointer"}, {"size", "type", "stride", "data"}, {"shader"},
+	{"count", "buffers", "n"}, {"count", "buffers", "n"}, {"list", "range"}, {"id"},
+	{"count", "buffers", "n"}, {"count", "buffers", "n"}, {"count", "buffers", "n"}, {"func"},
+	{"mask"}, {"cap"}, {"cap"}, {"location"}, {"location", "offset"}, {"buf"}, {"n", "bufs", "i"},
+	{"mode", "first", "count"}, {"mode", "count", "type", "indices", "primcount"},
+	{"mode", "count", "type", "indices"}, {"mode", "start", "end", "count", "type", "indices"},
+	{"mode", "start", "end", "count", "type", "indices"}, {"cap"}, {"cap"}, {"location"},
+	{"location", "offset"}, {}, {}, {"pname", "param"}, {"pname", "param"}, {"pname", "param", "n"},
+	{"target", "attachment", "textarget", "texture", "level"},
+	{"target", "attachment", "rbtarget", "renderbuffer"}, {"light", "pname", "param"},
+	{"light", "pname", "param", "n"}, {"pname", "param", "n"}, {"pname", "param"}, {"w"}, {"program"},
+	{"m", "i"}, {"face", "pname", "param"}, {"face", "pname", "param", "n"}, {"mode"},
+	{"list", "mode"}, {"x", "y", "z"}, {"type", "stride", "pointer"}, {"type", "stride", "data"},
+	{"pname", "param"}, {"size"}, {"face", "mode"}, {"factor", "units"}, {"buf"},
+	{"target", "format", "width", "height"}, {"target", "samples", "format", "width", "height"},
+	{"value", "invert"}, {"x", "y", "w", "h"}, {"shader", "count", "string", "length", "n"},
+	{"s", "t"}, {"size", "type", "stride", "pointer"}, {"size", "type", "stride", "data"},
+	{"target", "level", "internalformat", "width", "height", "border", "format", "type", "data"},
+	{"target", "level", "xoff", "yoff", "width", "height", "format", "type", "data"},
+	{"target", "samples", "internalformat", "width", "height", "fixedsamplelocations"},
+	{"target", "pname", "param"}, {"target", "pname", "param"}, {"location", "v0"},
+	{"location", "v0", "v1"}, {"location", "v0", "v1", "v2"}, {"location", "v0", "v1", "v2", "v3"},
+	{"location", "count", "val", "n"}, {"location", "v0"},
+	{"location", "count", "transpose", "value", "n"},
+	{"location", "count", "transpose", "value", "n"}, {"program"}, {"x", "y"}, {"x", "y"},
+	{"x", "y", "z"}, {"x", "y", "z"}, {"location", "divisor"}, {"location", "offset", "divisor"},
+	{"location", "size", "type", "normalized", "stride", "pointer"},
+	{"location", "size", "type", "normalized", "stride", "pointer"},
+	{"location", "offset", "size", "type", "normalized", "stride", "pointer"},
+	{"size", "type", "stride", "pointer"}, {"size", "type", "stride", "data"}, {"x", "y", "w", "h"},
+	{"swap"}
+    };
+
+    /* The number of slots each opcode takes in each stream, not
+     * counting the opcode itself. */
+    private static final int[] opni, opnf, opnl, opnr;
+    static {
+	int nops = opsigs.length;
+	opni = new int[nops]; opnf = new int[nops]; opnl = new int[nops]; opnr = new int[nops];
+	for(int op = 0; op < nops; op++) {
+	    String sig = opsigs[op];
+	    for(int i = 0; i < sig.length(); i++) {
+		switch(sig.charAt(i)) {
+		case 'i': case 'z': opni[op]++; break;
+		case 'f': opnf[op]++; break;
+		case 'l': case 'd': opnl[op]++; break;
+		case 'r': opnr[op]++; break;
+		case 'b': opnr[op]++; opni[op] += 2; break;
+		}
 	    }
 	}
+    }
 
-	void restore() {
-	    if(buf != null) {
-		buf.position(position);
-		buf.limit(limit);
+    public void run(GL2 gl) {
+	int ip = 0, fp = 0, lp = 0, rp = 0;
+	for(int ci = 0; ci < n; ci++) {
+	    try {
+		switch(ibuf[ip++]) {
+		case OP_bglCheckErr: {
+		    GOut.checkerr(gl);
+		    break;
+		}
+		case OP_bglCreate: {
+		    GLObject ob = (GLObject)rbuf[rp++];
+		    ob.create(gl);
+		    break;
+		}
+		case OP_bglSubmit: {
+		    Request req = (Request)rbuf[rp++];
+		    req.run(gl);
+		    break;
+		}
+		case OP_bglCopyBufferf: {
+		    FloatBuffer dst = (FloatBuffer)rbuf[rp++];
+		    int doff = ibuf[ip++];
+		    FloatBuffer src = (FloatBuffer)rbuf[rp++];
+		    int soff = ibuf[ip++];
+		    int len = ibuf[ip++];
+		    dst.position(doff);
+		    src.position(soff).limit(len);
+		    dst.put(src);
+		    dst.rewind();
+		    src.rewind().limit(src.capacity());
+		    break;
+		}
+		case OP_bglCopyBufferf2: {
+		    FloatBuffer dst = (FloatBuffer)rbuf[rp++];
+		    int doff = ibuf[ip++];
+		    float[] src = (float[])rbuf[rp++];
+		    int soff = ibuf[ip++];
+		    int len = ibuf[ip++];
+		    dst.position(doff);
+		    dst.put(src, soff, len);
+		    dst.rewind();
+		    break;
+		}
+		case OP_glActiveTexture: {
+		    int texture = ibuf[ip++];
+		    gl.glActiveTexture(texture);
+		    break;
+		}
+		case OP_glAlphaFunc: {
+		    int func = ibuf[ip++];
+		    float val = fbuf[fp++];
+		    gl.glAlphaFunc(func, val);
+		    break;
+		}
+		case OP_glAttachShader: {
+		    ID program = (ID)rbuf[rp++];
+		    ID shader = (ID)rbuf[rp++];
+		    gl.glAttachShader(program.glid(), shader.glid());
+		    break;
+		}
+		case OP_glBegin: {
+		    int mode = ibuf[ip++];
+		    gl.glBegin(mode);
+		    break;
+		}
+		case OP_glBindBuffer: {
+		    int target = ibuf[ip++];
+		    ID buffer = (ID)rbuf[rp++];
+		    gl.glBindBuffer(target, (buffer == null)?0:buffer.glid());
+		    break;
+		}
+		case OP_glBindFramebuffer: {
+		    int target = ibuf[ip++];
+		    ID buffer = (ID)rbuf[rp++];
+		    gl.glBindFramebuffer(target, (buffer == null)?0:buffer.glid());
+		    break;
+		}
+		case OP_glBindRenderbuffer: {
+		    int target = ibuf[ip++];
+		    ID buffer = (ID)rbuf[rp++];
+		    gl.glBindRenderbuffer(target, (buffer == null)?0:buffer.glid());
+		    break;
+		}
+		case OP_glBindTexture: {
+		    int target = ibuf[ip++];
+		    ID texture = (ID)rbuf[rp++];
+		    gl.glBindTexture(target, (texture == null)?0:texture.glid());
+		    break;
+		}
+		case OP_glBindVertexArray: {
+		    ID array = (ID)rbuf[rp++];
+		    gl.glBindVertexArray((array == null)?0:array.glid());
+		    break;
+		}
+		case OP_glBlendEquationSeparate: {
+		    int cmode = ibuf[ip++];
+		    int amode = ibuf[ip++];
+		    gl.glBlendEquationSeparate(cmode, amode);
+		    break;
+		}
+		case OP_glBlendFunc: {
+		    int sfac = ibuf[ip++];
+		    int dfac = ibuf[ip++];
+		    gl.glBlendFunc(sfac, dfac);
+		    break;
+		}
+		case OP_glBufferData: {
+		    int target = ibuf[ip++];
+		    long size = lbuf[lp++];
+		    Buffer data = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    int usage = ibuf[ip++];
+		    gl.glBufferData(target, size, data, usage);
+		    break;
+		}
+		case OP_glCallList: {
+		    ID list = (ID)rbuf[rp++];
+		    gl.glCallList(list.glid());
+		    break;
+		}
+		case OP_glClear: {
+		    int mask = ibuf[ip++];
+		    gl.glClear(mask);
+		    break;
+		}
+		case OP_glClearColor: {
+		    float r = fbuf[fp++];
+		    float g = fbuf[fp++];
+		    float b = fbuf[fp++];
+		    float a = fbuf[fp++];
+		    gl.glClearColor(r, g, b, a);
+		    break;
+		}
+		case OP_glClearDepth: {
+		    double d = Double.longBitsToDouble(lbuf[lp++]);
+		    gl.glClearDepth(d);
+		    break;
+		}
+		case OP_glColor3f: {
+		    float r = fbuf[fp++];
+		    float g = fbuf[fp++];
+		    float b = fbuf[fp++];
+		    gl.glColor3f(r, g, b);
+		    break;
+		}
+		case OP_glColor4f: {
+		    float r = fbuf[fp++];
+		    float g = fbuf[fp++];
+		    float b = fbuf[fp++];
+		    float a = fbuf[fp++];
+		    gl.glColor4f(r, g, b, a);
+		    break;
+		}
+		case OP_glColor4fv: {
+		    float[] v = (float[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    gl.glColor4fv(v, n);
+		    break;
+		}
+		case OP_glColorMask: {
+		    boolean r = ibuf[ip++] != 0;
+		    boolean g = ibuf[ip++] != 0;
+		    boolean b = ibuf[ip++] != 0;
+		    boolean a = ibuf[ip++] != 0;
+		    gl.glColorMask(r, g, b, a);
+		    break;
+		}
+		case OP_glColorPointer: {
+		    int size = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    int stride = ibuf[ip++];
+		    long pointer = lbuf[lp++];
+		    gl.glColorPointer(size, type, stride, pointer);
+		    break;
+		}
+		case OP_glColorPointer2: {
+		    int size = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    int stride = ibuf[ip++];
+		    Buffer data = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    gl.glColorPointer(size, type, stride, data);
+		    break;
+		}
+		case OP_glCompileShaderARB: {
+		    ID shader = (ID)rbuf[rp++];
+		    gl.glCompileShaderARB(shader.glid());
+		    break;
+		}
+		case OP_glDeleteBuffers: {
+		    int count = ibuf[ip++];
+		    ID[] buffers = (ID[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    int[] buf = new int[buffers.length];
+		    for(int i = 0; i < buf.length; i++)
+			buf[i] = buffers[i].glid();
+		    gl.glDeleteBuffers(count, buf, n);
+		    break;
+		}
+		case OP_glDeleteFramebuffers: {
+		    int count = ibuf[ip++];
+		    ID[] buffers = (ID[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    int[] buf = new int[buffers.length];
+		    for(int i = 0; i < buf.length; i++)
+			buf[i] = buffers[i].glid();
+		    gl.glDeleteFramebuffers(count, buf, n);
+		    break;
+		}
+		case OP_glDeleteLists: {
+		    ID list = (ID)rbuf[rp++];
+		    int range = ibuf[ip++];
+		    gl.glDeleteLists(list.glid(), range);
+		    break;
+		}
+		case OP_glDeleteObjectARB: {
+		    ID id = (ID)rbuf[rp++];
+		    gl.glDeleteObjectARB(id.glid());
+		    break;
+		}
+		case OP_glDeleteRenderbuffers: {
+		    int count = ibuf[ip++];
+		    ID[] buffers = (ID[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    int[] buf = new int[buffers.length];
+		    for(int i = 0; i < buf.length; i++)
+			buf[i] = buffers[i].glid();
+		    gl.glDeleteRenderbuffers(count, buf, n);
+		    break;
+		}
+		case OP_glDeleteTextures: {
+		    int count = ibuf[ip++];
+		    ID[] buffers = (ID[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    int[] buf = new int[buffers.length];
+		    for(int i = 0; i < buf.length; i++)
+			buf[i] = buffers[i].glid();
+		    gl.glDeleteTextures(count, buf, n);
+		    break;
+		}
+		case OP_glDeleteVertexArrays: {
+		    int count = ibuf[ip++];
+		    ID[] buffers = (ID[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    int[] buf = new int[buffers.length];
+		    for(int i = 0; i < buf.length; i++)
+			buf[i] = buffers[i].glid();
+		    gl.glDeleteVertexArrays(count, buf, n);
+		    break;
+		}
+		case OP_glDepthFunc: {
+		    int func = ibuf[ip++];
+		    gl.glDepthFunc(func);
+		    break;
+		}
+		case OP_glDepthMask: {
+		    boolean mask = ibuf[ip++] != 0;
+		    gl.glDepthMask(mask);
+		    break;
+		}
+		case OP_glDisable: {
+		    int cap = ibuf[ip++];
+		    gl.glDisable(cap);
+		    break;
+		}
+		case OP_glDisableClientState: {
+		    int cap = ibuf[ip++];
+		    gl.glDisableClientState(cap);
+		    break;
+		}
+		case OP_glDisableVertexAttribArray: {
+		    ID location = (ID)rbuf[rp++];
+		    gl.glDisableVertexAttribArray(location.glid());
+		    break;
+		}
+		case OP_glDisableVertexAttribArray2: {
+		    ID location = (ID)rbuf[rp++];
+		    int offset = ibuf[ip++];
+		    gl.glDisableVertexAttribArray(location.glid() + offset);
+		    break;
+		}
+		case OP_glDrawBuffer: {
+		    int buf = ibuf[ip++];
+		    gl.glDrawBuffer(buf);
+		    break;
+		}
+		case OP_glDrawBuffers: {
+		    int n = ibuf[ip++];
+		    int[] bufs = (int[])rbuf[rp++];
+		    int i = ibuf[ip++];
+		    gl.glDrawBuffers(n, bufs, i);
+		    break;
+		}
+		case OP_glDrawArrays: {
+		    int mode = ibuf[ip++];
+		    int first = ibuf[ip++];
+		    int count = ibuf[ip++];
+		    gl.glDrawArrays(mode, first, count);
+		    break;
+		}
+		case OP_glDrawElementsInstanced: {
+		    int mode = ibuf[ip++];
+		    int count = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    long indices = lbuf[lp++];
+		    int primcount = ibuf[ip++];
+		    gl.glDrawElementsInstanced(mode, count, type, indices, primcount);
+		    break;
+		}
+		case OP_glDrawElements: {
+		    int mode = ibuf[ip++];
+		    int count = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    Buffer indices = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    gl.glDrawElements(mode, count, type, indices);
+		    break;
+		}
+		case OP_glDrawRangeElements: {
+		    int mode = ibuf[ip++];
+		    int start = ibuf[ip++];
+		    int end = ibuf[ip++];
+		    int count = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    Buffer indices = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    gl.glDrawRangeElements(mode, start, end, count, type, indices);
+		    break;
+		}
+		case OP_glDrawRangeElements2: {
+		    int mode = ibuf[ip++];
+		    int start = ibuf[ip++];
+		    int end = ibuf[ip++];
+		    int count = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    long indices = lbuf[lp++];
+		    gl.glDrawRangeElements(mode, start, end, count, type, indices);
+		    break;
+		}
+		case OP_glEnable: {
+		    int cap = ibuf[ip++];
+		    gl.glEnable(cap);
+		    break;
+		}
+		case OP_glEnableClientState: {
+		    int cap = ibuf[ip++];
+		    gl.glEnableClientState(cap);
+		    break;
+		}
+		case OP_glEnableVertexAttribArray: {
+		    ID location = (ID)rbuf[rp++];
+		    gl.glEnableVertexAttribArray(location.glid());
+		    break;
+		}
+		case OP_glEnableVertexAttribArray2: {
+		    ID location = (ID)rbuf[rp++];
+		    int offset = ibuf[ip++];
+		    gl.glEnableVertexAttribArray(location.glid() + offset);
+		    break;
+		}
+		case OP_glEnd: {
+		    gl.glEnd();
+		    break;
+		}
+		case OP_glEndList: {
+		    gl.glEndList();
+		    break;
+		}
+		case OP_glFogi: {
+		    int pname = ibuf[ip++];
+		    int param = ibuf[ip++];
+		    gl.glFogi(pname, param);
+		    break;
+		}
+		case OP_glFogf: {
+		    int pname = ibuf[ip++];
+		    float param = fbuf[fp++];
+		    gl.glFogf(pname, param);
+		    break;
+		}
+		case OP_glFogfv: {
+		    int pname = ibuf[ip++];
+		    float[] param = (float[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    gl.glFogfv(pname, param, n);
+		    break;
+		}
+		case OP_glFramebufferTexture2D: {
+		    int target = ibuf[ip++];
+		    int attachment = ibuf[ip++];
+		    int textarget = ibuf[ip++];
+		    ID texture = (ID)rbuf[rp++];
+		    int level = ibuf[ip++];
+		    gl.glFramebufferTexture2D(target, attachment, textarget, texture.glid(), level);
+		    break;
+		}
+		case OP_glFramebufferRenderbuffer: {
+		    int target = ibuf[ip++];
+		    int attachment = ibuf[ip++];
+		    int rbtarget = ibuf[ip++];
+		    ID renderbuffer = (ID)rbuf[rp++];
+		    gl.glFramebufferRenderbuffer(target, attachment, rbtarget, renderbuffer.glid());
+		    break;
+		}
+		case OP_glLightf: {
+		    int light = ibuf[ip++];
+		    int pname = ibuf[ip++];
+		    float param = fbuf[fp++];
+		    gl.glLightf(light, pname, param);
+		    break;
+		}
+		case OP_glLightfv: {
+		    int light = ibuf[ip++];
+		    int pname = ibuf[ip++];
+		    float[] param = (float[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    gl.glLightfv(light, pname, param, n);
+		    break;
+		}
+		case OP_glLightModelfv: {
+		    int pname = ibuf[ip++];
+		    float[] param = (float[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    gl.glLightModelfv(pname, param, n);
+		    break;
+		}
+		case OP_glLightModeli: {
+		    int pname = ibuf[ip++];
+		    int param = ibuf[ip++];
+		    gl.glLightModeli(pname, param);
+		    break;
+		}
+		case OP_glLineWidth: {
+		    float w = fbuf[fp++];
+		    gl.glLineWidth(w);
+		    break;
+		}
+		case OP_glLinkProgram: {
+		    ID program = (ID)rbuf[rp++];
+		    gl.glLinkProgram(program.glid());
+		    break;
+		}
+		case OP_glLoadMatrixf: {
+		    float[] m = (float[])rbuf[rp++];
+		    int i = ibuf[ip++];
+		    gl.glLoadMatrixf(m, i);
+		    break;
+		}
+		case OP_glMaterialf: {
+		    int face = ibuf[ip++];
+		    int pname = ibuf[ip++];
+		    float param = fbuf[fp++];
+		    gl.glMaterialf(face, pname, param);
+		    break;
+		}
+		case OP_glMaterialfv: {
+		    int face = ibuf[ip++];
+		    int pname = ibuf[ip++];
+		    float[] param = (float[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    gl.glMaterialfv(face, pname, param, n);
+		    break;
+		}
+		case OP_glMatrixMode: {
+		    int mode = ibuf[ip++];
+		    gl.glMatrixMode(mode);
+		    break;
+		}
+		case OP_glNewList: {
+		    ID list = (ID)rbuf[rp++];
+		    int mode = ibuf[ip++];
+		    gl.glNewList(list.glid(), mode);
+		    break;
+		}
+		case OP_glNormal3f: {
+		    float x = fbuf[fp++];
+		    float y = fbuf[fp++];
+		    float z = fbuf[fp++];
+		    gl.glNormal3f(x, y, z);
+		    break;
+		}
+		case OP_glNormalPointer: {
+		    int type = ibuf[ip++];
+		    int stride = ibuf[ip++];
+		    long pointer = lbuf[lp++];
+		    gl.glNormalPointer(type, stride, pointer);
+		    break;
+		}
+		case OP_glNormalPointer2: {
+		    int type = ibuf[ip++];
+		    int stride = ibuf[ip++];
+		    Buffer data = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    gl.glNormalPointer(type, stride, data);
+		    break;
+		}
+		case OP_glPixelStorei: {
+		    int pname = ibuf[ip++];
+		    int param = ibuf[ip++];
+		    gl.glPixelStorei(pname, param);
+		    break;
+		}
+		case OP_glPointSize: {
+		    float size = fbuf[fp++];
+		    gl.glPointSize(size);
+		    break;
+		}
+		case OP_glPolygonMode: {
+		    int face = ibuf[ip++];
+		    int mode = ibuf[ip++];
+		    gl.glPolygonMode(face, mode);
+		    break;
+		}
+		case OP_glPolygonOffset: {
+		    float factor = fbuf[fp++];
+		    float units = fbuf[fp++];
+		    gl.glPolygonOffset(factor, units);
+		    break;
+		}
+		case OP_glReadBuffer: {
+		    int buf = ibuf[ip++];
+		    gl.glReadBuffer(buf);
+		    break;
+		}
+		case OP_glRenderbufferStorage: {
+		    int target = ibuf[ip++];
+		    int format = ibuf[ip++];
+		    int width = ibuf[ip++];
+		    int height = ibuf[ip++];
+		    gl.glRenderbufferStorage(target, format, width, height);
+		    break;
+		}
+		case OP_glRenderbufferStorageMultisample: {
+		    int target = ibuf[ip++];
+		    int samples = ibuf[ip++];
+		    int format = ibuf[ip++];
+		    int width = ibuf[ip++];
+		    int height = ibuf[ip++];
+		    gl.glRenderbufferStorageMultisample(target, samples, format, width, height);
+		    break;
+		}
+		case OP_glSampleCoverage: {
+		    float value = fbuf[fp++];
+		    boolean invert = ibuf[ip++] != 0;
+		    gl.glSampleCoverage(value, invert);
+		    break;
+		}
+		case OP_glScissor: {
+		    int x = ibuf[ip++];
+		    int y = ibuf[ip++];
+		    int w = ibuf[ip++];
+		    int h = ibuf[ip++];
+		    gl.glScissor(x, y, w, h);
+		    break;
+		}
+		case OP_glShaderSourceARB: {
+		    ID shader = (ID)rbuf[rp++];
+		    int count = ibuf[ip++];
+		    String[] string = (String[])rbuf[rp++];
+		    int[] length = (int[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    gl.glShaderSourceARB(shader.glid(), count, string, length, n);
+		    break;
+		}
+		case OP_glTexCoord2f: {
+		    float s = fbuf[fp++];
+		    float t = fbuf[fp++];
+		    gl.glTexCoord2f(s, t);
+		    break;
+		}
+		case OP_glTexCoordPointer: {
+		    int size = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    int stride = ibuf[ip++];
+		    long pointer = lbuf[lp++];
+		    gl.glTexCoordPointer(size, type, stride, pointer);
+		    break;
+		}
+		case OP_glTexCoordPointer2: {
+		    int size = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    int stride = ibuf[ip++];
+		    Buffer data = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    gl.glTexCoordPointer(size, type, stride, data);
+		    break;
+		}
+		case OP_glTexImage2D: {
+		    int target = ibuf[ip++];
+		    int level = ibuf[ip++];
+		    int internalformat = ibuf[ip++];
+		    int width = ibuf[ip++];
+		    int height = ibuf[ip++];
+		    int border = ibuf[ip++];
+		    int format = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    Buffer data = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    gl.glTexImage2D(target, level, internalformat, width, height, border, format, type, data);
+		    break;
+		}
+		case OP_glTexSubImage2D: {
+		    int target = ibuf[ip++];
+		    int level = ibuf[ip++];
+		    int xoff = ibuf[ip++];
+		    int yoff = ibuf[ip++];
+		    int width = ibuf[ip++];
+		    int height = ibuf[ip++];
+		    int format = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    Buffer data = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    gl.glTexSubImage2D(target, level, xoff, yoff, width, height, format, type, data);
+		    break;
+		}
+		case OP_glTexImage2DMultisample: {
+		    int target = ibuf[ip++];
+		    int samples = ibuf[ip++];
+		    int internalformat = ibuf[ip++];
+		    int width = ibuf[ip++];
+		    int height = ibuf[ip++];
+		    boolean fixedsamplelocations = ibuf[ip++] != 0;
+		    gl.getGL3bc().glTexImage2DMultisample(target, samples, internalformat, width, height, fixedsamplelocations);
+		    break;
+		}
+		case OP_glTexParameterf: {
+		    int target = ibuf[ip++];
+		    int pname = ibuf[ip++];
+		    float param = fbuf[fp++];
+		    gl.glTexParameterf(target, pname, param);
+		    break;
+		}
+		case OP_glTexParameteri: {
+		    int target = ibuf[ip++];
+		    int pname = ibuf[ip++];
+		    int param = ibuf[ip++];
+		    gl.glTexParameteri(target, pname, param);
+		    break;
+		}
+		case OP_glUniform1f: {
+		    ID location = (ID)rbuf[rp++];
+		    float v0 = fbuf[fp++];
+		    gl.glUniform1f(location.glid(), v0);
+		    break;
+		}
+		case OP_glUniform2f: {
+		    ID location = (ID)rbuf[rp++];
+		    float v0 = fbuf[fp++];
+		    float v1 = fbuf[fp++];
+		    gl.glUniform2f(location.glid(), v0, v1);
+		    break;
+		}
+		case OP_glUniform3f: {
+		    ID location = (ID)rbuf[rp++];
+		    float v0 = fbuf[fp++];
+		    float v1 = fbuf[fp++];
+		    float v2 = fbuf[fp++];
+		    gl.glUniform3f(location.glid(), v0, v1, v2);
+		    break;
+		}
+		case OP_glUniform4f: {
+		    ID location = (ID)rbuf[rp++];
+		    float v0 = fbuf[fp++];
+		    float v1 = fbuf[fp++];
+		    float v2 = fbuf[fp++];
+		    float v3 = fbuf[fp++];
+		    gl.glUniform4f(location.glid(), v0, v1, v2, v3);
+		    break;
+		}
+		case OP_glUniform4fv: {
+		    ID location = (ID)rbuf[rp++];
+		    int count = ibuf[ip++];
+		    float[] val = (float[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    gl.glUniform4fv(location.glid(), count, val, n);
+		    break;
+		}
+		case OP_glUniform1i: {
+		    ID location = (ID)rbuf[rp++];
+		    int v0 = ibuf[ip++];
+		    gl.glUniform1i(location.glid(), v0);
+		    break;
+		}
+		case OP_glUniformMatrix3fv: {
+		    ID location = (ID)rbuf[rp++];
+		    int count = ibuf[ip++];
+		    boolean transpose = ibuf[ip++] != 0;
+		    float[] value = (float[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    gl.glUniformMatrix3fv(location.glid(), count, transpose, value, n);
+		    break;
+		}
+		case OP_glUniformMatrix4fv: {
+		    ID location = (ID)rbuf[rp++];
+		    int count = ibuf[ip++];
+		    boolean transpose = ibuf[ip++] != 0;
+		    float[] value = (float[])rbuf[rp++];
+		    int n = ibuf[ip++];
+		    gl.glUniformMatrix4fv(location.glid(), count, transpose, value, n);
+		    break;
+		}
+		case OP_glUseProgramObjectARB: {
+		    ID program = (ID)rbuf[rp++];
+		    gl.glUseProgramObjectARB(program.glid());
+		    break;
+		}
+		case OP_glVertex2f: {
+		    float x = fbuf[fp++];
+		    float y = fbuf[fp++];
+		    gl.glVertex2f(x, y);
+		    break;
+		}
+		case OP_glVertex2i: {
+		    int x = ibuf[ip++];
+		    int y = ibuf[ip++];
+		    gl.glVertex2i(x, y);
+		    break;
+		}
+		case OP_glVertex3f: {
+		    float x = fbuf[fp++];
+		    float y = fbuf[fp++];
+		    float z = fbuf[fp++];
+		    gl.glVertex3f(x, y, z);
+		    break;
+		}
+		case OP_glVertex3i: {
+		    int x = ibuf[ip++];
+		    int y = ibuf[ip++];
+		    int z = ibuf[ip++];
+		    gl.glVertex3i(x, y, z);
+		    break;
+		}
+		case OP_glVertexAttribDivisor: {
+		    ID location = (ID)rbuf[rp++];
+		    int divisor = ibuf[ip++];
+		    ((GL3)gl).glVertexAttribDivisor(location.glid(), divisor);
+		    break;
+		}
+		case OP_glVertexAttribDivisor2: {
+		    ID location = (ID)rbuf[rp++];
+		    int offset = ibuf[ip++];
+		    int divisor = ibuf[ip++];
+		    ((GL3)gl).glVertexAttribDivisor(location.glid() + offset, divisor);
+		    break;
+		}
+		case OP_glVertexAttribPointer: {
+		    ID location = (ID)rbuf[rp++];
+		    int size = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    boolean normalized = ibuf[ip++] != 0;
+		    int stride = ibuf[ip++];
+		    Buffer pointer = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    gl.glVertexAttribPointer(location.glid(), size, type, normalized, stride, pointer);
+		    break;
+		}
+		case OP_glVertexAttribPointer2: {
+		    ID location = (ID)rbuf[rp++];
+		    int size = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    boolean normalized = ibuf[ip++] != 0;
+		    int stride = ibuf[ip++];
+		    long pointer = lbuf[lp++];
+		    gl.glVertexAttribPointer(location.glid(), size, type, normalized, stride, pointer);
+		    break;
+		}
+		case OP_glVertexAttribPointer3: {
+		    ID location = (ID)rbuf[rp++];
+		    int offset = ibuf[ip++];
+		    int size = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    boolean normalized = ibuf[ip++] != 0;
+		    int stride = ibuf[ip++];
+		    long pointer = lbuf[lp++];
+		    gl.glVertexAttribPointer(location.glid() + offset, size, type, normalized, stride, pointer);
+		    break;
+		}
+		case OP_glVertexPointer: {
+		    int size = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    int stride = ibuf[ip++];
+		    long pointer = lbuf[lp++];
+		    gl.glVertexPointer(size, type, stride, pointer);
+		    break;
+		}
+		case OP_glVertexPointer2: {
+		    int size = ibuf[ip++];
+		    int type = ibuf[ip++];
+		    int stride = ibuf[ip++];
+		    Buffer data = restore((Buffer)rbuf[rp++], ibuf[ip++], ibuf[ip++]);
+		    gl.glVertexPointer(size, type, stride, data);
+		    break;
+		}
+		case OP_glViewport: {
+		    int x = ibuf[ip++];
+		    int y = ibuf[ip++];
+		    int w = ibuf[ip++];
+		    int h = ibuf[ip++];
+		    gl.glViewport(x, y, w, h);
+		    break;
+		}
+		case OP_joglSetSwapInterval: {
+		    int swap = ibuf[ip++];
+		    gl.setSwapInterval(swap);
+		    break;
+		}
+		default:
+		    throw(new RuntimeException("Invalid BGL opcode: " + ibuf[ip - 1]));
+		}
+	    } catch(Exception exc) {
+		throw(new BGLException(this, ci, exc));
 	    }
 	}
     }
 
-    public interface ID {
-	public int glid();
+    private void op(int op) {
+	iput(op);
+	n++;
     }
 
-    public interface Request {
-	public void run(GL2 gl);
+    private void iput(int v) {
+	if(in >= ibuf.length)
+	    ibuf = Utils.extend(ibuf, ibuf.length * 2);
+	ibuf[in++] = v;
+    }
+
+    private void fput(float v) {
+	if(fn >= fbuf.length)
+	    fbuf = Utils.extend(fbuf, fbuf.length * 2);
+	fbuf[fn++] = v;
     }
 
-    private Command[] list;
-    private int n = 0;
+    private void lput(long v) {
+	if(ln >= lbuf.length)
+	    lbuf = Utils.extend(lbuf, lbuf.length * 2);
+	lbuf[ln++] = v;
+    }
 
-    public BGL(int c) {
-	list = new Command[c];
+    private void rput(Object v) {
+	if(rn >= rbuf.length)
+	    rbuf = Utils.extend(rbuf, rbuf.length * 2);
+	rbuf[rn++] = v;
     }
-    public BGL() {this(128);}
 
-    public void run(GL2 gl) {
-	for(int i = 0; i < n; i++) {
-	    try {
-		list[i].run(gl);
-	    } catch(Exception exc) {
-		throw(new BGLException(this, list[i], exc));
+    /* Buffers are replayed with the position and limit they had
+     * when the call was recorded. */
+    private void bput(Buffer buf) {
+	rput(buf);
+	if(buf == null) {
+	    iput(0); iput(0);
+	} else {
+	    iput(buf.position()); iput(buf.limit());
+	}
+    }
+
+    private static Buffer restore(Buffer buf, int position, int limit) {
+	if(buf != null) {
+	    buf.limit(limit);
+	    buf.position(position);
+	}
+	return(buf);
+    }
+
+    /* Forgets all recorded commands, but keeps the arrays for
+     * reuse. */
+    public void reset() {
+	for(int i = 0; i < rn; i++)
+	    rbuf[i] = null;
+	n = in = fn = ln = rn = nreq = 0;
+    }
+
+    public int commands() {
+	return(n);
+    }
+
+    /* Whether any requests have been submitted, which may depend on
+     * what the preceding commands drew. */
+    public boolean requests() {
+	return(nreq > 0);
+    }
+
+    /* Encoded size, counting object references as four bytes. */
+    public int bytes() {
+	return((in * 4) + (fn * 4) + (ln * 8) + (rn * 4));
+    }
+
+    /*
+     * The GL state that a command stream has established so far, as
+     * far as optimize() keeps track of it. Since IDs are only
+     * resolved at replay, objects are identified by their ID
+     * instances, and uniform locations are assumed to belong to the
+     * program in use when they are set.
+     */
+    public static class Shadow {
+	private static final boolean[] inert = new boolean[opsigs.length];
+	static {
+	    int[] ops = {
+		OP_bglCheckErr, OP_bglCopyBufferf, OP_bglCopyBufferf2, OP_glAlphaFunc, OP_glBegin,
+		OP_glBindFramebuffer, OP_glBindRenderbuffer, OP_glBlendEquationSeparate, OP_glBufferData,
+		OP_glClear, OP_glClearColor, OP_glClearDepth, OP_glColor3f, OP_glColor4f, OP_glColor4fv,
+		OP_glColorMask, OP_glColorPointer, OP_glColorPointer2, OP_glDisableVertexAttribArray,
+		OP_glDisableVertexAttribArray2, OP_glDrawBuffer, OP_glDrawBuffers, OP_glDrawArrays,
+		OP_glDrawElementsInstanced, OP_glDrawElements, OP_glDrawRangeElements, OP_glDrawRangeElements2,
+		OP_glEnableVertexAttribArray, OP_glEnableVertexAttribArray2, OP_glEnd, OP_glFogi, OP_glFogf,
+		OP_glFogfv, OP_glFramebufferTexture2D, OP_glFramebufferRenderbuffer, OP_glLightf,
+		OP_glLightfv, OP_glLightModelfv, OP_glLightModeli, OP_glLineWidth, OP_glLoadMatrixf,
+		OP_glMaterialf, OP_glMaterialfv, OP_glMatrixMode, OP_glNormal3f, OP_glNormalPointer,
+		OP_glNormalPointer2, OP_glPixelStorei, OP_glPointSize, OP_glPolygonMode, OP_glPolygonOffset,
+		OP_glReadBuffer, OP_glRenderbufferStorage, OP_glRenderbufferStorageMultisample,
+		OP_glSampleCoverage, OP_glScissor, OP_glTexCoord2f, OP_glTexCoordPointer,
+		OP_glTexCoordPointer2, OP_glTexImage2D, OP_glTexSubImage2D, OP_glTexImage2DMultisample,
+		OP_glTexParameterf, OP_glTexParameteri, OP_glVertex2f, OP_glVertex2i, OP_glVertex3f,
+		OP_glVertex3i, OP_glVertexAttribDivisor, OP_glVertexAttribDivisor2, OP_glVertexAttribPointer,
+		OP_glVertexAttribPointer2, OP_glVertexAttribPointer3, OP_glVertexPointer, OP_glVertexPointer2,
+		OP_glViewport,
+	    };
+	    for(int op : ops)
+		inert[op] = true;
+	}
+	private static final Object NONE = new Object();
+
+	private static class UVal {
+	    int op, iv, len;
+	    float[] fv = new float[4];
+	}
+
+	private int unit;
+	private Object prog;
+	private int sfac, dfac, depthfunc, depthmask;
+	private boolean inlist;
+	private final IntMap<Object> textures = new IntMap<Object>();
+	private final IntMap<Object> buffers = new IntMap<Object>();
+	private final IntMap<Boolean> caps = new IntMap<Boolean>();
+	private final IntMap<Boolean> clients = new IntMap<Boolean>();
+	private final Map<Object, UVal> uniforms = new IdentityHashMap<Object, UVal>();
+
+	public Shadow() {
+	    reset();
+	}
+
+	/* Forgets everything, as the GL state is unknown at the
+	 * start of a frame. */
+	public void reset() {
+	    unit = -1;
+	    prog = null;
+	    sfac = dfac = depthfunc = depthmask = -1;
+	    inlist = false;
+	    textures.clear();
+	    buffers.clear();
+	    caps.clear();
+	    clients.clear();
+	    uniforms.clear();
+	}
+
+	private static boolean set(IntMap<Object> m, int k, Object v) {
+	    if(v == null)
+		v = NONE;
+	    if(m.get(k) == v)
+		return(false);
+	    m.put(k, v);
+	    return(true);
+	}
+
+	private static boolean set(IntMap<Boolean> m, int k, boolean v) {
+	    Boolean p = m.get(k);
+	    if((p != null) && (p == v))
+		return(false);
+	    m.put(k, Boolean.valueOf(v));
+	    return(true);
+	}
+
+	private static boolean unitcap(int cap) {
+	    switch(cap) {
+	    case GL.GL_TEXTURE_2D: case GL2.GL_TEXTURE_1D: case GL2.GL_TEXTURE_3D: case GL.GL_TEXTURE_CUBE_MAP:
+	    case GL2.GL_TEXTURE_GEN_S: case GL2.GL_TEXTURE_GEN_T: case GL2.GL_TEXTURE_GEN_R: case GL2.GL_TEXTURE_GEN_Q:
+		return(true);
+	    }
+	    return(false);
+	}
+
+	private boolean cap(int cap, boolean on) {
+	    if(unitcap(cap)) {
+		if(unit < 0)
+		    return(false);
+		cap |= (unit - GL.GL_TEXTURE0 + 1) << 16;
+	    }
+	    return(!set(caps, cap, on));
+	}
+
+	private static boolean feq(float[] a, int aoff, float[] b, int boff, int len) {
+	    for(int i = 0; i < len; i++) {
+		if(Float.floatToIntBits(a[aoff + i]) != Float.floatToIntBits(b[boff + i]))
+		    return(false);
+	    }
+	    return(true);
+	}
+
+	private boolean uniform(Object loc, int op, int iv, float[] fv, int off, int len) {
+	    if((fv == null) || (off < 0) || (off + len > fv.length)) {
+		uniforms.remove(loc);
+		return(false);
+	    }
+	    UVal u = uniforms.get(loc);
+	    if(u == null)
+		uniforms.put(loc, u = new UVal());
+	    else if((u.op == op) && (u.iv == iv) && (u.len == len) && feq(u.fv, 0, fv, off, len))
+		return(true);
+	    u.op = op; u.iv = iv; u.len = len;
+	    if(u.fv.length < len)
+		u.fv = new float[len];
+	    System.arraycopy(fv, off, u.fv, 0, len);
+	    return(false);
+	}
+
+	/* Whether the command at the given stream positions would
+	 * leave the state as it is. Commands that may change state in
+	 * ways that are not followed make everything unknown. */
+	private boolean redundant(BGL b, int op, int ip, int fp, int rp) {
+	    int[] ib = b.ibuf;
+	    Object[] rb = b.rbuf;
+	    if(inlist) {
+		/* Commands compiled into a display list are not
+		 * executed. */
+		if(op == OP_glEndList) {
+		    reset();
+		}
+		return(false);
+	    }
+	    switch(op) {
+	    case OP_glActiveTexture:
+		if(ib[ip] == unit)
+		    return(true);
+		unit = ib[ip];
+		return(false);
+	    case OP_glBindTexture:
+		if(unit < 0)
+		    return(false);
+		return(!set(textures, ((unit - GL.GL_TEXTURE0) << 16) | (ib[ip] & 0xffff), rb[rp]));
+	    case OP_glUseProgramObjectARB:
+		if((prog != null) && (prog == rb[rp]))
+		    return(true);
+		prog = rb[rp];
+		return(false);
+	    case OP_glBindBuffer:
+		return(!set(buffers, ib[ip], rb[rp]));
+	    case OP_glBindVertexArray:
+		/* The element array binding is part of the VAO. */
+		buffers.clear();
+		return(false);
+	    case OP_glEnable:
+		return(cap(ib[ip], true));
+	    case OP_glDisable:
+		return(cap(ib[ip], false));
+	    case OP_glEnableClientState:
+		return(!set(clients, ib[ip], true));
+	    case OP_glDisableClientState:
+		return(!set(clients, ib[ip], false));
+	    case OP_glBlendFunc:
+		if((ib[ip] == sfac) && (ib[ip + 1] == dfac))
+		    return(true);
+		sfac = ib[ip]; dfac = ib[ip + 1];
+		return(false);
+	    case OP_glDepthFunc:
+		if(ib[ip] == depthfunc)
+		    return(true);
+		depthfunc = ib[ip];
+		return(false);
+	    case OP_glDepthMask:
+		if(ib[ip] == depthmask)
+		    return(true);
+		depthmask = ib[ip];
+		return(false);
+	    case OP_glUniform1i:
+		return(uniform(rb[rp], op, ib[ip], b.fbuf, 0, 0));
+	    case OP_glUniform1f:
+		return(uniform(rb[rp], op, 0, b.fbuf, fp, 1));
+	    case OP_glUniform2f:
+		return(uniform(rb[rp], op, 0, b.fbuf, fp, 2));
+	    case OP_glUniform3f:
+		return(uniform(rb[rp], op, 0, b.fbuf, fp, 3));
+	    case OP_glUniform4f:
+		return(uniform(rb[rp], op, 0, b.fbuf, fp, 4));
+	    case OP_glUniform4fv:
+		return(uniform(rb[rp], op, ib[ip], (float[])rb[rp + 1], ib[ip + 1], ib[ip] * 4));
+	    case OP_glUniformMatrix3fv:
+		return(uniform(rb[rp], op, (ib[ip] << 1) | ib[ip + 1], (float[])rb[rp + 1], ib[ip + 2], ib[ip] * 9));
+	    case OP_glUniformMatrix4fv:
+		return(uniform(rb[rp], op, (ib[ip] << 1) | ib[ip + 1], (float[])rb[rp + 1], ib[ip + 2], ib[ip] * 16));
+	    case OP_glNewList:
+		reset();
+		inlist = true;
+		return(false);
+	    }
+	    if(!inert[op])
+		reset();
+	    return(false);
+	}
+    }
+
+    private static final boolean[] drawop = new boolean[opsigs.length];
+    static {
+	int[] ops = {
+	    OP_glClear, OP_glBegin, OP_glEnd, OP_glVertex2f, OP_glVertex2i, OP_glVertex3f, OP_glVertex3i,
+	    OP_glCallList, OP_glDrawArrays, OP_glDrawElementsInstanced, OP_glDrawElements, OP_glDrawRangeElements,
+	    OP_glDrawRangeElements2,
+	};
+	for(int op : ops)
+	    drawop[op] = true;
+    }
+
+    private int compact(Shadow sh, boolean nodraw) {
+	int ip = 0, fp = 0, lp = 0, rp = 0;
+	int wi = 0, wf = 0, wl = 0, wr = 0, wn = 0;
+	boolean inlist = false;
+	for(int ci = 0; ci < n; ci++) {
+	    int op = ibuf[ip];
+	    int ni = opni[op] + 1, nf = opnf[op], nl = opnl[op], nr = opnr[op];
+	    if(op == OP_glNewList)
+		inlist = true;
+	    else if(op == OP_glEndList)
+		inlist = false;
+	    /* What is compiled into a display list is kept with it, so
+	     * it must never be dropped even if the frame is skipped. */
+	    boolean drop = (nodraw && !inlist && drawop[op]) || ((sh != null) && sh.redundant(this, op, ip + 1, fp, rp));
+	    if(!drop) {
+		if(wi != ip) {
+		    for(int i = 0; i < ni; i++) ibuf[wi + i] = ibuf[ip + i];
+		    for(int i = 0; i < nf; i++) fbuf[wf + i] = fbuf[fp + i];
+		    for(int i = 0; i < nl; i++) lbuf[wl + i] = lbuf[lp + i];
+		    for(int i = 0; i < nr; i++) rbuf[wr + i] = rbuf[rp + i];
+		}
+		wi += ni; wf += nf; wl += nl; wr += nr;
+		wn++;
 	    }
+	    ip += ni; fp += nf; lp += nl; rp += nr;
 	}
+	for(int i = wr; i < rn; i++)
+	    rbuf[i] = null;
+	int ret = n - wn;
+	n = wn; in = wi; fn = wf; ln = wl; rn = wr;
+	return(ret);
     }
 
-    private void add(Command cmd) {
-	if(n >= list.length)
-	    list = Utils.extend(list, list.length * 2);
-	list[n++] = cmd;
+    /* Drops commands that would not change the GL state, and
+     * returns how many were dropped. The state at the start is
+     * taken to be unknown. */
+    public int optimize(Shadow sh) {
+	sh.reset();
+	int ret = compact(sh, false);
+	sh.reset();
+	return(ret);
+    }
+
+    /* Drops everything that draws, but keeps what changes GL state
+     * or manages GL objects, so that a frame can be skipped without
+     * invalidating what later frames assume about the state. Frames
+     * with requests() should be drawn in full instead. */
+    public int stripdraws() {
+	return(compact(null, true));
+    }
+
+    public static class Pool {
+	private final BGL[] free;
+	private int nfree = 0;
+
+	public Pool(int size) {
+	    free = new BGL[size];
+	}
+
+	public BGL get() {
+	    synchronized(this) {
+		if(nfree > 0) {
+		    BGL ret = free[--nfree];
+		    free[nfree] = null;
+		    return(ret);
+		}
+	    }
+	    return(new BGL());
+	}
+
+	public void put(BGL buf) {
+	    buf.reset();
+	    synchronized(this) {
+		if(nfree < free.length)
+		    free[nfree++] = buf;
+	    }
+	}
     }
 
     public static class BGLException extends RuntimeException {
 	public final Dump dump;
 
-	public BGLException(BGL buf, Command mark, Throwable cause) {
+	public BGLException(BGL buf, int mark, Throwable cause) {
 	    super(cause);
 	    dump = new Dump(buf, mark);
 	}
     }
 
     public void bglCheckErr() {
-	final Throwable place = null;
-	add(new Command() {
-		public void run(GL2 gl) {
-		    GOut.checkerr(gl);
-		}
-	    });
+	op(OP_bglCheckErr);
     }
 
-    public void bglCreate(final GLObject ob) {
-	add(new Command() {
-		public void run(GL2 gl) {ob.create(gl);}
-	    });
+    public void bglCreate(GLObject ob) {
+	op(OP_bglCreate);
+	rput(ob);
     }
 
-    public void bglSubmit(final Request req) {
-	add(new Command() {
-		public void run(GL2 gl) {req.run(gl);}
-	    });
+    public void bglSubmit(Request req) {
+	op(OP_bglSubmit);
+	rput(req);
+	nreq++;
     }
 
-    public void bglCopyBufferf(final FloatBuffer dst, final int doff, final FloatBuffer src, final int soff, final int len) {
-	add(new Command() {
-		public void run(GL2 gl) {
-		    dst.position(doff);
-		    src.position(soff).limit(len);
-		    dst.put(src);
-		    dst.rewind();
-		    src.rewind().limit(src.capacity());
-		}
-	    });
+    public void bglCopyBufferf(FloatBuffer dst, int doff, FloatBuffer src, int soff, int len) {
+	op(OP_bglCopyBufferf);
+	rput(dst);
+	iput(doff);
+	rput(src);
+	iput(soff);
+	iput(len);
     }
 
-    public void bglCopyBufferf(final FloatBuffer dst, final int doff, final float[] src, final int soff, final int len) {
-	add(new Command() {
-		public void run(GL2 gl) {
-		    dst.position(doff);
-		    dst.put(src, soff, len);
-		    dst.rewind();
-		}
-	    });
+    public void bglCopyBufferf(FloatBuffer dst, int doff, float[] src, int soff, int len) {
+	op(OP_bglCopyBufferf2);
+	rput(dst);
+	iput(doff);
+	rput(src);
+	iput(soff);
+	iput(len);
     }
 
-    public void glActiveTexture(final int texture) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glActiveTexture(texture);}
-	    });
+    public void glActiveTexture(int texture) {
+	op(OP_glActiveTexture);
+	iput(texture);
     }
 
-    public void glAlphaFunc(final int func, final float val) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glAlphaFunc(func, val);}
-	    });
+    public void glAlphaFunc(int func, float val) {
+	op(OP_glAlphaFunc);
+	iput(func);
+	fput(val);
     }
 
-    public void glAttachShader(final ID program, final ID shader) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glAttachShader(program.glid(), shader.glid());}
-	    });
+    public void glAttachShader(ID program, ID shader) {
+	op(OP_glAttachShader);
+	rput(program);
+	rput(shader);
     }
 
-    public void glBegin(final int mode) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glBegin(mode);}
-	    });
+    public void glBegin(int mode) {
+	op(OP_glBegin);
+	iput(mode);
     }
 
-    public void glBindBuffer(final int target, final ID buffer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glBindBuffer(target, (buffer == null)?0:buffer.glid());}
-	    });
+    public void glBindBuffer(int target, ID buffer) {
+	op(OP_glBindBuffer);
+	iput(target);
+	rput(buffer);
     }
 
-    public void glBindFramebuffer(final int target, final ID buffer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glBindFramebuffer(target, (buffer == null)?0:buffer.glid());}
-	    });
+    public void glBindFramebuffer(int target, ID buffer) {
+	op(OP_glBindFramebuffer);
+	iput(target);
+	rput(buffer);
     }
 
-    public void glBindRenderbuffer(final int target, final ID buffer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glBindRenderbuffer(target, (buffer == null)?0:buffer.glid());}
-	    });
+    public void glBindRenderbuffer(int target, ID buffer) {
+	op(OP_glBindRenderbuffer);
+	iput(target);
+	rput(buffer);
     }
 
-    public void glBindTexture(final int target, final ID texture) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glBindTexture(target, (texture == null)?0:texture.glid());}
-	    });
+    public void glBindTexture(int target, ID texture) {
+	op(OP_glBindTexture);
+	iput(target);
+	rput(texture);
     }
 
-    public void glBindVertexArray(final ID array) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glBindVertexArray((array == null)?0:array.glid());}
-	    });
+    public void glBindVertexArray(ID array) {
+	op(OP_glBindVertexArray);
+	rput(array);
     }
 
-    public void glBlendEquationSeparate(final int cmode, final int amode) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glBlendEquationSeparate(cmode, amode);}
-	    });
+    public void glBlendEquationSeparate(int cmode, int amode) {
+	op(OP_glBlendEquationSeparate);
+	iput(cmode);
+	iput(amode);
     }
 
-    public void glBlendFunc(final int sfac, final int dfac) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glBlendFunc(sfac, dfac);}
-	    });
+    public void glBlendFunc(int sfac, int dfac) {
+	op(OP_glBlendFunc);
+	iput(sfac);
+	iput(dfac);
     }
 
-    public void glBufferData(final int target, final long size, Buffer data, final int usage) {
-	final BufState ds = new BufState(data);
-	add(new Command() {
-		public void run(GL2 gl) {ds.restore(); gl.glBufferData(target, size, ds.buf, usage);}
-	    });
+    public void glBufferData(int target, long size, Buffer data, int usage) {
+	op(OP_glBufferData);
+	iput(target);
+	lput(size);
+	bput(data);
+	iput(usage);
     }
 
-    public void glCallList(final ID list) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glCallList(list.glid());}
-	    });
+    public void glCallList(ID list) {
+	op(OP_glCallList);
+	rput(list);
     }
 
-    public void glClear(final int mask) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glClear(mask);}
-	    });
+    public void glClear(int mask) {
+	op(OP_glClear);
+	iput(mask);
     }
 
-    public void glClearColor(final float r, final float g, final float b, final float a) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glClearColor(r, g, b, a);}
-	    });
+    public void glClearColor(float r, float g, float b, float a) {
+	op(OP_glClearColor);
+	fput(r);
+	fput(g);
+	fput(b);
+	fput(a);
     }
 
-    public void glClearDepth(final double d) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glClearDepth(d);}
-	    });
+    public void glClearDepth(double d) {
+	op(OP_glClearDepth);
+	lput(Double.doubleToRawLongBits(d));
     }
 
-    public void glColor3f(final float r, final float g, final float b) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glColor3f(r, g, b);}
-	    });
+    public void glColor3f(float r, float g, float b) {
+	op(OP_glColor3f);
+	fput(r);
+	fput(g);
+	fput(b);
     }
 
-    public void glColor4f(final float r, final float g, final float b, final float a) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glColor4f(r, g, b, a);}
-	    });
+    public void glColor4f(float r, float g, float b, float a) {
+	op(OP_glColor4f);
+	fput(r);
+	fput(g);
+	fput(b);
+	fput(a);
     }
 
-    public void glColor4fv(final float[] v, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glColor4fv(v, n);}
-	    });
+    public void glColor4fv(float[] v, int n) {
+	op(OP_glColor4fv);
+	rput(v);
+	iput(n);
     }
 
-    public void glColorMask(final boolean r, final boolean g, final boolean b, final boolean a) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glColorMask(r, g, b, a);}
-	    });
+    public void glColorMask(boolean r, boolean g, boolean b, boolean a) {
+	op(OP_glColorMask);
+	iput(r?1:0);
+	iput(g?1:0);
+	iput(b?1:0);
+	iput(a?1:0);
     }
 
-    public void glColorPointer(final int size, final int type, final int stride, final long pointer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glColorPointer(size, type, stride, pointer);}
-	    });
+    public void glColorPointer(int size, int type, int stride, long pointer) {
+	op(OP_glColorPointer);
+	iput(size);
+	iput(type);
+	iput(stride);
+	lput(pointer);
     }
 
-    public void glColorPointer(final int size, final int type, final int stride, Buffer data) {
-	final BufState ds = new BufState(data);
-	add(new Command() {
-		public void run(GL2 gl) {ds.restore(); gl.glColorPointer(size, type, stride, ds.buf);}
-	    });
+    public void glColorPointer(int size, int type, int stride, Buffer data) {
+	op(OP_glColorPointer2);
+	iput(size);
+	iput(type);
+	iput(stride);
+	bput(data);
     }
 
-    public void glCompileShaderARB(final ID shader) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glCompileShaderARB(shader.glid());}
-	    });
+    public void glCompileShaderARB(ID shader) {
+	op(OP_glCompileShaderARB);
+	rput(shader);
     }
 
-    public void glDeleteBuffers(final int count, final ID[] buffers, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {
-		    int[] buf = new int[buffers.length];
-		    for(int i = 0; i < buf.length; i++)
-			buf[i] = buffers[i].glid();
-		    gl.glDeleteBuffers(count, buf, n);
-		}
-	    });
+    public void glDeleteBuffers(int count, ID[] buffers, int n) {
+	op(OP_glDeleteBuffers);
+	iput(count);
+	rput(buffers);
+	iput(n);
     }
 
-    public void glDeleteFramebuffers(final int count, final ID[] buffers, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {
-		    int[] buf = new int[buffers.length];
-		    for(int i = 0; i < buf.length; i++)
-			buf[i] = buffers[i].glid();
-		    gl.glDeleteFramebuffers(count, buf, n);
-		}
-	    });
+    public void glDeleteFramebuffers(int count, ID[] buffers, int n) {
+	op(OP_glDeleteFramebuffers);
+	iput(count);
+	rput(buffers);
+	iput(n);
     }
 
-    public void glDeleteLists(final ID list, final int range) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDeleteLists(list.glid(), range);}
-	    });
+    public void glDeleteLists(ID list, int range) {
+	op(OP_glDeleteLists);
+	rput(list);
+	iput(range);
     }
 
-    public void glDeleteObjectARB(final ID id) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDeleteObjectARB(id.glid());}
-	    });
+    public void glDeleteObjectARB(ID id) {
+	op(OP_glDeleteObjectARB);
+	rput(id);
     }
 
-    public void glDeleteRenderbuffers(final int count, final ID[] buffers, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {
-		    int[] buf = new int[buffers.length];
-		    for(int i = 0; i < buf.length; i++)
-			buf[i] = buffers[i].glid();
-		    gl.glDeleteRenderbuffers(count, buf, n);
-		}
-	    });
+    public void glDeleteRenderbuffers(int count, ID[] buffers, int n) {
+	op(OP_glDeleteRenderbuffers);
+	iput(count);
+	rput(buffers);
+	iput(n);
     }
 
-    public void glDeleteTextures(final int count, final ID[] buffers, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {
-		    int[] buf = new int[buffers.length];
-		    for(int i = 0; i < buf.length; i++)
-			buf[i] = buffers[i].glid();
-		    gl.glDeleteTextures(count, buf, n);
-		}
-	    });
+    public void glDeleteTextures(int count, ID[] buffers, int n) {
+	op(OP_glDeleteTextures);
+	iput(count);
+	rput(buffers);
+	iput(n);
     }
 
-    public void glDeleteVertexArrays(final int count, final ID[] buffers, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {
-		    int[] buf = new int[buffers.length];
-		    for(int i = 0; i < buf.length; i++)
-			buf[i] = buffers[i].glid();
-		    gl.glDeleteVertexArrays(count, buf, n);
-		}
-	    });
+    public void glDeleteVertexArrays(int count, ID[] buffers, int n) {
+	op(OP_glDeleteVertexArrays);
+	iput(count);
+	rput(buffers);
+	iput(n);
     }
 
-    public void glDepthFunc(final int func) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDepthFunc(func);}
-	    });
+    public void glDepthFunc(int func) {
+	op(OP_glDepthFunc);
+	iput(func);
     }
 
-    public void glDepthMask(final boolean mask) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDepthMask(mask);}
-	    });
+    public void glDepthMask(boolean mask) {
+	op(OP_glDepthMask);
+	iput(mask?1:0);
     }
 
-    public void glDisable(final int cap) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDisable(cap);}
-	    });
+    public void glDisable(int cap) {
+	op(OP_glDisable);
+	iput(cap);
     }
 
-    public void glDisableClientState(final int cap) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDisableClientState(cap);}
-	    });
+    public void glDisableClientState(int cap) {
+	op(OP_glDisableClientState);
+	iput(cap);
     }
 
-    public void glDisableVertexAttribArray(final ID location) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDisableVertexAttribArray(location.glid());}
-	    });
+    public void glDisableVertexAttribArray(ID location) {
+	op(OP_glDisableVertexAttribArray);
+	rput(location);
     }
 
-    public void glDisableVertexAttribArray(final ID location, final int offset) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDisableVertexAttribArray(location.glid() + offset);}
-	    });
+    public void glDisableVertexAttribArray(ID location, int offset) {
+	op(OP_glDisableVertexAttribArray2);
+	rput(location);
+	iput(offset);
     }
 
-    public void glDrawBuffer(final int buf) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDrawBuffer(buf);}
-	    });
+    public void glDrawBuffer(int buf) {
+	op(OP_glDrawBuffer);
+	iput(buf);
     }
 
-    public void glDrawBuffers(final int n, final int[] bufs, final int i) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDrawBuffers(n, bufs, i);}
-	    });
+    public void glDrawBuffers(int n, int[] bufs, int i) {
+	op(OP_glDrawBuffers);
+	iput(n);
+	rput(bufs);
+	iput(i);
     }
 
-    public void glDrawArrays(final int mode, final int first, final int count) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDrawArrays(mode, first, count);}
-	    });
+    public void glDrawArrays(int mode, int first, int count) {
+	op(OP_glDrawArrays);
+	iput(mode);
+	iput(first);
+	iput(count);
     }
 
-    public void glDrawElementsInstanced(final int mode, final int count, final int type, final long indices, final int primcount) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDrawElementsInstanced(mode, count, type, indices, primcount);}
-	    });
+    public void glDrawElementsInstanced(int mode, int count, int type, long indices, int primcount) {
+	op(OP_glDrawElementsInstanced);
+	iput(mode);
+	iput(count);
+	iput(type);
+	lput(indices);
+	iput(primcount);
     }
 
-    public void glDrawElements(final int mode, final int count, final int type, Buffer indices) {
-	final BufState is = new BufState(indices);
-	add(new Command() {
-		public void run(GL2 gl) {is.restore(); gl.glDrawElements(mode, count, type, is.buf);}
-	    });
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+	op(OP_glDrawElements);
+	iput(mode);
+	iput(count);
+	iput(type);
+	bput(indices);
     }
 
-    public void glDrawRangeElements(final int mode, final int start, final int end, final int count, final int type, Buffer indices) {
-	final BufState is = new BufState(indices);
-	add(new Command() {
-		public void run(GL2 gl) {is.restore(); gl.glDrawRangeElements(mode, start, end, count, type, is.buf);}
-	    });
+    public void glDrawRangeElements(int mode, int start, int end, int count, int type, Buffer indices) {
+	op(OP_glDrawRangeElements);
+	iput(mode);
+	iput(start);
+	iput(end);
+	iput(count);
+	iput(type);
+	bput(indices);
     }
 
-    public void glDrawRangeElements(final int mode, final int start, final int end, final int count, final int type, final long indices) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glDrawRangeElements(mode, start, end, count, type, indices);}
-	    });
+    public void glDrawRangeElements(int mode, int start, int end, int count, int type, long indices) {
+	op(OP_glDrawRangeElements2);
+	iput(mode);
+	iput(start);
+	iput(end);
+	iput(count);
+	iput(type);
+	lput(indices);
     }
 
-    public void glEnable(final int cap) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glEnable(cap);}
-	    });
+    public void glEnable(int cap) {
+	op(OP_glEnable);
+	iput(cap);
     }
 
-    public void glEnableClientState(final int cap) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glEnableClientState(cap);}
-	    });
+    public void glEnableClientState(int cap) {
+	op(OP_glEnableClientState);
+	iput(cap);
     }
 
-    public void glEnableVertexAttribArray(final ID location) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glEnableVertexAttribArray(location.glid());}
-	    });
+    public void glEnableVertexAttribArray(ID location) {
+	op(OP_glEnableVertexAttribArray);
+	rput(location);
     }
 
-    public void glEnableVertexAttribArray(final ID location, final int offset) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glEnableVertexAttribArray(location.glid() + offset);}
-	    });
+    public void glEnableVertexAttribArray(ID location, int offset) {
+	op(OP_glEnableVertexAttribArray2);
+	rput(location);
+	iput(offset);
     }
 
     public void glEnd() {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glEnd();}
-	    });
+	op(OP_glEnd);
     }
 
     public void glEndList() {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glEndList();}
-	    });
-    }
-
-    public void glFogi(final int pname, final int param) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glFogi(pname, param);}
-	    });
+	op(OP_glEndList);
     }
 
-    public void glFogf(final int pname, final float param) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glFogf(pname, param);}
-	    });
+    public void glFogi(int pname, int param) {
+	op(OP_glFogi);
+	iput(pname);
+	iput(param);
     }
 
-    public void glFogfv(final int pname, final float[] param, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glFogfv(pname, param, n);}
-	    });
+    public void glFogf(int pname, float param) {
+	op(OP_glFogf);
+	iput(pname);
+	fput(param);
     }
 
-    public void glFramebufferTexture2D(final int target, final int attachment, final int textarget, final ID texture, final int level) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glFramebufferTexture2D(target, attachment, textarget, texture.glid(), level);}
-	    });
+    public void glFogfv(int pname, float[] param, int n) {
+	op(OP_glFogfv);
+	iput(pname);
+	rput(param);
+	iput(n);
     }
 
-    public void glFramebufferRenderbuffer(final int target, final int attachment, final int rbtarget, final ID renderbuffer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glFramebufferRenderbuffer(target, attachment, rbtarget, renderbuffer.glid());}
-	    });
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, ID texture, int level) {
+	op(OP_glFramebufferTexture2D);
+	iput(target);
+	iput(attachment);
+	iput(textarget);
+	rput(texture);
+	iput(level);
     }
 
-    public void glLightf(final int light, final int pname, final float param) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glLightf(light, pname, param);}
-	    });
+    public void glFramebufferRenderbuffer(int target, int attachment, int rbtarget, ID renderbuffer) {
+	op(OP_glFramebufferRenderbuffer);
+	iput(target);
+	iput(attachment);
+	iput(rbtarget);
+	rput(renderbuffer);
     }
 
-    public void glLightfv(final int light, final int pname, final float[] param, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glLightfv(light, pname, param, n);}
-	    });
+    public void glLightf(int light, int pname, float param) {
+	op(OP_glLightf);
+	iput(light);
+	iput(pname);
+	fput(param);
     }
 
-    public void glLightModelfv(final int pname, final float[] param, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glLightModelfv(pname, param, n);}
-	    });
+    public void glLightfv(int light, int pname, float[] param, int n) {
+	op(OP_glLightfv);
+	iput(light);
+	iput(pname);
+	rput(param);
+	iput(n);
     }
 
-    public void glLightModeli(final int pname, final int param) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glLightModeli(pname, param);}
-	    });
+    public void glLightModelfv(int pname, float[] param, int n) {
+	op(OP_glLightModelfv);
+	iput(pname);
+	rput(param);
+	iput(n);
     }
 
-    public void glLineWidth(final float w) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glLineWidth(w);}
-	    });
+    public void glLightModeli(int pname, int param) {
+	op(OP_glLightModeli);
+	iput(pname);
+	iput(param);
     }
 
-    public void glLinkProgram(final ID program) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glLinkProgram(program.glid());}
-	    });
+    public void glLineWidth(float w) {
+	op(OP_glLineWidth);
+	fput(w);
     }
 
-    public void glLoadMatrixf(final float[] m, final int i) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glLoadMatrixf(m, i);}
-	    });
+    public void glLinkProgram(ID program) {
+	op(OP_glLinkProgram);
+	rput(program);
     }
 
-    public void glMaterialf(final int face, final int pname, final float param) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glMaterialf(face, pname, param);}
-	    });
+    public void glLoadMatrixf(float[] m, int i) {
+	op(OP_glLoadMatrixf);
+	rput(m);
+	iput(i);
     }
 
-    public void glMaterialfv(final int face, final int pname, final float[] param, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glMaterialfv(face, pname, param, n);}
-	    });
+    public void glMaterialf(int face, int pname, float param) {
+	op(OP_glMaterialf);
+	iput(face);
+	iput(pname);
+	fput(param);
     }
 
-    public void glMatrixMode(final int mode) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glMatrixMode(mode);}
-	    });
+    public void glMaterialfv(int face, int pname, float[] param, int n) {
+	op(OP_glMaterialfv);
+	iput(face);
+	iput(pname);
+	rput(param);
+	iput(n);
     }
 
-    public void glNewList(final ID list, final int mode) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glNewList(list.glid(), mode);}
-	    });
+    public void glMatrixMode(int mode) {
+	op(OP_glMatrixMode);
+	iput(mode);
     }
 
-    public void glNormal3f(final float x, final float y, final float z) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glNormal3f(x, y, z);}
-	    });
+    public void glNewList(ID list, int mode) {
+	op(OP_glNewList);
+	rput(list);
+	iput(mode);
     }
 
-    public void glNormalPointer(final int type, final int stride, final long pointer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glNormalPointer(type, stride, pointer);}
-	    });
+    public void glNormal3f(float x, float y, float z) {
+	op(OP_glNormal3f);
+	fput(x);
+	fput(y);
+	fput(z);
     }
 
-    public void glNormalPointer(final int type, final int stride, Buffer data) {
-	final BufState ds = new BufState(data);
-	add(new Command() {
-		public void run(GL2 gl) {ds.restore(); gl.glNormalPointer(type, stride, ds.buf);}
-	    });
+    public void glNormalPointer(int type, int stride, long pointer) {
+	op(OP_glNormalPointer);
+	iput(type);
+	iput(stride);
+	lput(pointer);
     }
 
-    public void glPixelStorei(final int pname, final int param) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glPixelStorei(pname, param);}
-	    });
+    public void glNormalPointer(int type, int stride, Buffer data) {
+	op(OP_glNormalPointer2);
+	iput(type);
+	iput(stride);
+	bput(data);
     }
 
-    public void glPointSize(final float size) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glPointSize(size);}
-	    });
+    public void glPixelStorei(int pname, int param) {
+	op(OP_glPixelStorei);
+	iput(pname);
+	iput(param);
     }
 
-    public void glPolygonMode(final int face, final int mode) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glPolygonMode(face, mode);}
-	    });
+    public void glPointSize(float size) {
+	op(OP_glPointSize);
+	fput(size);
     }
 
-    public void glPolygonOffset(final float factor, final float units) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glPolygonOffset(factor, units);}
-	    });
+    public void glPolygonMode(int face, int mode) {
+	op(OP_glPolygonMode);
+	iput(face);
+	iput(mode);
     }
 
-    public void glReadBuffer(final int buf) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glReadBuffer(buf);}
-	    });
+    public void glPolygonOffset(float factor, float units) {
+	op(OP_glPolygonOffset);
+	fput(factor);
+	fput(units);
     }
 
-    public void glRenderbufferStorage(final int target, final int format, final int width, final int height) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glRenderbufferStorage(target, format, width, height);}
-	    });
+    public void glReadBuffer(int buf) {
+	op(OP_glReadBuffer);
+	iput(buf);
     }
 
-    public void glRenderbufferStorageMultisample(final int target, final int samples, final int format, final int width, final int height) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glRenderbufferStorageMultisample(target, samples, format, width, height);}
-	    });
+    public void glRenderbufferStorage(int target, int format, int width, int height) {
+	op(OP_glRenderbufferStorage);
+	iput(target);
+	iput(format);
+	iput(width);
+	iput(height);
     }
 
-    public void glSampleCoverage(final float value, final boolean invert) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glSampleCoverage(value, invert);}
-	    });
+    public void glRenderbufferStorageMultisample(int target, int samples, int format, int width, int height) {
+	op(OP_glRenderbufferStorageMultisample);
+	iput(target);
+	iput(samples);
+	iput(format);
+	iput(width);
+	iput(height);
     }
 
-    public void glScissor(final int x, final int y, final int w, final int h) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glScissor(x, y, w, h);}
-	    });
+    public void glSampleCoverage(float value, boolean invert) {
+	op(OP_glSampleCoverage);
+	fput(value);
+	iput(invert?1:0);
     }
 
-    public void glShaderSourceARB(final ID shader, final int count, final String[] string, final int[] length, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glShaderSourceARB(shader.glid(), count, string, length, n);}
-	    });
+    public void glScissor(int x, int y, int w, int h) {
+	op(OP_glScissor);
+	iput(x);
+	iput(y);
+	iput(w);
+	iput(h);
     }
 
-    public void glTexCoord2f(final float s, final float t) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glTexCoord2f(s, t);}
-	    });
+    public void glShaderSourceARB(ID shader, int count, String[] string, int[] length, int n) {
+	op(OP_glShaderSourceARB);
+	rput(shader);
+	iput(count);
+	rput(string);
+	rput(length);
+	iput(n);
     }
 
-    public void glTexCoordPointer(final int size, final int type, final int stride, final long pointer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glTexCoordPointer(size, type, stride, pointer);}
-	    });
+    public void glTexCoord2f(float s, float t) {
+	op(OP_glTexCoord2f);
+	fput(s);
+	fput(t);
     }
 
-    public void glTexCoordPointer(final int size, final int type, final int stride, Buffer data) {
-	final BufState ds = new BufState(data);
-	add(new Command() {
-		public void run(GL2 gl) {ds.restore(); gl.glTexCoordPointer(size, type, stride, ds.buf);}
-	    });
+    public void glTexCoordPointer(int size, int type, int stride, long pointer) {
+	op(OP_glTexCoordPointer);
+	iput(size);
+	iput(type);
+	iput(stride);
+	lput(pointer);
     }
 
-    public void glTexImage2D(final int target, final int level, final int internalformat, final int width, final int height, final int border, final int format, final int type, Buffer data) {
-	final BufState ds = new BufState(data);
-	add(new Command() {
-		public void run(GL2 gl) {ds.restore(); gl.glTexImage2D(target, level, internalformat, width, height, border, format, type, ds.buf);}
-	    });
+    public void glTexCoordPointer(int size, int type, int stride, Buffer data) {
+	op(OP_glTexCoordPointer2);
+	iput(size);
+	iput(type);
+	iput(stride);
+	bput(data);
     }
 
-    public void glTexSubImage2D(final int target, final int level, final int xoff, final int yoff, final int width, final int height, final int format, final int type, Buffer data) {
-	final BufState ds = new BufState(data);
-	add(new Command() {
-		public void run(GL2 gl) {ds.restore(); gl.glTexSubImage2D(target, level, xoff, yoff, width, height, format, type, ds.buf);}
-	    });
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer data) {
+	op(OP_glTexImage2D);
+	iput(target);
+	iput(level);
+	iput(internalformat);
+	iput(width);
+	iput(height);
+	iput(border);
+	iput(format);
+	iput(type);
+	bput(data);
     }
 
-    public void glTexImage2DMultisample(final int target, final int samples, final int internalformat, final int width, final int height, final boolean fixedsamplelocations) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.getGL3bc().glTexImage2DMultisample(target, samples, internalformat, width, height, fixedsamplelocations);}
-	    });
+    public void glTexSubImage2D(int target, int level, int xoff, int yoff, int width, int height, int format, int type, Buffer data) {
+	op(OP_glTexSubImage2D);
+	iput(target);
+	iput(level);
+	iput(xoff);
+	iput(yoff);
+	iput(width);
+	iput(height);
+	iput(format);
+	iput(type);
+	bput(data);
     }
 
-    public void glTexParameterf(final int target, final int pname, final float param) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glTexParameterf(target, pname, param);}
-	    });
+    public void glTexImage2DMultisample(int target, int samples, int internalformat, int width, int height, boolean fixedsamplelocations) {
+	op(OP_glTexImage2DMultisample);
+	iput(target);
+	iput(samples);
+	iput(internalformat);
+	iput(width);
+	iput(height);
+	iput(fixedsamplelocations?1:0);
     }
 
-    public void glTexParameteri(final int target, final int pname, final int param) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glTexParameteri(target, pname, param);}
-	    });
+    public void glTexParameterf(int target, int pname, float param) {
+	op(OP_glTexParameterf);
+	iput(target);
+	iput(pname);
+	fput(param);
     }
 
-    public void glUniform1f(final ID location, final float v0) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glUniform1f(location.glid(), v0);}
-	    });
+    public void glTexParameteri(int target, int pname, int param) {
+	op(OP_glTexParameteri);
+	iput(target);
+	iput(pname);
+	iput(param);
     }
 
-    public void glUniform2f(final ID location, final float v0, final float v1) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glUniform2f(location.glid(), v0, v1);}
-	    });
+    public void glUniform1f(ID location, float v0) {
+	op(OP_glUniform1f);
+	rput(location);
+	fput(v0);
     }
 
-    public void glUniform3f(final ID location, final float v0, final float v1, final float v2) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glUniform3f(location.glid(), v0, v1, v2);}
-	    });
+    public void glUniform2f(ID location, float v0, float v1) {
+	op(OP_glUniform2f);
+	rput(location);
+	fput(v0);
+	fput(v1);
     }
 
-    public void glUniform4f(final ID location, final float v0, final float v1, final float v2, final float v3) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glUniform4f(location.glid(), v0, v1, v2, v3);}
-	    });
+    public void glUniform3f(ID location, float v0, float v1, float v2) {
+	op(OP_glUniform3f);
+	rput(location);
+	fput(v0);
+	fput(v1);
+	fput(v2);
     }
 
-    public void glUniform4fv(final ID location, final int count, final float[] val, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glUniform4fv(location.glid(), count, val, n);}
-	    });
+    public void glUniform4f(ID location, float v0, float v1, float v2, float v3) {
+	op(OP_glUniform4f);
+	rput(location);
+	fput(v0);
+	fput(v1);
+	fput(v2);
+	fput(v3);
     }
 
-    public void glUniform1i(final ID location, final int v0) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glUniform1i(location.glid(), v0);}
-	    });
+    public void glUniform4fv(ID location, int count, float[] val, int n) {
+	op(OP_glUniform4fv);
+	rput(location);
+	iput(count);
+	rput(val);
+	iput(n);
     }
 
-    public void glUniformMatrix3fv(final ID location, final int count, final boolean transpose, final float[] value, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glUniformMatrix3fv(location.glid(), count, transpose, value, n);}
-	    });
-    }
+    public void glUniform1i(ID location, int v0) {
+	op(OP_glUniform1i);
+	rput(location);
+	iput(v0);
+    }
+
+    public void glUniformMatrix3fv(ID location, int count, boolean transpose, float[] value, int n) {
+	op(OP_glUniformMatrix3fv);
+	rput(location);
+	iput(count);
+	iput(transpose?1:0);
+	rput(value);
+	iput(n);
+    }
 
-    public void glUniformMatrix4fv(final ID location, final int count, final boolean transpose, final float[] value, final int n) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glUniformMatrix4fv(location.glid(), count, transpose, value, n);}
-	    });
+    public void glUniformMatrix4fv(ID location, int count, boolean transpose, float[] value, int n) {
+	op(OP_glUniformMatrix4fv);
+	rput(location);
+	iput(count);
+	iput(transpose?1:0);
+	rput(value);
+	iput(n);
     }
 
-    public void glUseProgramObjectARB(final ID program) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glUseProgramObjectARB(program.glid());}
-	    });
+    public void glUseProgramObjectARB(ID program) {
+	op(OP_glUseProgramObjectARB);
+	rput(program);
     }
 
-    public void glVertex2f(final float x, final float y) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glVertex2f(x, y);}
-	    });
+    public void glVertex2f(float x, float y) {
+	op(OP_glVertex2f);
+	fput(x);
+	fput(y);
     }
 
-    public void glVertex2i(final int x, final int y) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glVertex2i(x, y);}
-	    });
+    public void glVertex2i(int x, int y) {
+	op(OP_glVertex2i);
+	iput(x);
+	iput(y);
     }
 
-    public void glVertex3f(final float x, final float y, final float z) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glVertex3f(x, y, z);}
-	    });
+    public void glVertex3f(float x, float y, float z) {
+	op(OP_glVertex3f);
+	fput(x);
+	fput(y);
+	fput(z);
     }
 
-    public void glVertex3i(final int x, final int y, final int z) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glVertex3i(x, y, z);}
-	    });
+    public void glVertex3i(int x, int y, int z) {
+	op(OP_glVertex3i);
+	iput(x);
+	iput(y);
+	iput(z);
     }
 
-    public void glVertexAttribDivisor(final ID location, final int divisor) {
-	add(new Command() {
-		public void run(GL2 gl) {((GL3)gl).glVertexAttribDivisor(location.glid(), divisor);}
-	    });
+    public void glVertexAttribDivisor(ID location, int divisor) {
+	op(OP_glVertexAttribDivisor);
+	rput(location);
+	iput(divisor);
     }
 
-    public void glVertexAttribDivisor(final ID location, final int offset, final int divisor) {
-	add(new Command() {
-		public void run(GL2 gl) {((GL3)gl).glVertexAttribDivisor(location.glid() + offset, divisor);}
-	    });
+    public void glVertexAttribDivisor(ID location, int offset, int divisor) {
+	op(OP_glVertexAttribDivisor2);
+	rput(location);
+	iput(offset);
+	iput(divisor);
     }
 
-    public void glVertexAttribPointer(final ID location, final int size, final int type, final boolean normalized, final int stride, Buffer pointer) {
-	final BufState ps = new BufState(pointer);
-	add(new Command() {
-		public void run(GL2 gl) {ps.restore(); gl.glVertexAttribPointer(location.glid(), size, type, normalized, stride, ps.buf);}
-	    });
+    public void glVertexAttribPointer(ID location, int size, int type, boolean normalized, int stride, Buffer pointer) {
+	op(OP_glVertexAttribPointer);
+	rput(location);
+	iput(size);
+	iput(type);
+	iput(normalized?1:0);
+	iput(stride);
+	bput(pointer);
     }
 
-    public void glVertexAttribPointer(final ID location, final int size, final int type, final boolean normalized, final int stride, final long pointer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glVertexAttribPointer(location.glid(), size, type, normalized, stride, pointer);}
-	    });
+    public void glVertexAttribPointer(ID location, int size, int type, boolean normalized, int stride, long pointer) {
+	op(OP_glVertexAttribPointer2);
+	rput(location);
+	iput(size);
+	iput(type);
+	iput(normalized?1:0);
+	iput(stride);
+	lput(pointer);
     }
 
-    public void glVertexAttribPointer(final ID location, final int offset, final int size, final int type, final boolean normalized, final int stride, final long pointer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glVertexAttribPointer(location.glid() + offset, size, type, normalized, stride, pointer);}
-	    });
+    public void glVertexAttribPointer(ID location, int offset, int size, int type, boolean normalized, int stride, long pointer) {
+	op(OP_glVertexAttribPointer3);
+	rput(location);
+	iput(offset);
+	iput(size);
+	iput(type);
+	iput(normalized?1:0);
+	iput(stride);
+	lput(pointer);
     }
 
-    public void glVertexPointer(final int size, final int type, final int stride, final long pointer) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glVertexPointer(size, type, stride, pointer);}
-	    });
+    public void glVertexPointer(int size, int type, int stride, long pointer) {
+	op(OP_glVertexPointer);
+	iput(size);
+	iput(type);
+	iput(stride);
+	lput(pointer);
     }
 
-    public void glVertexPointer(final int size, final int type, final int stride, Buffer data) {
-	final BufState ds = new BufState(data);
-	add(new Command() {
-		public void run(GL2 gl) {ds.restore(); gl.glVertexPointer(size, type, stride, ds.buf);}
-	    });
+    public void glVertexPointer(int size, int type, int stride, Buffer data) {
+	op(OP_glVertexPointer2);
+	iput(size);
+	iput(type);
+	iput(stride);
+	bput(data);
     }
 
-    public void glViewport(final int x, final int y, final int w, final int h) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.glViewport(x, y, w, h);}
-	    });
+    public void glViewport(int x, int y, int w, int h) {
+	op(OP_glViewport);
+	iput(x);
+	iput(y);
+	iput(w);
+	iput(h);
     }
 
-    public void joglSetSwapInterval(final int swap) {
-	add(new Command() {
-		public void run(GL2 gl) {gl.setSwapInterval(swap);}
-	    });
+    public void joglSetSwapInterval(int swap) {
+	op(OP_joglSetSwapInterval);
+	iput(swap);
     }
 
     public static class Dump implements Serializable {
@@ -852,7 +2263,7 @@ public class BGL {
 	}
 
 	public static class DCmd implements Serializable {
-	    public final String clnm, mnm;
+	    public final String mnm;
 	    public final String[] argn;
 	    public final Object[] args;
 
@@ -873,32 +2284,18 @@ public class BGL {
 		}
 	    }
 
-	    public DCmd(Dump d, Object o) {
-		this.clnm = o.getClass().getName();
-		if(o.getClass().getEnclosingMethod() != null) {
-		    mnm = o.getClass().getEnclosingMethod().getName();
-		} else {
-		    mnm = null;
-		}
-		Field[] fl = o.getClass().getDeclaredFields();
-		argn = new String[fl.length];
-		args = new Object[fl.length];
-		for(int i = 0; i < fl.length; i++) {
-		    Field f = fl[i];
-		    try {
-			f.setAccessible(true);
-		    } catch(SecurityException e) {}
-		    argn[i] = f.getName();
-		    try {
-			args[i] = mapval(d, f.get(o));
-		    } catch(IllegalAccessException e) {}
-		}
+	    public DCmd(Dump d, String mnm, String[] argn, Object[] args) {
+		this.mnm = mnm;
+		this.argn = argn;
+		this.args = new Object[args.length];
+		for(int i = 0; i < args.length; i++)
+		    this.args[i] = mapval(d, args[i]);
 	    }
 
 	    public String toString() {
 		StringBuilder buf = new StringBuilder();
 		buf.append("#<cmd ");
-		buf.append((mnm != null)?mnm:clnm);
+		buf.append(mnm);
 		buf.append("(");
 		for(int i = 0; i < argn.length; i++) {
 		    if(i > 0)
@@ -915,14 +2312,29 @@ public class BGL {
 	    }
 	}
 
-	public Dump(BGL buf, Command mark) {
+	public Dump(BGL buf, int mark) {
 	    int n = buf.n;
 	    this.list = new ArrayList<DCmd>(n);
 	    DCmd marked = null;
+	    int ip = 0, fp = 0, lp = 0, rp = 0;
 	    for(int i = 0; i < n; i++) {
-		DCmd cmd = new DCmd(this, buf.list[i]);
+		int op = buf.ibuf[ip++];
+		String sig = opsigs[op];
+		Object[] args = new Object[sig.length()];
+		for(int o = 0; o < args.length; o++) {
+		    switch(sig.charAt(o)) {
+		    case 'i': args[o] = buf.ibuf[ip++]; break;
+		    case 'z': args[o] = buf.ibuf[ip++] != 0; break;
+		    case 'f': args[o] = buf.fbuf[fp++]; break;
+		    case 'l': args[o] = buf.lbuf[lp++]; break;
+		    case 'd': args[o] = Double.longBitsToDouble(buf.lbuf[lp++]); break;
+		    case 'r': args[o] = buf.rbuf[rp++]; break;
+		    case 'b': args[o] = buf.rbuf[rp++]; ip += 2; break;
+		    }
+		}
+		DCmd cmd = new DCmd(this, opnames[op], opargs[op], args);
 		list.add(cmd);
-		if(buf.list[i] == mark)
+		if(i == mark)
 		    marked = cmd;
 	    }
 	    this.mark = marked;
@@ -128,6 +128,11 @@ public class Composite extends Drawable {
 	comp.tick(dt);
     }
 
+    public boolean idle() {
+	return((comp != null) && (nposes == null) && (tposes == null) && !retainequ &&
+	       (nmod == null) && (nequ == null) && comp.idle());
+    }
+
     public Resource getres() {
 	return(base.get());
     }
@@ -113,6 +113,10 @@ public class Composited implements Rendered {
 	}
 	@Deprecated
 	public void tick(float dt, double v) {tick(dt);}
+
+	public boolean idle() {
+	    return(stat && (ipold <= 0.0f) && (limit < 0));
+	}
 	
 	protected void done() {}
     }
@@ -209,6 +213,10 @@ public class Composited implements Rendered {
 	public void tick(int dt) {
 	    spr.tick(dt);
 	}
+
+	public boolean idle() {
+	    return(spr.idle());
+	}
     }
     
     public class LightEqu extends Equ {
@@ -253,6 +261,10 @@ public class Composited implements Rendered {
 	}
 	
 	public void tick(int dt) {}
+
+	public boolean idle() {
+	    return(true);
+	}
     }
 
     public static class MD implements Cloneable {
@@ -437,6 +449,16 @@ public class Composited implements Rendered {
     @Deprecated
     public void tick(int dt, double v) {tick(dt);}
 
+    public boolean idle() {
+	if((poses != null) && !poses.idle())
+	    return(false);
+	for(Equ equ : this.equ) {
+	    if(!equ.idle())
+		return(false);
+	}
+	return(true);
+    }
+
     public void chmod(List<MD> mod) {
 	if(mod.equals(cmod))
 	    return;
@@ -48,6 +48,13 @@ public class Config {
     public static int mainport = getint("haven.mainport", 1870);
     public static int authport = getint("haven.authport", 1871);
     public static boolean softres = getprop("haven.softres", "on").equals("on");
+    public static int sprintlimit = getint("haven.sprintlimit", 8);
+    public static boolean bglopt = getprop("haven.bglopt", "on").equals("on");
+    public static int framequeue = getint("haven.framequeue", 2);
+    public static boolean framelatest = getprop("haven.framelatest", "off").equals("on");
+    public static int parsetup = getint("haven.parsetup", 0);
+    public static boolean retain = getprop("haven.retain", "on").equals("on");
+    public static boolean progcache = getprop("haven.progcache", "on").equals("on");
     public static byte[] authck = null;
     public static String prefspec = "hafen";
     
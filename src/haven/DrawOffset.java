@@ -27,10 +27,15 @@
 package haven;
 
 public class DrawOffset extends GAttrib {
+    public static final int slot = GAttrib.slot(DrawOffset.class);
     public Coord3f off;
     
     public DrawOffset(Gob gob, Coord3f off) {
 	super(gob);
 	this.off = off;
     }
+
+    public boolean idle() {
+	return(true);
+    }
 }
@@ -27,6 +27,7 @@
 package haven;
 
 public abstract class Drawable extends GAttrib {
+    public static final int slot = GAttrib.slot(Drawable.class);
     public Drawable(Gob gob) {
 	super(gob);
     }
@@ -37,4 +38,11 @@ public abstract class Drawable extends GAttrib {
     public Skeleton.Pose getpose() {
 	return(null);
     }
+
+    /* Returns {r, z1, z2}, such that everything this drawable renders
+     * stays within radius r of the gob and between heights z1 and z2
+     * above it, or null if that is not known. */
+    public float[] bounds() {
+	return(null);
+    }
 }
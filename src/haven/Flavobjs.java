@@ -0,0 +1,278 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import static haven.MCache.tilesz;
+import haven.Resource.Tileset;
+
+/*
+ * The flavor objects of one map cut, stored as packed arrays rather
+ * than as full Gobs. Instances are sorted by a random rank, so that
+ * drawing only a prefix of them thins the cut out evenly and at a
+ * cost proportional to the chosen density.
+ */
+public class Flavobjs implements Rendered.Retained {
+    public final MCache map;
+    public final long id;
+    public final int n;
+    private final List<Indir<Resource>> res;
+    private final int[] ridx, tiles;
+    private final float[] pos, ang;
+    private Location[] locs = null;
+    private GLState[] cst = null, cds = null;
+    private Gob[] gobs = null;
+
+    private Flavobjs(MCache map, long id, List<Indir<Resource>> res, int n, int[] ridx, int[] tiles, float[] pos, float[] ang) {
+	this.map = map;
+	this.id = id;
+	this.res = res;
+	this.n = n;
+	this.ridx = ridx;
+	this.tiles = tiles;
+	this.pos = pos;
+	this.ang = ang;
+    }
+
+    public static Flavobjs build(MCache map, long id, Coord ul, Coord sz, Random rnd) {
+	List<Indir<Resource>> rl = new ArrayList<Indir<Resource>>();
+	Map<Indir<Resource>, Integer> rmap = new HashMap<Indir<Resource>, Integer>();
+	int cn = 0;
+	int[] ridx = new int[16], tiles = new int[16];
+	float[] pos = new float[48], ang = new float[16], rank = new float[16];
+	Coord tc = new Coord();
+	for(tc.y = ul.y; tc.y < ul.y + sz.y; tc.y++) {
+	    for(tc.x = ul.x; tc.x < ul.x + sz.x; tc.x++) {
+		int t = map.gettile(tc);
+		Tileset set = map.tileset(t);
+		int fp = rnd.nextInt();
+		int rp = rnd.nextInt();
+		double a = rnd.nextDouble();
+		if((set.flavobjs.size() < 1) || ((fp % set.flavprob) != 0))
+		    continue;
+		Indir<Resource> r = set.flavobjs.pick(rp % set.flavobjs.tw);
+		Integer ri = rmap.get(r);
+		if(ri == null) {
+		    rmap.put(r, ri = rl.size());
+		    rl.add(r);
+		}
+		if(cn >= ridx.length) {
+		    int nl = ridx.length * 2;
+		    ridx = Utils.extend(ridx, nl); tiles = Utils.extend(tiles, nl);
+		    ang = Utils.extend(ang, nl); rank = Utils.extend(rank, nl);
+		    pos = Utils.extend(pos, nl * 3);
+		}
+		float px = (tc.x * tilesz.x) + (tilesz.x / 2), py = (tc.y * tilesz.y) + (tilesz.y / 2);
+		float pz;
+		try {
+		    pz = map.getcz(px, py);
+		} catch(Loading e) {
+		    /* Neighbouring grids may never arrive at the edge
+		     * of the known map. */
+		    pz = map.getz(tc);
+		}
+		ridx[cn] = ri;
+		tiles[cn] = t;
+		pos[(cn * 3) + 0] = px;
+		pos[(cn * 3) + 1] = py;
+		pos[(cn * 3) + 2] = pz;
+		ang[cn] = (float)(a * 2 * Math.PI);
+		rank[cn] = rnd.nextFloat();
+		cn++;
+	    }
+	}
+	long[] order = new long[cn];
+	for(int i = 0; i < cn; i++)
+	    order[i] = (((long)Float.floatToIntBits(rank[i])) << 32) | i;
+	Arrays.sort(order);
+	int[] sridx = new int[cn], stiles = new int[cn];
+	float[] spos = new float[cn * 3], sang = new float[cn];
+	for(int i = 0; i < cn; i++) {
+	    int o = (int)order[i];
+	    sridx[i] = ridx[o];
+	    stiles[i] = tiles[o];
+	    sang[i] = ang[o];
+	    System.arraycopy(pos, o * 3, spos, i * 3, 3);
+	}
+	return(new Flavobjs(map, id, rl, cn, sridx, stiles, spos, sang));
+    }
+
+    private class Flavobj extends Gob {
+	private Flavobj(int i) {
+	    super(map.sess.glob, new Coord((int)pos[i * 3], (int)pos[(i * 3) + 1]));
+	    this.a = ang[i];
+	    setattr(new ResDrawable(this, res.get(ridx[i]), Message.nil));
+	}
+
+	public Random mkrandoom() {
+	    Random r = new Random(Flavobjs.this.id);
+	    r.setSeed(r.nextInt() ^ rc.x);
+	    r.setSeed(r.nextInt() ^ rc.y);
+	    return(r);
+	}
+    }
+
+    private Location[] locs() {
+	if(locs == null) {
+	    Location[] locs = new Location[n];
+	    for(int i = 0; i < n; i++) {
+		Matrix4f xf = Transform.makerot(new Matrix4f(), Coord3f.zu, -ang[i]);
+		xf.m[12] =  pos[(i * 3) + 0];
+		xf.m[13] = -pos[(i * 3) + 1];
+		xf.m[14] =  pos[(i * 3) + 2];
+		locs[i] = new Location(xf);
+	    }
+	    this.locs = locs;
+	    this.cst = new GLState[n];
+	    this.cds = new GLState[n];
+	}
+	return(locs);
+    }
+
+    private int lt = -1;
+    private GLState lds = null;
+    private boolean whole = false;
+    private int[] kobj = new int[4];
+    private GLState[] kds = new GLState[4];
+    private int nk = 0;
+    private GLState tilestate0(RenderList rl, int i) {
+	Tiler tile;
+	try {
+	    tile = map.tiler(tiles[i]);
+	} catch(Loading e) {
+	    whole = false;
+	    return(null);
+	}
+	return((tile == null)?null:tile.drawstate(map.sess.glob, rl.cfg, pos[i * 3], pos[(i * 3) + 1], pos[(i * 3) + 2]));
+    }
+
+    private GLState tilestate(RenderList rl, int i) {
+	int t = tiles[i];
+	if(t != lt) {
+	    lds = tilestate0(rl, i);
+	    lt = t;
+	    int k;
+	    for(k = 0; (k < nk) && (tiles[kobj[k]] != t); k++);
+	    if(k == nk) {
+		if(nk >= kobj.length) {
+		    kobj = Utils.extend(kobj, nk * 2);
+		    kds = Utils.extend(kds, nk * 2);
+		}
+		kobj[nk] = i;
+		kds[nk] = lds;
+		nk++;
+	    }
+	}
+	return(lds);
+    }
+
+    private GLState state(RenderList rl, int i) {
+	GLState ds = tilestate(rl, i);
+	if(ds == null)
+	    return(locs[i]);
+	if(cds[i] != ds) {
+	    cst[i] = GLState.compose(ds, locs[i]);
+	    cds[i] = ds;
+	}
+	return(cst[i]);
+    }
+
+    public void draw(GOut g) {}
+
+    private int dn(RenderList rl) {
+	return(Math.min((int)(n * rl.cfg.pref.flavdens.val), n));
+    }
+
+    public boolean setup(RenderList rl) {
+	int dn = dn(rl);
+	whole = true;
+	for(int i = 0; i < nk; i++)
+	    kds[i] = null;
+	nk = 0;
+	if(dn < 1)
+	    return(false);
+	locs();
+	lt = -1;
+	for(int i = 0; i < dn; i++) {
+	    Sprite spr;
+	    try {
+		spr = map.flavspr(res.get(ridx[i]));
+	    } catch(Loading e) {
+		whole = false;
+		continue;
+	    }
+	    if(spr != null) {
+		rl.add(spr, state(rl, i));
+	    } else {
+		/* Sprites that depend on their owner's position
+		 * cannot be shared, so these still get a Gob of
+		 * their own. */
+		whole = false;
+		if(gobs == null)
+		    gobs = new Gob[n];
+		if(gobs[i] == null)
+		    gobs[i] = new Flavobj(i);
+		GLState ds = tilestate(rl, i);
+		rl.add(gobs[i], (ds == null)?gobs[i].loc:GLState.compose(ds, gobs[i].loc));
+	    }
+	}
+	return(false);
+    }
+
+    /* Once all sprites have loaded, and unless there are any with
+     * gobs of their own, the same density sets up the same, as long
+     * as the tiles' draw states are the same too. */
+    public Object rkey(RenderList rl) {
+	if(!whole)
+	    return(null);
+	for(int i = 0; i < nk; i++) {
+	    if(tilestate0(rl, kobj[i]) != kds[i])
+		return(null);
+	}
+	return(whole?dn(rl):null);
+    }
+
+    public void kept(GLState.Buffer st) {}
+
+    public void tick(int dt) {
+	if(gobs != null) {
+	    for(Gob g : gobs) {
+		if(g != null)
+		    g.ctick(dt);
+	    }
+	}
+    }
+
+    public void dispose() {
+	if(gobs != null) {
+	    for(Gob g : gobs) {
+		if(g != null)
+		    g.dispose();
+	    }
+	}
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+/*
+ * The clipping planes of a combined projection and camera matrix,
+ * for conservative visibility tests in world coordinates. Every test
+ * takes a sweep vector, along which the tested volume is also
+ * considered visible, so that objects whose shadows may reach into
+ * view are not culled.
+ */
+public class Frustum {
+    private final float[] p = new float[24];
+
+    public Frustum update(Matrix4f xf) {
+	float[] m = xf.m;
+	for(int i = 0; i < 6; i++) {
+	    int r = i / 2;
+	    float s = ((i % 2) == 0)?1:-1;
+	    float a = m[3] + (s * m[r]), b = m[7] + (s * m[4 + r]), c = m[11] + (s * m[8 + r]), d = m[15] + (s * m[12 + r]);
+	    float l = (float)Math.sqrt((a * a) + (b * b) + (c * c));
+	    if(l > 0) {
+		a /= l; b /= l; c /= l; d /= l;
+	    }
+	    p[(i * 4) + 0] = a; p[(i * 4) + 1] = b; p[(i * 4) + 2] = c; p[(i * 4) + 3] = d;
+	}
+	return(this);
+    }
+
+    public boolean sphere(float x, float y, float z, float r, float dx, float dy, float dz) {
+	for(int i = 0; i < 24; i += 4) {
+	    float a = p[i], b = p[i + 1], c = p[i + 2], d = p[i + 3];
+	    float dist = (a * x) + (b * y) + (c * z) + d;
+	    if((dist < -r) && (dist + (a * dx) + (b * dy) + (c * dz) < -r))
+		return(false);
+	}
+	return(true);
+    }
+
+    public boolean box(float x1, float y1, float z1, float x2, float y2, float z2, float dx, float dy, float dz) {
+	for(int i = 0; i < 24; i += 4) {
+	    float a = p[i], b = p[i + 1], c = p[i + 2], d = p[i + 3];
+	    float dist = (a * ((a > 0)?x2:x1)) + (b * ((b > 0)?y2:y1)) + (c * ((c > 0)?z2:z1)) + d;
+	    if((dist < 0) && (dist + (a * dx) + (b * dy) + (c * dz) < 0))
+		return(false);
+	}
+	return(true);
+    }
+}
@@ -26,8 +26,41 @@
 
 package haven;
 
+import java.util.*;
+
 public abstract class GAttrib {
+    private static volatile Map<Class<?>, Integer> slots = new HashMap<Class<?>, Integer>();
+    private static int nslots = 0;
     public final Gob gob;
+
+    /* Returns the slot of the attribute family that the given class
+     * belongs to, that is, of its superclass directly below GAttrib.
+     * Families are numbered as they are first seen, so that gobs can
+     * keep their attributes in a small array. */
+    public static int slot(Class<? extends GAttrib> cl) {
+	Integer ret = slots.get(cl);
+	if(ret != null)
+	    return(ret);
+	synchronized(GAttrib.class) {
+	    if((ret = slots.get(cl)) != null)
+		return(ret);
+	    Class<?> fc = cl;
+	    while(fc.getSuperclass() != GAttrib.class)
+		fc = fc.getSuperclass();
+	    Map<Class<?>, Integer> nm = new HashMap<Class<?>, Integer>(slots);
+	    if((ret = nm.get(fc)) == null)
+		nm.put(fc, ret = nslots++);
+	    nm.put(cl, ret);
+	    slots = nm;
+	    return(ret);
+	}
+    }
+
+    public static int nslots() {
+	synchronized(GAttrib.class) {
+	    return(nslots);
+	}
+    }
 	
     public GAttrib(Gob gob) {
 	this.gob = gob;
@@ -38,6 +71,13 @@ public abstract class GAttrib {
 	
     public void ctick(int dt) {
     }
+
+    /* Whether ctick() would do nothing until the attribute is
+     * changed from outside, so that its gob may be left unticked.
+     * Only attributes known not to tick should say so. */
+    public boolean idle() {
+	return(false);
+    }
     
     public void dispose() {
     }
@@ -36,6 +36,7 @@ public class GLConfig implements java.io.Serializable, Console.Directory {
     public int maxlights;
     public float anisotropy;
     public Collection<String> exts;
+    public String vendor, renderer, version;
     public transient GLCapabilitiesImmutable caps;
     public GLSettings pref;
     
@@ -86,6 +87,9 @@ public class GLConfig implements java.io.Serializable, Console.Directory {
 	}
 	c.maxlights = glgeti(gl, GL2.GL_MAX_LIGHTS);
 	c.exts = Arrays.asList(gl.glGetString(GL.GL_EXTENSIONS).split(" "));
+	c.vendor = glconds(gl, GL.GL_VENDOR);
+	c.renderer = glconds(gl, GL.GL_RENDERER);
+	c.version = glconds(gl, GL.GL_VERSION);
 	c.caps = caps;
 	c.pref = GLSettings.defconf(c);
 	String slv = glconds(gl, GL2.GL_SHADING_LANGUAGE_VERSION);
@@ -121,6 +125,15 @@ public class GLConfig implements java.io.Serializable, Console.Directory {
 	return(exts.contains("GL_EXT_framebuffer_object"));
     }
 
+    public boolean haveprogbin() {
+	return(exts.contains("GL_ARB_get_program_binary") || (glmajver > 4) || ((glmajver == 4) && (glminver >= 1)));
+    }
+
+    /* Identifies the driver, for anything it may have produced. */
+    public String driver() {
+	return(vendor + "\n" + renderer + "\n" + version);
+    }
+
     public void resetprefs() {
 	pref = GLSettings.defconf(this);
 	pref.dirty = true;
@@ -0,0 +1,402 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.security.*;
+import javax.media.opengl.*;
+import haven.GLProgram.ProgOb;
+
+/*
+ * Keeps the program binaries that the driver makes of the GL
+ * programs that are used, where it can, in the resource cache, keyed
+ * by a digest of their sources and by the driver. Linking a program
+ * whose binary is at hand skips compiling it altogether.
+ *
+ * The programs used in a session are remembered, and their binaries
+ * are read in the background at the start of the next one. From
+ * then on, one of them is loaded per frame, as loading a binary is
+ * cheap, and linking a program whose sources match one of those
+ * then takes it over instead. Programs that are not taken over
+ * within a while after all have been loaded are disposed of. Nothing
+ * is compiled ahead of use, and nothing is read from disk as
+ * programs are linked.
+ */
+public class GLProgCache {
+    public static final int WARMMAX = 256;
+    /* Frames after the last warm-up that leftovers are kept for. */
+    public static final int WARMKEEP = 1000;
+    private static final Set<String> used = new LinkedHashSet<String>();
+    private static List<String> prev = Collections.emptyList();
+    private static LinkedList<String> pending = null;
+    private static final Map<String, byte[]> bins = new HashMap<String, byte[]>();
+    private static final Map<String, Warm> warmed = new HashMap<String, Warm>();
+    private static boolean loading = false;
+    private static int keep = WARMKEEP;
+
+    private static class Warm {
+	final String dig;
+	ProgOb ob;
+	CurrentGL cur;
+	/* 0 while loading, 1 when loaded and -1 if that failed. */
+	volatile int state = 0;
+
+	Warm(String dig) {
+	    this.dig = dig;
+	}
+    }
+
+    private static boolean usable() {
+	return(Config.progcache && (ResCache.global != null));
+    }
+
+    private static int type(GLShader sh) {
+	if(sh instanceof GLShader.VertexShader)
+	    return('v');
+	if(sh instanceof GLShader.FragmentShader)
+	    return('f');
+	return(0);
+    }
+
+    private static String hex(byte[] buf) {
+	StringBuilder ret = new StringBuilder();
+	for(byte b : buf)
+	    ret.append(String.format("%02x", b & 0xff));
+	return(ret.toString());
+    }
+
+    private static MessageDigest sha1() {
+	try {
+	    return(MessageDigest.getInstance("SHA-1"));
+	} catch(NoSuchAlgorithmException e) {
+	    throw(new RuntimeException(e));
+	}
+    }
+
+    /* Returns a digest of the sources of PROG, or null if it has
+     * shaders of some unknown kind. */
+    public static String digest(GLProgram prog) {
+	MessageDigest dig = sha1();
+	for(GLShader sh : prog.shaders) {
+	    int t = type(sh);
+	    if(t == 0)
+		return(null);
+	    dig.update((byte)t);
+	    dig.update(sh.source.getBytes(Utils.utf8));
+	    dig.update((byte)0);
+	}
+	return(hex(dig.digest()));
+    }
+
+    private static String binname(GLConfig cfg, String dig) {
+	MessageDigest md = sha1();
+	md.update(cfg.driver().getBytes(Utils.utf8));
+	md.update((byte)0);
+	md.update(dig.getBytes(Utils.utf8));
+	return("glsl/bin/" + hex(md.digest()));
+    }
+
+    private static byte[] fetch(String name) {
+	try {
+	    InputStream in = ResCache.global.fetch(name);
+	    try {
+		return(Utils.readall(in));
+	    } finally {
+		in.close();
+	    }
+	} catch(IOException e) {
+	    return(null);
+	}
+    }
+
+    private static void store(final String name, final byte[] data) {
+	Defer.later(new Defer.Callable<Object>() {
+		public Object call() {
+		    try {
+			OutputStream out = ResCache.global.store(name);
+			try {
+			    out.write(data);
+			} finally {
+			    out.close();
+			}
+		    } catch(IOException e) {
+		    }
+		    return(null);
+		}
+	    });
+    }
+
+    private static String infolog(GL2 gl, int id) {
+	int[] buf = {0};
+	gl.glGetObjectParameterivARB(id, GL2.GL_OBJECT_INFO_LOG_LENGTH_ARB, buf, 0);
+	if(buf[0] <= 0)
+	    return(null);
+	byte[] logbuf = new byte[buf[0]];
+	gl.glGetInfoLogARB(id, logbuf.length, buf, 0, logbuf, 0);
+	return(new String(logbuf, 0, buf[0]));
+    }
+
+    /* Compiles and links PROG into the program object ID, on the GL
+     * thread, with shader objects of its own. Only used where a
+     * binary was refused, as the shaders' own objects cannot be
+     * attached from the GL thread. */
+    private static void compile(GL2 gl, int id, GLProgram prog) {
+	List<Integer> sids = new ArrayList<Integer>();
+	try {
+	    int[] buf = {0};
+	    for(GLShader sh : prog.shaders) {
+		int sid = gl.glCreateShaderObjectARB((type(sh) == 'v')?GL2.GL_VERTEX_SHADER:GL2.GL_FRAGMENT_SHADER);
+		sids.add(sid);
+		gl.glShaderSourceARB(sid, 1, new String[] {sh.source}, new int[] {sh.source.length()}, 0);
+		gl.glCompileShaderARB(sid);
+		gl.glGetObjectParameterivARB(sid, GL2.GL_OBJECT_COMPILE_STATUS_ARB, buf, 0);
+		if(buf[0] != 1)
+		    throw(new GLShader.ShaderException("Failed to compile shader", sh, infolog(gl, sid)));
+		gl.glAttachShader(id, sid);
+	    }
+	    gl.glLinkProgram(id);
+	    gl.glGetObjectParameterivARB(id, GL2.GL_OBJECT_LINK_STATUS_ARB, buf, 0);
+	    if(buf[0] != 1)
+		throw(new GLProgram.LinkException("Failed to link GL program", prog, infolog(gl, id)));
+	} finally {
+	    /* Attached shaders are only flagged for deletion. */
+	    for(int sid : sids)
+		gl.glDeleteObjectARB(sid);
+	}
+    }
+
+    private static boolean loadbin(GL2 gl, int id, byte[] bin) {
+	if(bin.length < 5)
+	    return(false);
+	ByteBuffer buf = Utils.mkbbuf(bin.length - 4);
+	buf.put(bin, 4, bin.length - 4).rewind();
+	gl.glProgramBinary(id, Utils.int32d(bin, 0), buf, bin.length - 4);
+	int[] st = {0};
+	gl.glGetProgramiv(id, GL2ES2.GL_LINK_STATUS, st, 0);
+	if(st[0] != GL.GL_TRUE) {
+	    /* Binaries from other driver versions may be refused
+	     * with errors rather than just a failed link. */
+	    gl.glGetError();
+	    return(false);
+	}
+	return(true);
+    }
+
+    private static void savebin(GL2 gl, int id, GLConfig cfg, String dig) {
+	int[] len = {0}, fmt = {0};
+	gl.glGetProgramiv(id, GL2ES2.GL_PROGRAM_BINARY_LENGTH, len, 0);
+	if(len[0] <= 0)
+	    return;
+	ByteBuffer buf = Utils.mkbbuf(len[0]);
+	gl.glGetProgramBinary(id, len[0], len, 0, fmt, 0, buf);
+	if(len[0] <= 0)
+	    return;
+	byte[] data = new byte[len[0] + 4];
+	Utils.int32e(fmt[0], data, 0);
+	buf.get(data, 4, len[0]);
+	store(binname(cfg, dig), data);
+    }
+
+    private static class Link implements BGL.Request {
+	final ProgOb ob;
+	final GLProgram prog;
+	final String dig;
+	final GLConfig cfg;
+	final byte[] bin;
+	final Warm w;
+
+	Link(ProgOb ob, GLProgram prog, String dig, GLConfig cfg, byte[] bin, Warm w) {
+	    this.ob = ob; this.prog = prog; this.dig = dig;
+	    this.cfg = cfg; this.bin = bin; this.w = w;
+	}
+
+	public void run(GL2 gl) {
+	    int id = ob.glid();
+	    if(w != null) {
+		/* Failures of warm-ups only mean that the program
+		 * has to be linked anew when it is used. */
+		w.state = loadbin(gl, id, bin)?1:-1;
+		return;
+	    }
+	    if(bin == null) {
+		int[] buf = {0};
+		gl.glGetObjectParameterivARB(id, GL2.GL_OBJECT_LINK_STATUS_ARB, buf, 0);
+		if(buf[0] != 1)
+		    throw(new GLProgram.LinkException("Failed to link GL program", prog, infolog(gl, id)));
+	    } else {
+		if(loadbin(gl, id, bin))
+		    return;
+		compile(gl, id, prog);
+	    }
+	    if(cfg.haveprogbin())
+		savebin(gl, id, cfg, dig);
+	}
+    }
+
+    /* Returns a program object for PROG, linked or linking. */
+    public static ProgOb link(GOut g, GLProgram prog) {
+	String dig = usable()?digest(prog):null;
+	if(dig == null) {
+	    ProgOb ob = new ProgOb(g);
+	    ob.link(g, prog);
+	    return(ob);
+	}
+	byte[] bin;
+	synchronized(GLProgCache.class) {
+	    used.add(dig);
+	    Warm w = warmed.remove(dig);
+	    if(w != null) {
+		if((w.cur == g.curgl) && (w.state == 1))
+		    return(w.ob);
+		w.ob.dispose();
+	    }
+	    bin = bins.remove(dig);
+	}
+	ProgOb ob = new ProgOb(g);
+	if(bin == null) {
+	    /* Without a binary, the program attaches the compiled
+	     * objects of its shaders, which other programs share. */
+	    for(GLShader sh : prog.shaders)
+		g.gl.glAttachShader(ob, sh.glid(g));
+	    g.gl.glLinkProgram(ob);
+	}
+	g.gl.bglSubmit(new Link(ob, prog, dig, g.gc, bin, null));
+	return(ob);
+    }
+
+    private static void load(GLConfig cfg) {
+	List<String> prev = new ArrayList<String>();
+	LinkedList<String> pending = new LinkedList<String>();
+	Map<String, byte[]> bins = new HashMap<String, byte[]>();
+	byte[] list = fetch("glsl/warm");
+	if(list != null) {
+	    for(String dig : new String(list, Utils.utf8).split("\n")) {
+		dig = dig.trim();
+		if(dig.length() < 1)
+		    continue;
+		prev.add(dig);
+		if(cfg.haveprogbin()) {
+		    byte[] bin = fetch(binname(cfg, dig));
+		    if(bin != null) {
+			bins.put(dig, bin);
+			pending.add(dig);
+		    }
+		}
+	    }
+	}
+	synchronized(GLProgCache.class) {
+	    GLProgCache.prev = prev;
+	    for(Map.Entry<String, byte[]> e : bins.entrySet()) {
+		if(!used.contains(e.getKey()))
+		    GLProgCache.bins.put(e.getKey(), e.getValue());
+	    }
+	    GLProgCache.pending = pending;
+	}
+    }
+
+    /* Called once every frame, to load the next program binary of
+     * the previous session, if any, and to dispose of those that
+     * were not taken into use a while after the last. */
+    public static void warm(GOut g) {
+	if(!usable())
+	    return;
+	Warm w;
+	byte[] bin;
+	synchronized(GLProgCache.class) {
+	    if(!loading) {
+		loading = true;
+		final GLConfig cfg = g.gc;
+		Defer.later(new Defer.Callable<Object>() {
+			public Object call() {
+			    load(cfg);
+			    return(null);
+			}
+		    });
+		return;
+	    }
+	    if(pending == null)
+		return;
+	    if(pending.isEmpty()) {
+		if((keep > 0) && (--keep == 0)) {
+		    for(Warm lw : warmed.values()) {
+			if(lw.ob != null)
+			    lw.ob.dispose();
+		    }
+		    warmed.clear();
+		    bins.clear();
+		}
+		return;
+	    }
+	    String dig = pending.removeFirst();
+	    if(((bin = bins.remove(dig)) == null) || warmed.containsKey(dig))
+		return;
+	    w = new Warm(dig);
+	    w.cur = g.curgl;
+	    warmed.put(dig, w);
+	}
+	w.ob = new ProgOb(g);
+	g.gl.bglSubmit(new Link(w.ob, null, w.dig, g.gc, bin, w));
+    }
+
+    public static int warmed() {
+	synchronized(GLProgCache.class) {
+	    return(warmed.size());
+	}
+    }
+
+    /* Saves the programs used in this session as those to warm up
+     * in the next, followed by those of the previous session that
+     * went unused. */
+    public static void save() {
+	if(!usable())
+	    return;
+	StringBuilder buf = new StringBuilder();
+	synchronized(GLProgCache.class) {
+	    Set<String> list = new LinkedHashSet<String>(used);
+	    list.addAll(prev);
+	    int n = 0;
+	    for(String dig : list) {
+		if(n++ >= WARMMAX)
+		    break;
+		buf.append(dig);
+		buf.append('\n');
+	    }
+	}
+	try {
+	    OutputStream out = ResCache.global.store("glsl/warm");
+	    try {
+		out.write(buf.toString().getBytes(Utils.utf8));
+	    } finally {
+		out.close();
+	    }
+	} catch(IOException e) {
+	}
+    }
+}
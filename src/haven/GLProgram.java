@@ -143,8 +143,7 @@ public class GLProgram implements java.io.Serializable {
     }
     
     protected void link(GOut g) {
-	glp = new ProgOb(g);
-	glp.link(g, this);
+	glp = GLProgCache.link(g, this);
     }
 
     public ProgOb glob(GOut g) {
@@ -38,6 +38,8 @@ import javax.media.opengl.*;
 public class GLSettings implements java.io.Serializable {
     public final GLConfig cfg;
     public boolean dirty = false;
+    /* Counts changes to any setting. */
+    public transient int seq = 0;
     private final List<Setting<?>> settings = new ArrayList<Setting<?>>();
 
     private GLSettings(GLConfig cfg) {
@@ -65,6 +67,7 @@ public class GLSettings implements java.io.Serializable {
 	public void set(T val) {
 	    validate(val);
 	    this.val = val;
+	    seq++;
 	}
     }
 
@@ -166,10 +169,15 @@ public class GLSettings implements java.io.Serializable {
 	};
 	
 	//Flavor Setting
-		public final BoolSetting HideFlavor = new BoolSetting("flvor") {
-		    public Boolean defval() {return(false);}
-		    public void validate(Boolean val) {}
-		};
+    public final FloatSetting flavdens = new FloatSetting("flavdens") {
+	    public Float defval() {return(1f);}
+	    public float min() {return(0);}
+	    public float max() {return(1);}
+	    public void validate(Float val) {
+		if((val < min()) || (val > max()))
+		    throw(new SettingException("Flavor object density must be between 0 and 1."));
+	    }
+	};
 
     public final BoolSetting flight = new BoolSetting("flight") {
 	    public Boolean defval() {return(true);}
@@ -271,7 +279,6 @@ public class GLSettings implements java.io.Serializable {
 	}
 	//Load all custom setting functions here
 	new haven.Text().Replace(gs.ReplaceFont.val);
-	new haven.MCache().Hide(gs.HideFlavor.val);
 	
 	return(gs);
     }
@@ -193,6 +193,10 @@ public abstract class GLState {
     public static class Buffer {
 	private GLState[] states = new GLState[slotnum];
 	public final GLConfig cfg;
+	/* Counts puts and copies into this buffer. */
+	int mods = 0;
+	private Snapshot snap = null;
+	private int snapmods;
 	
 	public Buffer(GLConfig cfg) {
 	    this.cfg = cfg;
@@ -201,17 +205,40 @@ public abstract class GLState {
 	public Buffer copy() {
 	    Buffer ret = new Buffer(cfg);
 	    System.arraycopy(states, 0, ret.states, 0, states.length);
+	    ret.snap = cursnap();
+	    ret.snapmods = ret.mods;
 	    return(ret);
 	}
 	
 	public void copy(Buffer dest) {
+	    dest.mods++;
 	    dest.adjust();
 	    System.arraycopy(states, 0, dest.states, 0, states.length);
 	    for(int i = states.length; i < dest.states.length; i++)
 		dest.states[i] = null;
+	    dest.snap = cursnap();
+	    dest.snapmods = dest.mods;
+	}
+
+	/* Returns the snapshot of this buffer's non-instanced states,
+	 * which is kept until the buffer is changed. */
+	public Snapshot snapshot() {
+	    if((snap == null) || (snapmods != mods)) {
+		snap = Snapshot.intern(states);
+		snapmods = mods;
+	    } else {
+		snap = snap.touch();
+	    }
+	    return(snap);
+	}
+
+	/* Returns the kept snapshot, if it is still valid. */
+	Snapshot cursnap() {
+	    return(((snap != null) && (snapmods == mods))?snap:null);
 	}
 
 	public void copy(Buffer dest, Slot.Type type) {
+	    dest.mods++;
 	    dest.adjust();
 	    adjust();
 	    for(int i = 0; i < states.length; i++) {
@@ -261,6 +288,7 @@ public abstract class GLState {
 	    if(states.length <= slot.id)
 		adjust();
 	    states[slot.id] = state;
+	    mods++;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -277,7 +305,7 @@ public abstract class GLState {
 	    adjust();
 	    b.adjust();
 	    for(int i = 0; i < states.length; i++) {
-		if(!states[i].equals(b.states[i]))
+		if(!Utils.eq(states[i], b.states[i]))
 		    return(false);
 	    }
 	    return(true);
@@ -304,6 +332,48 @@ public abstract class GLState {
 	}
     }
     
+    private static GLState el(GLState[] st, int i) {
+	return((i < st.length)?st[i]:null);
+    }
+
+    private static int bufdiff(GLState[] f, GLState[] t, int i, boolean[] trans, boolean[] repl) {
+	GLState fs = el(f, i), ts = el(t, i);
+	if((fs == ts) || ((fs != null) && (ts != null) && fs.equals(ts)))
+	    return(0);
+	int cost = 0;
+	if(!repl[i]) {
+	    int cat = -1, caf = -1;
+	    if((ts != null) && (fs != null)) {
+		cat = fs.capplyto(ts);
+		caf = ts.capplyfrom(fs);
+	    }
+	    if((cat >= 0) && (caf >= 0)) {
+		cost += cat + caf;
+		if(trans != null)
+		    trans[i] = true;
+	    } else {
+		if(fs != null)
+		    cost += fs.cunapply();
+		if(ts != null)
+		    cost += ts.capply();
+		if(trans != null)
+		    repl[i] = true;
+	    }
+	}
+	for(Slot ds : idlist[i].grdep) {
+	    int id = ds.id;
+	    if(repl[id])
+		continue;
+	    if(trans != null)
+		repl[id] = true;
+	    if(el(t, id) != null)
+		cost += el(t, id).cunapply();
+	    if(el(f, id) != null)
+		cost += el(f, id).capply();
+	}
+	return(cost);
+    }
+
     public static int bufdiff(Buffer f, Buffer t, boolean[] trans, boolean[] repl) {
 	Slot.update();
 	int cost = 0;
@@ -314,42 +384,201 @@ public abstract class GLState {
 		repl[i] = false;
 	    }
 	}
+	for(int i = 0; i < f.states.length; i++)
+	    cost += bufdiff(f.states, t.states, i, trans, repl);
+	return(cost);
+    }
+
+    /* As bufdiff(), for buffers whose non-instanced states are
+     * those of FS and TS, taking the transitions between those from
+     * FS's cache and only comparing the instanced states. */
+    public static void bufdiff(Buffer f, Snapshot fs, Buffer t, Snapshot ts, boolean[] trans, boolean[] repl) {
+	Slot.update();
+	f.adjust(); t.adjust();
+	fs.trans(ts, trans, repl);
 	for(int i = 0; i < f.states.length; i++) {
-	    if(((f.states[i] == null) != (t.states[i] == null)) ||
-	       ((f.states[i] != null) && (t.states[i] != null) && !f.states[i].equals(t.states[i]))) {
-		if(!repl[i]) {
-		    int cat = -1, caf = -1;
-		    if((t.states[i] != null) && (f.states[i] != null)) {
-			cat = f.states[i].capplyto(t.states[i]);
-			caf = t.states[i].capplyfrom(f.states[i]);
-		    }
-		    if((cat >= 0) && (caf >= 0)) {
-			cost += cat + caf;
-			if(trans != null)
-			    trans[i] = true;
+	    if(idlist[i].instanced != null)
+		bufdiff(f.states, t.states, i, trans, repl);
+	}
+    }
+
+    /*
+     * An immutable snapshot of the non-instanced states of a buffer,
+     * which are those that must be the same for renderings to be
+     * instanced together. Snapshots are interned, so that equal ones
+     * are the same object and compare by reference, as long as both
+     * are in use within a while of each other. Each also caches the
+     * transitions to the few snapshots most recently diffed against
+     * it.
+     */
+    public static final class Snapshot {
+	private final GLState[] states;
+	public final int hash;
+	private Snapshot next;
+	private int used;
+	private boolean live = true;
+	private final Snapshot[] tto = new Snapshot[4];
+	private final boolean[][] ttrans = new boolean[4][], trepl = new boolean[4][];
+	private int tn = 0, tr = 0;
+
+	private Snapshot(GLState[] states, int hash) {
+	    this.states = states;
+	    this.hash = hash;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends GLState> T get(Slot<T> slot) {
+	    return((T)el(states, slot.id));
+	}
+
+	public int hashCode() {
+	    return(hash);
+	}
+
+	/* Computes the transitions of the non-instanced states into
+	 * those of TO, as bufdiff() does. */
+	public synchronized void trans(Snapshot to, boolean[] trans, boolean[] repl) {
+	    for(int i = 0; i < tn; i++) {
+		if((tto[i] == to) && (ttrans[i].length == trans.length)) {
+		    System.arraycopy(ttrans[i], 0, trans, 0, trans.length);
+		    System.arraycopy(trepl[i], 0, repl, 0, repl.length);
+		    return;
+		}
+	    }
+	    Slot.update();
+	    for(int i = 0; i < trans.length; i++) {
+		trans[i] = false;
+		repl[i] = false;
+	    }
+	    for(int i = 0; i < slotnum; i++)
+		bufdiff(states, to.states, i, trans, repl);
+	    int s;
+	    if(tn < tto.length) {
+		s = tn++;
+	    } else {
+		s = tr;
+		tr = (tr + 1) % tto.length;
+	    }
+	    tto[s] = to;
+	    ttrans[s] = Arrays.copyOf(trans, trans.length);
+	    trepl[s] = Arrays.copyOf(repl, repl.length);
+	}
+
+	/* The intern table is cleaned of snapshots unused since the
+	 * last cleaning every so many lookups. */
+	private static Snapshot[] tab = new Snapshot[1024];
+	private static int num = 0, looks = 0;
+	private static volatile int gen = 0;
+
+	private static Snapshot find(GLState[] st, int hash, int len) {
+	    Slot<?>[] idlist = GLState.idlist;
+	    outer: for(Snapshot s = tab[hash & (tab.length - 1)]; s != null; s = s.next) {
+		if((s.hash != hash) || (s.states.length != len))
+		    continue;
+		for(int i = 0; i < len; i++) {
+		    if(s.states[i] != ((idlist[i].instanced == null)?st[i]:null))
+			continue outer;
+		}
+		s.used = gen;
+		looks++;
+		return(s);
+	    }
+	    return(null);
+	}
+
+	private static void add(Snapshot s) {
+	    int idx = s.hash & (tab.length - 1);
+	    s.used = gen;
+	    s.live = true;
+	    s.next = tab[idx];
+	    tab[idx] = s;
+	    if(++num > tab.length)
+		rehash(tab.length * 2);
+	    if(++looks > Math.max(65536, num * 4))
+		clean();
+	}
+
+	static Snapshot intern(GLState[] st) {
+	    Slot<?>[] idlist = GLState.idlist;
+	    int hash = 0, len = 0;
+	    for(int i = 0; i < st.length; i++) {
+		if((st[i] != null) && (idlist[i].instanced == null)) {
+		    hash = (hash * 31) + System.identityHashCode(st[i]);
+		    len = i + 1;
+		}
+	    }
+	    synchronized(Snapshot.class) {
+		Snapshot s = find(st, hash, len);
+		if(s != null)
+		    return(s);
+		GLState[] ns = new GLState[len];
+		for(int i = 0; i < len; i++)
+		    ns[i] = (idlist[i].instanced == null)?st[i]:null;
+		add(s = new Snapshot(ns, hash));
+		return(s);
+	    }
+	}
+
+	/* Marks a snapshot kept by a buffer as still in use, so that
+	 * it is not cleaned out of the intern table. If it already
+	 * has been, an equal one interned since is returned instead,
+	 * or else it is interned again. */
+	Snapshot touch() {
+	    if(used == gen)
+		return(this);
+	    synchronized(Snapshot.class) {
+		if(live) {
+		    used = gen;
+		    return(this);
+		}
+		Snapshot s = find(states, hash, states.length);
+		if(s != null)
+		    return(s);
+		add(this);
+		return(this);
+	    }
+	}
+
+	private static void rehash(int nlen) {
+	    Snapshot[] ntab = new Snapshot[nlen];
+	    for(int i = 0; i < tab.length; i++) {
+		while(tab[i] != null) {
+		    Snapshot s = tab[i];
+		    tab[i] = s.next;
+		    int ni = s.hash & (ntab.length - 1);
+		    s.next = ntab[ni];
+		    ntab[ni] = s;
+		}
+	    }
+	    tab = ntab;
+	}
+
+	private static void clean() {
+	    for(int i = 0; i < tab.length; i++) {
+		Snapshot p = null;
+		for(Snapshot s = tab[i]; s != null; s = s.next) {
+		    if(s.used != gen) {
+			if(p == null)
+			    tab[i] = s.next;
+			else
+			    p.next = s.next;
+			s.live = false;
+			num--;
 		    } else {
-			if(f.states[i] != null)
-			    cost += f.states[i].cunapply();
-			if(t.states[i] != null)
-			    cost += t.states[i].capply();
-			if(trans != null)
-			    repl[i] = true;
+			p = s;
 		    }
 		}
-		for(Slot ds : idlist[i].grdep) {
-		    int id = ds.id;
-		    if(repl[id])
-			continue;
-		    if(trans != null)
-			repl[id] = true;
-		    if(t.states[id] != null)
-			cost += t.states[id].cunapply();
-		    if(f.states[id] != null)
-			cost += f.states[id].capply();
-		}
+	    }
+	    gen++;
+	    looks = 0;
+	}
+
+	/* Returns the number of interned snapshots. */
+	public static int interned() {
+	    synchronized(Snapshot.class) {
+		return(num);
 	    }
 	}
-	return(cost);
     }
 
     public static class TexUnit {
@@ -386,6 +615,8 @@ public abstract class GLState {
 	private boolean[] trans = new boolean[0], repl = new boolean[0], adirty = new boolean[0];
 	private ShaderMacro[][] shaders = new ShaderMacro[0][], nshaders = new ShaderMacro[0][];
 	private int proghash = 0, nproghash = 0;
+	private Snapshot csnap = null;
+	private int cmods;
 	public ShaderMacro.Program prog;
 	public boolean pdirty = false, sdirty = false;
 	public long time = 0;
@@ -446,6 +677,8 @@ public abstract class GLState {
 	public <T extends GLState> void apply(GOut g, Slot<T> slot, T state) {
 	    int id = slot.id;
 	    next.states[id] = state;
+	    next.mods++;
+	    csnap = null;
 	    GLState old = cur.states[id];
 	    if((old == null) && (state == null)) {
 	    } else if((old != null) && (state == null)) {
@@ -484,7 +717,12 @@ public abstract class GLState {
 		    nshaders = Utils.extend(shaders, slotnum);
 		}
 	    }
-	    bufdiff(cur, next, trans, repl);
+	    Snapshot fs = ((csnap != null) && (cmods == cur.mods))?csnap:null, ts = next.cursnap();
+	    csnap = null;
+	    if((fs != null) && (ts != null))
+		bufdiff(cur, fs, next, ts, trans, repl);
+	    else
+		bufdiff(cur, next, trans, repl);
 	    Slot<?>[] deplist = GLState.deplist;
 	    nproghash = proghash;
 	    for(int i = trans.length - 1; i >= 0; i--) {
@@ -567,6 +805,10 @@ public abstract class GLState {
 	    }
 	    prog.autoapply(g, pdirty);
 	    pdirty = sdirty = false;
+	    /* The current states are now those of next, or equal to
+	     * them. */
+	    csnap = ts;
+	    cmods = ++cur.mods;
 	    checkerr(g.gl);
 	    if(Config.profile)
 		time += System.nanoTime() - st;
@@ -197,6 +197,7 @@ public class Glob {
 	    }
 	}
 
+	Sprite.Pending.frame();
 	oc.ctick(dt);
 	map.ctick(dt);
 
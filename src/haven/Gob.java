@@ -28,7 +28,7 @@ package haven;
 
 import java.util.*;
 
-public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered {
+public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered.Retained {
     public Coord rc, sc;
     public Coord3f sczu;
     public double a;
@@ -37,13 +37,22 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered {
     public long id;
     public int frame;
     public final Glob glob;
-    Map<Class<? extends GAttrib>, GAttrib> attr = new HashMap<Class<? extends GAttrib>, GAttrib>();
+    private GAttrib[] attr = new GAttrib[GAttrib.nslots()];
     public Collection<Overlay> ols = new LinkedList<Overlay>();
+    /* The bucket and position of this gob in its OCache's spatial
+     * index, if it is in one. */
+    Coord ocb = null;
+    float ocx, ocy;
+    /* The index of this gob among its OCache's active gobs, or -1
+     * while it is parked, and the tick counts at which it was last
+     * drawn, and the time left unticked since then. */
+    int tslot = -1, tseen, tdt;
 	
     public static class Overlay implements Rendered {
 	public Indir<Resource> res;
 	public MessageBuf sdt;
 	public Sprite spr;
+	Sprite.Pending pspr = null;
 	public int id;
 	public boolean delign = false;
 	
@@ -80,6 +89,16 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered {
 		rl.add(spr, null);
 	    return(false);
 	}
+
+	/* Disposes of the sprite, or stops it from being built. */
+	public void dispose() {
+	    if(spr != null)
+		spr.dispose();
+	    if(pspr != null) {
+		pspr.cancel();
+		pspr = null;
+	    }
+	}
     }
     
     public Gob(Glob glob, Coord c, long id, int frame) {
@@ -99,24 +118,45 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered {
     }
 	
     public void ctick(int dt) {
-	for(GAttrib a : attr.values())
-	    a.ctick(dt);
+	GAttrib[] attr = this.attr;
+	for(int i = 0; i < attr.length; i++) {
+	    if(attr[i] != null)
+		attr[i].ctick(dt);
+	}
 	for(Iterator<Overlay> i = ols.iterator(); i.hasNext();) {
 	    Overlay ol = i.next();
 	    if(ol.spr == null) {
 		try {
-		    ol.spr = Sprite.create(this, ol.res.get(), ol.sdt.clone());
+		    if(ol.pspr == null)
+			ol.pspr = new Sprite.Pending(this, ol.res, ol.sdt.clone());
+		    ol.spr = ol.pspr.get();
+		    ol.pspr = null;
 		} catch(Loading e) {}
 	    } else {
 		boolean done = ol.spr.tick(dt);
-		if((!ol.delign || (ol.spr instanceof Overlay.CDel)) && done)
+		if((!ol.delign || (ol.spr instanceof Overlay.CDel)) && done) {
 		    i.remove();
+		    ol.dispose();
+		}
 	    }
 	}
 	if(virtual && ols.isEmpty())
 	    glob.oc.remove(id);
     }
 	
+    /* Whether ctick() would do nothing until the gob is changed
+     * from outside. */
+    public boolean idle() {
+	if(!ols.isEmpty())
+	    return(false);
+	GAttrib[] attr = this.attr;
+	for(int i = 0; i < attr.length; i++) {
+	    if((attr[i] != null) && !attr[i].idle())
+		return(false);
+	}
+	return(true);
+    }
+
     public Overlay findol(int id) {
 	for(Overlay ol : ols) {
 	    if(ol.id == id)
@@ -126,17 +166,25 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered {
     }
 
     public void tick() {
-	for(GAttrib a : attr.values())
-	    a.tick();
+	GAttrib[] attr = this.attr;
+	for(int i = 0; i < attr.length; i++) {
+	    if(attr[i] != null)
+		attr[i].tick();
+	}
     }
     
     public void dispose() {
-	for(GAttrib a : attr.values())
-	    a.dispose();
+	GAttrib[] attr = this.attr;
+	for(int i = 0; i < attr.length; i++) {
+	    if(attr[i] != null)
+		attr[i].dispose();
+	}
+	for(Overlay ol : ols)
+	    ol.dispose();
     }
 	
     public void move(Coord c, double a) {
-	Moving m = getattr(Moving.class);
+	Moving m = (Moving)getattr(Moving.slot);
 	if(m != null)
 	    m.move(c);
 	this.rc = c;
@@ -144,41 +192,64 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered {
     }
 	
     public Coord3f getc() {
-	Moving m = getattr(Moving.class);
+	Moving m = (Moving)getattr(Moving.slot);
 	Coord3f ret = (m != null)?m.getc():getrc();
-	DrawOffset df = getattr(DrawOffset.class);
+	DrawOffset df = (DrawOffset)getattr(DrawOffset.slot);
 	if(df != null)
 	    ret = ret.add(df.off);
 	return(ret);
     }
     
     public Coord3f getrc() {
-	return(new Coord3f(rc.x, rc.y, glob.map.getcz(rc)));
+	return(new Coord3f(rc.x, rc.y, getrcz()));
     }
-	
-    private Class<? extends GAttrib> attrclass(Class<? extends GAttrib> cl) {
-	while(true) {
-	    Class<?> p = cl.getSuperclass();
-	    if(p == GAttrib.class)
-		return(cl);
-	    cl = p.asSubclass(GAttrib.class);
+
+    private int rczx, rczy, rczseq = -1;
+    private float rcz;
+    public float getrcz() {
+	Coord rc = this.rc;
+	int seq = glob.map.zseq;
+	if((rczseq != seq) || (rc.x != rczx) || (rc.y != rczy)) {
+	    rcz = glob.map.getcz(rc.x, rc.y);
+	    rczx = rc.x; rczy = rc.y; rczseq = seq;
 	}
+	return(rcz);
+    }
+
+    boolean rczstale(int seq) {
+	return((rczseq != seq) || (rc.x != rczx) || (rc.y != rczy));
     }
 
+    void setrcz(int x, int y, int seq, float z) {
+	rczx = x; rczy = y; rczseq = seq;
+	rcz = z;
+    }
+	
     public void setattr(GAttrib a) {
-	Class<? extends GAttrib> ac = attrclass(a.getClass());
-	attr.put(ac, a);
+	int slot = GAttrib.slot(a.getClass());
+	if(slot >= attr.length)
+	    attr = Utils.extend(attr, slot + 1);
+	attr[slot] = a;
+    }
+
+    /* Returns the attribute in the given family slot, as declared by
+     * the families' own slot fields. */
+    public GAttrib getattr(int slot) {
+	GAttrib[] attr = this.attr;
+	return((slot < attr.length)?attr[slot]:null);
     }
 	
     public <C extends GAttrib> C getattr(Class<C> c) {
-	GAttrib attr = this.attr.get(attrclass(c));
+	GAttrib attr = getattr(GAttrib.slot(c));
 	if(!c.isInstance(attr))
 	    return(null);
 	return(c.cast(attr));
     }
 	
     public void delattr(Class<? extends GAttrib> c) {
-	attr.remove(attrclass(c));
+	int slot = GAttrib.slot(c);
+	if(slot < attr.length)
+	    attr[slot] = null;
     }
 	
     public void draw(GOut g) {}
@@ -191,27 +262,46 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered {
 	    if(ol.spr instanceof Overlay.SetupMod)
 		((Overlay.SetupMod)ol.spr).setupmain(rl);
 	}
-	GobHealth hlt = getattr(GobHealth.class);
+	GobHealth hlt = (GobHealth)getattr(GobHealth.slot);
 	if(hlt != null)
 	    rl.prepc(hlt.getfx());
-	Drawable d = getattr(Drawable.class);
+	Drawable d = (Drawable)getattr(Drawable.slot);
 	if(d != null)
 	    d.setup(rl);
-	Speaking sp = getattr(Speaking.class);
+	Speaking sp = (Speaking)getattr(Speaking.slot);
 	if(sp != null)
 	    rl.add(sp.fx, null);
-	KinInfo ki = getattr(KinInfo.class);
+	KinInfo ki = (KinInfo)getattr(KinInfo.slot);
 	if(ki != null)
 	    rl.add(ki.fx, null);
 	return(false);
     }
 
+    /* Plain gobs of nothing but a static sprite set up the same way
+     * for as long as they keep it, since their location is updated
+     * in place. The location must still be ticked, however. */
+    public Object rkey(RenderList rl) {
+	loc.tick();
+	if((getClass() != Gob.class) || !ols.isEmpty() || (getattr(GobHealth.slot) != null) || (getattr(Speaking.slot) != null) || (getattr(KinInfo.slot) != null))
+	    return(null);
+	Drawable d = (Drawable)getattr(Drawable.slot);
+	if(!(d instanceof ResDrawable) || (d.bounds() == null))
+	    return(null);
+	return(((ResDrawable)d).spr);
+    }
+
+    /* The screen coordinates are only calculated as the state is
+     * prepped. */
+    public void kept(GLState.Buffer st) {
+	save.prep(st);
+    }
+
     public Random mkrandoom() {
 	return(Utils.mkrandoom(id));
     }
     
     public Resource getres() {
-	Drawable d = getattr(Drawable.class);
+	Drawable d = (Drawable)getattr(Drawable.slot);
 	if(d != null)
 	    return(d.getres());
 	return(null);
@@ -223,7 +313,7 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered {
 
     /* Because generic functions are too nice a thing for Java. */
     public double getv() {
-	Moving m = getattr(Moving.class);
+	Moving m = (Moving)getattr(Moving.slot);
 	if(m == null)
 	    return(0);
 	return(m.getv());
@@ -259,20 +349,57 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered {
     }
     
     public final Save save = new Save();
+    /* The position as of the last location tick, for consumers that
+     * only need the numbers. */
+    public float cx, cy, cz;
+
+    private GLState dsextra, dsxf, ds;
+    /* Caches the composition of the per-frame draw states, which are
+     * nearly always the same objects as in the previous frame. */
+    public GLState drawstate(GLState extra, GLState xf) {
+	if((ds == null) || (extra != dsextra) || (xf != dsxf)) {
+	    ds = GLState.compose(extra, xf, olmod, save);
+	    dsextra = extra;
+	    dsxf = xf;
+	}
+	return(ds);
+    }
+
     public class GobLocation extends GLState.Abstract {
-	private Coord3f c = null;
+	private boolean valid = false;
+	private float lx, ly, lz;
 	private double a = 0.0;
-	private Matrix4f update = null;
-	private final Location xl = new Location(Matrix4f.id, "gobx"), rot = new Location(Matrix4f.id, "gob");
+	private final float[] dc = new float[2];
+	/* The matrices are only ever updated in place. */
+	private final Matrix4f xlm = Matrix4f.identity(), rotm = Matrix4f.identity();
+	private final Location xl = new Location(xlm, "gobx"), rot = new Location(rotm, "gob");
 
 	public void tick() {
 	    try {
-		Coord3f c = getc();
-		c.y = -c.y;
-		if((this.c == null) || !c.equals(this.c))
-		    xl.update(Transform.makexlate(new Matrix4f(), this.c = c));
+		float x, y, z;
+		Moving m = (Moving)getattr(Moving.slot);
+		if((m != null) && m.drawc(dc)) {
+		    x = dc[0]; y = dc[1];
+		    z = glob.map.getcz(x, y);
+		} else if(m != null) {
+		    Coord3f c = m.getc();
+		    x = c.x; y = c.y; z = c.z;
+		} else {
+		    x = rc.x; y = rc.y;
+		    z = getrcz();
+		}
+		DrawOffset df = (DrawOffset)getattr(DrawOffset.slot);
+		if(df != null) {
+		    x += df.off.x; y += df.off.y; z += df.off.z;
+		}
+		cx = x; cy = y; cz = z;
+		if(!valid || (x != lx) || (y != ly) || (z != lz)) {
+		    xl.update(Transform.makexlate(xlm, x, -y, z));
+		    lx = x; ly = y; lz = z;
+		    valid = true;
+		}
 		if(this.a != Gob.this.a)
-		    rot.update(Transform.makerot(new Matrix4f(), Coord3f.zu, (float)-(this.a = Gob.this.a)));
+		    rot.update(Transform.makerot(rotm, Coord3f.zu, (float)-(this.a = Gob.this.a)));
 	    } catch(Loading l) {}
 	}
 
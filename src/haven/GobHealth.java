@@ -29,6 +29,7 @@ package haven;
 import java.awt.Color;
 
 public class GobHealth extends GAttrib {
+    public static final int slot = GAttrib.slot(GobHealth.class);
     int hp;
     Material.Colors fx;
     
@@ -47,4 +48,8 @@ public class GobHealth extends GAttrib {
     public double asfloat() {
 	return(((double)hp) / 4.0);
     }
+
+    public boolean idle() {
+	return(true);
+    }
 }
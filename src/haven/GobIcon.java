@@ -31,34 +31,71 @@ import java.awt.Color;
 import java.awt.image.*;
 
 public class GobIcon extends GAttrib {
+    public static final int slot = GAttrib.slot(GobIcon.class);
     public static final PUtils.Convolution filter = new PUtils.Hanning(1);
-    private static final Map<Indir<Resource>, Tex> cache = new WeakHashMap<Indir<Resource>, Tex>();
+    /* Map markers of all kinds are packed into this atlas, so that
+     * the minimap can draw them all at once. The set of icons is
+     * small, so they are kept for good. */
+    public static final TexAtlas atlas = new TexAtlas(new Coord(256, 256));
+    private static final Map<Indir<Resource>, Defer.Future<TexAtlas.Region>> icons = new HashMap<Indir<Resource>, Defer.Future<TexAtlas.Region>>();
+    private static final Map<Indir<Resource>, Defer.Future<TexAtlas.Region>> markers = new HashMap<Indir<Resource>, Defer.Future<TexAtlas.Region>>();
     public final Indir<Resource> res;
-    private Tex tex;
+    private TexAtlas.Region tex;
 
     public GobIcon(Gob g, Indir<Resource> res) {
 	super(g);
 	this.res = res;
     }
 
-    public Tex tex() {
-	if(this.tex == null) {
-	    synchronized(cache) {
-		if(!cache.containsKey(res)) {
-		    Resource.Image img = res.get().layer(Resource.imgc);
-		    Tex tex = img.tex();
-		    if((tex.sz().x <= 20) && (tex.sz().y <= 20)) {
-			cache.put(res, tex);
-		    } else {
-			BufferedImage buf = img.img;
-			buf = PUtils.rasterimg(PUtils.blurmask2(buf.getRaster(), 1, 1, Color.BLACK));
-			buf = PUtils.convolvedown(buf, new Coord(20, 20), filter);
-			cache.put(res, new TexI(buf));
-		    }
-		}
-		this.tex = cache.get(res);
+    private static BufferedImage rasterize(Resource.Image img) {
+	BufferedImage buf = img.img;
+	if((buf.getWidth() > 20) || (buf.getHeight() > 20)) {
+	    buf = PUtils.rasterimg(PUtils.blurmask2(buf.getRaster(), 1, 1, Color.BLACK));
+	    buf = PUtils.convolvedown(buf, new Coord(20, 20), filter);
+	}
+	return(buf);
+    }
+
+    private static TexAtlas.Region atlased(Map<Indir<Resource>, Defer.Future<TexAtlas.Region>> cache, final Indir<Resource> res, final boolean scale) {
+	Defer.Future<TexAtlas.Region> f;
+	synchronized(cache) {
+	    f = cache.get(res);
+	    if(f == null) {
+		f = Defer.later(new Defer.Callable<TexAtlas.Region>() {
+			public TexAtlas.Region call() {
+			    Resource.Image img = res.get().layer(Resource.imgc);
+			    return(atlas.add(scale?rasterize(img):img.img));
+			}
+
+			public String toString() {
+			    return("Rendering icon...");
+			}
+		    });
+		cache.put(res, f);
 	    }
 	}
+	return(f.get());
+    }
+
+    /* Returns the atlased image of the given resource, scaled down
+     * to icon size if necessary. It is rasterized on the Defer pool,
+     * and Loading is thrown until it is done. */
+    public static TexAtlas.Region icon(Indir<Resource> res) {
+	return(atlased(icons, res, true));
+    }
+
+    /* As icon(), but for map markers drawn at their own size. */
+    public static TexAtlas.Region marker(Indir<Resource> res) {
+	return(atlased(markers, res, false));
+    }
+
+    public TexAtlas.Region tex() {
+	if(this.tex == null)
+	    this.tex = icon(res);
 	return(this.tex);
     }
+
+    public boolean idle() {
+	return(true);
+    }
 }
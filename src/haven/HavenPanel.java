@@ -32,6 +32,7 @@ import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 import java.awt.event.*;
 import java.util.*;
+import java.util.concurrent.locks.LockSupport;
 import javax.media.opengl.*;
 import javax.media.opengl.awt.*;
 import javax.media.opengl.glu.GLU;
@@ -283,6 +284,7 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 
 	g.state(ostate);
 	g.apply();
+	GLProgCache.warm(g);
 	gl.glClearColor(0, 0, 0, 1);
 	gl.glClear(GL.GL_COLOR_BUFFER_BIT);
 	synchronized(ui) {
@@ -296,14 +298,20 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 	    long free = rt.freeMemory(), total = rt.totalMemory();
 	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Mem: %,011d/%,011d/%,011d/%,011d", free, total - free, total, rt.maxMemory());
 	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Tex-current: %d", TexGL.num());
-	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "GL progs: %d", g.st.numprogs());
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "GL progs: %d (%d warmed)", g.st.numprogs(), GLProgCache.warmed());
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "GL cmds: %,d (%,d kB), %,d elided", bglcmds, bglbytes / 1024, bglelided);
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Frame queue: %d/%d%s, %,d dropped", fq.size(), fq.depth, Config.framelatest?" (latest)":"", fdropped);
+	    for(StageHist hist : hists)
+		hist.draw(g, new Coord(10, y -= 15));
 	    GameUI gi = ui.root.findchild(GameUI.class);
 	    if((gi != null) && (gi.map != null)) {
 		try {
 		    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "MV pos: %s (%s)", gi.map.getcc(), gi.map.camera);
 		} catch(Loading e) {}
 		if(gi.map.rls != null)
-		    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Rendered: %,d+%,d(%,d)", gi.map.rls.drawn, gi.map.rls.instanced, gi.map.rls.instancified);
+		    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Rendered: %,d+%,d(%,d), inst. threshold %d", gi.map.rls.drawn, gi.map.rls.instanced, gi.map.rls.instancified, gi.map.rls.instthres);
+		FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Culled: %,d/%,d gobs, %,d/%,d cuts", gi.map.culledgobs, gi.map.culledgobs + gi.map.drawngobs, gi.map.culledcuts, gi.map.culledcuts + gi.map.drawncuts);
+		FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Gobs: %,d (%,d deleted), %,d active (%,d slow), %,d parked", ui.sess.glob.oc.snapshot().length, ui.sess.glob.oc.ndeleted(), ui.sess.glob.oc.nactive(), ui.sess.glob.oc.nslow(), ui.sess.glob.oc.nparked());
 	    }
 	    if(Resource.remote().qdepth() > 0)
 		FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "RQ depth: %d (%d)", Resource.remote().qdepth(), Resource.remote().numloaded());
@@ -369,10 +377,164 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 
     private static class Frame {
 	BGL buf; CurrentGL on;
-	CPUProfile.Frame pf; long doneat;
+	CPUProfile.Frame pf; long queued, doneat;
+	/* Dropped frames that still have to be replayed, without
+	 * their drawing, before this one. */
+	List<Frame> stale = null;
 	Frame(BGL buf, CurrentGL on) {this.buf = buf; this.on = on;}
     }
 
+    /*
+     * Hands frames from the UI thread to the render thread without
+     * locking. There is only ever one producer and one consumer,
+     * each of which parks when the queue is full or empty,
+     * respectively, and the other unparks it after moving its end.
+     */
+    private static class FrameQueue {
+	private final Frame[] ring;
+	private volatile long head = 0, tail = 0;
+	private volatile Thread pwait = null, cwait = null;
+	volatile int depth;
+
+	FrameQueue(int cap, int depth) {
+	    ring = new Frame[cap];
+	    this.depth = Math.max(1, Math.min(depth, cap));
+	}
+
+	boolean offer(Frame f) {
+	    long t = tail;
+	    if(t - head >= depth)
+		return(false);
+	    ring[(int)(t % ring.length)] = f;
+	    tail = t + 1;
+	    Thread w = cwait;
+	    if(w != null)
+		LockSupport.unpark(w);
+	    return(true);
+	}
+
+	Frame poll() {
+	    long h = head;
+	    if(h == tail)
+		return(null);
+	    int i = (int)(h % ring.length);
+	    Frame ret = ring[i];
+	    ring[i] = null;
+	    head = h + 1;
+	    Thread w = pwait;
+	    if(w != null)
+		LockSupport.unpark(w);
+	    return(ret);
+	}
+
+	/* The volatile write to the waiter field before checking
+	 * again pairs with the other side's write of its index before
+	 * reading the field, so one of them always sees the other. */
+	void put(Frame f) throws InterruptedException {
+	    while(!offer(f)) {
+		pwait = Thread.currentThread();
+		try {
+		    if(!offer(f))
+			LockSupport.parkNanos(this, 100000000);
+		    else
+			break;
+		} finally {
+		    pwait = null;
+		}
+		if(Thread.interrupted())
+		    throw(new InterruptedException());
+	    }
+	}
+
+	Frame take() throws InterruptedException {
+	    Frame ret;
+	    while((ret = poll()) == null) {
+		cwait = Thread.currentThread();
+		try {
+		    if((ret = poll()) == null)
+			LockSupport.parkNanos(this, 100000000);
+		    else
+			break;
+		} finally {
+		    cwait = null;
+		}
+		if(Thread.interrupted())
+		    throw(new InterruptedException());
+	    }
+	    return(ret);
+	}
+
+	int size() {
+	    return((int)(tail - head));
+	}
+    }
+
+    /* Recent durations of one stage of the frame pipeline. */
+    public static class StageHist {
+	public final String name;
+	private static final float[] bounds = {0.5f, 1, 2, 4, 8, 16, 33, 66, 133};
+	private final float[] recent = new float[256];
+	private int n = 0, p = 0;
+
+	public StageHist(String name) {
+	    this.name = name;
+	}
+
+	public synchronized void add(long ns) {
+	    recent[p] = ns / 1e6f;
+	    p = (p + 1) % recent.length;
+	    if(n < recent.length)
+		n++;
+	}
+
+	public synchronized float[] sorted() {
+	    float[] ret = Arrays.copyOf(recent, n);
+	    Arrays.sort(ret);
+	    return(ret);
+	}
+
+	/* Prints percentiles, followed by a bar per bucket of
+	 * doubling width, starting at half a millisecond. */
+	public void draw(GOut g, Coord c) {
+	    float[] s = sorted();
+	    if(s.length < 1)
+		return;
+	    FastText.aprintf(g, c, 0, 1, "%s: %.1f/%.1f/%.1f ms", name, s[s.length / 2], s[(s.length * 95) / 100], s[s.length - 1]);
+	    int[] cnt = new int[bounds.length + 1];
+	    for(int i = 0, b = 0; i < s.length; i++) {
+		while((b < bounds.length) && (s[i] >= bounds[b]))
+		    b++;
+		cnt[b]++;
+	    }
+	    g.chcolor(255, 255, 0, 192);
+	    for(int b = 0; b < cnt.length; b++) {
+		int bh = (cnt[b] * 12 + s.length - 1) / s.length;
+		g.frect(new Coord(c.x + 180 + (b * 5), c.y - bh), new Coord(4, bh));
+	    }
+	    g.chcolor();
+	}
+    }
+
+    private final StageHist htick = new StageHist("tick"), hdraw = new StageHist("draw"), hqueue = new StageHist("queue");
+    private final StageHist hrender = new StageHist("render"), hlatency = new StageHist("latency"), hframe = new StageHist("frame");
+    private final StageHist[] hists = {hframe, htick, hdraw, hqueue, hrender, hlatency};
+    private int fdropped = 0;
+
+    private void replay(Frame f, GL2 gl) {
+	synchronized(f) {
+	    if(f.stale != null) {
+		for(Frame s : f.stale) {
+		    s.buf.run(gl);
+		    bglpool.put(s.buf);
+		    s.buf = null;
+		}
+		f.stale = null;
+	    }
+	    if(f.buf != null)
+		f.buf.run(gl);
+	}
+    }
+
     void redraw(GL2 gl) {
 	if((state == null) || (state.cgl.gl != gl))
 	    state = new GLState.Applier(new CurrentGL(gl, glconf));
@@ -384,7 +546,7 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 		curgf = gprof.new Frame((GL3)gl);
 	    if(f.pf != null)
 		f.pf.tick("awt");
-	    f.buf.run(gl);
+	    replay(f, gl);
 	    GOut.checkerr(gl);
 	    if(f.pf != null)
 		f.pf.tick("gl");
@@ -397,7 +559,7 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 		glconf.pref.save();
 		glconf.pref.dirty = false;
 	    }
-	    f.doneat = System.currentTimeMillis();
+	    f.doneat = System.nanoTime();
 	}
     }
 	
@@ -434,7 +596,11 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 	}
     }
 	
-    private Frame bufdraw = null, curdraw = null;;
+    private final FrameQueue fq = new FrameQueue(8, Config.framequeue);
+    private volatile Frame curdraw = null;
+    private final BGL.Pool bglpool = new BGL.Pool(10);
+    private final BGL.Shadow bglshadow = new BGL.Shadow();
+    private int bglcmds, bglbytes, bglelided;
     private final Runnable drawfun = new Runnable() {
 	    private void uglyjoglhack() throws InterruptedException {
 		try {
@@ -457,27 +623,53 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 			drawfun.notifyAll();
 		    }
 		    while(true) {
-			long then = System.currentTimeMillis();
-			int waited = 0;
-			synchronized(drawfun) {
-			    while((curdraw = bufdraw) == null)
-				drawfun.wait();
-			    bufdraw = null;
-			    drawfun.notifyAll();
-			    waited += System.currentTimeMillis() - then;
+			long then = System.nanoTime();
+			Frame f = fq.take();
+			if(Config.framelatest) {
+			    /* Frames are drawn on the assumption that
+			     * the previous ones have set the GL state
+			     * up, so skipped ones still have their
+			     * state changes replayed. Requests, such
+			     * as reading back pixels for click
+			     * picking, may need what the frame draws,
+			     * so frames with any are never skipped. */
+			    Frame n;
+			    while(!f.buf.requests() && ((n = fq.poll()) != null)) {
+				f.buf.stripdraws();
+				if(f.stale != null) {
+				    n.stale = f.stale;
+				    f.stale = null;
+				} else {
+				    n.stale = new ArrayList<Frame>();
+				}
+				n.stale.add(f);
+				fdropped++;
+				f = n;
+			    }
 			}
+			long got = System.nanoTime();
 			CPUProfile.Frame curf = null;
 			if(Config.profile)
-			    curdraw.pf = curf = rprof.new Frame();
+			    f.pf = curf = rprof.new Frame();
+			curdraw = f;
 			uglyjoglhack();
 			if(curf != null) {
 			    curf.tick("aux");
 			    curf.fin();
 			}
-			long now = System.currentTimeMillis();
-			waited += now - curdraw.doneat;
+			long now = System.nanoTime();
+			long waited = (got - then) + ((f.doneat != 0)?(now - f.doneat):0);
 			ridle = (ridle * 0.95) + (((double)waited / ((double)(now - then))) * 0.05);
+			hrender.add(now - got);
+			hlatency.add(now - f.queued);
 			curdraw = null;
+			/* An AWT-initiated repaint may still be replaying
+			 * the frame, which the lock on it waits out. */
+			synchronized(f) {
+			    if(f.buf != null)
+				bglpool.put(f.buf);
+			    f.buf = null;
+			}
 		    }
 		} catch(InterruptedException e) {
 		    return;
@@ -494,14 +686,18 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 		    drawfun.wait();
 	    }
 	    try {
-		long now, then;
+		long now, then, next = System.nanoTime(), last = 0;
 		long frames[] = new long[128];
-		int framep = 0, waited[] = new int[128];
+		int framep = 0;
+		long waited[] = new long[128];
 		while(true) {
-		    int fwaited = 0;
+		    long fwaited = 0;
 		    Debug.cycle();
 		    UI ui = this.ui;
-		    then = System.currentTimeMillis();
+		    then = System.nanoTime();
+		    if(last != 0)
+			hframe.add(then - last);
+		    last = then;
 		    CPUProfile.Frame curf = null;
 		    if(Config.profile)
 			curf = uprof.new Frame();
@@ -515,40 +711,53 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 		    }
 		    if(curf != null)
 			curf.tick("dsp");
+		    long dt = System.nanoTime();
+		    htick.add(dt - then);
 
-		    BGL buf = new BGL();
+		    BGL buf = bglpool.get();
 		    GLState.Applier state = this.state;
 		    rootdraw(state, ui, buf);
+		    bglelided = Config.bglopt?buf.optimize(bglshadow):0;
+		    bglcmds = buf.commands();
+		    bglbytes = buf.bytes();
 		    if(curf != null)
 			curf.tick("draw");
-		    synchronized(drawfun) {
-			now = System.currentTimeMillis();
-			while(bufdraw != null)
-			    drawfun.wait();
-			bufdraw = new Frame(buf, state.cgl);
-			drawfun.notifyAll();
-			fwaited += System.currentTimeMillis() - now;
-		    }
+		    now = System.nanoTime();
+		    hdraw.add(now - dt);
+		    Frame f = new Frame(buf, state.cgl);
+		    f.queued = now;
+		    fq.depth = Math.max(1, Math.min(Config.framequeue, 8));
+		    fq.put(f);
+		    fwaited += System.nanoTime() - now;
+		    hqueue.add(fwaited);
 
 		    ui.audio.cycle();
 		    if(curf != null)
 			curf.tick("aux");
 
-		    now = System.currentTimeMillis();
-		    long fd = bgmode?this.bgfd:this.fd;
-		    if(now - then < fd) {
+		    /* Frames are paced against a fixed schedule, which
+		     * is only reset when falling behind by more than a
+		     * whole frame. Input cuts the wait short. */
+		    now = System.nanoTime();
+		    long fd = (bgmode?this.bgfd:this.fd) * 1000000;
+		    next += fd;
+		    if(now - next > fd)
+			next = now;
+		    if(next - now > 0) {
 			synchronized(events) {
-			    events.wait(fd - (now - then));
+			    long w = next - now;
+			    events.wait(w / 1000000, (int)(w % 1000000));
 			}
-			fwaited += System.currentTimeMillis() - now;
+			fwaited += System.nanoTime() - now;
 		    }
 
 		    frames[framep] = now;
 		    waited[framep] = fwaited;
-		    for(int i = 0, ckf = framep, twait = 0; i < frames.length; i++) {
+		    long twait = 0;
+		    for(int i = 0, ckf = framep; i < frames.length; i++) {
 			ckf = (ckf - 1 + frames.length) % frames.length;
 			twait += waited[ckf];
-			if(now - frames[ckf] > 1000) {
+			if(now - frames[ckf] > 1000000000L) {
 			    fps = i;
 			    uidle = ((double)twait) / ((double)(now - frames[ckf]));
 			    break;
@@ -589,6 +798,31 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory
 		    bgfd = 1000 / Integer.parseInt(args[1]);
 		}
 	    });
+	cmdmap.put("fqueue", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    Config.framequeue = Integer.parseInt(args[1]);
+		}
+	    });
+	cmdmap.put("flatest", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    Config.framelatest = Utils.parsebool(args[1], false);
+		}
+	    });
+	cmdmap.put("bglopt", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    Config.bglopt = Utils.parsebool(args[1], false);
+		}
+	    });
+	cmdmap.put("parsetup", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    Config.parsetup = Integer.parseInt(args[1]);
+		}
+	    });
+	cmdmap.put("retain", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    Config.retain = Utils.parsebool(args[1], false);
+		}
+	    });
     }
     public Map<String, Console.Command> findcmds() {
 	return(cmdmap);
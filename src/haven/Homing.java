@@ -37,21 +37,30 @@ public class Homing extends Moving {
 	this.tgt = tgt;
 	this.tc = tc;
 	this.v = v;
+	flatc();
+	stepfrom(nx, ny);
     }
     
-    public Coord3f getc() {
+    /* Sets nx and ny to the position dist along the way from the
+     * gob's last known position to the target. */
+    private void flatc() {
 	Coord tc = this.tc;
 	Gob tgt = gob.glob.oc.getgob(this.tgt);
 	if(tgt != null)
 	    tc = tgt.rc;
-	Coord d = tc.add(gob.rc.inv());
-	double e = gob.rc.dist(tc);
-	float rx = gob.rc.x, ry = gob.rc.y;
+	Coord rc = gob.rc;
+	int dx = tc.x - rc.x, dy = tc.y - rc.y;
+	double e = Math.sqrt(((double)dx * dx) + ((double)dy * dy));
+	float rx = rc.x, ry = rc.y;
 	if(e > 0.00001) {
-	    rx += (float)((d.x / e) * dist);
-	    ry += (float)((d.y / e) * dist);
+	    rx += (float)((dx / e) * dist);
+	    ry += (float)((dy / e) * dist);
 	}
-	return(new Coord3f(rx, ry, gob.glob.map.getcz(rx, ry)));
+	nx = rx; ny = ry;
+    }
+
+    public Coord3f getc() {
+	return(stepc());
     }
     
     public double getv() {
@@ -62,8 +71,14 @@ public class Homing extends Moving {
 	dist = 0;
     }
     
-    public void ctick(int dt) {
+    protected void advance(int dt) {
 	double da = ((double)dt / 1000) / 0.06;
 	dist += (da * 0.9) * ((double)v / 100);
+	flatc();
+    }
+
+    public void ctick(int dt) {
+	if(steps(dt))
+	    gob.glob.oc.relocate(gob, nx, ny);
     }
 }
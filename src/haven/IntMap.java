@@ -28,13 +28,28 @@ package haven;
 
 import java.util.*;
 
+/*
+ * An open-addressed map from primitive ints, which neither boxes its
+ * keys on lookup nor allocates per entry. Collisions are resolved by
+ * linear probing, and removal shifts the rest of the probe chain
+ * back rather than leaving tombstones, so that lookups never degrade
+ * with churn. The Map interface is implemented for compatibility,
+ * but hot paths should use the primitive methods, and iterate over
+ * the slots with first() and next() where allocation matters.
+ */
 public class IntMap<V> extends AbstractMap<Integer, V> {
     private static final Object nil = new Object();
+    private int[] keys;
     private Object[] vals;
-    private int sz;
+    private int sz, mask;
 
     public IntMap(int capacity) {
-	vals = new Object[capacity];
+	int n = 8;
+	while(n < capacity * 2)
+	    n <<= 1;
+	keys = new int[n];
+	vals = new Object[n];
+	mask = n - 1;
     }
 
     public IntMap() {
@@ -42,7 +57,7 @@ public class IntMap<V> extends AbstractMap<Integer, V> {
     }
 
     public IntMap(Map<Integer, V> m) {
-	this();
+	this(m.size());
 	putAll(m);
     }
 
@@ -55,12 +70,186 @@ public class IntMap<V> extends AbstractMap<Integer, V> {
 	return((v == nil)?null:((V)v));
     }
 
+    private static int hash(int k) {
+	int h = k * 0x9e3779b9;
+	return(h ^ (h >>> 16));
+    }
+
+    private int find(int k) {
+	for(int i = hash(k) & mask; vals[i] != null; i = (i + 1) & mask) {
+	    if(keys[i] == k)
+		return(i);
+	}
+	return(-1);
+    }
+
+    private void rehash(int n) {
+	int[] ok = keys;
+	Object[] ov = vals;
+	keys = new int[n];
+	vals = new Object[n];
+	mask = n - 1;
+	for(int o = 0; o < ov.length; o++) {
+	    if(ov[o] == null)
+		continue;
+	    int i = hash(ok[o]) & mask;
+	    while(vals[i] != null)
+		i = (i + 1) & mask;
+	    keys[i] = ok[o];
+	    vals[i] = ov[o];
+	}
+    }
+
+    /* Empties slot i, moving back any later entries of its probe
+     * chain which would otherwise become unreachable. */
+    private void delete(int i, Iter<?> it) {
+	int h = i;
+	for(int j = (i + 1) & mask; vals[j] != null; j = (j + 1) & mask) {
+	    int p = hash(keys[j]) & mask;
+	    if((h <= j)?((p <= h) || (p > j)):((p <= h) && (p > j))) {
+		keys[h] = keys[j];
+		vals[h] = vals[j];
+		if(it != null)
+		    it.moved(j, h);
+		h = j;
+	    }
+	}
+	vals[h] = null;
+	sz--;
+    }
+
+    public int size() {
+	return(sz);
+    }
+
     public boolean containsKey(int k) {
-	return((vals.length > k) && (vals[k] != null));
+	return(find(k) >= 0);
+    }
+
+    public boolean containsKey(Object k) {
+	return((k instanceof Integer) && containsKey(((Integer)k).intValue()));
+    }
+
+    public V get(int k) {
+	int i = find(k);
+	return((i < 0)?null:ocast(vals[i]));
+    }
+
+    public V get(Object k) {
+	if(!(k instanceof Integer))
+	    return(null);
+	return(get(((Integer)k).intValue()));
+    }
+
+    public V put(int k, V v) {
+	int i;
+	for(i = hash(k) & mask; vals[i] != null; i = (i + 1) & mask) {
+	    if(keys[i] == k) {
+		V ret = ocast(vals[i]);
+		vals[i] = icast(v);
+		return(ret);
+	    }
+	}
+	if((sz + 1) * 2 > vals.length) {
+	    rehash(vals.length * 2);
+	    for(i = hash(k) & mask; vals[i] != null; i = (i + 1) & mask);
+	}
+	keys[i] = k;
+	vals[i] = icast(v);
+	sz++;
+	return(null);
+    }
+
+    public V put(Integer k, V v) {
+	return(put(k.intValue(), v));
+    }
+
+    public V remove(int k) {
+	int i = find(k);
+	if(i < 0)
+	    return(null);
+	V ret = ocast(vals[i]);
+	delete(i, null);
+	return(ret);
+    }
+
+    public V remove(Object k) {
+	if(!(k instanceof Integer))
+	    return(null);
+	return(remove(((Integer)k).intValue()));
+    }
+
+    public void clear() {
+	Arrays.fill(vals, null);
+	sz = 0;
+    }
+
+    /* Slot-wise iteration, which allocates nothing:
+     *   for(int i = m.first(); i >= 0; i = m.next(i))
+     *       use(m.key(i), m.val(i));
+     * The map must not be modified while doing so. */
+    public int next(int i) {
+	for(i++; i < vals.length; i++) {
+	    if(vals[i] != null)
+		return(i);
+	}
+	return(-1);
     }
 
-    public boolean containsKey(Integer k) {
-	return(containsKey(k.intValue()));
+    public int first() {
+	return(next(-1));
+    }
+
+    public int key(int i) {
+	return(keys[i]);
+    }
+
+    public V val(int i) {
+	return(ocast(vals[i]));
+    }
+
+    /* Iterates downwards, so that removal only ever shifts entries
+     * into slots already passed. The exception is a probe chain
+     * wrapping around the end of the table, whose moved entries are
+     * remembered and returned at the end. */
+    private abstract class Iter<T> implements Iterator<T> {
+	private int pos = vals.length, last = -1, left = sz;
+	private int[] wrapped = null;
+	private int nw = 0;
+
+	void moved(int from, int to) {
+	    if((from < pos) && (to >= pos)) {
+		if(wrapped == null)
+		    wrapped = new int[2];
+		else if(nw >= wrapped.length)
+		    wrapped = Utils.extend(wrapped, wrapped.length * 2);
+		wrapped[nw++] = keys[to];
+	    }
+	}
+
+	public boolean hasNext() {
+	    return(left > 0);
+	}
+
+	int nexti() {
+	    if(left <= 0)
+		throw(new NoSuchElementException());
+	    left--;
+	    while(--pos >= 0) {
+		if(vals[pos] != null)
+		    return(last = pos);
+	    }
+	    if(nw > 0)
+		return(last = find(wrapped[--nw]));
+	    throw(new ConcurrentModificationException());
+	}
+
+	public void remove() {
+	    if(last < 0)
+		throw(new IllegalStateException());
+	    delete(last, this);
+	    last = -1;
+	}
     }
 
     private class IteredEntry implements Entry<Integer, V> {
@@ -73,13 +262,16 @@ public class IntMap<V> extends AbstractMap<Integer, V> {
 	public Integer getKey() {return(k);}
 	public V getValue()     {return(get(k));}
 
-	@SuppressWarnings("unchecked")
 	public boolean equals(Object o) {
-	    return((o instanceof IntMap.IteredEntry) && (((IteredEntry)o).k == k));
+	    if(!(o instanceof Entry))
+		return(false);
+	    Entry<?, ?> e = (Entry<?, ?>)o;
+	    return(getKey().equals(e.getKey()) && Utils.eq(getValue(), e.getValue()));
 	}
 
 	public int hashCode() {
-	    return(k);
+	    V v = getValue();
+	    return(k ^ ((v == null)?0:v.hashCode()));
 	}
 
 	public V setValue(V nv) {return(put(k, nv));}
@@ -94,78 +286,40 @@ public class IntMap<V> extends AbstractMap<Integer, V> {
 		}
 
 		public Iterator<Entry<Integer, V>> iterator() {
-		    return(new Iterator<Entry<Integer, V>>() {
-			    private int ni = -1;
-			    private int li = -1;
-
-			    public boolean hasNext() {
-				if(ni < 0) {
-				    for(ni = li + 1; ni < vals.length; ni++) {
-					if(vals[ni] != null)
-					    break;
-				    }
-				}
-				return(ni < vals.length);
-			    }
-
+		    return(new Iter<Entry<Integer, V>>() {
 			    public Entry<Integer, V> next() {
-				if(!hasNext())
-				    throw(new NoSuchElementException());
-				Entry<Integer, V> ret = new IteredEntry(ni);
-				li = ni;
-				ni = -1;
-				return(ret);
-			    }
-
-			    public void remove() {
-				vals[li] = null;
+				return(new IteredEntry(keys[nexti()]));
 			    }
 			});
 		}
 
 		public void clear() {
-		    vals = new Object[0];
+		    IntMap.this.clear();
 		}
 	    };
 	return(entries);
     }
 
-    public V get(int k) {
-	if((k < 0) || (vals.length <= k))
-	    return(null);
-	return(ocast(vals[k]));
-    }
-
-    public V get(Object k) {
-	if(!(k instanceof Integer))
-	    return(null);
-	return(get(((Integer)k).intValue()));
-    }
-
-    public V put(int k, V v) {
-	if(vals.length <= k) {
-	    Object[] n = new Object[k + 1];
-	    System.arraycopy(vals, 0, n, 0, vals.length);
-	    vals = n;
-	}
-	V ret = ocast(vals[k]);
-	vals[k] = icast(v);
-	return(ret);
-    }
-
-    public V put(Integer k, V v) {
-	return(put(k.intValue(), v));
-    }
+    private Collection<V> values = null;
+    public Collection<V> values() {
+	if(values == null)
+	    values = new AbstractCollection<V>() {
+		public int size() {
+		    return(sz);
+		}
 
-    public V remove(int k) {
-	if(k >= vals.length)
-	    return(null);
-	V ret = ocast(vals[k]);
-	vals[k] = null;
-	return(ret);
-    }
+		public Iterator<V> iterator() {
+		    return(new Iter<V>() {
+			    public V next() {
+				return(ocast(vals[nexti()]));
+			    }
+			});
+		}
 
-    public V remove(Integer k) {
-	return(remove(k.intValue()));
+		public void clear() {
+		    IntMap.this.clear();
+		}
+	    };
+	return(values);
     }
 }
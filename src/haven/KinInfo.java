@@ -31,6 +31,7 @@ import java.awt.image.BufferedImage;
 import java.awt.Color;
 
 public class KinInfo extends GAttrib {
+    public static final int slot = GAttrib.slot(KinInfo.class);
     public static final BufferedImage vlg = Resource.loadimg("gfx/hud/vilind");
     public static final Text.Foundry nfnd = new Text.Foundry(Text.dfont, 10);
     public String name;
@@ -116,4 +117,8 @@ public class KinInfo extends GAttrib {
 		}
 	    }
 	};
+
+    public boolean idle() {
+	return(true);
+    }
 }
@@ -37,14 +37,11 @@ public class LinMove extends Moving {
 	this.t = t;
 	this.c = c;
 	this.a = 0;
+	stepfrom(s.x, s.y);
     }
     
     public Coord3f getc() {
-	float cx, cy;
-	cx = (float)(t.x - s.x) * (float)a;
-	cy = (float)(t.y - s.y) * (float)a;
-	cx += s.x; cy += s.y;
-	return(new Coord3f(cx, cy, gob.glob.map.getcz(cx, cy)));
+	return(stepc());
     }
     
     public double getv() {
@@ -60,13 +57,24 @@ public class LinMove extends Moving {
     }
     */
     
-    public void ctick(int dt) {
+    protected void advance(int dt) {
 	double da = ((double)dt / 1000) / (((double)c) * 0.06);
 	a += da * 0.9;
 	if(a > 1)
 	    a = 1;
+	nx = s.x + ((t.x - s.x) * (float)a);
+	ny = s.y + ((t.y - s.y) * (float)a);
+    }
+
+    public void ctick(int dt) {
+	if(steps(dt))
+	    gob.glob.oc.relocate(gob, nx, ny);
     }
     
+    public boolean idle() {
+	return((a >= 1) && !settling());
+    }
+
     public void setl(int l) {
 	double a = ((double)l) / ((double)c);
 	if(a > this.a)
@@ -85,7 +85,7 @@ public class LocalMiniMap extends Widget {
 	Coord c = new Coord();
 	for(c.y = 0; c.y < sz.y; c.y++) {
 	    for(c.x = 0; c.x < sz.x; c.x++) {
-		int t = m.gettile(ul.add(c));
+		int t = m.gettile(ul.x + c.x, ul.y + c.y);
 		BufferedImage tex = tileimg(t, texes);
 		int rgb = 0;
 		if(tex != null)
@@ -96,15 +96,11 @@ public class LocalMiniMap extends Widget {
 	}
 	for(c.y = 1; c.y < sz.y - 1; c.y++) {
 	    for(c.x = 1; c.x < sz.x - 1; c.x++) {
-		int t = m.gettile(ul.add(c));
-		Tiler tl = m.tiler(t);
-		if(tl instanceof Ridges.RidgeTile) {
-		    if(Ridges.brokenp(m, ul.add(c))) {
-			for(int y = c.y - 1; y <= c.y + 1; y++) {
-			    for(int x = c.x - 1; x <= c.x + 1; x++) {
-				Color cc = new Color(buf.getRGB(x, y));
-				buf.setRGB(x, y, Utils.blendcol(cc, Color.BLACK, ((x == c.x) && (y == c.y))?1:0.1).getRGB());
-			    }
+		if((Ridges.tbreaks(m, ul.x + c.x, ul.y + c.y) & Ridges.BROKEN) != 0) {
+		    for(int y = c.y - 1; y <= c.y + 1; y++) {
+			for(int x = c.x - 1; x <= c.x + 1; x++) {
+			    Color cc = new Color(buf.getRGB(x, y));
+			    buf.setRGB(x, y, Utils.blendcol(cc, Color.BLACK, ((x == c.x) && (y == c.y))?1:0.1).getRGB());
 			}
 		    }
 		}
@@ -112,11 +108,12 @@ public class LocalMiniMap extends Widget {
 	}
 	for(c.y = 0; c.y < sz.y; c.y++) {
 	    for(c.x = 0; c.x < sz.x; c.x++) {
-		int t = m.gettile(ul.add(c));
-		if((m.gettile(ul.add(c).add(-1, 0)) > t) ||
-		   (m.gettile(ul.add(c).add( 1, 0)) > t) ||
-		   (m.gettile(ul.add(c).add(0, -1)) > t) ||
-		   (m.gettile(ul.add(c).add(0,  1)) > t))
+		int tx = ul.x + c.x, ty = ul.y + c.y;
+		int t = m.gettile(tx, ty);
+		if((m.gettile(tx - 1, ty) > t) ||
+		   (m.gettile(tx + 1, ty) > t) ||
+		   (m.gettile(tx, ty - 1) > t) ||
+		   (m.gettile(tx, ty + 1) > t))
 		    buf.setRGB(c.x, c.y, Color.BLACK.getRGB());
 	    }
 	}
@@ -136,36 +133,40 @@ public class LocalMiniMap extends Widget {
 	return(c.sub(sz.div(2)).add(cc).mul(tilesz).add(tilesz.div(2)));
     }
 
+    private List<Gob> visgobs() {
+	Coord hsz = sz.div(2);
+	return(ui.sess.glob.oc.range(cc.sub(hsz).mul(tilesz), cc.add(hsz).add(1, 1).mul(tilesz), new ArrayList<Gob>()));
+    }
+
+    /* Markers are all in the GobIcon atlas, and are collected here
+     * to be drawn with one call. */
+    private final TexAtlas.Batch batch = new TexAtlas.Batch();
+
     public void drawicons(GOut g) {
-	OCache oc = ui.sess.glob.oc;
-	synchronized(oc) {
-	    for(Gob gob : oc) {
-		try {
-		    GobIcon icon = gob.getattr(GobIcon.class);
-		    if(icon != null) {
-			Coord gc = p2c(gob.rc);
-			Tex tex = icon.tex();
-			g.image(tex, gc.sub(tex.sz().div(2)));
-		    }
-		} catch(Loading l) {}
-	    }
+	for(Gob gob : visgobs()) {
+	    try {
+		GobIcon icon = gob.getattr(GobIcon.class);
+		if(icon != null) {
+		    Coord gc = p2c(gob.rc);
+		    TexAtlas.Region tex = icon.tex();
+		    batch.add(tex, gc.sub(tex.sz().div(2)));
+		}
+	    } catch(Loading l) {}
 	}
+	batch.draw(g);
     }
 
     public Gob findicongob(Coord c) {
-	OCache oc = ui.sess.glob.oc;
-	synchronized(oc) {
-	    for(Gob gob : oc) {
-		try {
-		    GobIcon icon = gob.getattr(GobIcon.class);
-		    if(icon != null) {
-			Coord gc = p2c(gob.rc);
-			Coord sz = icon.tex().sz();
-			if(c.isect(gc.sub(sz.div(2)), sz))
-			    return(gob);
-		    }
-		} catch(Loading l) {}
-	    }
+	for(Gob gob : visgobs()) {
+	    try {
+		GobIcon icon = gob.getattr(GobIcon.class);
+		if(icon != null) {
+		    Coord gc = p2c(gob.rc);
+		    Coord sz = icon.tex().sz();
+		    if(c.isect(gc.sub(sz.div(2)), sz))
+			return(gob);
+		}
+	    } catch(Loading l) {}
 	}
 	return(null);
     }
@@ -215,9 +216,8 @@ public class LocalMiniMap extends Widget {
 			if(ptc == null)
 			    continue;
 			ptc = p2c(ptc);
-			g.chcolor(m.col.getRed(), m.col.getGreen(), m.col.getBlue(), 128);
-			g.image(MiniMap.plx.layer(Resource.imgc).tex(), ptc.add(MiniMap.plx.layer(Resource.negc).cc.inv()));
-			g.chcolor();
+			Color col = new Color(m.col.getRed(), m.col.getGreen(), m.col.getBlue(), 128);
+			batch.add(GobIcon.marker(MiniMap.plx.indir()), ptc.add(MiniMap.plx.layer(Resource.negc).cc.inv()), col);
 		    }
 		}
 	    } catch(Loading l) {}
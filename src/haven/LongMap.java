@@ -0,0 +1,325 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+
+/*
+ * An open-addressed map from primitive longs, which neither boxes its
+ * keys on lookup nor allocates per entry. Collisions are resolved by
+ * linear probing, and removal shifts the rest of the probe chain
+ * back rather than leaving tombstones, so that lookups never degrade
+ * with churn. The Map interface is implemented for compatibility,
+ * but hot paths should use the primitive methods, and iterate over
+ * the slots with first() and next() where allocation matters.
+ */
+public class LongMap<V> extends AbstractMap<Long, V> {
+    private static final Object nil = new Object();
+    private long[] keys;
+    private Object[] vals;
+    private int sz, mask;
+
+    public LongMap(int capacity) {
+	int n = 8;
+	while(n < capacity * 2)
+	    n <<= 1;
+	keys = new long[n];
+	vals = new Object[n];
+	mask = n - 1;
+    }
+
+    public LongMap() {
+	this(0);
+    }
+
+    public LongMap(Map<Long, V> m) {
+	this(m.size());
+	putAll(m);
+    }
+
+    private Object icast(V v) {
+	return((v == null)?nil:v);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V ocast(Object v) {
+	return((v == nil)?null:((V)v));
+    }
+
+    private static int hash(long k) {
+	long h = k * 0x9e3779b97f4a7c15L;
+	return((int)(h ^ (h >>> 32)));
+    }
+
+    private int find(long k) {
+	for(int i = hash(k) & mask; vals[i] != null; i = (i + 1) & mask) {
+	    if(keys[i] == k)
+		return(i);
+	}
+	return(-1);
+    }
+
+    private void rehash(int n) {
+	long[] ok = keys;
+	Object[] ov = vals;
+	keys = new long[n];
+	vals = new Object[n];
+	mask = n - 1;
+	for(int o = 0; o < ov.length; o++) {
+	    if(ov[o] == null)
+		continue;
+	    int i = hash(ok[o]) & mask;
+	    while(vals[i] != null)
+		i = (i + 1) & mask;
+	    keys[i] = ok[o];
+	    vals[i] = ov[o];
+	}
+    }
+
+    /* Empties slot i, moving back any later entries of its probe
+     * chain which would otherwise become unreachable. */
+    private void delete(int i, Iter<?> it) {
+	int h = i;
+	for(int j = (i + 1) & mask; vals[j] != null; j = (j + 1) & mask) {
+	    int p = hash(keys[j]) & mask;
+	    if((h <= j)?((p <= h) || (p > j)):((p <= h) && (p > j))) {
+		keys[h] = keys[j];
+		vals[h] = vals[j];
+		if(it != null)
+		    it.moved(j, h);
+		h = j;
+	    }
+	}
+	vals[h] = null;
+	sz--;
+    }
+
+    public int size() {
+	return(sz);
+    }
+
+    public boolean containsKey(long k) {
+	return(find(k) >= 0);
+    }
+
+    public boolean containsKey(Object k) {
+	return((k instanceof Long) && containsKey(((Long)k).longValue()));
+    }
+
+    public V get(long k) {
+	int i = find(k);
+	return((i < 0)?null:ocast(vals[i]));
+    }
+
+    public V get(Object k) {
+	if(!(k instanceof Long))
+	    return(null);
+	return(get(((Long)k).longValue()));
+    }
+
+    public V put(long k, V v) {
+	int i;
+	for(i = hash(k) & mask; vals[i] != null; i = (i + 1) & mask) {
+	    if(keys[i] == k) {
+		V ret = ocast(vals[i]);
+		vals[i] = icast(v);
+		return(ret);
+	    }
+	}
+	if((sz + 1) * 2 > vals.length) {
+	    rehash(vals.length * 2);
+	    for(i = hash(k) & mask; vals[i] != null; i = (i + 1) & mask);
+	}
+	keys[i] = k;
+	vals[i] = icast(v);
+	sz++;
+	return(null);
+    }
+
+    public V put(Long k, V v) {
+	return(put(k.longValue(), v));
+    }
+
+    public V remove(long k) {
+	int i = find(k);
+	if(i < 0)
+	    return(null);
+	V ret = ocast(vals[i]);
+	delete(i, null);
+	return(ret);
+    }
+
+    public V remove(Object k) {
+	if(!(k instanceof Long))
+	    return(null);
+	return(remove(((Long)k).longValue()));
+    }
+
+    public void clear() {
+	Arrays.fill(vals, null);
+	sz = 0;
+    }
+
+    /* Slot-wise iteration, which allocates nothing:
+     *   for(int i = m.first(); i >= 0; i = m.next(i))
+     *       use(m.key(i), m.val(i));
+     * The map must not be modified while doing so. */
+    public int next(int i) {
+	for(i++; i < vals.length; i++) {
+	    if(vals[i] != null)
+		return(i);
+	}
+	return(-1);
+    }
+
+    public int first() {
+	return(next(-1));
+    }
+
+    public long key(int i) {
+	return(keys[i]);
+    }
+
+    public V val(int i) {
+	return(ocast(vals[i]));
+    }
+
+    /* Iterates downwards, so that removal only ever shifts entries
+     * into slots already passed. The exception is a probe chain
+     * wrapping around the end of the table, whose moved entries are
+     * remembered and returned at the end. */
+    private abstract class Iter<T> implements Iterator<T> {
+	private int pos = vals.length, last = -1, left = sz;
+	private long[] wrapped = null;
+	private int nw = 0;
+
+	void moved(int from, int to) {
+	    if((from < pos) && (to >= pos)) {
+		if(wrapped == null)
+		    wrapped = new long[2];
+		else if(nw >= wrapped.length)
+		    wrapped = Utils.extend(wrapped, wrapped.length * 2);
+		wrapped[nw++] = keys[to];
+	    }
+	}
+
+	public boolean hasNext() {
+	    return(left > 0);
+	}
+
+	int nexti() {
+	    if(left <= 0)
+		throw(new NoSuchElementException());
+	    left--;
+	    while(--pos >= 0) {
+		if(vals[pos] != null)
+		    return(last = pos);
+	    }
+	    if(nw > 0)
+		return(last = find(wrapped[--nw]));
+	    throw(new ConcurrentModificationException());
+	}
+
+	public void remove() {
+	    if(last < 0)
+		throw(new IllegalStateException());
+	    delete(last, this);
+	    last = -1;
+	}
+    }
+
+    private class IteredEntry implements Entry<Long, V> {
+	private final long k;
+
+	private IteredEntry(long k) {
+	    this.k = k;
+	}
+
+	public Long getKey()    {return(k);}
+	public V getValue()     {return(get(k));}
+
+	public boolean equals(Object o) {
+	    if(!(o instanceof Entry))
+		return(false);
+	    Entry<?, ?> e = (Entry<?, ?>)o;
+	    return(getKey().equals(e.getKey()) && Utils.eq(getValue(), e.getValue()));
+	}
+
+	public int hashCode() {
+	    V v = getValue();
+	    return(((int)(k ^ (k >>> 32))) ^ ((v == null)?0:v.hashCode()));
+	}
+
+	public V setValue(V nv) {return(put(k, nv));}
+    }
+
+    private Set<Entry<Long, V>> entries = null;
+    public Set<Entry<Long, V>> entrySet() {
+	if(entries == null)
+	    entries = new AbstractSet<Entry<Long, V>>() {
+		public int size() {
+		    return(sz);
+		}
+
+		public Iterator<Entry<Long, V>> iterator() {
+		    return(new Iter<Entry<Long, V>>() {
+			    public Entry<Long, V> next() {
+				return(new IteredEntry(keys[nexti()]));
+			    }
+			});
+		}
+
+		public void clear() {
+		    LongMap.this.clear();
+		}
+	    };
+	return(entries);
+    }
+
+    private Collection<V> values = null;
+    public Collection<V> values() {
+	if(values == null)
+	    values = new AbstractCollection<V>() {
+		public int size() {
+		    return(sz);
+		}
+
+		public Iterator<V> iterator() {
+		    return(new Iter<V>() {
+			    public V next() {
+				return(ocast(vals[nexti()]));
+			    }
+			});
+		}
+
+		public void clear() {
+		    LongMap.this.clear();
+		}
+	    };
+	return(values);
+    }
+}
@@ -27,6 +27,7 @@
 package haven;
 
 public class Lumin extends GAttrib {
+    public static final int slot = GAttrib.slot(Lumin.class);
     Coord off;
     int sz, str;
 	
@@ -36,4 +37,8 @@ public class Lumin extends GAttrib {
 	this.sz = sz;
 	this.str = str;
     }
+
+    public boolean idle() {
+	return(true);
+    }
 }
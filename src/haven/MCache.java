@@ -30,6 +30,7 @@ import java.util.*;
 import java.lang.ref.*;
 import haven.Resource.Tileset;
 import haven.Resource.Tile;
+import haven.resutil.Ridges;
 
 public class MCache {
     public static final Coord tilesz = new Coord(11, 11);
@@ -45,11 +46,15 @@ public class MCache {
     private final Reference<Tiler>[] tiles = new Reference[256];
     Map<Coord, Request> req = new HashMap<Coord, Request>();
     Map<Coord, Grid> grids = new HashMap<Coord, Grid>();
+    private final ThreadLocal<Grid> lgrid = new ThreadLocal<Grid>();
+    public volatile int zseq = 0;
     Session sess;
     Set<Overlay> ols = new HashSet<Overlay>();
-    public int olseq = 0;
+    private final Map<Coord, Collection<Overlay>> olidx = new HashMap<Coord, Collection<Overlay>>();
     Random gen = new Random();
     Map<Integer, Defrag> fragbufs = new TreeMap<Integer, Defrag>();
+    private final Map<Resource, Sprite> flavspr = new HashMap<Resource, Sprite>();
+    private final Map<Resource, Sprite.Pending> flavpend = new HashMap<Resource, Sprite.Pending>();
 
     public static class LoadingMap extends Loading {
 	public LoadingMap() {super("Waiting for map data...");}
@@ -58,16 +63,6 @@ public class MCache {
 	}
     }
     
-  //Constructor so we can access statics
-    public MCache(){}
-  //Turns off flavor creation, an extra step rather than just flavor rendering
-  	public static boolean HideFlavor = false;
-  	public void Hide(boolean val){
-      	HideFlavor = val;
-      }
-  	
-  	
-
     private static class Request {
 	private long lastreq = 0;
 	private int reqs = 0;
@@ -81,20 +76,79 @@ public class MCache {
 	    this.c1 = c1;
 	    this.c2 = c2;
 	    this.mask = mask;
-	    ols.add(this);
-	    olseq++;
+	    synchronized(ols) {
+		ols.add(this);
+		olindex(this, true);
+	    }
+	    olchanged(c1, c2);
 	}
 
 	public void destroy() {
-	    ols.remove(this);
-	    olseq++;
+	    synchronized(ols) {
+		if(!ols.remove(this))
+		    return;
+		olindex(this, false);
+	    }
+	    olchanged(c1, c2);
 	}
 
 	public void update(Coord c1, Coord c2) {
 	    if(!c1.equals(this.c1) || !c2.equals(this.c2)) {
-		olseq++;
-		this.c1 = c1;
-		this.c2 = c2;
+		Coord o1 = this.c1, o2 = this.c2;
+		synchronized(ols) {
+		    boolean live = ols.contains(this);
+		    if(live)
+			olindex(this, false);
+		    this.c1 = c1;
+		    this.c2 = c2;
+		    if(live)
+			olindex(this, true);
+		}
+		olchanged(o1, o2);
+		olchanged(c1, c2);
+	    }
+	}
+
+	private boolean covers(int x, int y) {
+	    return((x >= c1.x) && (y >= c1.y) && (x <= c2.x) && (y <= c2.y));
+	}
+    }
+
+    /* Overlays are bucketed by the map cuts they cover, so that
+     * tile lookups only need to look at the overlays nearby. */
+    private void olindex(Overlay ol, boolean add) {
+	int x1 = Utils.floordiv(ol.c1.x, cutsz.x), y1 = Utils.floordiv(ol.c1.y, cutsz.y);
+	int x2 = Utils.floordiv(ol.c2.x, cutsz.x), y2 = Utils.floordiv(ol.c2.y, cutsz.y);
+	for(int y = y1; y <= y2; y++) {
+	    for(int x = x1; x <= x2; x++) {
+		Coord cc = new Coord(x, y);
+		Collection<Overlay> b = olidx.get(cc);
+		if(add) {
+		    if(b == null)
+			olidx.put(cc, b = new ArrayList<Overlay>(1));
+		    b.add(ol);
+		} else if(b != null) {
+		    b.remove(ol);
+		    if(b.isEmpty())
+			olidx.remove(cc);
+		}
+	    }
+	}
+    }
+
+    /* Marks the overlay meshes of all cuts intersecting the given
+     * tile rectangle as stale, leaving the rest of the map be. */
+    private void olchanged(Coord c1, Coord c2) {
+	int x1 = Utils.floordiv(c1.x, cutsz.x), y1 = Utils.floordiv(c1.y, cutsz.y);
+	int x2 = Utils.floordiv(c2.x, cutsz.x), y2 = Utils.floordiv(c2.y, cutsz.y);
+	synchronized(grids) {
+	    for(int y = y1; y <= y2; y++) {
+		for(int x = x1; x <= x2; x++) {
+		    Coord cc = new Coord(x, y);
+		    Grid g = grids.get(cc.div(cutn));
+		    if(g != null)
+			g.ivolcut(cc.mod(cutn));
+		}
 	    }
 	}
     }
@@ -104,31 +158,22 @@ public class MCache {
 	public final int z[] = new int[cmaps.x * cmaps.y];
 	public final int ol[] = new int[cmaps.x * cmaps.y];
 	private final Cut cuts[];
-	int olseq = -1;
-	private Collection<Gob>[] fo = null;
 	public final Coord gc, ul;
 	public long id;
 	String mnm;
+	volatile boolean disposed = false;
+	private volatile byte[] rbrk = null;
+	private int rseq = 0;
 
 	private class Cut {
 	    MapMesh mesh;
 	    Defer.Future<MapMesh> dmesh;
 	    Rendered[] ols;
+	    MapMesh olmesh;
+	    boolean olstale;
 	    int deftag;
-	}
-
-	private class Flavobj extends Gob {
-	    private Flavobj(Coord c, double a) {
-		super(sess.glob, c);
-		this.a = a;
-	    }
-
-	    public Random mkrandoom() {
-		Random r = new Random(Grid.this.id);
-		r.setSeed(r.nextInt() ^ rc.x);
-		r.setSeed(r.nextInt() ^ rc.y);
-		return(r);
-	    }
+	    Flavobjs fo;
+	    Defer.Future<Flavobjs> dfo;
 	}
 
 	public Grid(Coord gc) {
@@ -150,43 +195,83 @@ public class MCache {
 	public int getol(Coord tc) {
 	    return(ol[tc.x + (tc.y * cmaps.x)]);
 	}
+
+	/* Returns the ridge break bits of every tile in this grid, as
+	 * computed by Ridges.breakmap(). They are computed once and kept
+	 * until this grid or one of its neighbours changes. */
+	public byte[] ridges() {
+	    byte[] ret = rbrk;
+	    if(ret != null)
+		return(ret);
+	    int seq;
+	    synchronized(this) {
+		seq = rseq;
+	    }
+	    ret = mkridges();
+	    synchronized(this) {
+		if(rseq == seq)
+		    rbrk = ret;
+	    }
+	    return(ret);
+	}
+
+	private byte[] mkridges() {
+	    int w = cmaps.x, h = cmaps.y, s = w + 2;
+	    int[] t = new int[s * (h + 2)], z = new int[s * (h + 2)];
+	    Arrays.fill(t, -1);
+	    Arrays.fill(z, Integer.MIN_VALUE);
+	    Grid[] ng = new Grid[9];
+	    synchronized(grids) {
+		for(int i = 0; i < 9; i++)
+		    ng[i] = grids.get(gc.add((i % 3) - 1, (i / 3) - 1));
+	    }
+	    ng[4] = this;
+	    for(int y = -1; y <= h; y++) {
+		for(int x = -1; x <= w; x++) {
+		    Grid g = ng[((x < 0)?0:((x < w)?1:2)) + (((y < 0)?0:((y < h)?1:2)) * 3)];
+		    if(g == null)
+			continue;
+		    int go = Utils.floormod(x, w) + (Utils.floormod(y, h) * w);
+		    int o = (x + 1) + ((y + 1) * s);
+		    t[o] = g.tiles[go];
+		    z[o] = g.z[go];
+		}
+	    }
+	    return(Ridges.breakmap(MCache.this, t, z, w, h));
+	}
+
+	private void ivridges() {
+	    synchronized(this) {
+		rbrk = null;
+		rseq++;
+	    }
+	}
 	
 	
-	private void makeflavor() {
-		if(!(HideFlavor)){
-		    @SuppressWarnings("unchecked")
-		    Collection<Gob>[] fo = (Collection<Gob>[])new Collection[cutn.x * cutn.y];
-		    for(int i = 0; i < fo.length; i++)
-			fo[i] = new LinkedList<Gob>();
-		    Coord c = new Coord(0, 0);
-		    Coord tc = gc.mul(cmaps);
-		    int i = 0;
-		    Random rnd = new Random(id);
-		    for(c.y = 0; c.y < cmaps.x; c.y++) {
-			for(c.x = 0; c.x < cmaps.y; c.x++, i++) {
-			    Tileset set = tileset(tiles[i]);
-			    int fp = rnd.nextInt();
-			    int rp = rnd.nextInt();
-			    double a = rnd.nextDouble();
-			    if(set.flavobjs.size() > 0) {
-					if((fp % set.flavprob) == 0) {
-					    Indir<Resource> r = set.flavobjs.pick(rp % set.flavobjs.tw);
-					    Gob g = new Flavobj(c.add(tc).mul(tilesz).add(tilesz.div(2)), a * 2 * Math.PI);
-					    g.setattr(new ResDrawable(g, r, Message.nil));
-					    Coord cc = c.div(cutsz);
-					    fo[cc.x + (cc.y * cutn.x)].add(g);
-					}
-			    }
-			}
-		    }
-		    this.fo = fo;
+	public Flavobjs getfo(Coord cc) {
+	    Cut cut = geticut(cc);
+	    if(cut.dfo != null) {
+		if(cut.dfo.done()) {
+		    cut.fo = cut.dfo.get();
+		    cut.dfo = null;
 		}
-	}
+	    } else if(cut.fo == null) {
+		final Coord ul = this.ul.add(cc.mul(cutsz));
+		final Random rnd = new Random(id);
+		rnd.setSeed(rnd.nextInt() ^ cc.x);
+		rnd.setSeed(rnd.nextInt() ^ cc.y);
+		rnd.setSeed(rnd.nextInt());
+		cut.dfo = Defer.later(new Defer.Callable<Flavobjs>() {
+			public Flavobjs call() {
+			    return(Flavobjs.build(MCache.this, id, ul, cutsz, rnd));
+			}
 
-	public Collection<Gob> getfo(Coord cc) {
-	    if(fo == null)
-		makeflavor();
-	    return(fo[cc.x + (cc.y * cutn.x)]);
+			public String toString() {
+			    return("Placing flavor objects...");
+			}
+		    });
+	    }
+	    return(cut.fo);
 	}
 	
 	private Cut geticut(Coord cc) {
@@ -208,24 +293,28 @@ public class MCache {
 	}
 	
 	public Rendered getolcut(int ol, Coord cc) {
-	    int nseq = MCache.this.olseq;
-	    if(this.olseq != nseq) {
-		for(int i = 0; i < cutn.x * cutn.y; i++) {
-		    if(cuts[i].ols != null) {
-			for(Rendered r : cuts[i].ols) {
-			    if(r instanceof Disposable)
-				((Disposable)r).dispose();
-			}
-		    }
-		    cuts[i].ols = null;
+	    Cut cut = geticut(cc);
+	    MapMesh mesh = getcut(cc);
+	    if(mesh == null)
+		return(null);
+	    if((cut.ols != null) && (cut.olstale || (cut.olmesh != mesh))) {
+		for(Rendered r : cut.ols) {
+		    if(r instanceof Disposable)
+			((Disposable)r).dispose();
 		}
-		this.olseq = nseq;
+		cut.ols = null;
+	    }
+	    if(cut.ols == null) {
+		cut.olstale = false;
+		cut.ols = mesh.makeols();
+		cut.olmesh = mesh;
 	    }
-	    Cut cut = geticut(cc);
-	    if(cut.ols == null)
-		cut.ols = getcut(cc).makeols();
 	    return(cut.ols[ol]);
 	}
+
+	public void ivolcut(Coord cc) {
+	    geticut(cc).olstale = true;
+	}
 	
 	private void buildcut(final Coord cc) {
 	    final Cut cut = geticut(cc);
@@ -247,6 +336,7 @@ public class MCache {
 	}
 
 	public void ivneigh(Coord nc) {
+	    ivridges();
 	    Coord cc = new Coord();
 	    for(cc.y = 0; cc.y < cutn.y; cc.y++) {
 		for(cc.x = 0; cc.x < cutn.x; cc.x++) {
@@ -259,20 +349,26 @@ public class MCache {
 	}
 	
 	public void tick(int dt) {
-	    if(fo != null) {
-		for(Collection<Gob> fol : fo) {
-		    for(Gob fo : fol)
-			fo.ctick(dt);
-		}
+	    for(Cut cut : cuts) {
+		if(cut.fo != null)
+		    cut.fo.tick(dt);
 	    }
 	}
 	
 	private void invalidate() {
+	    ivridges();
 	    for(int y = 0; y < cutn.y; y++) {
 		for(int x = 0; x < cutn.x; x++)
 		    buildcut(new Coord(x, y));
 	    }
-	    fo = null;
+	    for(Cut cut : cuts) {
+		if(cut.dfo != null)
+		    cut.dfo.cancel();
+		cut.dfo = null;
+		if(cut.fo != null)
+		    cut.fo.dispose();
+		cut.fo = null;
+	    }
 	    for(Coord ic : new Coord[] {
 		    new Coord(-1, -1), new Coord( 0, -1), new Coord( 1, -1),
 		    new Coord(-1,  0),                    new Coord( 1,  0),
@@ -284,11 +380,16 @@ public class MCache {
 	}
 
 	public void dispose() {
+	    disposed = true;
 	    for(Cut cut : cuts) {
 		if(cut.dmesh != null)
 		    cut.dmesh.cancel();
 		if(cut.mesh != null)
 		    cut.mesh.dispose();
+		if(cut.dfo != null)
+		    cut.dfo.cancel();
+		if(cut.fo != null)
+		    cut.fo.dispose();
 		if(cut.ols != null) {
 		    for(Rendered r : cut.ols) {
 			if(r instanceof Disposable)
@@ -369,6 +470,49 @@ public class MCache {
 		g.tick(dt);
 	    }
 	}
+	synchronized(flavspr) {
+	    for(Sprite spr : flavspr.values()) {
+		if(spr != null)
+		    spr.tick(dt);
+	    }
+	}
+    }
+
+    private final Sprite.Owner flavowner = new Sprite.Owner() {
+	    public Random mkrandoom() {return(new Random(0));}
+	    public Resource getres() {return(null);}
+	    public Glob glob() {return(sess.glob);}
+	};
+
+    /* Returns the sprite shared by all flavor objects of the given
+     * resource, or null if the resource's sprite depends on its
+     * owner so that each object needs one of its own. The sprite is
+     * built in the background, and Loading thrown until it is. */
+    public Sprite flavspr(Indir<Resource> res) {
+	Resource r = res.get();
+	Sprite.Pending p;
+	synchronized(flavspr) {
+	    if(flavspr.containsKey(r))
+		return(flavspr.get(r));
+	    if((r.getcode(Sprite.Factory.class, false) != null) || (r.layer(SpriteLink.class) != null)) {
+		flavspr.put(r, null);
+		return(null);
+	    }
+	    if((p = flavpend.get(r)) == null)
+		flavpend.put(r, p = new Sprite.Pending(flavowner, res, Message.nil));
+	}
+	Sprite spr = p.get();
+	synchronized(flavspr) {
+	    if(flavpend.get(r) == p) {
+		flavpend.remove(r);
+		if(!(spr instanceof StaticSprite)) {
+		    spr.dispose();
+		    spr = null;
+		}
+		flavspr.put(r, spr);
+	    }
+	    return(flavspr.get(r));
+	}
     }
 
     public void invalidate(Coord cc) {
@@ -419,13 +563,54 @@ public class MCache {
 	return(g.getz(tc.sub(g.ul)));
     }
 
+    /* Like getgridt(), but without allocating or taking the grids
+     * lock when the tile lies in the same grid as this thread's last
+     * query, which it almost always does. */
+    private Grid getgridt(int tx, int ty) {
+	Grid g = lgrid.get();
+	if((g != null) && !g.disposed &&
+	   (tx >= g.ul.x) && (ty >= g.ul.y) && (tx < g.ul.x + cmaps.x) && (ty < g.ul.y + cmaps.y))
+	    return(g);
+	g = getgrid(new Coord(Utils.floordiv(tx, cmaps.x), Utils.floordiv(ty, cmaps.y)));
+	lgrid.set(g);
+	return(g);
+    }
+
+    public int gettile(int tx, int ty) {
+	Grid g = getgridt(tx, ty);
+	return(g.tiles[(tx - g.ul.x) + ((ty - g.ul.y) * cmaps.x)]);
+    }
+
+    public int getz(int tx, int ty) {
+	Grid g = getgridt(tx, ty);
+	return(g.z[(tx - g.ul.x) + ((ty - g.ul.y) * cmaps.x)]);
+    }
+
+    public int getrbrk(int tx, int ty) {
+	Grid g = getgridt(tx, ty);
+	return(g.ridges()[(tx - g.ul.x) + ((ty - g.ul.y) * cmaps.x)]);
+    }
+
     public float getcz(float px, float py) {
 	float tw = tilesz.x, th = tilesz.y;
-	Coord ul = new Coord(Utils.floordiv(px, tw), Utils.floordiv(py, th));
+	int ux = Utils.floordiv(px, tw), uy = Utils.floordiv(py, th);
 	float sx = Utils.floormod(px, tw) / tw;
 	float sy = Utils.floormod(py, th) / th;
-	return(((1.0f - sy) * (((1.0f - sx) * getz(ul)) + (sx * getz(ul.add(1, 0))))) +
-	       (sy * (((1.0f - sx) * getz(ul.add(0, 1))) + (sx * getz(ul.add(1, 1))))));
+	return(((1.0f - sy) * (((1.0f - sx) * getz(ux, uy)) + (sx * getz(ux + 1, uy)))) +
+	       (sy * (((1.0f - sx) * getz(ux, uy + 1)) + (sx * getz(ux + 1, uy + 1)))));
+    }
+
+    /* Resolves the heights of n points, given as x/y pairs in pc, into
+     * z. Points whose map data is not yet available get NaN rather
+     * than aborting the whole batch. */
+    public void getcz(float[] pc, float[] z, int n) {
+	for(int i = 0; i < n; i++) {
+	    try {
+		z[i] = getcz(pc[i * 2], pc[(i * 2) + 1]);
+	    } catch(Loading l) {
+		z[i] = Float.NaN;
+	    }
+	}
     }
 
     public float getcz(Coord pc) {
@@ -434,10 +619,15 @@ public class MCache {
 
     public int getol(Coord tc) {
 	Grid g = getgridt(tc);
-	int ol = g.getol(tc.sub(g.ul));
-	for(Overlay lol : ols) {
-	    if(tc.isect(lol.c1, lol.c2.add(lol.c1.inv()).add(new Coord(1, 1))))
-		ol |= lol.mask;
+	int ol = g.ol[(tc.x - g.ul.x) + ((tc.y - g.ul.y) * cmaps.x)];
+	synchronized(ols) {
+	    Collection<Overlay> b = olidx.get(new Coord(Utils.floordiv(tc.x, cutsz.x), Utils.floordiv(tc.y, cutsz.y)));
+	    if(b != null) {
+		for(Overlay lol : b) {
+		    if(lol.covers(tc.x, tc.y))
+			ol |= lol.mask;
+		}
+	    }
 	}
 	return(ol);
     }
@@ -446,7 +636,7 @@ public class MCache {
 	return(getgrid(cc.div(cutn)).getcut(cc.mod(cutn)));
     }
     
-    public Collection<Gob> getfo(Coord cc) {
+    public Flavobjs getfo(Coord cc) {
 	return(getgrid(cc.div(cutn)).getfo(cc.mod(cutn)));
     }
 
@@ -464,7 +654,7 @@ public class MCache {
 			grids.put(c, g = new Grid(c));
 		    g.fill(msg);
 		    req.remove(c);
-		    olseq++;
+		    zseq++;
 		}
 	    }
 	}
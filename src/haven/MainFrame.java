@@ -400,6 +400,7 @@ public class MainFrame extends java.awt.Frame implements Runnable, Console.Direc
 		}
 	    } catch(IOException e) {}
 	}
+	GLProgCache.save();
 	System.exit(0);
     }
     
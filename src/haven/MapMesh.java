@@ -35,7 +35,7 @@ import java.nio.ShortBuffer;
 import haven.Surface.Vertex;
 import haven.Surface.MeshVertex;
 
-public class MapMesh implements Rendered, Disposable {
+public class MapMesh implements Rendered.Retained, Disposable {
     public final Coord ul, sz;
     public final MCache map;
     private final long rnd;
@@ -44,6 +44,8 @@ public class MapMesh implements Rendered, Disposable {
     private List<Rendered> extras = new ArrayList<Rendered>();
     private FastMesh[] flats;
     private List<Disposable> dparts = new ArrayList<Disposable>();
+    /* The height range of all geometry in this mesh. */
+    public float minz = 0, maxz = 0;
 
     public interface DataID<T> {
 	public T make(MapMesh m);
@@ -330,11 +332,29 @@ public class MapMesh implements Rendered, Disposable {
 	}
 	
 	m.consflat();
+	m.zbounds();
 	
 	m.clean();
 	return(m);
     }
 
+    private void zbounds() {
+	boolean f = true;
+	for(Disposable p : dparts) {
+	    if(!(p instanceof FastMesh))
+		continue;
+	    Coord3f nb = ((FastMesh)p).nbounds(), pb = ((FastMesh)p).pbounds();
+	    if(nb == null)
+		continue;
+	    if(f) {
+		minz = nb.z; maxz = pb.z;
+		f = false;
+	    } else {
+		minz = Math.min(minz, nb.z); maxz = Math.max(maxz, pb.z);
+	    }
+	}
+    }
+
     private static States.DepthOffset gmoff = new States.DepthOffset(-1, -1);
     public static class GroundMod implements Rendered, Disposable {
 	private static final Order gmorder = new Order.Default(1001);
@@ -603,10 +623,34 @@ public class MapMesh implements Rendered, Disposable {
 	for(Disposable p : dparts)
 	    p.dispose();
     }
+
+    public int tris() {
+	int n = 0;
+	for(Disposable p : dparts) {
+	    if(p instanceof FastMesh)
+		n += ((FastMesh)p).num;
+	}
+	return(n);
+    }
     
     public boolean setup(RenderList rl) {
 	for(Rendered e : extras)
 	    rl.add(e, null);
 	return(true);
     }
+
+    public Object rkey(RenderList rl) {
+	return(this);
+    }
+
+    public void kept(GLState.Buffer st) {}
+
+    private Location loc = null;
+    /* The cut's translation into place, shared between frames so
+     * that its set up subtree can be retained. */
+    public Location loc() {
+	if(loc == null)
+	    loc = Location.xlate(new Coord3f(ul.x * tilesz.x, -ul.y * tilesz.y, 0));
+	return(loc);
+    }
 }
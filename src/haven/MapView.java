@@ -408,6 +408,52 @@ public class MapView extends PView implements DTarget, Console.Directory {
     
     
     
+    private final Frustum frustum = new Frustum();
+    private float[] shdir = null;
+    /* Counts of what was culled and drawn in the last frame, for the
+     * debug display. */
+    public int culledgobs, drawngobs, culledcuts, drawncuts;
+
+    /* Returns how far the shadow of something h high may reach along
+     * shdir, or zero when shadows are off. */
+    private float shlen(float h) {
+	if((shdir == null) || (shdir[2] <= 0))
+	    return(0);
+	return(Math.min(h / shdir[2], 750));
+    }
+
+    /* Height allowed above a cut's terrain for its flavor objects. */
+    private static final float flavh = 25;
+    private boolean cutvis(Coord pc, MapMesh cut) {
+	float w = MCache.cutsz.x * tilesz.x, h = MCache.cutsz.y * tilesz.y;
+	float l = shlen(cut.maxz + flavh - cut.minz);
+	float dx = 0, dy = 0, dz = 0;
+	if(l > 0) {
+	    dx = -shdir[0] * l; dy = -shdir[1] * l; dz = -shdir[2] * l;
+	}
+	return(frustum.box(pc.x, -pc.y - h, cut.minz, pc.x + w, -pc.y, cut.maxz + flavh, dx, dy, dz));
+    }
+
+    /* Only gobs whose drawables know their bounds and which carry
+     * no overlays are ever culled. */
+    private boolean gobvis(Gob gob) {
+	if(!gob.ols.isEmpty())
+	    return(true);
+	Drawable d = (Drawable)gob.getattr(Drawable.slot);
+	float[] b = (d == null)?null:d.bounds();
+	if(b == null)
+	    return(true);
+	gob.loc.tick();
+	float hh = (b[2] - b[1]) / 2;
+	float r = ((float)Math.sqrt((b[0] * b[0]) + (hh * hh)) * 1.1f) + 1;
+	float l = shlen(b[2] - b[1]);
+	float dx = 0, dy = 0, dz = 0;
+	if(l > 0) {
+	    dx = -shdir[0] * l; dy = -shdir[1] * l; dz = -shdir[2] * l;
+	}
+	return(frustum.sphere(gob.cx, -gob.cy, gob.cz + b[1] + hh, r, dx, dy, dz));
+    }
+
     private final Rendered map = new Rendered() {
 	    public void draw(GOut g) {}
 	    
@@ -418,20 +464,23 @@ public class MapView extends PView implements DTarget, Console.Directory {
 		    for(o.x = -view; o.x <= view; o.x++) {
 			Coord pc = cc.add(o).mul(MCache.cutsz).mul(tilesz);
 			MapMesh cut = glob.map.getcut(cc.add(o));
-			rl.add(cut, Location.xlate(new Coord3f(pc.x, -pc.y, 0)));
-			
-			if(!(new MCache().HideFlavor)){
-				Collection<Gob> fol;
-				try {
-				    fol = glob.map.getfo(cc.add(o));
-				} catch(Loading e) {
-				    fol = Collections.emptyList();
-				}
-				for(Gob fo : fol)
-				    addgob(rl, fo);
+			if((cut != null) && !cutvis(pc, cut)) {
+			    culledcuts++;
+			    continue;
+			}
+			drawncuts++;
+			rl.fork(cut, cut.loc());
+			if(rl.cfg.pref.flavdens.val > 0) {
+			    Flavobjs fo;
+			    try {
+				fo = glob.map.getfo(cc.add(o));
+			    } catch(Loading e) {
+				fo = null;
 			    }
+			    if(fo != null)
+				rl.fork(fo, null);
+			}
 		    }
- 
 		}
 		return(false);
 	    }
@@ -463,6 +512,9 @@ public class MapView extends PView implements DTarget, Console.Directory {
 		for(o.y = -view; o.y <= view; o.y++) {
 		    for(o.x = -view; o.x <= view; o.x++) {
 			Coord pc = cc.add(o).mul(MCache.cutsz).mul(tilesz);
+			MapMesh cut = glob.map.getcut(cc.add(o));
+			if((cut != null) && !cutvis(pc, cut))
+			    continue;
 			for(int i = 0; i < visol.length; i++) {
 			    if(mats[i] == null)
 				continue;
@@ -470,7 +522,7 @@ public class MapView extends PView implements DTarget, Console.Directory {
 				Rendered olcut;
 				olcut = glob.map.getolcut(i, cc.add(o));
 				if(olcut != null)
-				    rl.add(olcut, GLState.compose(Location.xlate(new Coord3f(pc.x, -pc.y, 0)), mats[i]));
+				    rl.fork(olcut, GLState.compose(Location.xlate(new Coord3f(pc.x, -pc.y, 0)), mats[i]));
 			    }
 			}
 		    }
@@ -486,28 +538,70 @@ public class MapView extends PView implements DTarget, Console.Directory {
 	} catch(Loading e) {
 	    xf = null;
 	}
+	if((xf == null) && !gobvis(gob)) {
+	    culledgobs++;
+	    return;
+	}
+	drawngobs++;
+	glob.oc.seen(gob);
 	GLState extra = null;
 	if(xf == null) {
 	    xf = gob.loc;
 	    try {
-		Coord3f c = gob.getc();
-		Tiler tile = glob.map.tiler(glob.map.gettile(new Coord(c).div(tilesz)));
-		extra = tile.drawstate(glob, rl.cfg, c);
+		Tiler tile = glob.map.tiler(glob.map.gettile(Utils.floordiv(gob.cx, tilesz.x), Utils.floordiv(gob.cy, tilesz.y)));
+		extra = tile.drawstate(glob, rl.cfg, gob.cx, gob.cy, gob.cz);
 	    } catch(Loading e) {
 		extra = null;
 	    }
 	}
-	rl.add(gob, GLState.compose(extra, xf, gob.olmod, gob.save));
+	rl.fork(gob, gob.drawstate(extra, xf), gob);
+    }
+
+    private Gob[] zgobs = new Gob[64];
+    private float[] zpc = new float[128], zres = new float[64];
+    /* Resolves the terrain heights of all gobs that have moved or
+     * whose map data has changed since the last frame in one pass,
+     * rather than once per gob as they are set up. */
+    private void resolvez(Collection<Gob> gobs) {
+	int seq = glob.map.zseq;
+	int n = 0;
+	for(Gob gob : gobs) {
+	    if(!gob.rczstale(seq))
+		continue;
+	    if(n >= zgobs.length) {
+		zgobs = Utils.extend(zgobs, n * 2);
+		zpc = Utils.extend(zpc, n * 4);
+		zres = Utils.extend(zres, n * 2);
+	    }
+	    zgobs[n] = gob;
+	    zpc[(n * 2) + 0] = gob.rc.x;
+	    zpc[(n * 2) + 1] = gob.rc.y;
+	    n++;
+	}
+	glob.map.getcz(zpc, zres, n);
+	for(int i = 0; i < n; i++) {
+	    if(!Float.isNaN(zres[i]))
+		zgobs[i].setrcz((int)zpc[i * 2], (int)zpc[(i * 2) + 1], seq, zres[i]);
+	    zgobs[i] = null;
+	}
     }
 
+    private final List<Gob> vgobs = new ArrayList<Gob>();
     private final Rendered gobs = new Rendered() {
 	    public void draw(GOut g) {}
 	    
 	    public boolean setup(RenderList rl) {
-		synchronized(glob.oc) {
-		    for(Gob gob : glob.oc)
+		/* Only gobs over the map cuts being drawn, with a cut's
+		 * worth of margin, are set up at all. */
+		Coord vr = MCache.cutsz.mul(view + 1).mul(tilesz);
+		glob.oc.range(MapView.this.cc.sub(vr), MapView.this.cc.add(vr), vgobs);
+		resolvez(vgobs);
+		for(Gob gob : vgobs) {
+		    synchronized(gob) {
 			addgob(rl, gob);
+		    }
 		}
+		vgobs.clear();
 		return(false);
 	    }
 	};
@@ -554,11 +648,16 @@ public class MapView extends PView implements DTarget, Console.Directory {
 	Gob pl = player();
 	if(pl != null)
 	    this.cc = new Coord(pl.getc());
+	frustum.update(camera.proj.fin(Matrix4f.id).mul(camera.view.fin(Matrix4f.id)));
+	culledgobs = drawngobs = culledcuts = drawncuts = 0;
+	shdir = null;
 	synchronized(glob) {
 	    if(glob.lightamb != null) {
 		DirLight light = new DirLight(glob.lightamb, glob.lightdif, glob.lightspc, Coord3f.o.sadd((float)glob.lightelev, (float)glob.lightang, 1f));
 		rl.add(light, null);
 		updsmap(rl, light);
+		if(smap != null)
+		    shdir = light.dir;
 		amb = light;
 	    } else {
 		amb = null;
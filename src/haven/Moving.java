@@ -27,11 +27,83 @@
 package haven;
 
 public abstract class Moving extends GAttrib {
+    public static final int slot = GAttrib.slot(Moving.class);
+    /* Moving attributes which simulate their motion do so in fixed
+     * steps of this many milliseconds, keeping the flat positions
+     * after the last two steps. Positions are then interpolated
+     * between those two by the time since, so that motion is smooth
+     * at any frame rate and tick granularity, at the price of one
+     * step of latency. */
+    public static final int step = 30;
+    protected float px, py, nx, ny;
+    private int acc = 0;
+    private boolean stepped = false;
+
     public Moving(Gob gob) {
 	super(gob);
     }
 	
     public void move(Coord c) {}
+
+    /* Simulates dt milliseconds of motion, setting nx and ny to the
+     * resulting position. By default, the gob stays where it is. */
+    protected void advance(int dt) {}
+
+    /* Starts stepped simulation from the given position. */
+    protected void stepfrom(float x, float y) {
+	px = nx = x;
+	py = ny = y;
+	acc = 0;
+	stepped = true;
+    }
+
+    /* Runs as many steps as dt completes, and returns whether there
+     * were any. */
+    protected boolean steps(int dt) {
+	if((acc += dt) < step)
+	    return(false);
+	int n = acc / step;
+	if(n > 1) {
+	    /* Motion is linear within each tick anyway, so long gaps
+	     * need not be simulated step by step. */
+	    advance((n - 1) * step);
+	    acc -= (n - 1) * step;
+	}
+	px = nx; py = ny;
+	advance(step);
+	acc -= step;
+	return(true);
+    }
+
+    /* Whether the drawn position still differs from the simulated
+     * one. */
+    protected boolean settling() {
+	return((px != nx) || (py != ny));
+    }
+
+    /* Writes the flat position to draw the gob at into c, without
+     * allocating, and returns true, or returns false if this
+     * attribute does not simulate its motion in steps, whereupon
+     * getc() must be used instead. */
+    public boolean drawc(float[] c) {
+	if(!stepped)
+	    return(false);
+	float f = (float)acc / step;
+	c[0] = px + ((nx - px) * f);
+	c[1] = py + ((ny - py) * f);
+	return(true);
+    }
+
+    /* The interpolated position, for implementing getc(). */
+    protected Coord3f stepc() {
+	float f = (float)acc / step;
+	float x = px + ((nx - px) * f), y = py + ((ny - py) * f);
+	return(new Coord3f(x, y, gob.glob.map.getcz(x, y)));
+    }
+
+    public boolean idle() {
+	return(false);
+    }
 	
     public abstract Coord3f getc();
     public abstract double getv();
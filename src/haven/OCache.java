@@ -29,52 +29,438 @@ package haven;
 import java.util.*;
 
 public class OCache implements Iterable<Gob> {
+    /* Gobs are bucketed by the map cut they are in, so that spatial
+     * queries only need to look at the gobs nearby. */
+    public static final Coord bucketsz = MCache.cutsz.mul(MCache.tilesz);
     /* XXX: Use weak refs */
     private Collection<Collection<Gob>> local = new LinkedList<Collection<Gob>>();
-    private Map<Long, Gob> objs = new TreeMap<Long, Gob>();
-    private Map<Long, Integer> deleted = new TreeMap<Long, Integer>();
+    private LongMap<Gob> objs = new LongMap<Gob>();
+    private Map<Coord, List<Gob>> sidx = new HashMap<Coord, List<Gob>>();
+    private final Deleted deleted = new Deleted(300000, 65536);
+    /* Readers iterate over this copy of the live gobs without
+     * locking, and it is only rebuilt after the membership changes.
+     * Changes to the gobs themselves are made under each gob's own
+     * monitor. */
+    private volatile Gob[] snap = null;
+    /* Only gobs with something to animate are kept in the active set
+     * and ticked. Idle ones are parked until an update wakes them, and
+     * active ones which have not been drawn lately are ticked only
+     * every slowrate ticks, with the time they missed. */
+    public static final int slowrate = 8;
+    private final Object sched = new Object();
+    private Gob[] active = new Gob[64], tbuf = new Gob[64];
+    private int nactive = 0, nslow = 0, tframe = 0;
     private Glob glob;
 	
     public OCache(Glob glob) {
 	this.glob = glob;
     }
-	
-    public synchronized void remove(long id, int frame) {
-	if(objs.containsKey(id)) {
-	    if(!deleted.containsKey(id) || deleted.get(id) < frame) {
-		Gob old = objs.remove(id);
-		deleted.put(id, frame);
-		old.dispose();
+
+    /* Remembers the frame at which gob IDs were deleted, so that late
+     * deltas for them can be ignored. This is an open-addressed table
+     * keyed by the raw IDs. Entries expire after maxage milliseconds,
+     * and only the newest maxsz of them are kept. */
+    static class Deleted {
+	public static final int NONE = Integer.MIN_VALUE;
+	private static final long EMPTY = Long.MIN_VALUE;
+	public final long maxage;
+	public final int maxsz;
+	private long[] ids, times;
+	private int[] frames;
+	private int n = 0;
+
+	Deleted(long maxage, int maxsz) {
+	    this.maxage = maxage;
+	    this.maxsz = maxsz;
+	    alloc(64);
+	}
+
+	private void alloc(int sz) {
+	    ids = new long[sz];
+	    Arrays.fill(ids, EMPTY);
+	    times = new long[sz];
+	    frames = new int[sz];
+	}
+
+	private int slot(long id) {
+	    id *= 0x9e3779b97f4a7c15l;
+	    return((int)(id >>> 32) & (ids.length - 1));
+	}
+
+	private int find(long id) {
+	    for(int i = slot(id); ; i = (i + 1) & (ids.length - 1)) {
+		if(ids[i] == id)
+		    return(i);
+		if(ids[i] == EMPTY)
+		    return(-1);
+	    }
+	}
+
+	public int get(long id) {
+	    int i = find(id);
+	    return((i < 0)?NONE:frames[i]);
+	}
+
+	public void put(long id, int frame, long now) {
+	    int i = find(id);
+	    if(i < 0) {
+		if((n + 1) * 4 > ids.length * 3)
+		    rehash(now);
+		for(i = slot(id); ids[i] != EMPTY; i = (i + 1) & (ids.length - 1));
+		ids[i] = id;
+		n++;
+	    }
+	    frames[i] = frame;
+	    times[i] = now;
+	}
+
+	public void remove(long id) {
+	    int i = find(id);
+	    if(i < 0)
+		return;
+	    /* Shift the rest of the probe chain back rather than
+	     * leaving a marker, so that lookups never slow down. */
+	    int m = ids.length - 1;
+	    for(int j = (i + 1) & m; ids[j] != EMPTY; j = (j + 1) & m) {
+		int k = slot(ids[j]);
+		if((i <= j)?((i < k) && (k <= j)):((i < k) || (k <= j)))
+		    continue;
+		ids[i] = ids[j]; frames[i] = frames[j]; times[i] = times[j];
+		i = j;
+	    }
+	    ids[i] = EMPTY;
+	    n--;
+	}
+
+	public int size() {
+	    return(n);
+	}
+
+	/* Drops expired entries, and the oldest ones beyond maxsz,
+	 * before resizing the table to fit the rest. */
+	private void rehash(long now) {
+	    long cutoff = now - maxage;
+	    int live = 0;
+	    for(int i = 0; i < ids.length; i++) {
+		if((ids[i] != EMPTY) && (times[i] >= cutoff))
+		    live++;
+	    }
+	    if(live >= maxsz) {
+		long[] ages = new long[live];
+		for(int i = 0, o = 0; i < ids.length; i++) {
+		    if((ids[i] != EMPTY) && (times[i] >= cutoff))
+			ages[o++] = times[i];
+		}
+		Arrays.sort(ages);
+		cutoff = ages[live - (maxsz / 2)];
+	    }
+	    long[] oids = ids, otimes = times;
+	    int[] oframes = frames;
+	    int nsz = 64;
+	    while(nsz < live * 2)
+		nsz <<= 1;
+	    alloc(nsz);
+	    n = 0;
+	    for(int i = 0; i < oids.length; i++) {
+		if((oids[i] == EMPTY) || (otimes[i] < cutoff))
+		    continue;
+		int o;
+		for(o = slot(oids[i]); ids[o] != EMPTY; o = (o + 1) & (ids.length - 1));
+		ids[o] = oids[i]; frames[o] = oframes[i]; times[o] = otimes[i];
+		n++;
 	    }
 	}
     }
+	
+    public void remove(long id, int frame) {
+	Gob old;
+	synchronized(this) {
+	    if(!objs.containsKey(id))
+		return;
+	    int df = deleted.get(id);
+	    if((df != Deleted.NONE) && (df >= frame))
+		return;
+	    old = objs.remove(id);
+	    deleted.put(id, frame, now());
+	    snap = null;
+	    unschedule(old);
+	}
+	sremove(old);
+	synchronized(old) {
+	    old.dispose();
+	}
+    }
     
-    public synchronized void remove(long id) {
-	objs.remove(id);
+    public void remove(long id) {
+	Gob old;
+	synchronized(this) {
+	    if((old = objs.remove(id)) == null)
+		return;
+	    snap = null;
+	    unschedule(old);
+	}
+	sremove(old);
+    }
+
+    /* Returns the live gobs as of the last change in membership. The
+     * returned array must not be modified. */
+    public Gob[] snapshot() {
+	Gob[] ret = snap;
+	if(ret == null) {
+	    synchronized(this) {
+		if((ret = snap) == null) {
+		    ret = new Gob[objs.size()];
+		    int n = 0;
+		    for(int i = objs.first(); i >= 0; i = objs.next(i))
+			ret[n++] = objs.val(i);
+		    snap = ret;
+		}
+	    }
+	}
+	return(ret);
+    }
+
+    private void sindex(Gob g, float x, float y) {
+	synchronized(sidx) {
+	    g.ocx = x; g.ocy = y;
+	    int bx = Utils.floordiv(x, bucketsz.x), by = Utils.floordiv(y, bucketsz.y);
+	    Coord ob = g.ocb;
+	    if((ob != null) && (ob.x == bx) && (ob.y == by))
+		return;
+	    sremove(g);
+	    Coord bc = new Coord(bx, by);
+	    List<Gob> b = sidx.get(bc);
+	    if(b == null)
+		sidx.put(bc, b = new ArrayList<Gob>(4));
+	    b.add(g);
+	    g.ocb = bc;
+	}
+    }
+
+    private void sremove(Gob g) {
+	synchronized(sidx) {
+	    Coord bc = g.ocb;
+	    if(bc == null)
+		return;
+	    List<Gob> b = sidx.get(bc);
+	    if(b != null) {
+		b.remove(g);
+		if(b.isEmpty())
+		    sidx.remove(bc);
+	    }
+	    g.ocb = null;
+	}
+    }
+
+    /* Updates the indexed position of a gob, for moving attributes
+     * to call as they go. Gobs not in this cache are ignored. */
+    public void relocate(Gob g, float x, float y) {
+	synchronized(sidx) {
+	    if(g.ocb != null)
+		sindex(g, x, y);
+	}
+    }
+
+    private static boolean within(float x, float y, Coord ul, Coord br) {
+	return((x >= ul.x) && (y >= ul.y) && (x <= br.x) && (y <= br.y));
+    }
+
+    /* Adds all gobs whose position lies within the given rectangle of
+     * world coordinates to buf. */
+    public <T extends Collection<? super Gob>> T range(Coord ul, Coord br, T buf) {
+	synchronized(sidx) {
+	    srange(ul, br, buf);
+	}
+	synchronized(this) {
+	    for(Collection<Gob> lc : local) {
+		for(Gob g : lc) {
+		    if(within(g.rc.x, g.rc.y, ul, br))
+			buf.add(g);
+		}
+	    }
+	}
+	return(buf);
+    }
+
+    private void srange(Coord ul, Coord br, Collection<? super Gob> buf) {
+	int x1 = Utils.floordiv(ul.x, bucketsz.x), y1 = Utils.floordiv(ul.y, bucketsz.y);
+	int x2 = Utils.floordiv(br.x, bucketsz.x), y2 = Utils.floordiv(br.y, bucketsz.y);
+	Coord bc = new Coord();
+	for(bc.y = y1; bc.y <= y2; bc.y++) {
+	    for(bc.x = x1; bc.x <= x2; bc.x++) {
+		List<Gob> b = sidx.get(bc);
+		if(b == null)
+		    continue;
+		for(int i = 0; i < b.size(); i++) {
+		    Gob g = b.get(i);
+		    if(within(g.ocx, g.ocy, ul, br))
+			buf.add(g);
+		}
+	    }
+	}
+    }
+
+    /* Returns the gob closest to c, if there is one within maxdist,
+     * searching outwards one ring of buckets at a time. */
+    public Gob nearest(Coord c, double maxdist) {
+	synchronized(sidx) {
+	    return(snearest(c, maxdist));
+	}
+    }
+
+    private Gob snearest(Coord c, double maxdist) {
+	int cx = Utils.floordiv(c.x, bucketsz.x), cy = Utils.floordiv(c.y, bucketsz.y);
+	int bs = Math.min(bucketsz.x, bucketsz.y);
+	int maxr = (int)Math.ceil(maxdist / bs) + 1;
+	Gob ret = null;
+	double best = maxdist * maxdist;
+	Coord bc = new Coord();
+	for(int r = 0; r <= maxr; r++) {
+	    /* Nothing in ring r or beyond can be closer than this. */
+	    double rd = (double)(r - 1) * bs;
+	    if((ret != null) && (r > 0) && (best <= rd * rd))
+		break;
+	    for(bc.y = cy - r; bc.y <= cy + r; bc.y++) {
+		int step = ((bc.y == cy - r) || (bc.y == cy + r))?1:(2 * r);
+		for(bc.x = cx - r; bc.x <= cx + r; bc.x += step) {
+		    List<Gob> b = sidx.get(bc);
+		    if(b == null)
+			continue;
+		    for(int i = 0; i < b.size(); i++) {
+			Gob g = b.get(i);
+			double dx = g.ocx - c.x, dy = g.ocy - c.y;
+			double d = (dx * dx) + (dy * dy);
+			if(d <= best) {
+			    ret = g;
+			    best = d;
+			}
+		    }
+		}
+	    }
+	}
+	return(ret);
     }
 	
-    public synchronized void tick() {
-	for(Gob g : objs.values()) {
-	    g.tick();
+    public void tick() {
+	for(Gob g : snapshot()) {
+	    synchronized(g) {
+		g.tick();
+	    }
 	}
     }
 	
+    private void schedule(Gob g) {
+	synchronized(sched) {
+	    if(g.tslot >= 0)
+		return;
+	    if(nactive >= active.length)
+		active = Utils.extend(active, active.length * 2);
+	    active[g.tslot = nactive++] = g;
+	    g.tseen = tframe;
+	    g.tdt = 0;
+	}
+    }
+
+    private void unschedule(Gob g) {
+	synchronized(sched) {
+	    int i = g.tslot;
+	    if(i < 0)
+		return;
+	    Gob last = active[--nactive];
+	    active[i] = last;
+	    last.tslot = i;
+	    active[nactive] = null;
+	    g.tslot = -1;
+	}
+    }
+
+    /* Returns a parked gob to the active set. Anything changing a gob
+     * other than its own ticking must call this, with the gob
+     * locked. */
+    public void wake(Gob g) {
+	if(g.tslot >= 0)
+	    return;
+	synchronized(this) {
+	    if(objs.get(g.id) == g)
+		schedule(g);
+	}
+    }
+
+    /* Notes that a gob is being drawn, for it to be ticked at the
+     * full rate. */
+    public void seen(Gob g) {
+	g.tseen = tframe;
+    }
+
+    public int nactive() {
+	synchronized(sched) {
+	    return(nactive);
+	}
+    }
+
+    public synchronized int nparked() {
+	synchronized(sched) {
+	    return(objs.size() - nactive);
+	}
+    }
+
+    /* The number of active gobs ticked at the reduced rate in the
+     * last tick. */
+    public int nslow() {
+	return(nslow);
+    }
+
     public void ctick(int dt) {
+	Gob[] buf;
+	int n, fr;
+	synchronized(sched) {
+	    if(tbuf.length < nactive)
+		tbuf = new Gob[active.length];
+	    System.arraycopy(active, 0, buf = tbuf, 0, n = nactive);
+	    fr = ++tframe;
+	}
+	int slow = 0;
+	for(int i = 0; i < n; i++) {
+	    Gob g = buf[i];
+	    buf[i] = null;
+	    synchronized(g) {
+		if(g.tslot < 0)
+		    continue;
+		int gdt = g.tdt + dt;
+		if(fr - g.tseen > 1) {
+		    slow++;
+		    if(Utils.floormod(fr + (int)g.id, slowrate) != 0) {
+			g.tdt = gdt;
+			continue;
+		    }
+		}
+		g.tdt = 0;
+		g.ctick(gdt);
+		if(g.idle())
+		    unschedule(g);
+	    }
+	}
+	nslow = slow;
+	Collection<Gob> lg = new ArrayList<Gob>();
 	synchronized(this) {
-	    ArrayList<Gob> copy = new ArrayList<Gob>();
-	    for(Gob g : this)
-		copy.add(g);
-	    for(Gob g : copy)
+	    for(Collection<Gob> gc : local)
+		lg.addAll(gc);
+	}
+	for(Gob g : lg) {
+	    synchronized(g) {
 		g.ctick(dt);
+	    }
 	}
     }
 	
     @SuppressWarnings("unchecked")
     public Iterator<Gob> iterator() {
 	Collection<Iterator<Gob>> is = new LinkedList<Iterator<Gob>>();
-	for(Collection<Gob> gc : local)
-	    is.add(gc.iterator());
-	return(new I2<Gob>(objs.values().iterator(), new I2<Gob>(is)));
+	synchronized(this) {
+	    for(Collection<Gob> gc : local)
+		is.add(new ArrayList<Gob>(gc).iterator());
+	}
+	return(new I2<Gob>(Arrays.asList(snapshot()).iterator(), new I2<Gob>(is)));
     }
 	
     public synchronized void ladd(Collection<Gob> gob) {
@@ -92,8 +478,9 @@ public class OCache implements Iterable<Gob> {
     public synchronized Gob getgob(long id, int frame) {
 	if(!objs.containsKey(id)) {
 	    boolean r = false;
-	    if(deleted.containsKey(id)) {
-		if(deleted.get(id) < frame)
+	    int df = deleted.get(id);
+	    if(df != Deleted.NONE) {
+		if(df < frame)
 		    deleted.remove(id);
 		else
 		    r = true;
@@ -103,6 +490,9 @@ public class OCache implements Iterable<Gob> {
 	    } else {
 		Gob g = new Gob(glob, Coord.z, id, frame);
 		objs.put(id, g);
+		snap = null;
+		sindex(g, 0, 0);
+		schedule(g);
 		return(g);
 	    }
 	} else {
@@ -112,7 +502,15 @@ public class OCache implements Iterable<Gob> {
 	    else
 		return(ret);
 	}
-	/* XXX: Clean up in deleted */
+    }
+
+    /* The number of deleted gobs currently remembered. */
+    public synchronized int ndeleted() {
+	return(deleted.size());
+    }
+
+    protected long now() {
+	return(System.currentTimeMillis());
     }
 
     private long nextvirt = -1;
@@ -123,194 +521,241 @@ public class OCache implements Iterable<Gob> {
 	    virtual = true;
 	    synchronized(OCache.this) {
 		objs.put(id, this);
+		snap = null;
+		sindex(this, c.x, c.y);
+		schedule(this);
 	    }
 	}
     }
     
-    public synchronized void move(Gob g, Coord c, double a) {
-	g.move(c, a);
+    public void move(Gob g, Coord c, double a) {
+	synchronized(g) {
+	    g.move(c, a);
+	}
+	relocate(g, c.x, c.y);
     }
 	
-    public synchronized void cres(Gob g, Indir<Resource> res, Message dat) {
-	MessageBuf sdt = new MessageBuf(dat);
-	Drawable dr = g.getattr(Drawable.class);
-	ResDrawable d = (dr instanceof ResDrawable)?(ResDrawable)dr:null;
-	if((d != null) && (d.res == res) && !d.sdt.equals(sdt) && (d.spr != null) && (d.spr instanceof Gob.Overlay.CUpd)) {
-	    ((Gob.Overlay.CUpd)d.spr).update(sdt);
-	    d.sdt = sdt;
-	} else if((d == null) || (d.res != res) || !d.sdt.equals(sdt)) {
-	    g.setattr(new ResDrawable(g, res, sdt));
+    public void cres(Gob g, Indir<Resource> res, Message dat) {
+	synchronized(g) {
+	    MessageBuf sdt = new MessageBuf(dat);
+	    Drawable dr = g.getattr(Drawable.class);
+	    ResDrawable d = (dr instanceof ResDrawable)?(ResDrawable)dr:null;
+	    if((d != null) && (d.res == res) && !d.sdt.equals(sdt) && (d.spr != null) && (d.spr instanceof Gob.Overlay.CUpd)) {
+		((Gob.Overlay.CUpd)d.spr).update(sdt);
+		d.sdt = sdt;
+	    } else if((d == null) || (d.res != res) || !d.sdt.equals(sdt)) {
+		g.setattr(new ResDrawable(g, res, sdt));
+	    }
 	}
     }
 	
-    public synchronized void linbeg(Gob g, Coord s, Coord t, int c) {
-	LinMove lm = new LinMove(g, s, t, c);
-	g.setattr(lm);
+    public void linbeg(Gob g, Coord s, Coord t, int c) {
+	synchronized(g) {
+	    LinMove lm = new LinMove(g, s, t, c);
+	    g.setattr(lm);
+	}
     }
 	
-    public synchronized void linstep(Gob g, int l) {
-	Moving m = g.getattr(Moving.class);
-	if((m == null) || !(m instanceof LinMove))
-	    return;
-	LinMove lm = (LinMove)m;
-	if((l < 0) || (l >= lm.c))
-	    g.delattr(Moving.class);
-	else
-	    lm.setl(l);
+    public void linstep(Gob g, int l) {
+	synchronized(g) {
+	    Moving m = g.getattr(Moving.class);
+	    if((m == null) || !(m instanceof LinMove))
+		return;
+	    LinMove lm = (LinMove)m;
+	    if((l < 0) || (l >= lm.c))
+		g.delattr(Moving.class);
+	    else
+		lm.setl(l);
+	}
     }
 	
-    public synchronized void speak(Gob g, float zo, String text) {
-	if(text.length() < 1) {
-	    g.delattr(Speaking.class);
-	} else {
-	    Speaking m = g.getattr(Speaking.class);
-	    if(m == null) {
-		g.setattr(new Speaking(g, zo, text));
+    public void speak(Gob g, float zo, String text) {
+	synchronized(g) {
+	    if(text.length() < 1) {
+		g.delattr(Speaking.class);
 	    } else {
-		m.zo = zo;
-		m.update(text);
+		Speaking m = g.getattr(Speaking.class);
+		if(m == null) {
+		    g.setattr(new Speaking(g, zo, text));
+		} else {
+		    m.zo = zo;
+		    m.update(text);
+		}
 	    }
 	}
     }
     
-    public synchronized void composite(Gob g, Indir<Resource> base) {
-	Drawable dr = g.getattr(Drawable.class);
-	Composite cmp = (dr instanceof Composite)?(Composite)dr:null;
-	if((cmp == null) || !cmp.base.equals(base)) {
-	    cmp = new Composite(g, base);
-	    g.setattr(cmp);
+    public void composite(Gob g, Indir<Resource> base) {
+	synchronized(g) {
+	    Drawable dr = g.getattr(Drawable.class);
+	    Composite cmp = (dr instanceof Composite)?(Composite)dr:null;
+	    if((cmp == null) || !cmp.base.equals(base)) {
+		cmp = new Composite(g, base);
+		g.setattr(cmp);
+	    }
 	}
     }
     
-    public synchronized void cmppose(Gob g, int pseq, List<ResData> poses, List<ResData> tposes, boolean interp, float ttime) {
-	Composite cmp = (Composite)g.getattr(Drawable.class);
-	if(cmp.pseq != pseq) {
-	    cmp.pseq = pseq;
-	    if(poses != null)
-		cmp.chposes(poses, interp);
-	    if(tposes != null)
-		cmp.tposes(tposes, WrapMode.ONCE, ttime);
+    public void cmppose(Gob g, int pseq, List<ResData> poses, List<ResData> tposes, boolean interp, float ttime) {
+	synchronized(g) {
+	    Composite cmp = (Composite)g.getattr(Drawable.class);
+	    if(cmp.pseq != pseq) {
+		cmp.pseq = pseq;
+		if(poses != null)
+		    cmp.chposes(poses, interp);
+		if(tposes != null)
+		    cmp.tposes(tposes, WrapMode.ONCE, ttime);
+	    }
 	}
     }
     
-    public synchronized void cmpmod(Gob g, List<Composited.MD> mod) {
-	Composite cmp = (Composite)g.getattr(Drawable.class);
-	cmp.chmod(mod);
+    public void cmpmod(Gob g, List<Composited.MD> mod) {
+	synchronized(g) {
+	    Composite cmp = (Composite)g.getattr(Drawable.class);
+	    cmp.chmod(mod);
+	}
     }
     
-    public synchronized void cmpequ(Gob g, List<Composited.ED> equ) {
-	Composite cmp = (Composite)g.getattr(Drawable.class);
-	cmp.chequ(equ);
+    public void cmpequ(Gob g, List<Composited.ED> equ) {
+	synchronized(g) {
+	    Composite cmp = (Composite)g.getattr(Drawable.class);
+	    cmp.chequ(equ);
+	}
     }
     
-    public synchronized void avatar(Gob g, List<Indir<Resource>> layers) {
-	Avatar ava = g.getattr(Avatar.class);
-	if(ava == null) {
-	    ava = new Avatar(g);
-	    g.setattr(ava);
+    public void avatar(Gob g, List<Indir<Resource>> layers) {
+	synchronized(g) {
+	    Avatar ava = g.getattr(Avatar.class);
+	    if(ava == null) {
+		ava = new Avatar(g);
+		g.setattr(ava);
+	    }
+	    ava.setlayers(layers);
 	}
-	ava.setlayers(layers);
     }
 	
-    public synchronized void zoff(Gob g, float off) {
-	if(off == 0) {
-	    g.delattr(DrawOffset.class);
-	} else {
-	    DrawOffset dro = g.getattr(DrawOffset.class);
-	    if(dro == null) {
-		dro = new DrawOffset(g, new Coord3f(0, 0, off));
-		g.setattr(dro);
+    public void zoff(Gob g, float off) {
+	synchronized(g) {
+	    if(off == 0) {
+		g.delattr(DrawOffset.class);
 	    } else {
-		dro.off = new Coord3f(0, 0, off);
+		DrawOffset dro = g.getattr(DrawOffset.class);
+		if(dro == null) {
+		    dro = new DrawOffset(g, new Coord3f(0, 0, off));
+		    g.setattr(dro);
+		} else {
+		    dro.off = new Coord3f(0, 0, off);
+		}
 	    }
 	}
     }
 	
-    public synchronized void lumin(Gob g, Coord off, int sz, int str) {
-	g.setattr(new Lumin(g, off, sz, str));
+    public void lumin(Gob g, Coord off, int sz, int str) {
+	synchronized(g) {
+	    g.setattr(new Lumin(g, off, sz, str));
+	}
     }
 	
-    public synchronized void follow(Gob g, long oid, Indir<Resource> xfres, String xfname) {
-	if(oid == 0xffffffffl) {
-	    g.delattr(Following.class);
-	} else {
-	    Following flw = g.getattr(Following.class);
-	    if(flw == null) {
-		flw = new Following(g, oid, xfres, xfname);
-		g.setattr(flw);
+    public void follow(Gob g, long oid, Indir<Resource> xfres, String xfname) {
+	synchronized(g) {
+	    if(oid == 0xffffffffl) {
+		g.delattr(Following.class);
 	    } else {
-		synchronized(flw) {
-		    flw.tgt = oid;
-		    flw.xfres = xfres;
-		    flw.xfname = xfname;
-		    flw.lxfb = null;
-		    flw.xf = null;
+		Following flw = g.getattr(Following.class);
+		if(flw == null) {
+		    flw = new Following(g, oid, xfres, xfname);
+		    g.setattr(flw);
+		} else {
+		    synchronized(flw) {
+			flw.tgt = oid;
+			flw.xfres = xfres;
+			flw.xfname = xfname;
+			flw.lxfb = null;
+			flw.xf = null;
+		    }
 		}
 	    }
 	}
     }
 
-    public synchronized void homostop(Gob g) {
-	g.delattr(Homing.class);
+    public void homostop(Gob g) {
+	synchronized(g) {
+	    g.delattr(Homing.class);
+	}
     }
 
-    public synchronized void homing(Gob g, long oid, Coord tc, int v) {
-	g.setattr(new Homing(g, oid, tc, v));
+    public void homing(Gob g, long oid, Coord tc, int v) {
+	synchronized(g) {
+	    g.setattr(new Homing(g, oid, tc, v));
+	}
     }
 	
-    public synchronized void homocoord(Gob g, Coord tc, int v) {
-	Homing homo = g.getattr(Homing.class);
-	if(homo != null) {
-	    homo.tc = tc;
-	    homo.v = v;
+    public void homocoord(Gob g, Coord tc, int v) {
+	synchronized(g) {
+	    Homing homo = g.getattr(Homing.class);
+	    if(homo != null) {
+		homo.tc = tc;
+		homo.v = v;
+	    }
 	}
     }
 	
-    public synchronized void overlay(Gob g, int olid, boolean prs, Indir<Resource> resid, Message sdt) {
-	Gob.Overlay ol = g.findol(olid);
-	if(resid != null) {
-	    sdt = new MessageBuf(sdt);
-	    if(ol == null) {
-		g.ols.add(ol = new Gob.Overlay(olid, resid, sdt));
-	    } else if(!ol.sdt.equals(sdt)) {
-		if(ol.spr instanceof Gob.Overlay.CUpd) {
-		    ol.sdt = new MessageBuf(sdt);
-		    ((Gob.Overlay.CUpd)ol.spr).update(ol.sdt);
-		} else {
-		    g.ols.remove(ol);
+    public void overlay(Gob g, int olid, boolean prs, Indir<Resource> resid, Message sdt) {
+	synchronized(g) {
+	    Gob.Overlay ol = g.findol(olid);
+	    if(resid != null) {
+		sdt = new MessageBuf(sdt);
+		if(ol == null) {
 		    g.ols.add(ol = new Gob.Overlay(olid, resid, sdt));
+		} else if(!ol.sdt.equals(sdt)) {
+		    if(ol.spr instanceof Gob.Overlay.CUpd) {
+			ol.sdt = new MessageBuf(sdt);
+			((Gob.Overlay.CUpd)ol.spr).update(ol.sdt);
+		    } else {
+			g.ols.remove(ol);
+			ol.dispose();
+			g.ols.add(ol = new Gob.Overlay(olid, resid, sdt));
+		    }
+		}
+		ol.delign = prs;
+	    } else {
+		if((ol != null) && (ol.spr instanceof Gob.Overlay.CDel))
+		    ((Gob.Overlay.CDel)ol.spr).delete();
+		else if(ol != null) {
+		    g.ols.remove(ol);
+		    ol.dispose();
 		}
 	    }
-	    ol.delign = prs;
-	} else {
-	    if((ol != null) && (ol.spr instanceof Gob.Overlay.CDel))
-		((Gob.Overlay.CDel)ol.spr).delete();
-	    else
-		g.ols.remove(ol);
 	}
     }
 
-    public synchronized void health(Gob g, int hp) {
-	g.setattr(new GobHealth(g, hp));
+    public void health(Gob g, int hp) {
+	synchronized(g) {
+	    g.setattr(new GobHealth(g, hp));
+	}
     }
 	
-    public synchronized void buddy(Gob g, String name, int group, int type) {
-	if(name == null) {
-	    g.delattr(KinInfo.class);
-	} else {
-	    KinInfo b = g.getattr(KinInfo.class);
-	    if(b == null) {
-		g.setattr(new KinInfo(g, name, group, type));
+    public void buddy(Gob g, String name, int group, int type) {
+	synchronized(g) {
+	    if(name == null) {
+		g.delattr(KinInfo.class);
 	    } else {
-		b.update(name, group, type);
+		KinInfo b = g.getattr(KinInfo.class);
+		if(b == null) {
+		    g.setattr(new KinInfo(g, name, group, type));
+		} else {
+		    b.update(name, group, type);
+		}
 	    }
 	}
     }
 
-    public synchronized void icon(Gob g, Indir<Resource> res) {
-	if(res == null)
-	    g.delattr(GobIcon.class);
-	else
-	    g.setattr(new GobIcon(g, res));
+    public void icon(Gob g, Indir<Resource> res) {
+	synchronized(g) {
+	    if(res == null)
+		g.delattr(GobIcon.class);
+	    else
+		g.setattr(new GobIcon(g, res));
+	}
     }
 }
@@ -95,17 +95,26 @@ public class OptWnd extends Window {
     			}
     		    }, new Coord(0, y));
     		y += 25;
-    		add(new CheckBox("Hide Flavor Objects") {
-    			{a = cf.HideFlavor.val;}
-
-    			public void set(boolean val) {
-    				cf.HideFlavor.set(val);
-    				new haven.MCache().Hide(cf.HideFlavor.val);
-    			    a = val;
+    		add(new Label("Flavor object density"), new Coord(0, y));
+    		final Label dpy = add(new Label(""), new Coord(165, y + 15));
+    		add(new HSlider(160, 0, 100, (int)(cf.flavdens.val * 100)) {
+    			protected void added() {
+    			    dpy();
+    			    this.c.y = dpy.c.y + ((dpy.sz.y - this.sz.y) / 2);
+    			}
+    			void dpy() {
+    			    if(val == 0)
+    				dpy.settext("Off");
+    			    else
+    				dpy.settext(String.format("%d%%", val));
+    			}
+    			public void changed() {
+    			    cf.flavdens.set(val / 100.0f);
+    			    dpy();
     			    cf.dirty = true;
     			}
-    		    }, new Coord(0, y));
-    		y += 25;
+    		    }, new Coord(0, y + 15));
+    		y += 35;
     		
     		pack();
     	    }
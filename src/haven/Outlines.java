@@ -132,6 +132,10 @@ public class Outlines implements Rendered {
 	shaders[3] = new ShaderMacro[] {shader(true,  true)};
     }
 
+    public static ShaderMacro[] shaders(boolean symmetric, boolean ms) {
+	return(shaders[(symmetric?2:0) | (ms?1:0)]);
+    }
+
     public Outlines(final boolean symmetric) {
 	this.symmetric = symmetric;
     }
@@ -143,7 +147,7 @@ public class Outlines implements Rendered {
 	ctx.cfg.tdepth = true;
 	ctx.cfg.add(nrm);
 	rl.prepc(Rendered.postfx);
-	rl.add(new Rendered.ScreenQuad(), new States.AdHoc(shaders[(symmetric?2:0) | (ms?1:0)]) {
+	rl.add(new Rendered.ScreenQuad(), new States.AdHoc(shaders(symmetric, ms)) {
 		private TexUnit tnrm;
 		private TexUnit tdep;
 
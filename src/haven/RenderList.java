@@ -27,6 +27,7 @@
 package haven;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 public class RenderList {
     public static final int INSTANCE_THRESHOLD = 10;
@@ -36,6 +37,7 @@ public class RenderList {
     private Slot curp = null;
     private GLState.Global[] gstates = new GLState.Global[0];
     private static final ThreadLocal<RenderList> curref = new ThreadLocal<RenderList>();
+    private RenderList root = null;
     
     public class Slot {
 	public Rendered r;
@@ -44,6 +46,9 @@ public class RenderList {
 	public boolean d;
 	public Slot p;
 	public int ihash;
+	public GLState.Snapshot snap;
+	private Kept k;
+	private int frame;
     }
     
     public RenderList(GLConfig cfg) {
@@ -57,9 +62,23 @@ public class RenderList {
 	    System.arraycopy(list, 0, n, 0, i);
 	    list = n;
 	}
-	Slot s;
-	if((s = list[i]) == null)
-	    s = list[i] = new Slot();
+	Slot s = list[i];
+	int f = kroot().frame;
+	if((s == null) || (s.k != null) || (s.frame == f)) {
+	    s = null;
+	    while(nspare > 0) {
+		Slot c = spares[--nspare];
+		spares[nspare] = null;
+		if((c.k == null) && (c.frame != f)) {
+		    s = c;
+		    break;
+		}
+	    }
+	    if(s == null)
+		s = new Slot();
+	    list[i] = s;
+	}
+	s.frame = f;
 	return(s);
     }
 
@@ -93,12 +112,19 @@ public class RenderList {
     protected void setup(Slot s, Rendered r) {
 	s.r = r;
 	Slot pp = s.p = curp;
+	int f0 = fn;
 	if(pp == null)
 	    curref.set(this);
 	try {
 	    curp = s;
 	    s.d = r.setup(this);
+	    if(fn > f0)
+		join(s, f0);
 	} finally {
+	    for(int i = f0; i < fn; i++) {
+		fr[i] = null; ft[i] = null; fl[i] = null;
+	    }
+	    fn = f0;
 	    if((curp = pp) == null)
 		curref.remove();
 	}
@@ -120,21 +146,396 @@ public class RenderList {
 
     public void setup(Rendered r, GLState.Buffer t) {
 	rewind();
+	seq++;
+	if((cfg != null) && ((cfg.pref != kpref) || (cfg.pref.seq != kpseq))) {
+	    /* Setup may depend on any setting. */
+	    for(Kept e : kept.values())
+		e.release();
+	    kept.clear();
+	    kpref = cfg.pref;
+	    kpseq = kpref.seq;
+	}
 	Slot s = getslot();
 	t.copy(s.os); t.copy(s.cs);
 	setup(s, r);
 	postsetup(s, t);
+	if(!kept.isEmpty()) {
+	    for(Iterator<Kept> i = kept.values().iterator(); i.hasNext();) {
+		Kept e = i.next();
+		if(e.used != seq) {
+		    i.remove();
+		    e.release();
+		}
+	    }
+	}
     }
 
-    public void add(Rendered r, GLState t) {
+    private void add(Slot ps, Rendered r, GLState t) {
+	Object rk = null;
+	if((r instanceof Rendered.Retained) && Config.retain && (inret == 0) && (getClass() == RenderList.class)) {
+	    if(((rk = ((Rendered.Retained)r).rkey(this)) != null) && reuse(ps, r, t, rk))
+		return;
+	}
+	int start = cur;
 	Slot s = getslot();
-	if(curp == null)
-	    throw(new RuntimeException("Tried to set up relative slot with no parent"));
-	curp.cs.copy(s.os);
+	ps.cs.copy(s.os);
 	if(t != null)
 	    t.prep(s.os);
 	s.os.copy(s.cs);
-	setup(s, r);
+	if(rk == null) {
+	    setup(s, r);
+	} else {
+	    inret++;
+	    try {
+		setup(s, r);
+	    } finally {
+		inret--;
+	    }
+	    keep(ps, r, t, rk, start);
+	}
+    }
+
+    /*
+     * Retained subtrees: the slots set up for a Rendered.Retained are
+     * kept after the frame, along with snapshots of their states as
+     * they were set up, and placed back in the list as they are
+     * instead of setting the renderable up again. Slot states that
+     * have been changed since, as by postsetup(), are restored from
+     * the snapshots. Inherited states that have changed are patched
+     * into both, and if any of them is one that the subtree itself
+     * changes, it is set up anew instead. The kept slots' own
+     * states are dead, as nothing more is set up under them. Kept
+     * slots are only ever in one entry and never handed out by
+     * getslot(); slots they displace from the list are spared for
+     * it instead. As a placed slot may linger at its old index too,
+     * slots are stamped with the frame they were last handed out or
+     * placed in, and never handed out again in the same one.
+     * Retained subtrees do not nest, and kept entries not used in a
+     * frame are dropped at its end.
+     */
+    private static class Kept {
+	final Object key;
+	final GLState t;
+	final Slot[] slots;
+	final boolean[] d;
+	final GLState[][] os;
+	final int[] mods;
+	final GLState[] ps;
+	final boolean[] mod;
+	int used;
+
+	Kept(Object key, GLState t, Slot[] slots, boolean[] d, GLState[][] os, GLState[] ps, boolean[] mod) {
+	    this.key = key;
+	    this.t = t;
+	    this.slots = slots;
+	    this.d = d;
+	    this.os = os;
+	    this.ps = ps;
+	    this.mod = mod;
+	    this.mods = new int[slots.length];
+	    for(int i = 0; i < slots.length; i++)
+		mods[i] = slots[i].os.mods;
+	}
+
+	boolean patch(GLState.Buffer pb) {
+	    GLState[] p = pb.states();
+	    if(p.length != ps.length)
+		return(false);
+	    boolean ch = false;
+	    for(int i = 0; i < p.length; i++) {
+		if(p[i] != ps[i]) {
+		    if(mod[i])
+			return(false);
+		    ch = true;
+		}
+	    }
+	    if(ch) {
+		for(int i = 0; i < p.length; i++) {
+		    if(p[i] == ps[i])
+			continue;
+		    for(int o = 0; o < slots.length; o++) {
+			GLState.Buffer b = slots[o].os;
+			boolean cl = (b.mods == mods[o]);
+			os[o][i] = p[i];
+			b.states()[i] = p[i];
+			b.mods++;
+			if(cl)
+			    mods[o] = b.mods;
+		    }
+		    ps[i] = p[i];
+		}
+	    }
+	    return(true);
+	}
+
+	void release() {
+	    for(Slot s : slots)
+		s.k = null;
+	}
+    }
+
+    private final Map<Rendered, Kept> kept = new IdentityHashMap<Rendered, Kept>();
+    private int seq = 0, inret = 0, frame = 0;
+    private GLSettings kpref = null;
+    private int kpseq = 0;
+    private Slot[] spares = new Slot[16];
+    private int nspare = 0;
+
+    private RenderList kroot() {
+	return((root == null)?this:root);
+    }
+
+    private boolean reuse(Slot ps, Rendered r, GLState t, Object rk) {
+	RenderList ro = kroot();
+	Kept e;
+	synchronized(ro.kept) {
+	    if(((e = ro.kept.get(r)) == null) || (e.used == ro.seq))
+		return(false);
+	    e.used = ro.seq;
+	}
+	if((e.t == t) && Utils.eq(e.key, rk) && e.patch(ps.cs)) {
+	    place(ps, e);
+	    ((Rendered.Retained)r).kept(e.slots[0].os);
+	    return(true);
+	}
+	synchronized(ro.kept) {
+	    ro.kept.remove(r);
+	}
+	e.release();
+	return(false);
+    }
+
+    private void place(Slot ps, Kept e) {
+	int f = kroot().frame;
+	for(int i = 0; i < e.slots.length; i++) {
+	    Slot s = e.slots[i];
+	    int d = cur++;
+	    if(d >= list.length) {
+		Slot[] n = new Slot[d * 2];
+		System.arraycopy(list, 0, n, 0, d);
+		list = n;
+	    }
+	    Slot o = list[d];
+	    if((o != null) && (o.k == null) && (o.frame != f)) {
+		if(nspare >= spares.length)
+		    spares = Utils.extend(spares, spares.length * 2);
+		spares[nspare++] = o;
+	    }
+	    list[d] = s;
+	    s.frame = f;
+	    if(s.os.mods != e.mods[i]) {
+		GLState[] ss = e.os[i], ds = s.os.states();
+		System.arraycopy(ss, 0, ds, 0, ss.length);
+		for(int j = ss.length; j < ds.length; j++)
+		    ds[j] = null;
+		e.mods[i] = ++s.os.mods;
+	    }
+	    s.d = e.d[i];
+	}
+	e.slots[0].p = ps;
+    }
+
+    private void keep(Slot ps, Rendered r, GLState t, Object rk, int start) {
+	int n = cur - start;
+	GLState[] pst = ps.cs.states();
+	Slot[] sl = new Slot[n];
+	boolean[] d = new boolean[n];
+	GLState[][] os = new GLState[n][];
+	boolean[] mod = new boolean[pst.length];
+	for(int i = 0; i < n; i++) {
+	    Slot s = sl[i] = list[start + i];
+	    GLState[] ss = s.os.states();
+	    if(ss.length != pst.length)
+		return;
+	    for(int o = 0; o < pst.length; o++) {
+		if(ss[o] != pst[o])
+		    mod[o] = true;
+	    }
+	    d[i] = s.d;
+	    os[i] = Arrays.copyOf(ss, ss.length);
+	}
+	Kept e = new Kept(rk, t, sl, d, os, Arrays.copyOf(pst, pst.length), mod);
+	RenderList ro = kroot();
+	synchronized(ro.kept) {
+	    Kept p = ro.kept.get(r);
+	    if(p != null) {
+		/* Added more than once in the same frame. */
+		if(p.used == ro.seq)
+		    return;
+		p.release();
+	    }
+	    e.used = ro.seq;
+	    ro.kept.put(r, e);
+	}
+	for(Slot s : sl)
+	    s.k = e;
+    }
+
+    public void add(Rendered r, GLState t) {
+	if(curp == null)
+	    throw(new RuntimeException("Tried to set up relative slot with no parent"));
+	add(curp, r, t);
+    }
+
+    /*
+     * Parallel setup: children added with fork() are only recorded,
+     * and once their parent's own setup returns, they are set up in
+     * contiguous chunks on a fork-join pool, each chunk into a slot
+     * arena of its own. The arenas are then merged back in chunk
+     * order, so the resulting slots come out in the same order
+     * whatever the number of threads, which is also the order serial
+     * setup would give if the parent adds nothing but forked
+     * children. Setup of forked children must not depend on their
+     * siblings, and if LOCK is given, it is held while the child is
+     * being set up. Lists overriding setup() and the arenas
+     * themselves set up forked children serially.
+     */
+    private static final int minfork = 8;
+    private Rendered[] fr = new Rendered[16];
+    private GLState[] ft = new GLState[16];
+    private Object[] fl = new Object[16];
+    private int fn = 0;
+    private RenderList[] arenas = new RenderList[0];
+
+    public void fork(Rendered r, GLState t, Object lock) {
+	if(curp == null)
+	    throw(new RuntimeException("Tried to set up relative slot with no parent"));
+	if((Config.parsetup < 1) || (root != null) || (inret > 0) || (getClass() != RenderList.class)) {
+	    if(lock == null) {
+		add(curp, r, t);
+	    } else {
+		synchronized(lock) {
+		    add(curp, r, t);
+		}
+	    }
+	    return;
+	}
+	if(fn >= fr.length) {
+	    fr = Utils.extend(fr, fr.length * 2);
+	    ft = Utils.extend(ft, fr.length);
+	    fl = Utils.extend(fl, fr.length);
+	}
+	fr[fn] = r; ft[fn] = t; fl[fn] = lock;
+	fn++;
+    }
+
+    public void fork(Rendered r, GLState t) {
+	fork(r, t, null);
+    }
+
+    private void forked(RenderList src, Slot ps, int i) {
+	Object lock = src.fl[i];
+	if(lock == null) {
+	    add(ps, src.fr[i], src.ft[i]);
+	} else {
+	    synchronized(lock) {
+		add(ps, src.fr[i], src.ft[i]);
+	    }
+	}
+    }
+
+    @SuppressWarnings("serial")
+    private class Chunk extends RecursiveAction {
+	final RenderList a;
+	final Slot ps;
+	final int from, to;
+	Throwable exc = null;
+
+	Chunk(RenderList a, Slot ps, int from, int to) {
+	    this.a = a;
+	    this.ps = ps;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	protected void compute() {
+	    RenderList pc = curref.get();
+	    a.rewind();
+	    curref.set(a);
+	    try {
+		for(int i = from; i < to; i++)
+		    a.forked(RenderList.this, ps, i);
+	    } catch(RuntimeException e) {
+		exc = e;
+	    } catch(Error e) {
+		exc = e;
+	    } finally {
+		a.curp = null;
+		if(pc == null)
+		    curref.remove();
+		else
+		    curref.set(pc);
+	    }
+	}
+    }
+
+    @SuppressWarnings("serial")
+    private static class Join extends RecursiveAction {
+	final Chunk[] cs;
+
+	Join(Chunk[] cs) {
+	    this.cs = cs;
+	}
+
+	protected void compute() {
+	    invokeAll(cs);
+	}
+    }
+
+    private static ForkJoinPool pool = null;
+    private static synchronized ForkJoinPool pool(int n) {
+	if((pool == null) || (pool.getParallelism() != n)) {
+	    if(pool != null)
+		pool.shutdown();
+	    pool = new ForkJoinPool(n);
+	}
+	return(pool);
+    }
+
+    private void join(Slot ps, int f0) {
+	int n = fn - f0, nt = Config.parsetup;
+	int nc = Math.min(nt * 4, n / minfork);
+	if(nc < 2) {
+	    for(int i = f0; i < fn; i++)
+		forked(this, ps, i);
+	    return;
+	}
+	if(arenas.length < nc) {
+	    int o = arenas.length;
+	    arenas = Utils.extend(arenas, nc);
+	    for(int i = o; i < nc; i++) {
+		arenas[i] = new RenderList(cfg);
+		arenas[i].root = this;
+	    }
+	}
+	Chunk[] cs = new Chunk[nc];
+	for(int i = 0; i < nc; i++)
+	    cs[i] = new Chunk(arenas[i], ps, f0 + (int)(((long)n * i) / nc), f0 + (int)(((long)n * (i + 1)) / nc));
+	pool(nt).invoke(new Join(cs));
+	/* Merge up to and including the first chunk that failed, so
+	 * that exactly what serial setup would have left is there. */
+	for(Chunk c : cs) {
+	    merge(c.a);
+	    if(c.exc instanceof RuntimeException)
+		throw((RuntimeException)c.exc);
+	    else if(c.exc instanceof Error)
+		throw((Error)c.exc);
+	}
+    }
+
+    private void merge(RenderList a) {
+	for(int i = 0; i < a.cur; i++) {
+	    int d = cur++;
+	    if(d >= list.length) {
+		Slot[] n = new Slot[d * 2];
+		System.arraycopy(list, 0, n, 0, d);
+		list = n;
+	    }
+	    Slot t = list[d];
+	    list[d] = a.list[i];
+	    a.list[i] = t;
+	}
+	a.cur = 0;
     }
     
     public void add2(Rendered r, GLState.Buffer t) {
@@ -172,8 +573,10 @@ public class RenderList {
 		return(1);
 	    int ret;
 	    int az = a.o.mainz(), bz = b.o.mainz();
-	    if((ret = (az - bz)) != 0)
-		return(ret);
+	    /* Not a subtraction, as first and last are at the ends
+	     * of the int range. */
+	    if(az != bz)
+		return((az < bz)?-1:1);
 	    if((ret = a.o.cmp().compare(a.r, b.r, a.os, b.os)) != 0)
 		return(ret);
 	    if((ret = ((System.identityHashCode(a.r) & 0x7fffffff) - (System.identityHashCode(b.r) & 0x7fffffff))) != 0)
@@ -231,10 +634,111 @@ public class RenderList {
 	    Slot s = list[i];
 	    if((s.o = s.os.get(Rendered.order)) == null)
 		s.o = Rendered.deflt;
-	    if(s.d)
-		s.ihash = s.os.ihash();
+	    if(s.d) {
+		s.snap = s.os.snapshot();
+		s.ihash = s.snap.hash;
+	    }
+	}
+	if(!radixsort || !keysort(nd))
+	    Arrays.sort(list, 0, nd, cmp);
+    }
+
+    /*
+     * Sorts the drawn slots by a packed key: the rank of the order's
+     * main z in the top 6 bits, then the renderable's identity hash
+     * and the low bits of the state's instancing hash. That is the
+     * same order as the comparator gives, except that slots whose
+     * instancing hashes differ only in their top bits may come out
+     * interleaved, which only costs instancing opportunities. Main z
+     * groups containing orders with comparators of their own are
+     * sorted again with the comparator afterwards.
+     */
+    public static boolean radixsort = true;
+    private int[] zs = new int[16];
+    private long[] keys = new long[0], tkeys = new long[0];
+    private int[] idx = new int[0], tidx = new int[0];
+    private Slot[] tlist = new Slot[0];
+    private final int[] counts = new int[1 << 11];
+
+    private boolean keysort(int nd) {
+	if(nd < 2)
+	    return(true);
+	int nz = 0, lz = 0, li = -1;
+	for(int i = 0; i < nd; i++) {
+	    int z = list[i].o.mainz();
+	    if((li >= 0) && (z == lz))
+		continue;
+	    for(li = 0; (li < nz) && (zs[li] != z); li++);
+	    if(li == nz) {
+		if(nz >= 64)
+		    return(false);
+		if(nz >= zs.length)
+		    zs = Utils.extend(zs, zs.length * 2);
+		zs[nz++] = z;
+	    }
+	    lz = z;
+	}
+	Arrays.sort(zs, 0, nz);
+	if(keys.length < nd) {
+	    keys = new long[nd]; tkeys = new long[nd];
+	    idx = new int[nd]; tidx = new int[nd];
+	    tlist = new Slot[nd];
+	}
+	Rendered.RComparator<?> dcmp = Rendered.deflt.cmp();
+	long custom = 0;
+	int lr = 0;
+	lz = zs[0];
+	for(int i = 0; i < nd; i++) {
+	    Slot s = list[i];
+	    int z = s.o.mainz();
+	    if(z != lz)
+		lr = Arrays.binarySearch(zs, 0, nz, lz = z);
+	    if(s.o.cmp() != dcmp)
+		custom |= 1L << lr;
+	    keys[i] = (((long)lr) << 58) | (((long)(System.identityHashCode(s.r) & 0x7fffffff)) << 27) | (s.ihash & 0x07ffffff);
+	    idx[i] = i;
+	}
+	radix(nd);
+	for(int i = 0; i < nd; i++)
+	    tlist[i] = list[idx[i]];
+	System.arraycopy(tlist, 0, list, 0, nd);
+	for(int i = 0; i < nd; i++)
+	    tlist[i] = null;
+	if(custom != 0) {
+	    for(int i = 0; i < nd;) {
+		int r = (int)(keys[i] >>> 58), e;
+		for(e = i + 1; (e < nd) && ((keys[e] >>> 58) == r); e++);
+		if((custom & (1L << r)) != 0)
+		    Arrays.sort(list, i, e, cmp);
+		i = e;
+	    }
+	}
+	return(true);
+    }
+
+    /* LSD radix sort of keys[0..n) with idx carried along, in
+     * 11-bit digits, skipping digits in which all keys agree. */
+    private void radix(int n) {
+	int[] counts = this.counts;
+	for(int sh = 0; sh < 64; sh += 11) {
+	    Arrays.fill(counts, 0);
+	    for(int i = 0; i < n; i++)
+		counts[(int)(keys[i] >>> sh) & 0x7ff]++;
+	    if(counts[(int)(keys[0] >>> sh) & 0x7ff] == n)
+		continue;
+	    for(int i = 0, sum = 0; i < counts.length; i++) {
+		int c = counts[i];
+		counts[i] = sum;
+		sum += c;
+	    }
+	    for(int i = 0; i < n; i++) {
+		int d = counts[(int)(keys[i] >>> sh) & 0x7ff]++;
+		tkeys[d] = keys[i];
+		tidx[d] = idx[i];
+	    }
+	    long[] tk = keys; keys = tkeys; tkeys = tk;
+	    int[] ti = idx; idx = tidx; tidx = ti;
 	}
-	Arrays.sort(list, 0, nd, cmp);
     }
 
     public static class RLoad extends Loading {
@@ -266,12 +770,53 @@ public class RenderList {
 	}
     }
 
+    /*
+     * The least number of equal slots that are drawn instanced is
+     * adapted to what drawing costs on this thread: the cost of
+     * single draws is sampled, and that of instanced runs is fitted
+     * to a fixed cost plus a cost per instance, so that runs are
+     * instanced when that is cheaper than drawing them singly.
+     */
+    public int instthres = INSTANCE_THRESHOLD;
+    private static final int DSAMPLE = 16;
+    private double dcost = -1, rn, rx, ry, rxx, rxy;
+
+    private void adapt(long dt, int dn, long[] rt, int[] ri, int nr) {
+	double d = 0.9;
+	if(dn > 0)
+	    dcost = (dcost < 0)?((double)dt / dn):((dcost * d) + (((double)dt / dn) * (1 - d)));
+	rn *= d; rx *= d; ry *= d; rxx *= d; rxy *= d;
+	for(int i = 0; i < nr; i++) {
+	    rn++; rx += ri[i]; ry += rt[i];
+	    rxx += (double)ri[i] * ri[i]; rxy += (double)ri[i] * rt[i];
+	}
+	if(dcost < 0)
+	    return;
+	if(rn < 1) {
+	    /* Without recent runs to go by, try the default again. */
+	    instthres = INSTANCE_THRESHOLD;
+	    return;
+	}
+	double var = (rxx / rn) - ((rx / rn) * (rx / rn));
+	double per = (var > 1)?(((rxy / rn) - ((rx / rn) * (ry / rn))) / var):0;
+	per = Math.max(per, 0);
+	double fix = Math.max((ry / rn) - (per * (rx / rn)), 0);
+	if(per >= dcost)
+	    instthres = 100;
+	else
+	    instthres = Math.max(Math.min((int)Math.ceil(fix / (dcost - per)), 100), 2);
+    }
+
     public int drawn, instanced, instancified;
     private final List<GLState.Buffer> instbuf = new ArrayList<GLState.Buffer>();
+    private long[] runt = new long[16];
+    private int[] runi = new int[16];
     public void render(GOut g) {
 	for(GLState.Global gs : gstates)
 	    gs.prerender(this, g);
 	drawn = instanced = instancified = 0;
+	int thres = instthres, nr = 0, dn = 0;
+	long dt = 0;
 	int skipinst = 0, i = 0;
 	rloop: while((i < cur) && list[i].d) {
 	    Slot s = list[i];
@@ -282,16 +827,22 @@ public class RenderList {
 		instbuf.clear();
 		instbuf.add(s.os);
 		for(o = i + 1; (o < cur) && list[o].d; o++) {
-		    if((list[o].r != s.r) || (list[o].ihash != s.ihash))
-			break;
-		    if(!s.os.iequals(list[o].os))
+		    if((list[o].r != s.r) || (list[o].snap != s.snap))
 			break;
 		    instbuf.add(list[o].os);
 		}
-		if(o - i < INSTANCE_THRESHOLD)
+		if(o - i < thres)
 		    break tryinst;
 		Rendered.Instanced ir = (Rendered.Instanced)s.r;
+		long st = System.nanoTime();
 		if(renderinst(g, ir, instbuf)) {
+		    if(nr >= runt.length) {
+			runt = Utils.extend(runt, nr * 2);
+			runi = Utils.extend(runi, nr * 2);
+		    }
+		    runt[nr] = System.nanoTime() - st;
+		    runi[nr] = instbuf.size();
+		    nr++;
 		    instanced++;
 		    instancified += instbuf.size();
 		    i = o;
@@ -300,19 +851,30 @@ public class RenderList {
 		    skipinst = o;
 		}
 	    }
-	    g.st.set(s.os);
-	    render(g, s.r);
+	    if((drawn % DSAMPLE) == 0) {
+		long st = System.nanoTime();
+		g.st.set(s.os);
+		render(g, s.r);
+		dt += System.nanoTime() - st;
+		dn++;
+	    } else {
+		g.st.set(s.os);
+		render(g, s.r);
+	    }
 	    drawn++;
 	    i++;
 	}
 	for(GLState.Global gs : gstates)
 	    gs.postrender(this, g);
+	adapt(dt, dn, runt, runi, nr);
     }
 
     public void rewind() {
 	if(curp != null)
 	    throw(new RuntimeException("Tried to rewind RenderList while adding to it."));
 	cur = 0;
+	if(root == null)
+	    frame++;
     }
 
     public void dump(java.io.PrintStream out) {
@@ -37,6 +37,19 @@ public interface Rendered extends Drawn {
 	public boolean drawinst(GOut g, List<GLState.Buffer> instances);
     }
 
+    /* A renderable whose set up subtree RenderList may keep from one
+     * frame to the next. rkey() is called in place of setup() each
+     * time it is added, and the kept slots are reused as long as it
+     * returns an equal key, it is added with the same state, and the
+     * states it inherits are the same in every slot its subtree
+     * changes. Apart from that, its subtree must not depend on the
+     * state it inherits. A null key sets it up anew. kept() is
+     * called with the state of its own slot when it is reused. */
+    public static interface Retained extends Rendered {
+	public Object rkey(RenderList r);
+	public void kept(GLState.Buffer st);
+    }
+
     public static interface RComparator<T extends Rendered> {
 	public int compare(T a, T b, GLState.Buffer sa, GLState.Buffer sb);
     }
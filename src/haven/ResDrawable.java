@@ -26,11 +26,13 @@
 
 package haven;
 
+import java.util.*;
 import java.awt.Color;
 
 public class ResDrawable extends Drawable {
     public final Indir<Resource> res;
     public Sprite spr = null;
+    private Sprite.Pending pspr = null;
     MessageBuf sdt;
     private int delay = 0;
 	
@@ -50,7 +52,10 @@ public class ResDrawable extends Drawable {
     public void init() {
 	if(spr != null)
 	    return;
-	spr = Sprite.create(gob, res.get(), sdt.clone());
+	if(pspr == null)
+	    pspr = new Sprite.Pending(gob, res, sdt.clone());
+	spr = pspr.get();
+	pspr = null;
     }
 	
     public void setup(RenderList rl) {
@@ -71,9 +76,15 @@ public class ResDrawable extends Drawable {
 	}
     }
     
+    public boolean idle() {
+	return((spr != null) && spr.idle());
+    }
+
     public void dispose() {
 	if(spr != null)
 	    spr.dispose();
+	if(pspr != null)
+	    pspr.cancel();
     }
     
     public Resource getres() {
@@ -87,4 +98,45 @@ public class ResDrawable extends Drawable {
 	}
 	return(null);
     }
+
+    private static final float[] nobounds = {};
+    private static final Map<Resource, float[]> bcache = new WeakHashMap<Resource, float[]>();
+    /* Only plain static sprites of nothing but meshes are known to
+     * stay within their meshes' bounds. */
+    private static float[] meshbounds(Resource res) {
+	synchronized(bcache) {
+	    float[] ret = bcache.get(res);
+	    if(ret != null)
+		return(ret);
+	    ret = nobounds;
+	    if((res.layer(RenderLink.Res.class) == null) && (res.layer(Resource.audio, "amb") == null)) {
+		float r = 0, z1 = 0, z2 = 0;
+		boolean f = true;
+		for(FastMesh.MeshRes mr : res.layers(FastMesh.MeshRes.class)) {
+		    Coord3f nb = mr.m.nbounds(), pb = mr.m.pbounds();
+		    if(nb == null)
+			continue;
+		    float mx = Math.max(Math.abs(nb.x), Math.abs(pb.x)), my = Math.max(Math.abs(nb.y), Math.abs(pb.y));
+		    r = Math.max(r, (float)Math.sqrt((mx * mx) + (my * my)));
+		    z1 = f?nb.z:Math.min(z1, nb.z);
+		    z2 = f?pb.z:Math.max(z2, pb.z);
+		    f = false;
+		}
+		if(!f)
+		    ret = new float[] {r, z1, z2};
+	    }
+	    bcache.put(res, ret);
+	    return(ret);
+	}
+    }
+
+    private float[] bounds = null;
+    public float[] bounds() {
+	if(bounds == null) {
+	    if((spr == null) || (spr.getClass() != StaticSprite.class))
+		return(null);
+	    bounds = meshbounds(spr.res);
+	}
+	return((bounds.length == 0)?null:bounds);
+    }
 }
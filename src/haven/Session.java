@@ -84,10 +84,10 @@ public class Session {
     LinkedList<PMessage> uimsgs = new LinkedList<PMessage>();
     Map<Integer, PMessage> waiting = new TreeMap<Integer, PMessage>();
     LinkedList<RMessage> pending = new LinkedList<RMessage>();
-    Map<Long, ObjAck> objacks = new TreeMap<Long, ObjAck>();
+    LongMap<ObjAck> objacks = new LongMap<ObjAck>();
     String username;
     byte[] cookie;
-    final Map<Integer, CachedRes> rescache = new TreeMap<Integer, CachedRes>();
+    final IntMap<CachedRes> rescache = new IntMap<CachedRes>();
     public final Glob glob;
     public byte[] sesskey;
 
@@ -243,234 +243,244 @@ public class Session {
 	    }
 	}
 		
-	private void getobjdata(Message msg) {
-	    OCache oc = glob.oc;
-	    while(!msg.eom()) {
-		int fl = msg.uint8();
-		long id = msg.uint32();
-		int frame = msg.int32();
-		synchronized(oc) {
-		    if((fl & 1) != 0)
-			oc.remove(id, frame - 1);
-		    Gob gob = oc.getgob(id, frame);
-		    if(gob != null) {
-			gob.frame = frame;
-			gob.virtual = ((fl & 2) != 0);
+	/* Applies the deltas of one object, under the gob's own monitor
+	 * when it is live, so that readers of other gobs are never held
+	 * up by a burst of updates. */
+	private void objdelta(OCache oc, Gob gob, long id, int frame, Message msg) {
+	    while(true) {
+		int type = msg.uint8();
+		if(type == OD_REM) {
+		    oc.remove(id, frame);
+		} else if(type == OD_MOVE) {
+		    Coord c = msg.coord();
+		    int ia = msg.uint16();
+		    if(gob != null)
+			oc.move(gob, c, (ia / 65536.0) * Math.PI * 2);
+		} else if(type == OD_RES) {
+		    int resid = msg.uint16();
+		    Message sdt = Message.nil;
+		    if((resid & 0x8000) != 0) {
+			resid &= ~0x8000;
+			sdt = new MessageBuf(msg.bytes(msg.uint8()));
 		    }
-		    while(true) {
-			int type = msg.uint8();
-			if(type == OD_REM) {
-			    oc.remove(id, frame);
-			} else if(type == OD_MOVE) {
-			    Coord c = msg.coord();
-			    int ia = msg.uint16();
-			    if(gob != null)
-				oc.move(gob, c, (ia / 65536.0) * Math.PI * 2);
-			} else if(type == OD_RES) {
+		    if(gob != null)
+			oc.cres(gob, getres(resid), sdt);
+		} else if(type == OD_LINBEG) {
+		    Coord s = msg.coord();
+		    Coord t = msg.coord();
+		    int c = msg.int32();
+		    if(gob != null)
+			oc.linbeg(gob, s, t, c);
+		} else if(type == OD_LINSTEP) {
+		    int l = msg.int32();
+		    if(gob != null)
+			oc.linstep(gob, l);
+		} else if(type == OD_SPEECH) {
+		    float zo = msg.int16() / 100.0f;
+		    String text = msg.string();
+		    if(gob != null)
+			oc.speak(gob, zo, text);
+		} else if(type == OD_COMPOSE) {
+		    Indir<Resource> base = getres(msg.uint16());
+		    if(gob != null)
+			oc.composite(gob, base);
+		} else if(type == OD_CMPPOSE) {
+		    List<ResData> poses = null, tposes = null;
+		    int pfl = msg.uint8();
+		    int seq = msg.uint8();
+		    boolean interp = (pfl & 1) != 0;
+		    if((pfl & 2) != 0) {
+			poses = new LinkedList<ResData>();
+			while(true) {
 			    int resid = msg.uint16();
+			    if(resid == 65535)
+				break;
 			    Message sdt = Message.nil;
 			    if((resid & 0x8000) != 0) {
 				resid &= ~0x8000;
 				sdt = new MessageBuf(msg.bytes(msg.uint8()));
 			    }
-			    if(gob != null)
-				oc.cres(gob, getres(resid), sdt);
-			} else if(type == OD_LINBEG) {
-			    Coord s = msg.coord();
-			    Coord t = msg.coord();
-			    int c = msg.int32();
-			    if(gob != null)
-				oc.linbeg(gob, s, t, c);
-			} else if(type == OD_LINSTEP) {
-			    int l = msg.int32();
-			    if(gob != null)
-				oc.linstep(gob, l);
-			} else if(type == OD_SPEECH) {
-			    float zo = msg.int16() / 100.0f;
-			    String text = msg.string();
-			    if(gob != null)
-				oc.speak(gob, zo, text);
-			} else if(type == OD_COMPOSE) {
-			    Indir<Resource> base = getres(msg.uint16());
-			    if(gob != null)
-				oc.composite(gob, base);
-			} else if(type == OD_CMPPOSE) {
-			    List<ResData> poses = null, tposes = null;
-			    int pfl = msg.uint8();
-			    int seq = msg.uint8();
-			    boolean interp = (pfl & 1) != 0;
-			    if((pfl & 2) != 0) {
-				poses = new LinkedList<ResData>();
-				while(true) {
-				    int resid = msg.uint16();
-				    if(resid == 65535)
-					break;
-				    Message sdt = Message.nil;
-				    if((resid & 0x8000) != 0) {
-					resid &= ~0x8000;
-					sdt = new MessageBuf(msg.bytes(msg.uint8()));
-				    }
-				    poses.add(new ResData(getres(resid), sdt));
-				}
-			    }
-			    float ttime = 0;
-			    if((pfl & 4) != 0) {
-				tposes = new LinkedList<ResData>();
-				while(true) {
-				    int resid = msg.uint16();
-				    if(resid == 65535)
-					break;
-				    Message sdt = Message.nil;
-				    if((resid & 0x8000) != 0) {
-					resid &= ~0x8000;
-					sdt = new MessageBuf(msg.bytes(msg.uint8()));
-				    }
-				    tposes.add(new ResData(getres(resid), sdt));
-				}
-				ttime = (msg.uint8() / 10.0f);
-			    }
-			    if(gob != null)
-				oc.cmppose(gob, seq, poses, tposes, interp, ttime);
-			} else if(type == OD_CMPMOD) {
-			    List<Composited.MD> mod = new LinkedList<Composited.MD>();
-			    while(true) {
-				int modid = msg.uint16();
-				if(modid == 65535)
-				    break;
-				Indir<Resource> modr = getres(modid);
-				List<Indir<Resource>> tex = new LinkedList<Indir<Resource>>();
-				while(true) {
-				    int resid = msg.uint16();
-				    if(resid == 65535)
-					break;
-				    tex.add(getres(resid));
-				}
-				mod.add(new Composited.MD(modr, tex));
-			    }
-			    if(gob != null)
-				oc.cmpmod(gob, mod);
-			} else if(type == OD_CMPEQU) {
-			    List<Composited.ED> equ = new LinkedList<Composited.ED>();
-			    while(true) {
-				int h = msg.uint8();
-				if(h == 255)
-				    break;
-				int ef = h & 0x80;
-				int et = h & 0x7f;
-				String at = msg.string();
-				Indir<Resource> res;
-				int resid = msg.uint16();
-				Message sdt = Message.nil;
-				if((resid & 0x8000) != 0) {
-				    resid &= ~0x8000;
-				    sdt = new MessageBuf(msg.bytes(msg.uint8()));
-				}
-				res = getres(resid);
-				Coord3f off;
-				if((ef & 128) != 0) {
-				    int x = msg.int16(), y = msg.int16(), z = msg.int16();
-				    off = new Coord3f(x / 1000.0f, y / 1000.0f, z / 1000.0f);
-				} else {
-				    off = Coord3f.o;
-				}
-				equ.add(new Composited.ED(et, at, new ResData(res, sdt), off));
-			    }
-			    if(gob != null)
-				oc.cmpequ(gob, equ);
-			} else if(type == OD_ZOFF) {
-			    float off = msg.int16() / 100.0f;
-			    if(gob != null)
-				oc.zoff(gob, off);
-			} else if(type == OD_LUMIN) {
-			    Coord off = msg.coord();
-			    int sz = msg.uint16();
-			    int str = msg.uint8();
-			    if(gob != null)
-				oc.lumin(gob, off, sz, str);
-			} else if(type == OD_AVATAR) {
-			    List<Indir<Resource>> layers = new LinkedList<Indir<Resource>>();
-			    while(true) {
-				int layer = msg.uint16();
-				if(layer == 65535)
-				    break;
-				layers.add(getres(layer));
-			    }
-			    if(gob != null)
-				oc.avatar(gob, layers);
-			} else if(type == OD_FOLLOW) {
-			    long oid = msg.uint32();
-			    Indir<Resource> xfres = null;
-			    String xfname = null;
-			    if(oid != 0xffffffffl) {
-				xfres = getres(msg.uint16());
-				xfname = msg.string();
-			    }
-			    if(gob != null)
-				oc.follow(gob, oid, xfres, xfname);
-			} else if(type == OD_HOMING) {
-			    long oid = msg.uint32();
-			    if(oid == 0xffffffffl) {
-				if(gob != null)
-				    oc.homostop(gob);
-			    } else if(oid == 0xfffffffel) {
-				Coord tgtc = msg.coord();
-				int v = msg.uint16();
-				if(gob != null)
-				    oc.homocoord(gob, tgtc, v);
-			    } else {
-				Coord tgtc = msg.coord();
-				int v = msg.uint16();
-				if(gob != null)
-				    oc.homing(gob, oid, tgtc, v);
-			    }
-			} else if(type == OD_OVERLAY) {
-			    int olid = msg.int32();
-			    boolean prs = (olid & 1) != 0;
-			    olid >>= 1;
+			    poses.add(new ResData(getres(resid), sdt));
+			}
+		    }
+		    float ttime = 0;
+		    if((pfl & 4) != 0) {
+			tposes = new LinkedList<ResData>();
+			while(true) {
 			    int resid = msg.uint16();
-			    Indir<Resource> res;
+			    if(resid == 65535)
+				break;
 			    Message sdt = Message.nil;
-			    if(resid == 65535) {
-				res = null;
-			    } else {
-				if((resid & 0x8000) != 0) {
-				    resid &= ~0x8000;
-				    sdt = new MessageBuf(msg.bytes(msg.uint8()));
-				}
-				res = getres(resid);
-			    }
-			    if(gob != null)
-				oc.overlay(gob, olid, prs, res, sdt);
-			} else if(type == OD_HEALTH) {
-			    int hp = msg.uint8();
-			    if(gob != null)
-				oc.health(gob, hp);
-			} else if(type == OD_BUDDY) {
-			    String name = msg.string();
-			    if(name.length() > 0) {
-				int group = msg.uint8();
-				int btype = msg.uint8();
-				if(gob != null)
-				    oc.buddy(gob, name, group, btype);
-			    } else {
-				if(gob != null)
-				    oc.buddy(gob, null, 0, 0);
+			    if((resid & 0x8000) != 0) {
+				resid &= ~0x8000;
+				sdt = new MessageBuf(msg.bytes(msg.uint8()));
 			    }
-			} else if(type == OD_ICON) {
+			    tposes.add(new ResData(getres(resid), sdt));
+			}
+			ttime = (msg.uint8() / 10.0f);
+		    }
+		    if(gob != null)
+			oc.cmppose(gob, seq, poses, tposes, interp, ttime);
+		} else if(type == OD_CMPMOD) {
+		    List<Composited.MD> mod = new LinkedList<Composited.MD>();
+		    while(true) {
+			int modid = msg.uint16();
+			if(modid == 65535)
+			    break;
+			Indir<Resource> modr = getres(modid);
+			List<Indir<Resource>> tex = new LinkedList<Indir<Resource>>();
+			while(true) {
 			    int resid = msg.uint16();
-			    Indir<Resource> res;
-			    if(resid == 65535) {
-				oc.icon(gob, null);
-			    } else {
-				int ifl = msg.uint8();
-				oc.icon(gob, getres(resid));
-			    }
-			} else if(type == OD_END) {
+			    if(resid == 65535)
+				break;
+			    tex.add(getres(resid));
+			}
+			mod.add(new Composited.MD(modr, tex));
+		    }
+		    if(gob != null)
+			oc.cmpmod(gob, mod);
+		} else if(type == OD_CMPEQU) {
+		    List<Composited.ED> equ = new LinkedList<Composited.ED>();
+		    while(true) {
+			int h = msg.uint8();
+			if(h == 255)
 			    break;
+			int ef = h & 0x80;
+			int et = h & 0x7f;
+			String at = msg.string();
+			Indir<Resource> res;
+			int resid = msg.uint16();
+			Message sdt = Message.nil;
+			if((resid & 0x8000) != 0) {
+			    resid &= ~0x8000;
+			    sdt = new MessageBuf(msg.bytes(msg.uint8()));
+			}
+			res = getres(resid);
+			Coord3f off;
+			if((ef & 128) != 0) {
+			    int x = msg.int16(), y = msg.int16(), z = msg.int16();
+			    off = new Coord3f(x / 1000.0f, y / 1000.0f, z / 1000.0f);
 			} else {
-			    throw(new MessageException("Unknown objdelta type: " + type, msg));
+			    off = Coord3f.o;
+			}
+			equ.add(new Composited.ED(et, at, new ResData(res, sdt), off));
+		    }
+		    if(gob != null)
+			oc.cmpequ(gob, equ);
+		} else if(type == OD_ZOFF) {
+		    float off = msg.int16() / 100.0f;
+		    if(gob != null)
+			oc.zoff(gob, off);
+		} else if(type == OD_LUMIN) {
+		    Coord off = msg.coord();
+		    int sz = msg.uint16();
+		    int str = msg.uint8();
+		    if(gob != null)
+			oc.lumin(gob, off, sz, str);
+		} else if(type == OD_AVATAR) {
+		    List<Indir<Resource>> layers = new LinkedList<Indir<Resource>>();
+		    while(true) {
+			int layer = msg.uint16();
+			if(layer == 65535)
+			    break;
+			layers.add(getres(layer));
+		    }
+		    if(gob != null)
+			oc.avatar(gob, layers);
+		} else if(type == OD_FOLLOW) {
+		    long oid = msg.uint32();
+		    Indir<Resource> xfres = null;
+		    String xfname = null;
+		    if(oid != 0xffffffffl) {
+			xfres = getres(msg.uint16());
+			xfname = msg.string();
+		    }
+		    if(gob != null)
+			oc.follow(gob, oid, xfres, xfname);
+		} else if(type == OD_HOMING) {
+		    long oid = msg.uint32();
+		    if(oid == 0xffffffffl) {
+			if(gob != null)
+			    oc.homostop(gob);
+		    } else if(oid == 0xfffffffel) {
+			Coord tgtc = msg.coord();
+			int v = msg.uint16();
+			if(gob != null)
+			    oc.homocoord(gob, tgtc, v);
+		    } else {
+			Coord tgtc = msg.coord();
+			int v = msg.uint16();
+			if(gob != null)
+			    oc.homing(gob, oid, tgtc, v);
+		    }
+		} else if(type == OD_OVERLAY) {
+		    int olid = msg.int32();
+		    boolean prs = (olid & 1) != 0;
+		    olid >>= 1;
+		    int resid = msg.uint16();
+		    Indir<Resource> res;
+		    Message sdt = Message.nil;
+		    if(resid == 65535) {
+			res = null;
+		    } else {
+			if((resid & 0x8000) != 0) {
+			    resid &= ~0x8000;
+			    sdt = new MessageBuf(msg.bytes(msg.uint8()));
 			}
+			res = getres(resid);
+		    }
+		    if(gob != null)
+			oc.overlay(gob, olid, prs, res, sdt);
+		} else if(type == OD_HEALTH) {
+		    int hp = msg.uint8();
+		    if(gob != null)
+			oc.health(gob, hp);
+		} else if(type == OD_BUDDY) {
+		    String name = msg.string();
+		    if(name.length() > 0) {
+			int group = msg.uint8();
+			int btype = msg.uint8();
+			if(gob != null)
+			    oc.buddy(gob, name, group, btype);
+		    } else {
+			if(gob != null)
+			    oc.buddy(gob, null, 0, 0);
 		    }
+		} else if(type == OD_ICON) {
+		    int resid = msg.uint16();
+		    Indir<Resource> res;
+		    if(resid == 65535) {
+			oc.icon(gob, null);
+		    } else {
+			int ifl = msg.uint8();
+			oc.icon(gob, getres(resid));
+		    }
+		} else if(type == OD_END) {
+		    break;
+		} else {
+		    throw(new MessageException("Unknown objdelta type: " + type, msg));
+		}
+	    }
+	}
+
+	private void getobjdata(Message msg) {
+	    OCache oc = glob.oc;
+	    while(!msg.eom()) {
+		int fl = msg.uint8();
+		long id = msg.uint32();
+		int frame = msg.int32();
+		if((fl & 1) != 0)
+		    oc.remove(id, frame - 1);
+		Gob gob = oc.getgob(id, frame);
+		if(gob != null) {
+		    synchronized(gob) {
+			gob.frame = frame;
+			gob.virtual = ((fl & 2) != 0);
+			objdelta(oc, gob, id, frame, msg);
+			oc.wake(gob);
+		    }
+		} else {
+		    objdelta(oc, null, id, frame, msg);
 		}
 		synchronized(objacks) {
 		    if(objacks.containsKey(id)) {
@@ -201,6 +201,10 @@ public class SkelSprite extends Sprite implements Gob.Overlay.CUpd {
 	return(false);
     }
 
+    public boolean idle() {
+	return(stat && (ipold <= 0) && (manims.length == 0));
+    }
+
     static {
 	Console.setscmd("bonedb", new Console.Command() {
 		public void run(Console cons, String[] args) {
@@ -29,6 +29,7 @@ package haven;
 import java.awt.*;
 
 public class Speaking extends GAttrib {
+    public static final int slot = GAttrib.slot(Speaking.class);
     float zo;
     Text text;
     static IBox sb = null;
@@ -69,4 +70,8 @@ public class Speaking extends GAttrib {
 		    Speaking.this.draw(g, gob.sc.add(new Coord(gob.sczu.mul(zo))).add(3, 0));
 	    }
 	};
+
+    public boolean idle() {
+	return(true);
+    }
 }
@@ -42,6 +42,10 @@ public class SprDrawable extends Drawable {
 	spr.tick(dt);
     }
     
+    public boolean idle() {
+	return(spr.idle());
+    }
+
     public Resource getres() {
 	return(null);
     }
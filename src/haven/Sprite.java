@@ -98,6 +98,79 @@ public abstract class Sprite implements Rendered {
 	}
     }
 
+    /* Builds a sprite on the Defer pool, so that constructing its
+     * meshes, skeletons and resource code does not hold up the frame
+     * being prepared. Finished sprites are only taken into use
+     * Config.sprintlimit times per frame, since their first setups
+     * and draws are not free either; a negative limit lifts it. */
+    public static class Pending {
+	private static int left = 0;
+	public final Defer.Future<Sprite> f;
+	private boolean taken = false;
+
+	public Pending(final Owner owner, final Indir<Resource> res, final Message sdt) {
+	    f = Defer.later(new Defer.Callable<Sprite>() {
+		    public Sprite call() {
+			return(create(owner, res.get(), sdt));
+		    }
+
+		    public String toString() {
+			return("Building sprite...");
+		    }
+		});
+	}
+
+	/* Renews the integration budget, once per frame. */
+	public static void frame() {
+	    synchronized(Pending.class) {
+		left = Config.sprintlimit;
+	    }
+	}
+
+	private static boolean integrate() {
+	    synchronized(Pending.class) {
+		if(Config.sprintlimit < 0)
+		    return(true);
+		if(left <= 0)
+		    return(false);
+		left--;
+		return(true);
+	    }
+	}
+
+	/* Returns the sprite once it is built and may be taken into
+	 * use, and throws Loading until then. */
+	public Sprite get() {
+	    Sprite ret = f.get();
+	    if(!taken) {
+		if(!integrate())
+		    throw(new Loading("Waiting to integrate sprite"));
+		taken = true;
+	    }
+	    return(ret);
+	}
+
+	/* Abandons the sprite, disposing of it if it was already built
+	 * but never taken into use. */
+	public void cancel() {
+	    f.cancel();
+	    if(!taken && f.done()) {
+		try {
+		    f.get().dispose();
+		} catch(Defer.DeferredException e) {
+		}
+	    }
+	}
+
+	static {
+	    Console.setscmd("sprintlimit", new Console.Command() {
+		    public void run(Console cons, String[] args) {
+			Config.sprintlimit = Integer.parseInt(args[1]);
+		    }
+		});
+	}
+    }
+
     protected Sprite(Owner owner, Resource res) {
 	this.res = res;
 	this.owner = owner;
@@ -135,6 +208,12 @@ public abstract class Sprite implements Rendered {
     public boolean tick(int dt) {
 	return(false);
     }
+
+    /* Whether tick() would do nothing until the sprite is changed
+     * from outside. Unknown sprites are assumed to be animated. */
+    public boolean idle() {
+	return(false);
+    }
     
     public void dispose() {
     }
@@ -74,4 +74,9 @@ public class StaticSprite extends Sprite {
 	    r.add(p, null);
 	return(false);
     }
+
+    public boolean idle() {
+	/* Subclasses may well tick. */
+	return(getClass() == StaticSprite.class);
+    }
 }
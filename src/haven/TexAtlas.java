@@ -0,0 +1,209 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.awt.Color;
+import java.awt.image.*;
+import javax.media.opengl.*;
+
+/*
+ * Packs many small images into shared textures, so that drawing a
+ * lot of them binds one texture and, through a Batch, takes one
+ * draw call. Images are placed left to right on shelves, and a new
+ * page is started when one fills up. Space is never reclaimed, so
+ * this is meant for bounded sets of images such as icons.
+ */
+public class TexAtlas {
+    public final Coord psz;
+    private final List<Page> pages = new ArrayList<Page>();
+
+    public TexAtlas(Coord psz) {
+	this.psz = psz;
+    }
+
+    public class Page extends TexI {
+	private int sx = 0, sy = 0, sh = 0;
+
+	private Page() {
+	    super(TexI.mkbuf(psz));
+	    mutable = true;
+	}
+
+	protected void fill(GOut g) {
+	    synchronized(TexAtlas.this) {
+		super.fill(g);
+	    }
+	}
+
+	/* Images are padded by a pixel to keep neighbours from
+	 * bleeding into each other. */
+	private Region alloc(BufferedImage img) {
+	    int w = img.getWidth() + 1, h = img.getHeight() + 1;
+	    if((w > psz.x) || (h > psz.y))
+		throw(new IllegalArgumentException("Image too large for atlas: " + w + "x" + h));
+	    if(sx + w > psz.x) {
+		sy += sh;
+		sx = sh = 0;
+	    }
+	    if(sy + h > psz.y)
+		return(null);
+	    Coord isz = Utils.imgsz(img);
+	    Region ret = new Region(this, new Coord(sx, sy), isz);
+	    back.getRaster().setDataElements(sx, sy, isz.x, isz.y, raster(img));
+	    sx += w;
+	    sh = Math.max(sh, h);
+	    /* Rare enough that uploading the whole page again is
+	     * cheaper than keeping track of what changed. */
+	    dispose();
+	    return(ret);
+	}
+    }
+
+    private static Object raster(BufferedImage img) {
+	BufferedImage buf = TexI.mkbuf(Utils.imgsz(img));
+	java.awt.Graphics g = buf.getGraphics();
+	g.drawImage(img, 0, 0, null);
+	g.dispose();
+	return(buf.getRaster().getDataElements(0, 0, buf.getWidth(), buf.getHeight(), null));
+    }
+
+    public static class Region extends Tex {
+	public final Page page;
+	public final Coord o;
+
+	private Region(Page page, Coord o, Coord sz) {
+	    super(sz);
+	    this.page = page;
+	    this.o = o;
+	}
+
+	public void render(GOut g, Coord c, Coord ul, Coord br, Coord sz) {
+	    page.render(g, c, ul.add(o), br.add(o), sz);
+	}
+
+	public float tcx(int x) {return(page.tcx(x + o.x));}
+	public float tcy(int y) {return(page.tcy(y + o.y));}
+	public GLState draw() {return(page.draw());}
+	public GLState clip() {return(page.clip());}
+    }
+
+    public synchronized Region add(BufferedImage img) {
+	for(Page p : pages) {
+	    Region ret = p.alloc(img);
+	    if(ret != null)
+		return(ret);
+	}
+	Page p = new Page();
+	pages.add(p);
+	return(p.alloc(img));
+    }
+
+    /*
+     * Collects regions to draw, and draws them with one draw call per
+     * atlas page. Colors are per region, defaulting to the current
+     * color of the GOut drawn to.
+     */
+    public static class Batch {
+	private Region[] rs = new Region[16];
+	private Color[] cols = new Color[16];
+	private int[] cs = new int[32];
+	private int n = 0;
+
+	public void add(Region r, Coord c, Color col) {
+	    if(n >= rs.length) {
+		rs = Utils.extend(rs, rs.length * 2);
+		cols = Utils.extend(cols, cols.length * 2);
+		cs = Utils.extend(cs, cs.length * 2);
+	    }
+	    rs[n] = r;
+	    cols[n] = col;
+	    cs[n * 2] = c.x;
+	    cs[(n * 2) + 1] = c.y;
+	    n++;
+	}
+
+	public void add(Region r, Coord c) {
+	    add(r, c, null);
+	}
+
+	public int size() {
+	    return(n);
+	}
+
+	private void emit(BGL gl, GOut g, int i, Color def) {
+	    Region r = rs[i];
+	    Coord rsz = r.sz();
+	    int x1 = cs[i * 2] + g.tx.x, y1 = cs[(i * 2) + 1] + g.tx.y;
+	    int x2 = x1 + rsz.x, y2 = y1 + rsz.y;
+	    int u1 = 0, v1 = 0, u2 = rsz.x, v2 = rsz.y;
+	    /* Clip to the GOut, as GOut.image() does. */
+	    if(x1 < g.ul.x) {u1 += g.ul.x - x1; x1 = g.ul.x;}
+	    if(y1 < g.ul.y) {v1 += g.ul.y - y1; y1 = g.ul.y;}
+	    if(x2 > g.ul.x + g.sz.x) {u2 -= x2 - (g.ul.x + g.sz.x); x2 = g.ul.x + g.sz.x;}
+	    if(y2 > g.ul.y + g.sz.y) {v2 -= y2 - (g.ul.y + g.sz.y); y2 = g.ul.y + g.sz.y;}
+	    if((x1 >= x2) || (y1 >= y2))
+		return;
+	    Color col = (cols[i] == null)?def:cols[i];
+	    gl.glColor4f(col.getRed() / 255.0f, col.getGreen() / 255.0f, col.getBlue() / 255.0f, col.getAlpha() / 255.0f);
+	    float l = r.tcx(u1), t = r.tcy(v1), rt = r.tcx(u2), b = r.tcy(v2);
+	    gl.glTexCoord2f(l, t);  gl.glVertex3i(x1, y1, 0);
+	    gl.glTexCoord2f(rt, t); gl.glVertex3i(x2, y1, 0);
+	    gl.glTexCoord2f(rt, b); gl.glVertex3i(x2, y2, 0);
+	    gl.glTexCoord2f(l, b);  gl.glVertex3i(x1, y2, 0);
+	}
+
+	/* Draws and forgets everything added. */
+	public void draw(GOut g) {
+	    Color def = g.getcolor();
+	    BGL gl = g.gl;
+	    for(int i = 0; i < n; i++) {
+		if(rs[i] == null)
+		    continue;
+		Page p = rs[i].page;
+		g.state2d();
+		g.st.put(States.color, States.vertexcolor);
+		g.st.prep(p.draw());
+		g.apply();
+		gl.glBegin(GL2.GL_QUADS);
+		for(int o = i; o < n; o++) {
+		    if((rs[o] != null) && (rs[o].page == p)) {
+			emit(gl, g, o, def);
+			rs[o] = null;
+		    }
+		}
+		gl.glEnd();
+		GOut.checkerr(gl);
+	    }
+	    for(int i = 0; i < n; i++) {
+		rs[i] = null;
+		cols[i] = null;
+	    }
+	    n = 0;
+	}
+    }
+}
@@ -215,6 +215,30 @@ public abstract class Tiler {
     public abstract void trans(MapMesh m, Random rnd, Tiler gt, Coord lc, Coord gc, int z, int bmask, int cmask);
     
     public GLState drawstate(Glob glob, GLConfig cfg, Coord3f c) {
+	return(drawstate(glob, cfg, c.x, c.y, c.z));
+    }
+
+    /* 0 if not yet known, 1 if the Coord3f variant of drawstate()
+     * is overridden, and 2 otherwise. */
+    private int cdraw = 0;
+    private boolean cdraw() {
+	if(cdraw == 0) {
+	    try {
+		Method m = getClass().getMethod("drawstate", Glob.class, GLConfig.class, Coord3f.class);
+		cdraw = (m.getDeclaringClass() != Tiler.class)?1:2;
+	    } catch(NoSuchMethodException e) {
+		throw(new RuntimeException(e));
+	    }
+	}
+	return(cdraw == 1);
+    }
+
+    /* As drawstate(Glob, GLConfig, Coord3f), but without allocating
+     * a coordinate for every object it is asked for, unless a tiler
+     * only overrides that. */
+    public GLState drawstate(Glob glob, GLConfig cfg, float x, float y, float z) {
+	if(cdraw())
+	    return(drawstate(glob, cfg, new Coord3f(x, y, z)));
 	return(null);
     }
     
@@ -47,17 +47,21 @@ public abstract class Transform extends GLState {
 	return(fin);
     }
     
-    public static Matrix4f makexlate(Matrix4f d, Coord3f c) {
+    public static Matrix4f makexlate(Matrix4f d, float x, float y, float z) {
 	d.m[ 0] = d.m[ 5] = d.m[10] = d.m[15] = 1.0f;
 	d.m[ 1] = d.m[ 2] = d.m[ 3] =
 	d.m[ 4] = d.m[ 6] = d.m[ 7] =
 	d.m[ 8] = d.m[ 9] = d.m[11] = 0.0f;
-	d.m[12] = c.x;
-	d.m[13] = c.y;
-	d.m[14] = c.z;
+	d.m[12] = x;
+	d.m[13] = y;
+	d.m[14] = z;
 	return(d);
     }
 
+    public static Matrix4f makexlate(Matrix4f d, Coord3f c) {
+	return(makexlate(d, c.x, c.y, c.z));
+    }
+
     public static Matrix4f makerot(Matrix4f d, Coord3f axis, float angle) {
 	float c = (float)Math.cos(angle), s = (float)Math.sin(angle), C = 1.0f - c;
 	float x = axis.x, y = axis.y, z = axis.z;
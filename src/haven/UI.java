@@ -35,7 +35,7 @@ import static haven.Utils.el;
 public class UI {
     public RootWidget root;
     final private LinkedList<Grab> keygrab = new LinkedList<Grab>(), mousegrab = new LinkedList<Grab>();
-    public Map<Integer, Widget> widgets = new TreeMap<Integer, Widget>();
+    public IntMap<Widget> widgets = new IntMap<Widget>();
     public Map<Widget, Integer> rwidgets = new HashMap<Widget, Integer>();
     Receiver rcvr;
     public Coord mc = Coord.z, lcc = Coord.z;
@@ -1071,6 +1071,12 @@ public class Utils {
 	return(dst);
     }
     
+    public static long[] extend(long[] src, int nl) {
+	long[] dst = new long[nl];
+	System.arraycopy(src, 0, dst, 0, Math.min(src.length, dst.length));
+	return(dst);
+    }
+    
     public static double[] extend(double[] src, int nl) {
 	double[] dst = new double[nl];
 	System.arraycopy(src, 0, dst, 0, Math.min(src.length, dst.length));
@@ -38,9 +38,25 @@ public abstract class InstancedUniform {
     public final Slot[] deps;
     public final Uniform.AutoApply uniform;
     public final Attribute.AutoInstanced attrib;
+    /* The number of attribute columns and the number of floats in
+     * each. */
+    public final int cols, csz;
 
     public InstancedUniform(Type type, String infix, Slot... deps) {
 	this.deps = deps;
+	if(type == Type.MAT4) {
+	    cols = 4; csz = 4;
+	} else if(type == Type.VEC4) {
+	    cols = 1; csz = 4;
+	} else if(type == Type.VEC3) {
+	    cols = 1; csz = 3;
+	} else if(type == Type.VEC2) {
+	    cols = 1; csz = 2;
+	} else if(type == Type.FLOAT) {
+	    cols = 1; csz = 1;
+	} else {
+	    throw(new IllegalArgumentException("Cannot instance uniforms of type " + type));
+	}
 	uniform = new Uniform.AutoApply(type, infix, deps) {
 		public void apply(GOut g, VarID location) {InstancedUniform.this.apply(g, location);}
 	    };
@@ -63,8 +79,79 @@ public abstract class InstancedUniform {
     }
 
     protected abstract void apply(GOut g, VarID location);
-    protected abstract GLBuffer bindiarr(GOut g, List<Buffer> inst, GLBuffer prevbuf);
-    protected abstract void unbindiarr(GOut g, GLBuffer buf);
+    /* Writes the value for the given instance state into BUF at
+     * OFF, as cols * csz floats. */
+    protected abstract void fill(GOut g, Buffer st, float[] buf, int off);
+
+    /*
+     * Instance data is streamed from shared arrays, through a small
+     * ring of buffers per GL context, instead of every program
+     * respecifying buffers of its own with arrays allocated for every
+     * draw. Since BGL keeps the data by reference until the frame is
+     * run, the arrays are only ever appended to, and a new one is
+     * started when one fills up.
+     */
+    private static final int RINGSZ = 8, CHUNKSZ = 16384;
+    private static CurrentGL scur = null;
+    private static final GLBuffer[] ring = new GLBuffer[RINGSZ];
+    private static int rn = 0;
+    private static float[] sdata = new float[0];
+    private static int sp = 0;
+
+    protected GLBuffer bindiarr(GOut g, List<Buffer> inst, GLBuffer prev) {
+	int isz = cols * csz, len = inst.size() * isz;
+	float[] data;
+	int off;
+	GLBuffer bo;
+	synchronized(ring) {
+	    if(scur != g.curgl) {
+		for(int i = 0; i < ring.length; i++) {
+		    if(ring[i] != null) {
+			ring[i].dispose();
+			ring[i] = null;
+		    }
+		}
+		scur = g.curgl;
+	    }
+	    if(ring[rn] == null)
+		ring[rn] = new GLBuffer(g);
+	    bo = ring[rn];
+	    rn = (rn + 1) % ring.length;
+	    if(sp + len > sdata.length) {
+		sdata = new float[Math.max(len, CHUNKSZ)];
+		sp = 0;
+	    }
+	    data = sdata;
+	    off = sp;
+	    sp += len;
+	}
+	int i = off;
+	for(Buffer st : inst) {
+	    fill(g, st, data, i);
+	    i += isz;
+	}
+	BGL gl = g.gl;
+	gl.glBindBuffer(GL.GL_ARRAY_BUFFER, bo);
+	gl.glBufferData(GL.GL_ARRAY_BUFFER, len * 4, FloatBuffer.wrap(data, off, len), GL2ES2.GL_STREAM_DRAW);
+	VarID loc = g.st.prog.attrib(attrib);
+	for(int c = 0; c < cols; c++) {
+	    gl.glVertexAttribPointer(loc, c, csz, GL.GL_FLOAT, false, isz * 4, c * csz * 4);
+	    gl.glEnableVertexAttribArray(loc, c);
+	    gl.glVertexAttribDivisor(loc, c, 1);
+	}
+	gl.glBindBuffer(GL.GL_ARRAY_BUFFER, null);
+	/* The ring's buffers are not the program's to dispose of. */
+	return(null);
+    }
+
+    protected void unbindiarr(GOut g, GLBuffer buf) {
+	BGL gl = g.gl;
+	VarID loc = g.st.prog.attrib(attrib);
+	for(int c = 0; c < cols; c++) {
+	    gl.glDisableVertexAttribArray(loc, c);
+	    gl.glVertexAttribDivisor(loc, c, 0);
+	}
+    }
 
     public static abstract class Mat4 extends InstancedUniform {
 	public Mat4(String infix, Slot... deps) {super(Type.MAT4, infix, deps);}
@@ -75,45 +162,24 @@ public abstract class InstancedUniform {
 	    g.gl.glUniformMatrix4fv(loc, 1, false, forstate(g, g.st.state()).m, 0);
 	}
 
-	protected GLBuffer bindiarr(GOut g, List<Buffer> inst, GLBuffer prev) {
-	    float[] buf = new float[inst.size() * 16];
-	    int i = 0;
-	    for(Buffer st : inst) {
-		System.arraycopy(forstate(g, st).m, 0, buf, i, 16);
-		i += 16;
-	    }
-	    BGL gl = g.gl;
-	    GLBuffer bo = (prev == null)?new GLBuffer(g):prev;
-	    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, bo);
-	    gl.glBufferData(GL.GL_ARRAY_BUFFER, buf.length * 4, FloatBuffer.wrap(buf), GL.GL_STATIC_DRAW);
-	    VarID loc = g.st.prog.attrib(attrib);
-	    gl.glVertexAttribPointer(loc, 0, 4, GL.GL_FLOAT, false, 64,  0);
-	    gl.glVertexAttribPointer(loc, 1, 4, GL.GL_FLOAT, false, 64, 16);
-	    gl.glVertexAttribPointer(loc, 2, 4, GL.GL_FLOAT, false, 64, 32);
-	    gl.glVertexAttribPointer(loc, 3, 4, GL.GL_FLOAT, false, 64, 48);
-	    gl.glEnableVertexAttribArray(loc, 0);
-	    gl.glEnableVertexAttribArray(loc, 1);
-	    gl.glEnableVertexAttribArray(loc, 2);
-	    gl.glEnableVertexAttribArray(loc, 3);
-	    gl.glVertexAttribDivisor(loc, 0, 1);
-	    gl.glVertexAttribDivisor(loc, 1, 1);
-	    gl.glVertexAttribDivisor(loc, 2, 1);
-	    gl.glVertexAttribDivisor(loc, 3, 1);
-	    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, null);
-	    return(bo);
+	protected void fill(GOut g, Buffer st, float[] buf, int off) {
+	    System.arraycopy(forstate(g, st).m, 0, buf, off, 16);
+	}
+    }
+
+    public static abstract class Vec3 extends InstancedUniform {
+	public Vec3(String infix, Slot<?>... deps) {super(Type.VEC3, infix, deps);}
+
+	public abstract Coord3f forstate(GOut g, Buffer buf);
+
+	protected void apply(GOut g, VarID loc) {
+	    Coord3f v = forstate(g, g.st.state());
+	    g.gl.glUniform3f(loc, v.x, v.y, v.z);
 	}
 
-	protected void unbindiarr(GOut g, GLBuffer buf) {
-	    BGL gl = g.gl;
-	    VarID loc = g.st.prog.attrib(attrib);
-	    gl.glDisableVertexAttribArray(loc, 0);
-	    gl.glDisableVertexAttribArray(loc, 1);
-	    gl.glDisableVertexAttribArray(loc, 2);
-	    gl.glDisableVertexAttribArray(loc, 3);
-	    gl.glVertexAttribDivisor(loc, 0, 0);
-	    gl.glVertexAttribDivisor(loc, 1, 0);
-	    gl.glVertexAttribDivisor(loc, 2, 0);
-	    gl.glVertexAttribDivisor(loc, 3, 0);
+	protected void fill(GOut g, Buffer st, float[] buf, int off) {
+	    Coord3f v = forstate(g, st);
+	    buf[off] = v.x; buf[off + 1] = v.y; buf[off + 2] = v.z;
 	}
     }
 }
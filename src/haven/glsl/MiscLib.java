@@ -97,11 +97,11 @@ public abstract class MiscLib {
 	    }));
     }
 
-    public static final Uniform maploc = new Uniform.AutoApply(VEC3, PView.loc) {
-	    public void apply(GOut g, VarID loc) {
-		Coord3f orig = PView.locxf(g).mul4(Coord3f.o);
-		orig.z = g.st.get(PView.ctx).glob().map.getcz(orig.x, -orig.y);
-		g.gl.glUniform3f(loc, orig.x, orig.y, orig.z);
+    public static final InstancedUniform maploc = new InstancedUniform.Vec3("maploc", PView.loc) {
+	    public Coord3f forstate(GOut g, GLState.Buffer buf) {
+		Coord3f orig = PView.locxf(buf).mul4(Coord3f.o);
+		orig.z = buf.get(PView.ctx).glob().map.getcz(orig.x, -orig.y);
+		return(orig);
 	    }
 	};
 
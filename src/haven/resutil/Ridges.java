@@ -28,7 +28,6 @@ package haven.resutil;
 
 import java.util.*;
 import haven.*;
-import haven.MapMesh.Scan;
 import haven.MapMesh.Model;
 import haven.Surface.Vertex;
 import haven.Tiler.MPart;
@@ -41,6 +40,10 @@ import static haven.Utils.clip;
 public class Ridges extends MapMesh.Hooks {
     public static final MapMesh.DataID<Ridges> id = MapMesh.makeid(Ridges.class);
     public static final int segh = 8;
+    /* Tile break bits, as kept per grid by MCache: whether the
+     * tile's north and west edges break into ridges, and whether
+     * the tile has any broken edge at all. */
+    public static final int BRKN = 1, BRKW = 2, BROKEN = 4, BRKUNKNOWN = 8;
     public final MapMesh m;
     private final MapMesh.MapSurface ms;
     private final boolean[] breaks;
@@ -136,29 +139,14 @@ public class Ridges extends MapMesh.Hooks {
     private int eo(Coord c, int e) {return(eo(c.x, c.y, e));}
 
     private boolean[] breaks() {
-	Scan ts = new Scan(new Coord(-1, -1), m.sz.add(2, 2));
-	int[] bz = new int[ts.l];
-	Coord c = new Coord();
-	for(c.y = ts.ul.y; c.y < ts.br.y; c.y++) {
-	    for(c.x = ts.ul.x; c.x < ts.br.x; c.x++) {
-		MCache map = m.map;
-		Tiler t = map.tiler(map.gettile(m.ul.add(c)));
-		if(t instanceof RidgeTile)
-		    bz[ts.o(c)] = ((RidgeTile)t).breakz();
-		else
-		    bz[ts.o(c)] = Integer.MAX_VALUE;
-	    }
-	}
 	boolean[] breaks = new boolean[(m.sz.x + 1) * (m.sz.y + 1) * 2];
+	Coord c = new Coord();
 	for(c.y = 0; c.y <= m.sz.y; c.y++) {
 	    for(c.x = 0; c.x <= m.sz.x; c.x++) {
-		Coord tc = m.ul.add(c);
-		int ul = m.map.getz(tc);
-		int xd = Math.abs(ul - m.map.getz(tc.add(1, 0)));
-		if((xd > bz[ts.o(c.x, c.y)]) && (xd > bz[ts.o(c.x, c.y - 1)]))
+		int b = tbreaks(m.map, m.ul.x + c.x, m.ul.y + c.y);
+		if((b & BRKN) != 0)
 		    breaks[eo(c, 0)] = true;
-		int yd = Math.abs(ul - m.map.getz(tc.add(0, 1)));
-		if((yd > bz[ts.o(c.x, c.y)]) && (yd > bz[ts.o(c.x - 1, c.y)]))
+		if((b & BRKW) != 0)
 		    breaks[eo(c, 3)] = true;
 	    }
 	}
@@ -172,7 +160,6 @@ public class Ridges extends MapMesh.Hooks {
 	    return(new Coord3f(0, m, 0));
     }
 
-    private static final Coord[] tecs = {new Coord(0, -1), new Coord(1, 0), new Coord(0, 1), new Coord(-1, 0)};
     private static final Coord[] tccs = {new Coord(0, 0), new Coord(1, 0), new Coord(1, 1), new Coord(0, 1)};
     private boolean edgelc(Coord tc, int e) {
 	Coord gc = tc.add(m.ul);
@@ -691,21 +678,86 @@ public class Ridges extends MapMesh.Hooks {
 	return(true);
     }
 
-    public static boolean brokenp(MCache map, Coord tc) {
-	Tiler t = map.tiler(map.gettile(tc));
-	if(!(t instanceof RidgeTile))
-	    return(false);
-	int bz = ((RidgeTile)t).breakz();
-	for(Coord ec : tecs) {
-	    t = map.tiler(map.gettile(tc.add(ec)));
-	    if(t instanceof RidgeTile)
-		bz = Math.min(bz, ((RidgeTile)t).breakz());
+    private static int breakz(MCache map, int t) {
+	Tiler tl = map.tiler(t);
+	if(tl instanceof RidgeTile)
+	    return(((RidgeTile)tl).breakz());
+	return(Integer.MAX_VALUE);
+    }
+
+    /* Computes the break bits of tile o, given the break heights and
+     * vertex heights of a padded area with stride s around it, where
+     * unknown values are Integer.MIN_VALUE. */
+    private static int tbits(int[] bz, int[] z, int s, int o) {
+	int z0 = z[o], zx = z[o + 1], zy = z[o + s], zxy = z[o + s + 1];
+	int b0 = bz[o], bn = bz[o - s], be = bz[o + 1], bs = bz[o + s], bw = bz[o - 1];
+	if((z0 == Integer.MIN_VALUE) || (zx == Integer.MIN_VALUE) || (zy == Integer.MIN_VALUE) || (zxy == Integer.MIN_VALUE) ||
+	   (b0 == Integer.MIN_VALUE) || (bn == Integer.MIN_VALUE) || (be == Integer.MIN_VALUE) || (bs == Integer.MIN_VALUE) || (bw == Integer.MIN_VALUE))
+	    return(BRKUNKNOWN);
+	int ret = 0;
+	int xd = Math.abs(z0 - zx), yd = Math.abs(z0 - zy);
+	if((xd > b0) && (xd > bn))
+	    ret |= BRKN;
+	if((yd > b0) && (yd > bw))
+	    ret |= BRKW;
+	if(b0 != Integer.MAX_VALUE) {
+	    int mz = Math.min(Math.min(b0, bn), Math.min(Math.min(be, bs), bw));
+	    if((xd > mz) || (yd > mz) || (Math.abs(zxy - zx) > mz) || (Math.abs(zxy - zy) > mz))
+		ret |= BROKEN;
 	}
-	for(int i = 0; i < 4; i++) {
-	    if(Math.abs(map.getz(tc.add(tccs[(i + 1) % 4])) - map.getz(tc.add(tccs[i]))) > bz)
-		return(true);
+	return(ret);
+    }
+
+    /* Computes the break bits of the w*h tiles in the middle of the
+     * given (w+2)*(h+2) area, where unknown tiles are -1 and unknown
+     * heights are Integer.MIN_VALUE. Tiles whose neighbours are not
+     * known get BRKUNKNOWN instead. */
+    public static byte[] breakmap(MCache map, int[] tiles, int[] z, int w, int h) {
+	int s = w + 2;
+	int[] bz = new int[tiles.length];
+	int[] tbz = new int[256];
+	boolean[] tk = new boolean[256];
+	for(int i = 0; i < tiles.length; i++) {
+	    int t = tiles[i];
+	    if(t < 0) {
+		bz[i] = Integer.MIN_VALUE;
+		continue;
+	    }
+	    if(!tk[t]) {
+		tbz[t] = breakz(map, t);
+		tk[t] = true;
+	    }
+	    bz[i] = tbz[t];
 	}
-	return(false);
+	byte[] ret = new byte[w * h];
+	for(int y = 0; y < h; y++) {
+	    for(int x = 0; x < w; x++)
+		ret[x + (y * w)] = (byte)tbits(bz, z, s, (x + 1) + ((y + 1) * s));
+	}
+	return(ret);
+    }
+
+    /* Returns the break bits of the given tile, from its grid's
+     * break map where possible. */
+    public static int tbreaks(MCache map, int tx, int ty) {
+	int ret = map.getrbrk(tx, ty);
+	if((ret & BRKUNKNOWN) == 0)
+	    return(ret);
+	int[] bz = new int[9], z = new int[9];
+	bz[1] = breakz(map, map.gettile(tx, ty - 1));
+	bz[3] = breakz(map, map.gettile(tx - 1, ty));
+	bz[4] = breakz(map, map.gettile(tx, ty));
+	bz[5] = breakz(map, map.gettile(tx + 1, ty));
+	bz[7] = breakz(map, map.gettile(tx, ty + 1));
+	z[4] = map.getz(tx, ty);
+	z[5] = map.getz(tx + 1, ty);
+	z[7] = map.getz(tx, ty + 1);
+	z[8] = map.getz(tx + 1, ty + 1);
+	return(tbits(bz, z, 3, 4));
+    }
+
+    public static boolean brokenp(MCache map, Coord tc) {
+	return((tbreaks(map, tc.x, tc.y) & BROKEN) != 0);
     }
 
     public static float edgeoff(MCache map, Coord tc, int edge, boolean hi) {
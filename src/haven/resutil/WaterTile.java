@@ -365,14 +365,9 @@ public class WaterTile extends Tiler {
     private static final GLState boff = new States.DepthOffset(4, 4);
     private static final GLState botmat = GLState.compose(waterfog, boff);
 
+    /* The map location is per-instance data of its own, so
+     * underwater objects can still be drawn instanced. */
     public static final GLState obfog = new GLState.StandAlone(GLState.Slot.Type.DRAW) {
-	    {
-		slot.instanced = new GLState.Instancer<StandAlone>() {
-			public StandAlone inststate(StandAlone[] states) {
-			    return(null);
-			}
-		    };
-	    }
 	final AutoVarying fragd = new AutoVarying(Type.FLOAT) {
 		protected Expression root(VertexContext vctx) {
 		    return(sub(pick(MiscLib.maploc.ref(), "z"), pick(vctx.mapv.depref(), "z")));
@@ -456,7 +451,7 @@ public class WaterTile extends Tiler {
 	}
     }
 
-    public GLState drawstate(Glob glob, GLConfig cfg, Coord3f c) {
+    public GLState drawstate(Glob glob, GLConfig cfg, float x, float y, float z) {
 	if(cfg.pref.wsurf.val)
 	    return(obfog);
 	return(null);
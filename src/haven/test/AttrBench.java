@@ -0,0 +1,132 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Measures the per-frame cost of the attribute accesses that every
+ * gob goes through, without any GL context or server.
+ */
+public class AttrBench extends Bench {
+    public int n = 5000;
+    private Gob[] gobs = null;
+
+    public AttrBench() {
+	time = 5.0;
+    }
+
+    private static class Mover extends Moving {
+	private final Coord3f c;
+
+	Mover(Gob gob, Coord3f c) {
+	    super(gob);
+	    this.c = c;
+	}
+
+	public Coord3f getc() {return(c);}
+	public double getv() {return(0);}
+    }
+
+    private void mkscene() {
+	Glob glob = new Glob(null);
+	Random rnd = new Random(seed);
+	gobs = new Gob[n];
+	for(int i = 0; i < n; i++) {
+	    Coord c = new Coord(rnd.nextInt(1100), rnd.nextInt(1100));
+	    Gob gob = new Gob(glob, c, i, 0);
+	    gob.setattr(new Mover(gob, new Coord3f(c.x, c.y, 0)));
+	    if(rnd.nextInt(2) == 0)
+		gob.setattr(new DrawOffset(gob, new Coord3f(0, 0, 5)));
+	    if(rnd.nextInt(4) == 0)
+		gob.setattr(new Avatar(gob));
+	    gobs[i] = gob;
+	}
+    }
+
+    public static class Result extends Bench.Result {
+	public final int gobs;
+	public final long alloc;
+
+	public Result(String name, int gobs, int frames, double time, long alloc) {
+	    super(name, frames, time);
+	    this.gobs = gobs;
+	    this.alloc = alloc;
+	}
+
+	public String toString() {
+	    String ret = String.format("%d gobs: %8.2f frames/s %8.2f ns/gob", gobs, runs / time, (time * 1e9) / ((double)runs * gobs));
+	    if(alloc >= 0)
+		ret += String.format(" %8d B/frame", alloc / runs);
+	    return(ret);
+	}
+    }
+
+    /* One frame's worth of the accesses that OCache, MapView and
+     * Gob.setup() make. */
+    private double frame() {
+	double sum = 0;
+	for(Gob gob : gobs) {
+	    gob.tick();
+	    gob.ctick(20);
+	    sum += gob.getc().z;
+	    sum += gob.getv();
+	    if(gob.getattr(Drawable.class) != null)
+		sum += 1;
+	    if(gob.getattr(GobIcon.class) != null)
+		sum += 1;
+	}
+	return(sum);
+    }
+
+    public List<Result> run() {
+	if(gobs == null)
+	    mkscene();
+	double sum = 0;
+	Timer t = timer();
+	do {
+	    sum += frame();
+	} while(t.next());
+	long alloc = t.alloc();
+	if(sum == 0.5)
+	    System.out.println();
+	return(Collections.singletonList(new Result("attrs", n, t.runs, t.time(), alloc)));
+    }
+
+    protected String opts() {return("n:");}
+    protected String synopsis() {return("[-n GOBS]");}
+
+    protected void opt(char c, String arg) {
+	if(c == 'n')
+	    n = Integer.parseInt(arg);
+    }
+
+    public static void main(String[] args) throws Exception {
+	Bench.main(new AttrBench(), args);
+    }
+}
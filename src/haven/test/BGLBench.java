@@ -0,0 +1,434 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.nio.*;
+import java.lang.reflect.*;
+import javax.media.opengl.*;
+
+/*
+ * Exercises the BGL command encoding without a GL context. First
+ * every recording method is called once with distinct arguments and
+ * replayed into a GLRecorder, to check that each call comes out as
+ * it went in. Then synthetic frames resembling the world view are
+ * recorded and replayed, both into fresh and pooled buffers, and
+ * with the redundant command elimination, whose output is first
+ * checked to draw with the same GL state as the original frame.
+ */
+public class BGLBench extends Bench {
+    public int draws = 2000;
+    public boolean conly = false;
+
+    private static class SID implements BGL.ID {
+	final int id;
+	SID(int id) {this.id = id;}
+	public int glid() {
+	    if(id < 0)
+		throw(new RuntimeException("invalid id"));
+	    return(id);
+	}
+	public String toString() {return("#" + id);}
+    }
+
+    private static Object mkarg(Class<?> t, int seq) {
+	if(t == Integer.TYPE)
+	    return(seq);
+	if(t == Float.TYPE)
+	    return(seq + 0.5f);
+	if(t == Long.TYPE)
+	    return(seq * 1000000007L);
+	if(t == Double.TYPE)
+	    return(seq + 0.25);
+	if(t == Boolean.TYPE)
+	    return((seq & 1) == 0);
+	if(t == BGL.ID.class)
+	    return(new SID(seq));
+	if(t == BGL.ID[].class)
+	    return(new BGL.ID[] {new SID(seq), new SID(seq + 1000)});
+	if(t == float[].class)
+	    return(new float[] {seq, seq + 1});
+	if(t == int[].class)
+	    return(new int[] {seq, seq + 1});
+	if(t == String[].class)
+	    return(new String[] {"s" + seq});
+	if(t == Buffer.class) {
+	    IntBuffer ret = IntBuffer.allocate(32);
+	    ret.limit(16 + (seq % 8));
+	    ret.position(seq % 8);
+	    return(ret);
+	}
+	throw(new RuntimeException("no argument for " + t));
+    }
+
+    private static Object glarg(Object a) {
+	if(a instanceof BGL.ID)
+	    return(((BGL.ID)a).glid());
+	if(a instanceof BGL.ID[]) {
+	    BGL.ID[] ids = (BGL.ID[])a;
+	    int[] ret = new int[ids.length];
+	    for(int i = 0; i < ids.length; i++)
+		ret[i] = ids[i].glid();
+	    return(ret);
+	}
+	if(a instanceof Buffer)
+	    return(GLRecorder.bufdesc((Buffer)a));
+	return(a);
+    }
+
+    /* The parameter counts of the variants taking a location
+     * offset after the ID. */
+    private static final Map<String, Integer> offsetted = new HashMap<String, Integer>();
+    static {
+	offsetted.put("glDisableVertexAttribArray", 2);
+	offsetted.put("glEnableVertexAttribArray", 2);
+	offsetted.put("glVertexAttribDivisor", 3);
+	offsetted.put("glVertexAttribPointer", 7);
+    }
+
+    /* Returns the number of methods whose replay differed from
+     * what was recorded. */
+    public static int checkrec(java.io.PrintStream out) throws Exception {
+	int failed = 0, checked = 0, seq = 1;
+	GLRecorder rec = new GLRecorder();
+	for(Method m : BGL.class.getDeclaredMethods()) {
+	    if(!Modifier.isPublic(m.getModifiers()) || Modifier.isStatic(m.getModifiers()) || !m.getName().startsWith("gl"))
+		continue;
+	    Class<?>[] pt = m.getParameterTypes();
+	    Object[] args = new Object[pt.length];
+	    List<Object> exp = new ArrayList<Object>();
+	    for(int i = 0; i < pt.length; i++)
+		exp.add(glarg(args[i] = mkarg(pt[i], seq++)));
+	    BGL buf = new BGL();
+	    m.invoke(buf, args);
+	    /* Location offsets are added to the ID at replay. */
+	    Integer offn = offsetted.get(m.getName());
+	    if((offn != null) && (pt.length == offn)) {
+		exp.set(0, (Integer)exp.get(0) + (Integer)exp.get(1));
+		exp.remove(1);
+	    }
+	    for(Object a : args) {
+		if(a instanceof Buffer)
+		    ((Buffer)a).position(0);
+	    }
+	    rec.clear();
+	    buf.run(rec.gl);
+	    GLRecorder.Call want = new GLRecorder.Call(m.getName(), exp.toArray());
+	    if((rec.calls.size() != 1) || !rec.calls.get(0).equals(want) || (buf.commands() != 1)) {
+		out.printf("mismatch: %s -> %s, expected %s%n", m.getName(), rec.calls, want);
+		failed++;
+	    }
+	    checked++;
+	}
+
+	BGL buf = new BGL();
+	buf.glEnable(GL.GL_BLEND);
+	buf.glBindTexture(GL.GL_TEXTURE_2D, new SID(-1));
+	buf.glDisable(GL.GL_BLEND);
+	try {
+	    buf.run(rec.gl);
+	    out.println("mismatch: failing command did not throw");
+	    failed++;
+	} catch(BGL.BGLException e) {
+	    if((e.dump.mark == null) || !e.dump.mark.mnm.equals("glBindTexture") || (e.dump.list.size() != 3)) {
+		out.println("mismatch: bad dump of failing command");
+		e.dump.dump(out);
+		failed++;
+	    }
+	}
+	checked++;
+
+	out.printf("checked %d commands, %d failed%n", checked, failed);
+	return(failed);
+    }
+
+    private final SID[] progs = {new SID(1), new SID(2), new SID(3)};
+    private final SID[] texs = new SID[64], bufs = new SID[64];
+    private final SID[][] unis = new SID[progs.length][4];
+    private final SID[] attrs = {new SID(20), new SID(21), new SID(22)};
+    private final float[][] mats = new float[16][16];
+    {
+	for(int i = 0; i < mats.length; i++)
+	    mats[i][12] = i;
+	for(int i = 0; i < texs.length; i++) {
+	    texs[i] = new SID(100 + i);
+	    bufs[i] = new SID(200 + i);
+	}
+	/* Locations are per program, but their numbers are not. */
+	for(int p = 0; p < progs.length; p++) {
+	    for(int i = 0; i < unis[p].length; i++)
+		unis[p][i] = new SID(10 + i);
+	}
+    }
+
+    /* Roughly what the state applier and a VBO-backed mesh issue
+     * for each object, with objects sorted by program and sharing
+     * textures in runs, as the render list leaves them. */
+    public void frame(BGL gl) {
+	gl.glClearColor(0, 0, 0, 1);
+	gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+	for(int i = 0; i < draws; i++) {
+	    int p = (i * progs.length) / draws;
+	    gl.glUseProgramObjectARB(progs[p]);
+	    gl.glEnable(GL.GL_DEPTH_TEST);
+	    gl.glDepthMask((i & 64) == 0);
+	    gl.glActiveTexture(GL.GL_TEXTURE0);
+	    gl.glBindTexture(GL.GL_TEXTURE_2D, texs[(i / 4) % texs.length]);
+	    gl.glUniform1i(unis[p][0], 0);
+	    gl.glUniformMatrix4fv(unis[p][1], 1, false, mats[(i / 16) % mats.length], 0);
+	    gl.glUniform4f(unis[p][2], 1, 1, 1, (i / 32) & 1);
+	    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, bufs[i % bufs.length]);
+	    for(int o = 0; o < attrs.length; o++) {
+		gl.glVertexAttribPointer(attrs[o], 3, GL.GL_FLOAT, false, 0, 0);
+		gl.glEnableVertexAttribArray(attrs[o]);
+	    }
+	    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, bufs[(i + 1) % bufs.length]);
+	    gl.glDrawRangeElements(GL.GL_TRIANGLES, 0, 300, 900, GL.GL_UNSIGNED_SHORT, 0);
+	    for(int o = 0; o < attrs.length; o++)
+		gl.glDisableVertexAttribArray(attrs[o]);
+	}
+	gl.bglCheckErr();
+    }
+
+    /*
+     * Follows the GL state that a replayed call list sets up, by GL
+     * names, and notes down the state in effect at each draw call.
+     * Comparing these between an optimized and an unoptimized frame
+     * checks that the optimizer dropped nothing that mattered.
+     */
+    public static class GLModel {
+	private int unit = -1;
+	private Object prog = null;
+	private final Map<String, Object> st = new TreeMap<String, Object>();
+	public final List<String> draws = new ArrayList<String>();
+
+	private static String val(Object[] args, int from) {
+	    return(Arrays.deepToString(Arrays.copyOfRange(args, from, args.length)));
+	}
+
+	public String state() {
+	    return("prog=" + prog + " unit=" + unit + " " + st);
+	}
+
+	public void run(List<GLRecorder.Call> calls) {
+	    for(GLRecorder.Call c : calls) {
+		Object[] a = c.args;
+		if(c.name.equals("glActiveTexture")) {
+		    unit = (Integer)a[0];
+		} else if(c.name.equals("glBindTexture")) {
+		    st.put("tex:" + unit + ":" + a[0], a[1]);
+		} else if(c.name.equals("glUseProgramObjectARB")) {
+		    prog = a[0];
+		} else if(c.name.startsWith("glUniform")) {
+		    st.put("uni:" + prog + ":" + a[0], c.name + val(a, 1));
+		} else if(c.name.equals("glEnable") || c.name.equals("glDisable")) {
+		    st.put("cap:" + a[0], c.name);
+		} else if(c.name.equals("glBindBuffer")) {
+		    st.put("buf:" + a[0], a[1]);
+		} else if(c.name.equals("glBlendFunc") || c.name.equals("glDepthFunc") || c.name.equals("glDepthMask")) {
+		    st.put(c.name, val(a, 0));
+		} else if(c.name.startsWith("glDraw")) {
+		    draws.add(state() + " " + c);
+		}
+	    }
+	}
+    }
+
+    /* Records the same frame twice, optimizing one of them, and
+     * checks that both draw with the same state. */
+    public static int checkopt(java.io.PrintStream out, BGLBench bench) {
+	BGL ref = new BGL(), opt = new BGL();
+	bench.frame(ref);
+	bench.frame(opt);
+	int elided = opt.optimize(new BGL.Shadow());
+	GLRecorder rec = new GLRecorder();
+	ref.run(rec.gl);
+	GLModel rm = new GLModel();
+	rm.run(rec.calls);
+	rec.clear();
+	opt.run(rec.gl);
+	GLModel om = new GLModel();
+	om.run(rec.calls);
+	out.printf("optimized %d of %d commands%n", elided, ref.commands());
+	if(!rm.draws.equals(om.draws)) {
+	    for(int i = 0; i < Math.min(rm.draws.size(), om.draws.size()); i++) {
+		if(!rm.draws.get(i).equals(om.draws.get(i))) {
+		    out.printf("mismatch at draw %d:%n  %s%n  %s%n", i, rm.draws.get(i), om.draws.get(i));
+		    break;
+		}
+	    }
+	    out.printf("optimized frame draws differently (%d vs. %d draws)%n", om.draws.size(), rm.draws.size());
+	    return(1);
+	}
+
+	/* A frame skipped by the render thread must still leave the
+	 * state as drawing it would have. */
+	BGL strip = new BGL();
+	bench.frame(strip);
+	strip.stripdraws();
+	rec.clear();
+	strip.run(rec.gl);
+	GLModel sm = new GLModel();
+	sm.run(rec.calls);
+	if(!sm.draws.isEmpty() || !sm.state().equals(rm.state())) {
+	    out.println("frame without draws ends in a different state");
+	    return(1);
+	}
+
+	/* A display list compiled in a skipped frame is kept, and
+	 * so must keep its draws, but calling one draws. */
+	BGL dl = new BGL();
+	SID list = new SID(300);
+	dl.glNewList(list, GL2.GL_COMPILE);
+	dl.glBindBuffer(GL.GL_ARRAY_BUFFER, bench.bufs[0]);
+	dl.glDrawArrays(GL.GL_TRIANGLES, 0, 3);
+	dl.glEndList();
+	dl.glCallList(list);
+	dl.glDrawArrays(GL.GL_TRIANGLES, 0, 3);
+	dl.stripdraws();
+	rec.clear();
+	dl.run(rec.gl);
+	List<String> names = new ArrayList<String>();
+	for(GLRecorder.Call c : rec.calls)
+	    names.add(c.name);
+	if(!names.equals(Arrays.asList("glNewList", "glBindBuffer", "glDrawArrays", "glEndList"))) {
+	    out.println("stripped display list frame came out as " + names);
+	    return(1);
+	}
+
+	/* Frames with requests are never skipped. */
+	BGL rq = new BGL();
+	bench.frame(rq);
+	boolean before = rq.requests();
+	rq.bglSubmit(new BGL.Request() {
+		public void run(GL2 gl) {}
+	    });
+	if(before || !rq.requests()) {
+	    out.println("requests in frame not noted");
+	    return(1);
+	}
+	rq.reset();
+	if(rq.requests()) {
+	    out.println("requests kept over reset");
+	    return(1);
+	}
+	return(0);
+    }
+
+    public static class Result extends Bench.Result {
+	public final double rtime, ptime;
+	public final long alloc, cmds, bytes, elided;
+
+	public Result(String name, int frames, double time, double rtime, double ptime, long alloc, long cmds, long bytes, long elided) {
+	    super(name, frames, time);
+	    this.rtime = rtime;
+	    this.ptime = ptime;
+	    this.alloc = alloc;
+	    this.cmds = cmds;
+	    this.bytes = bytes;
+	    this.elided = elided;
+	}
+
+	public String toString() {
+	    long tc = cmds * runs;
+	    String ret = String.format("%-9s %8d cmds/frame %8d elided %8d kB/frame %8.2f ns/cmd record %8.2f ns/cmd replay", name, cmds, elided, bytes / 1024, (rtime * 1e9) / tc, (ptime * 1e9) / tc);
+	    if(alloc >= 0)
+		ret += String.format(" %10d B/frame recording", alloc / runs);
+	    return(ret);
+	}
+    }
+
+    /* Record times of optimized frames include the optimization,
+     * but are still reckoned per remaining command. */
+    public Result run(String name, boolean pooled, boolean optimize) {
+	BGL.Pool pool = new BGL.Pool(2);
+	BGL.Shadow sh = new BGL.Shadow();
+	GLRecorder rec = new GLRecorder();
+	rec.record = false;
+	long rtime = 0, ptime = 0, cmds = 0, bytes = 0, alloc = 0, elided = 0;
+	Timer t = timer();
+	do {
+	    long a0 = allocated();
+	    long t0 = System.nanoTime();
+	    BGL buf = pooled?pool.get():new BGL();
+	    frame(buf);
+	    if(optimize)
+		elided = buf.optimize(sh);
+	    long t1 = System.nanoTime();
+	    alloc += allocated() - a0;
+	    rec.ncalls = 0;
+	    buf.run(rec.gl);
+	    long t2 = System.nanoTime();
+	    if(rec.ncalls != buf.commands())
+		throw(new RuntimeException("replayed " + rec.ncalls + " of " + buf.commands() + " commands"));
+	    cmds = buf.commands();
+	    bytes = buf.bytes();
+	    if(pooled)
+		pool.put(buf);
+	    rtime += t1 - t0;
+	    ptime += t2 - t1;
+	} while(t.next());
+	return(new Result(name, t.runs, t.time(), rtime / 1e9, ptime / 1e9, (t.a0 < 0)?-1:alloc, cmds, bytes, elided));
+    }
+
+    public int check(java.io.PrintStream out) throws Exception {
+	if(checkrec(out) > 0)
+	    return(1);
+	return(checkopt(out, this));
+    }
+
+    public List<Result> run() {
+	List<Result> ret = new ArrayList<Result>();
+	if(conly)
+	    return(ret);
+	ret.add(run("fresh", false, false));
+	ret.add(run("pooled", true, false));
+	ret.add(run("peephole", true, true));
+	return(ret);
+    }
+
+    protected String opts() {return("cn:");}
+    protected String synopsis() {return("[-c] [-n DRAWS]");}
+    protected boolean seeded() {return(false);}
+
+    protected void opt(char c, String arg) {
+	switch(c) {
+	case 'c':
+	    conly = true;
+	    break;
+	case 'n':
+	    draws = Integer.parseInt(arg);
+	    break;
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	Bench.main(new BGLBench(), args);
+    }
+}
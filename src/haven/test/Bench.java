@@ -0,0 +1,172 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.io.PrintStream;
+import java.lang.management.*;
+
+/*
+ * The harness shared by the benchmarks. A benchmark supplies its
+ * scenario as run(), returning one result per case it times, and
+ * optionally checks to make before that; main() parses the common
+ * options, makes the checks, runs the warm-ups and prints the
+ * results.
+ */
+public abstract class Bench {
+    public double time = 2.0;
+    public int warm = 1;
+    public long seed = 1;
+
+    public static abstract class Result {
+	public final String name;
+	public final long runs;
+	public final double time;
+
+	public Result(String name, long runs, double time) {
+	    this.name = name;
+	    this.runs = runs;
+	    this.time = time;
+	}
+    }
+
+    /* Times a loop run for the benchmark's time, as in
+     *   Timer t = timer(); do {...} while(t.next());
+     * counting the rounds and the memory the thread allocates. */
+    public class Timer {
+	public final long st, a0;
+	public long now;
+	public int runs = 0;
+	private final long lim = (long)(time * 1e9);
+
+	private Timer() {
+	    a0 = allocated();
+	    now = st = System.nanoTime();
+	}
+
+	public boolean next() {
+	    runs++;
+	    return(((now = System.nanoTime()) - st) < lim);
+	}
+
+	public double time() {
+	    return((now - st) / 1e9);
+	}
+
+	/* Should be called right after the loop, before anything else
+	 * allocates. */
+	public long alloc() {
+	    long a1 = allocated();
+	    return(((a0 < 0) || (a1 < 0))?-1:(a1 - a0));
+	}
+    }
+
+    public Timer timer() {
+	return(new Timer());
+    }
+
+    /* Returns how many bytes the current thread has allocated so
+     * far, or -1 if the VM cannot tell. */
+    public static long allocated() {
+	ThreadMXBean tb = ManagementFactory.getThreadMXBean();
+	if(tb instanceof com.sun.management.ThreadMXBean)
+	    return(((com.sun.management.ThreadMXBean)tb).getThreadAllocatedBytes(Thread.currentThread().getId()));
+	return(-1);
+    }
+
+    public abstract List<? extends Result> run() throws Exception;
+
+    /* Checks made once before anything is timed, returning the
+     * number of failures. */
+    public int check(PrintStream out) throws Exception {
+	return(0);
+    }
+
+    /* Prints the results, returning the number of failures found
+     * in them. */
+    public int report(PrintStream out, List<? extends Result> res) throws Exception {
+	for(Result r : res)
+	    out.println(r);
+	return(0);
+    }
+
+    /* Options of the benchmark's own, in getopt form, and the part
+     * of the usage line describing them and any arguments. */
+    protected String opts() {return("");}
+    protected String synopsis() {return("");}
+    protected boolean seeded() {return(true);}
+    protected void opt(char c, String arg) {}
+
+    /* Takes the arguments after the options, returning false if
+     * they are not valid. */
+    protected boolean args(String[] rest) {
+	return(rest.length == 0);
+    }
+
+    public void usage(PrintStream out) {
+	String syn = synopsis();
+	out.println("usage: " + getClass().getName() + " [-h]" + (seeded()?" [-s SEED]":"") + " [-t SECONDS] [-w WARMUPS]" + ((syn.length() > 0)?(" " + syn):""));
+    }
+
+    public static void main(Bench bench, String[] args) throws Exception {
+	PosixArgs opt = PosixArgs.getopt(args, "ht:w:" + (bench.seeded()?"s:":"") + bench.opts());
+	if(opt == null) {
+	    bench.usage(System.err);
+	    System.exit(1);
+	}
+	for(char c : opt.parsed()) {
+	    switch(c) {
+	    case 'h':
+		bench.usage(System.out);
+		System.exit(0);
+		break;
+	    case 's':
+		bench.seed = Long.parseLong(opt.arg);
+		break;
+	    case 't':
+		bench.time = Double.parseDouble(opt.arg);
+		break;
+	    case 'w':
+		bench.warm = Integer.parseInt(opt.arg);
+		break;
+	    default:
+		bench.opt(c, opt.arg);
+		break;
+	    }
+	}
+	if(!bench.args(opt.rest)) {
+	    bench.usage(System.err);
+	    System.exit(1);
+	}
+	if(bench.check(System.out) > 0)
+	    System.exit(1);
+	for(int i = 0; i < bench.warm; i++)
+	    bench.run();
+	System.exit((bench.report(System.out, bench.run()) > 0)?1:0);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Simulates hours of object churn against an OCache, on a simulated
+ * clock, and checks that the deleted-object table and the heap stay
+ * bounded. Exits with a non-zero status if they do not.
+ */
+public class ChurnSoak {
+    public double hours = 6;
+    public int rate = 50, live = 2000;
+    private long now = 0;
+    private final OCache oc;
+
+    public ChurnSoak() {
+	Glob glob = new Glob(null);
+	oc = new OCache(glob) {
+		protected long now() {return(now);}
+	    };
+    }
+
+    private static long heap() {
+	Runtime rt = Runtime.getRuntime();
+	for(int i = 0; i < 3; i++)
+	    System.gc();
+	return(rt.totalMemory() - rt.freeMemory());
+    }
+
+    public boolean run() {
+	Random rnd = new Random(1);
+	long[] ids = new long[live];
+	int[] frames = new int[live];
+	long nextid = 1;
+	for(int i = 0; i < live; i++) {
+	    ids[i] = nextid++;
+	    oc.getgob(ids[i], frames[i] = 1);
+	}
+	long end = (long)(hours * 3600000);
+	long h0 = -1, hmax = 0;
+	int dmax = 0;
+	for(int sec = 0; now < end; sec++, now += 1000) {
+	    for(int o = 0; o < rate; o++) {
+		/* Replace a random live object by a new one, and send a
+		 * late delta for the removed one now and then. */
+		int i = rnd.nextInt(live);
+		oc.remove(ids[i], frames[i]);
+		if(rnd.nextInt(4) == 0)
+		    oc.getgob(ids[i], frames[i]);
+		ids[i] = nextid++;
+		oc.getgob(ids[i], frames[i] = 1);
+	    }
+	    for(int o = 0; o < rate; o++) {
+		int i = rnd.nextInt(live);
+		Gob g = oc.getgob(ids[i], ++frames[i]);
+		if(g != null)
+		    oc.move(g, new Coord(rnd.nextInt(1000), rnd.nextInt(1000)), 0);
+	    }
+	    dmax = Math.max(dmax, oc.ndeleted());
+	    if((sec % 1800) == 0) {
+		long h = heap();
+		if(h0 < 0)
+		    h0 = h;
+		hmax = Math.max(hmax, h);
+		System.out.println(String.format("%6.2f h: %,9d objects created, %,7d deleted entries, %,6d kB heap", now / 3600000.0, nextid - 1, oc.ndeleted(), h / 1024));
+	    }
+	}
+	/* The table may hold at most the entries of its expiry age. */
+	int bound = Math.min(65536, (300000 / 1000) * rate * 2);
+	boolean ok = true;
+	if(dmax > bound) {
+	    System.out.println(String.format("deleted table grew to %,d entries, expected at most %,d", dmax, bound));
+	    ok = false;
+	}
+	if(hmax > (h0 * 2) + (16 << 20)) {
+	    System.out.println(String.format("heap grew from %,d kB to %,d kB", h0 / 1024, hmax / 1024));
+	    ok = false;
+	}
+	System.out.println(ok?"ok":"FAILED");
+	return(ok);
+    }
+
+    public static void usage(java.io.PrintStream out) {
+	out.println("usage: haven.test.ChurnSoak [-h] [-H HOURS] [-r RATE] [-n LIVE]");
+    }
+
+    public static void main(String[] args) {
+	PosixArgs opt = PosixArgs.getopt(args, "hH:r:n:");
+	if(opt == null) {
+	    usage(System.err);
+	    System.exit(1);
+	}
+	ChurnSoak soak = new ChurnSoak();
+	for(char c : opt.parsed()) {
+	    switch(c) {
+	    case 'h':
+		usage(System.out);
+		System.exit(0);
+		break;
+	    case 'H':
+		soak.hours = Double.parseDouble(opt.arg);
+		break;
+	    case 'r':
+		soak.rate = Integer.parseInt(opt.arg);
+		break;
+	    case 'n':
+		soak.live = Integer.parseInt(opt.arg);
+		break;
+	    }
+	}
+	System.exit(soak.run()?0:1);
+    }
+}
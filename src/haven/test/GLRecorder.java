@@ -0,0 +1,229 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.Buffer;
+import java.lang.reflect.*;
+import javax.tools.*;
+import javax.media.opengl.*;
+
+/*
+ * A GL implementation that does nothing but note the calls made on
+ * it, so that recorded BGL frames can be replayed and inspected
+ * without a GL context. Queries return zero, null or false.
+ *
+ * GL4bc has too many methods for java.lang.reflect.Proxy, so the
+ * implementing class is instead generated from the interface and
+ * compiled once per process, which requires running on a JDK.
+ */
+public class GLRecorder {
+    public final GL4bc gl;
+    public final List<Call> calls = new ArrayList<Call>();
+    public boolean record = true;
+    public long ncalls = 0;
+
+    public static class Call {
+	public final String name;
+	public final Object[] args;
+
+	public Call(String name, Object[] args) {
+	    this.name = name;
+	    this.args = args;
+	}
+
+	public boolean equals(Object o) {
+	    if(!(o instanceof Call))
+		return(false);
+	    Call c = (Call)o;
+	    return(name.equals(c.name) && Arrays.deepEquals(args, c.args));
+	}
+
+	public int hashCode() {
+	    return((name.hashCode() * 31) + Arrays.deepHashCode(args));
+	}
+
+	public String toString() {
+	    StringBuilder buf = new StringBuilder();
+	    buf.append(name);
+	    buf.append("(");
+	    for(int i = 0; i < args.length; i++) {
+		if(i > 0)
+		    buf.append(", ");
+		String a = Arrays.deepToString(new Object[] {args[i]});
+		buf.append(a, 1, a.length() - 1);
+	    }
+	    buf.append(")");
+	    return(buf.toString());
+	}
+    }
+
+    private static Constructor<?> impl = null;
+    private static synchronized Constructor<?> impl() {
+	if(impl == null) {
+	    try {
+		impl = compile().getConstructor(GLRecorder.class);
+	    } catch(Exception e) {
+		throw(new RuntimeException(e));
+	    }
+	}
+	return(impl);
+    }
+
+    public GLRecorder() {
+	try {
+	    gl = (GL4bc)impl().newInstance(this);
+	} catch(Exception e) {
+	    throw(new RuntimeException(e));
+	}
+    }
+
+    /* Buffers are mutable and reused by their owners, so they are
+     * noted by identity and window instead. */
+    public static String bufdesc(Buffer buf) {
+	return(String.format("%s@%x[%d:%d]", buf.getClass().getSimpleName(), System.identityHashCode(buf), buf.position(), buf.limit()));
+    }
+
+    private static Object snap(Object o) {
+	if(o instanceof Buffer)
+	    return(bufdesc((Buffer)o));
+	if((o != null) && o.getClass().isArray()) {
+	    int len = Array.getLength(o);
+	    Object ret = Array.newInstance(o.getClass().getComponentType(), len);
+	    System.arraycopy(o, 0, ret, 0, len);
+	    return(ret);
+	}
+	return(o);
+    }
+
+    public void call(String name, Object[] args) {
+	ncalls++;
+	if(record) {
+	    Object[] sa = new Object[args.length];
+	    for(int i = 0; i < sa.length; i++)
+		sa[i] = snap(args[i]);
+	    calls.add(new Call(name, sa));
+	}
+    }
+
+    public void clear() {
+	calls.clear();
+	ncalls = 0;
+    }
+
+    private static boolean inobject(Method m) {
+	try {
+	    Object.class.getMethod(m.getName(), m.getParameterTypes());
+	    return(true);
+	} catch(NoSuchMethodException e) {
+	    return(false);
+	}
+    }
+
+    private static String defval(Class<?> t) {
+	if(t == Boolean.TYPE)
+	    return("false");
+	if(t.isPrimitive())
+	    return("(" + t.getName() + ")0");
+	if(t.isAssignableFrom(GL4bc.class))
+	    return("this");
+	return("null");
+    }
+
+    private static String source(String name) {
+	StringBuilder buf = new StringBuilder();
+	buf.append("package haven.test;\n");
+	buf.append("@SuppressWarnings(\"unchecked\")\n");
+	buf.append("public class " + name + " implements javax.media.opengl.GL4bc {\n");
+	buf.append("private final GLRecorder rec;\n");
+	buf.append("public " + name + "(GLRecorder rec) {this.rec = rec;}\n");
+	Set<String> done = new HashSet<String>();
+	for(Method m : GL4bc.class.getMethods()) {
+	    Class<?>[] pt = m.getParameterTypes();
+	    /* Inherited along several paths. */
+	    if(inobject(m) || !done.add(m.getName() + Arrays.asList(pt)))
+		continue;
+	    Class<?> rt = m.getReturnType();
+	    buf.append("public " + rt.getCanonicalName() + " " + m.getName() + "(");
+	    for(int i = 0; i < pt.length; i++)
+		buf.append(((i > 0)?", ":"") + pt[i].getCanonicalName() + " a" + i);
+	    buf.append(") {");
+	    if(!m.getName().startsWith("getGL") || !rt.isAssignableFrom(GL4bc.class)) {
+		buf.append("rec.call(\"" + m.getName() + "\", new Object[] {");
+		for(int i = 0; i < pt.length; i++)
+		    buf.append(((i > 0)?", ":"") + "a" + i);
+		buf.append("});");
+	    }
+	    if(rt != Void.TYPE)
+		buf.append("return(" + defval(rt) + ");");
+	    buf.append("}\n");
+	}
+	buf.append("}\n");
+	return(buf.toString());
+    }
+
+    private static void rmtree(File f) {
+	File[] sub = f.listFiles();
+	if(sub != null) {
+	    for(File s : sub)
+		rmtree(s);
+	}
+	f.delete();
+    }
+
+    private static Class<?> compile() throws Exception {
+	JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+	if(javac == null)
+	    throw(new RuntimeException("GLRecorder needs a Java compiler to generate its stub"));
+	File dir = File.createTempFile("glrec", "");
+	dir.delete();
+	try {
+	    File pkg = new File(new File(dir, "haven"), "test");
+	    pkg.mkdirs();
+	    String name = "GLRecorderStub";
+	    File src = new File(pkg, name + ".java");
+	    Writer out = new OutputStreamWriter(new FileOutputStream(src), "UTF-8");
+	    try {
+		out.write(source(name));
+	    } finally {
+		out.close();
+	    }
+	    int rv = javac.run(null, null, null, "-nowarn", "-cp", System.getProperty("java.class.path"), "-d", dir.getPath(), src.getPath());
+	    if(rv != 0)
+		throw(new RuntimeException("could not compile GL stub"));
+	    ClassLoader cl = new URLClassLoader(new URL[] {dir.toURI().toURL()}, GLRecorder.class.getClassLoader());
+	    /* The stub is all in one class, so nothing more is read
+	     * from the directory once it is loaded. */
+	    return(cl.loadClass("haven.test." + name));
+	} finally {
+	    rmtree(dir);
+	}
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Compares LongMap against the boxed maps it replaces, with a mix
+ * of lookups and churn resembling the object cache: a working set
+ * of sparse ids, most accesses hitting live objects, and a steady
+ * trickle of removals and insertions.
+ */
+public class IdMapBench extends Bench {
+    public int n = 5000;
+
+    public IdMapBench() {
+	warm = 2;
+    }
+
+    public static class Result extends Bench.Result {
+	public final long alloc;
+
+	public Result(String name, long ops, double time, long alloc) {
+	    super(name, ops, time);
+	    this.alloc = alloc;
+	}
+
+	public String toString() {
+	    String ret = String.format("%-12s %8.2f ns/op", name, (time * 1e9) / runs);
+	    if(alloc >= 0)
+		ret += String.format(" %8.2f B/op", (double)alloc / runs);
+	    return(ret);
+	}
+    }
+
+    private interface Ops {
+	public Object get(long id);
+	public void put(long id, Object v);
+	public void remove(long id);
+    }
+
+    private static Ops wrap(final Map<Long, Object> m) {
+	return(new Ops() {
+		public Object get(long id) {return(m.get(id));}
+		public void put(long id, Object v) {m.put(id, v);}
+		public void remove(long id) {m.remove(id);}
+	    });
+    }
+
+    private static Ops wrap(final LongMap<Object> m) {
+	return(new Ops() {
+		public Object get(long id) {return(m.get(id));}
+		public void put(long id, Object v) {m.put(id, v);}
+		public void remove(long id) {m.remove(id);}
+	    });
+    }
+
+    public Result run(String name, Ops m) {
+	Random rnd = new Random(seed);
+	long[] live = new long[n];
+	long nid = 1000000000L;
+	for(int i = 0; i < n; i++) {
+	    live[i] = nid += 1 + rnd.nextInt(64);
+	    m.put(live[i], live);
+	}
+	int[] pick = new int[4096];
+	for(int i = 0; i < pick.length; i++)
+	    pick[i] = rnd.nextInt(n);
+	long found = 0;
+	int p = 0;
+	Timer t = timer();
+	do {
+	    for(int o = 0; o < 1024; o++, p = (p + 1) & (pick.length - 1)) {
+		int i = pick[p];
+		if((o & 31) == 0) {
+		    m.remove(live[i]);
+		    m.put(live[i] = nid += 1 + (o & 63), live);
+		} else if((o & 7) == 0) {
+		    if(m.get(live[i] + 1) != null)
+			found++;
+		} else {
+		    if(m.get(live[i]) != null)
+			found++;
+		}
+	    }
+	} while(t.next());
+	long alloc = t.alloc();
+	if(found == 0)
+	    throw(new RuntimeException("no lookups hit"));
+	return(new Result(name, t.runs * 1024L, t.time(), alloc));
+    }
+
+    public List<Result> run() {
+	List<Result> ret = new ArrayList<Result>();
+	ret.add(run("TreeMap", wrap(new TreeMap<Long, Object>())));
+	ret.add(run("HashMap", wrap(new HashMap<Long, Object>())));
+	ret.add(run("LongMap", wrap(new LongMap<Object>())));
+	return(ret);
+    }
+
+    protected String opts() {return("n:");}
+    protected String synopsis() {return("[-n LIVE]");}
+
+    protected void opt(char c, String arg) {
+	if(c == 'n')
+	    n = Integer.parseInt(arg);
+    }
+
+    public static void main(String[] args) throws Exception {
+	Bench.main(new IdMapBench(), args);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.io.*;
+import static haven.MCache.cmaps;
+import static haven.MCache.cutsz;
+import static haven.MCache.cutn;
+
+/*
+ * Builds map meshes from synthesized grids, without any GL context,
+ * to measure the cost of terrain construction. Each given tileset
+ * is benchmarked on its own, and all of them together in a mixed
+ * map to exercise the transition paths.
+ */
+public class MapBench extends Bench {
+    public Resource[] sets;
+    public int amp = 40;
+
+    public MapBench() {
+	time = 5.0;
+	warm = 0;
+    }
+
+    public static class Result extends Bench.Result {
+	public final long alloc, tris;
+
+	public Result(String name, int builds, double time, long alloc, long tris) {
+	    super(name, builds, time);
+	    this.alloc = alloc;
+	    this.tris = tris;
+	}
+
+	public String toString() {
+	    String ret = String.format("%-24s %8.2f builds/s %8d tris/cut", name, runs / time, tris / runs);
+	    if(alloc >= 0)
+		ret += String.format(" %8.2f MB/s %8d kB/cut", (alloc / time) / 1048576.0, (alloc / runs) / 1024);
+	    return(ret);
+	}
+    }
+
+    private static byte[] deflate(byte[] data) {
+	ByteArrayOutputStream buf = new ByteArrayOutputStream();
+	try {
+	    DeflaterOutputStream z = new DeflaterOutputStream(buf);
+	    z.write(data);
+	    z.close();
+	} catch(IOException e) {
+	    throw(new RuntimeException(e));
+	}
+	return(buf.toByteArray());
+    }
+
+    /* Encodes a grid in the same format as the server's map data. */
+    private Message mkgrid(Coord gc, int[] ids, SNoise3 noise) {
+	MessageBuf blob = new MessageBuf();
+	byte[] id = new byte[8];
+	Utils.int64e((((long)gc.x) << 32) ^ gc.y ^ seed, id, 0);
+	blob.addbytes(id);
+	for(int i = 0; i < ids.length; i++) {
+	    blob.adduint8(i);
+	    blob.addstring(sets[ids[i]].name);
+	    blob.adduint16(sets[ids[i]].ver);
+	}
+	blob.adduint8(255);
+	Coord ul = gc.mul(cmaps);
+	for(int y = 0; y < cmaps.y; y++) {
+	    for(int x = 0; x < cmaps.x; x++)
+		blob.adduint8((ids.length < 2)?0:noise.geti(0, ids.length, 40, ul.x + x, ul.y + y, 0));
+	}
+	for(int y = 0; y < cmaps.y; y++) {
+	    for(int x = 0; x < cmaps.x; x++)
+		blob.adduint16(noise.geti(-amp, amp, 25, ul.x + x, ul.y + y, 1) & 0xffff);
+	}
+	blob.adduint8(255);
+	MessageBuf msg = new MessageBuf();
+	msg.addcoord(gc);
+	msg.addstring("");
+	msg.adduint8(255);
+	msg.addbytes(deflate(blob.fin()));
+	return(new MessageBuf(msg.fin()));
+    }
+
+    /* Fills a 3x3 block of grids, so that every cut of the middle
+     * grid has all its neighbours, and waits for the client's own
+     * background builds of them to finish. */
+    private MCache mkmap(int[] ids) throws InterruptedException {
+	MCache map = new MCache(null);
+	SNoise3 noise = new SNoise3(seed);
+	Coord gc = new Coord();
+	for(gc.y = -1; gc.y <= 1; gc.y++) {
+	    for(gc.x = -1; gc.x <= 1; gc.x++) {
+		map.request(gc);
+		map.mapdata2(mkgrid(gc, ids, noise));
+	    }
+	}
+	Coord cc = new Coord();
+	for(cc.y = -cutn.y; cc.y < cutn.y * 2; cc.y++) {
+	    for(cc.x = -cutn.x; cc.x < cutn.x * 2; cc.x++) {
+		while(true) {
+		    try {
+			map.getcut(cc);
+			break;
+		    } catch(Loading l) {
+			l.waitfor();
+		    }
+		}
+	    }
+	}
+	return(map);
+    }
+
+    public Result run(String name, int[] ids) throws InterruptedException {
+	MCache map = mkmap(ids);
+	Random rnd = new Random(seed);
+	long tris = 0;
+	Coord cc = new Coord();
+	Timer t = timer();
+	do {
+	    cc.x = rnd.nextInt(cutn.x); cc.y = rnd.nextInt(cutn.y);
+	    MapMesh m = MapMesh.build(map, rnd, cc.mul(cutsz), cutsz);
+	    tris += m.tris();
+	    m.dispose();
+	} while(t.next());
+	long alloc = t.alloc();
+	map.trimall();
+	return(new Result(name, t.runs, t.time(), alloc, tris));
+    }
+
+    public List<Result> run() throws InterruptedException {
+	List<Result> ret = new ArrayList<Result>();
+	for(int i = 0; i < sets.length; i++)
+	    ret.add(run(sets[i].name, new int[] {i}));
+	if(sets.length > 1) {
+	    int[] all = new int[sets.length];
+	    for(int i = 0; i < all.length; i++)
+		all[i] = i;
+	    ret.add(run("(mixed)", all));
+	}
+	return(ret);
+    }
+
+    protected String opts() {return("r:z:");}
+    protected String synopsis() {return("[-r RESDIR] [-z AMPLITUDE] TILESET...");}
+
+    protected void opt(char c, String arg) {
+	switch(c) {
+	case 'r':
+	    Config.resdir = arg;
+	    break;
+	case 'z':
+	    amp = Integer.parseInt(arg);
+	    break;
+	}
+    }
+
+    protected boolean args(String[] rest) {
+	if(rest.length < 1)
+	    return(false);
+	sets = new Resource[rest.length];
+	for(int i = 0; i < sets.length; i++)
+	    sets[i] = Resource.remote().loadwait(rest[i]);
+	return(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+	Bench.main(new MapBench(), args);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Times RenderList.fin() on synthetic scenes, with the packed key
+ * radix sort and with the plain comparator sort. Scenes consist of
+ * a number of shared renderables under various orders, a share of
+ * them ordered as map layers so that the comparator fallback is
+ * exercised too, and a handful of states varying their instancing
+ * hashes.
+ */
+public class RenderSortBench extends Bench {
+    public int[] sizes = {10000, 50000};
+
+    private static final GLState.Slot<Tint> tslot = new GLState.Slot<Tint>(GLState.Slot.Type.DRAW, Tint.class);
+    private static class Tint extends GLState {
+	public void apply(GOut g) {}
+	public void unapply(GOut g) {}
+	public void prep(Buffer buf) {buf.put(tslot, this);}
+    }
+
+    private static class Thing implements Rendered {
+	public void draw(GOut g) {}
+	public boolean setup(RenderList rl) {return(true);}
+    }
+
+    private class Scene implements Rendered {
+	final Rendered[] rs;
+	final GLState[] sts;
+
+	Scene(int n) {
+	    Random rnd = new Random(seed);
+	    Thing[] things = new Thing[Math.max(n / 50, 1)];
+	    for(int i = 0; i < things.length; i++)
+		things[i] = new Thing();
+	    Tint[] tints = new Tint[16];
+	    for(int i = 0; i < tints.length; i++)
+		tints[i] = new Tint();
+	    GLState[] orders = {
+		null, null, null, null, Rendered.first, Rendered.last, Rendered.postfx,
+		new MapMesh.MLOrder(0), new MapMesh.MLOrder(1), new MapMesh.MLOrder(2, 1),
+	    };
+	    rs = new Rendered[n];
+	    sts = new GLState[n];
+	    for(int i = 0; i < n; i++) {
+		rs[i] = things[rnd.nextInt(things.length)];
+		GLState o = orders[rnd.nextInt(orders.length)];
+		Tint t = tints[(int)Math.abs(rnd.nextGaussian() * 2) % tints.length];
+		sts[i] = (o == null)?t:GLState.compose(o, t);
+	    }
+	}
+
+	public void draw(GOut g) {}
+
+	public boolean setup(RenderList rl) {
+	    for(int i = 0; i < rs.length; i++)
+		rl.add(rs[i], sts[i]);
+	    return(false);
+	}
+    }
+
+    public static class Result extends Bench.Result {
+	public final int n, bad;
+
+	public Result(String name, int n, int runs, double time, int bad) {
+	    super(name, runs, time);
+	    this.n = n;
+	    this.bad = bad;
+	}
+
+	public String toString() {
+	    return(String.format("%-10s %7d slots %10.2f us/fin %8.2f ns/slot %4d misordered", name, n, (time * 1e6) / runs, (time * 1e9) / ((double)runs * n), bad));
+	}
+    }
+
+    /* Counts adjacent pairs out of main z or map layer order, and
+     * instancing groups that were split apart. */
+    private static int verify(RenderList rl) {
+	int bad = 0;
+	RenderList.Slot p = null;
+	Set<Object> seen = new HashSet<Object>();
+	for(RenderList.Slot s : rl.slots()) {
+	    if(!s.d)
+		break;
+	    if(p != null) {
+		int pz = p.o.mainz(), sz = s.o.mainz();
+		if(pz > sz)
+		    bad++;
+		else if((pz == sz) && (p.o instanceof MapMesh.MLOrder) && (s.o instanceof MapMesh.MLOrder) && (((MapMesh.MLOrder)p.o).z > ((MapMesh.MLOrder)s.o).z))
+		    bad++;
+		if((p.r != s.r) || (p.ihash != s.ihash)) {
+		    if(!seen.add(Arrays.asList(s.r, s.ihash, s.o.mainz(), (s.o instanceof MapMesh.MLOrder)?((MapMesh.MLOrder)s.o).z:0)))
+			bad++;
+		}
+	    } else {
+		seen.add(Arrays.asList(s.r, s.ihash, s.o.mainz(), (s.o instanceof MapMesh.MLOrder)?((MapMesh.MLOrder)s.o).z:0));
+	    }
+	    p = s;
+	}
+	return(bad);
+    }
+
+    public Result run(String name, int n, boolean radix) {
+	Scene sc = new Scene(n);
+	RenderList rl = new RenderList(null);
+	GLState.Buffer base = new GLState.Buffer(null);
+	boolean pr = RenderList.radixsort;
+	RenderList.radixsort = radix;
+	try {
+	    long ft = 0;
+	    Timer t = timer();
+	    do {
+		rl.setup(sc, base);
+		long t0 = System.nanoTime();
+		rl.fin();
+		ft += System.nanoTime() - t0;
+	    } while(t.next());
+	    return(new Result(name, n, t.runs, ft / 1e9, verify(rl)));
+	} finally {
+	    RenderList.radixsort = pr;
+	}
+    }
+
+    public List<Result> run() {
+	List<Result> ret = new ArrayList<Result>();
+	for(int n : sizes) {
+	    ret.add(run("comparator", n, false));
+	    ret.add(run("radix", n, true));
+	}
+	return(ret);
+    }
+
+    protected String synopsis() {return("[SLOTS...]");}
+
+    protected boolean args(String[] rest) {
+	if(rest.length > 0) {
+	    sizes = new int[rest.length];
+	    for(int i = 0; i < sizes.length; i++)
+		sizes[i] = Integer.parseInt(rest[i]);
+	}
+	return(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+	Bench.main(new RenderSortBench(), args);
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Times RenderList setup of a synthetic scene of gob-like subtrees,
+ * each with a number of parts under states of their own, serially
+ * and with forked setup on various numbers of threads, and with the
+ * subtrees retained between frames, a share of them changing every
+ * frame. The scene's own state is made anew every frame, as the
+ * light list of a real scene is. Every run is checked against the
+ * first for identical slot order and states. Before that, a scene
+ * that shrinks and grows again is checked for every part being set
+ * up exactly once, in slots of its own.
+ */
+public class SetupBench extends Bench {
+    public int n = 5000, parts = 6;
+    public double change = 0.01;
+    public int[] threads = null;
+
+    private static final GLState.Slot<Tint> tslot = new GLState.Slot<Tint>(GLState.Slot.Type.DRAW, Tint.class);
+    private static class Tint extends GLState {
+	public void apply(GOut g) {}
+	public void unapply(GOut g) {}
+	public void prep(Buffer buf) {buf.put(tslot, this);}
+    }
+
+    private static final GLState.Slot<Amb> aslot = new GLState.Slot<Amb>(GLState.Slot.Type.SYS, Amb.class);
+    private static class Amb extends GLState {
+	public void apply(GOut g) {}
+	public void unapply(GOut g) {}
+	public void prep(Buffer buf) {buf.put(aslot, this);}
+    }
+
+    private static class Part implements Rendered {
+	public void draw(GOut g) {}
+	public boolean setup(RenderList rl) {return(true);}
+    }
+
+    private class Thing implements Rendered.Retained {
+	final Rendered[] parts;
+	final GLState[] sts;
+	final GLState loc;
+	int gen = 0;
+
+	Thing(Random rnd, Part[] pool, Tint[] tints, int np) {
+	    parts = new Rendered[np];
+	    sts = new GLState[np];
+	    for(int i = 0; i < np; i++) {
+		parts[i] = pool[rnd.nextInt(pool.length)];
+		sts[i] = GLState.compose(Location.xlate(new Coord3f(rnd.nextFloat(), rnd.nextFloat(), rnd.nextFloat())), tints[rnd.nextInt(tints.length)]);
+	    }
+	    loc = Location.xlate(new Coord3f(rnd.nextFloat() * 1000, rnd.nextFloat() * 1000, 0));
+	}
+
+	public void draw(GOut g) {}
+
+	public boolean setup(RenderList rl) {
+	    for(int i = 0; i < parts.length; i++)
+		rl.add(parts[i], sts[i]);
+	    return(false);
+	}
+
+	public Object rkey(RenderList rl) {
+	    return(scene.retain?gen:null);
+	}
+
+	public void kept(GLState.Buffer st) {}
+    }
+
+    private class Scene implements Rendered {
+	final Thing[] things;
+	final Random chrnd = new Random(seed);
+	boolean retain;
+	Amb amb;
+
+	Scene() {
+	    Random rnd = new Random(seed);
+	    Part[] pool = new Part[32];
+	    for(int i = 0; i < pool.length; i++)
+		pool[i] = new Part();
+	    Tint[] tints = new Tint[16];
+	    for(int i = 0; i < tints.length; i++)
+		tints[i] = new Tint();
+	    things = new Thing[n];
+	    for(int i = 0; i < n; i++)
+		things[i] = new Thing(rnd, pool, tints, 1 + rnd.nextInt(parts * 2));
+	}
+
+	public void draw(GOut g) {}
+
+	public boolean setup(RenderList rl) {
+	    rl.prepc(amb = new Amb());
+	    for(int i = (int)(things.length * change); i > 0; i--)
+		things[chrnd.nextInt(things.length)].gen++;
+	    for(Thing t : things)
+		rl.fork(t, t.loc, t);
+	    return(false);
+	}
+    }
+
+    public static class Result extends Bench.Result {
+	public final int slots, bad;
+
+	public Result(String name, int slots, int runs, double time, int bad) {
+	    super(name, runs, time);
+	    this.slots = slots;
+	    this.bad = bad;
+	}
+
+	public String toString() {
+	    return(String.format("%-10s %7d slots %10.2f us/setup %8.2f ns/slot %4d mismatched", name, slots, (time * 1e6) / runs, (time * 1e9) / ((double)runs * slots), bad));
+	}
+    }
+
+    /* Location chains are made anew by every setup, so slots are
+     * compared by the locations making them up. */
+    private List<Object> snapshot(RenderList rl) {
+	List<Object> ret = new ArrayList<Object>();
+	for(RenderList.Slot s : rl.slots()) {
+	    ret.add(s.r);
+	    List<Object> st = new ArrayList<Object>();
+	    st.add(s.os.get(tslot));
+	    st.add(s.os.get(aslot) == scene.amb);
+	    for(Location.Chain c = s.os.get(PView.loc); c != null; c = c.p)
+		st.add(c.loc);
+	    ret.add(st);
+	}
+	return(ret);
+    }
+
+    private static int compare(List<Object> a, List<Object> b) {
+	int bad = Math.abs(a.size() - b.size()) / 2;
+	for(int i = 0; i < Math.min(a.size(), b.size()); i += 2) {
+	    if((a.get(i) != b.get(i)) || !a.get(i + 1).equals(b.get(i + 1)))
+		bad++;
+	}
+	return(bad);
+    }
+
+    private Scene scene = null;
+    private List<Object> ref = null;
+
+    public Result run(String name, int threads, boolean retain) {
+	if(scene == null)
+	    scene = new Scene();
+	scene.retain = retain;
+	RenderList rl = new RenderList(null);
+	GLState.Buffer base = new GLState.Buffer(null);
+	int pt = Config.parsetup;
+	Config.parsetup = threads;
+	try {
+	    Timer t = timer();
+	    do {
+		rl.setup(scene, base);
+	    } while(t.next());
+	    List<Object> snap = snapshot(rl);
+	    if(ref == null)
+		ref = snap;
+	    return(new Result(name, snap.size() / 2, t.runs, t.time(), compare(ref, snap)));
+	} finally {
+	    Config.parsetup = pt;
+	}
+    }
+
+    private static class Sub implements Rendered.Retained {
+	final Part[] parts;
+	int np, gen = 0;
+	boolean retain = true;
+
+	Sub(int np) {
+	    parts = new Part[np];
+	    for(int i = 0; i < np; i++)
+		parts[i] = new Part();
+	    this.np = np;
+	}
+
+	public void draw(GOut g) {}
+
+	public boolean setup(RenderList rl) {
+	    for(int i = 0; i < np; i++)
+		rl.add(parts[i], null);
+	    return(false);
+	}
+
+	public Object rkey(RenderList rl) {
+	    return(retain?gen:null);
+	}
+
+	public void kept(GLState.Buffer st) {}
+    }
+
+    private static class Subs implements Rendered {
+	final List<Sub> subs = new ArrayList<Sub>();
+
+	public void draw(GOut g) {}
+
+	public boolean setup(RenderList rl) {
+	    for(Sub s : subs)
+		rl.add(s, null);
+	    return(false);
+	}
+    }
+
+    /* Checks that every slot of the list is a different one, and
+     * that every part of the scene was set up exactly once. */
+    private static int check(RenderList rl, Subs scene) {
+	Set<RenderList.Slot> seen = Collections.newSetFromMap(new IdentityHashMap<RenderList.Slot, Boolean>());
+	Map<Rendered, Integer> parts = new IdentityHashMap<Rendered, Integer>();
+	int bad = 0;
+	for(RenderList.Slot s : rl.slots()) {
+	    if(!seen.add(s))
+		bad++;
+	    Integer c = parts.get(s.r);
+	    parts.put(s.r, (c == null)?1:(c + 1));
+	}
+	for(Sub sub : scene.subs) {
+	    for(int i = 0; i < sub.np; i++) {
+		Integer c = parts.get(sub.parts[i]);
+		if((c == null) || (c != 1))
+		    bad++;
+	    }
+	}
+	return(bad);
+    }
+
+    /* Shrinks a retained scene so that kept subtrees move to new
+     * positions, releases them by setting them up anew with fewer
+     * parts, and then grows the scene again without retaining
+     * anything, so that slots are handed out over where the kept
+     * ones used to be. */
+    public static int checkresize(java.io.PrintStream out, int n) {
+	boolean pr = Config.retain;
+	int pt = Config.parsetup;
+	Config.retain = true;
+	Config.parsetup = 0;
+	try {
+	    List<Sub> all = new ArrayList<Sub>();
+	    for(int i = 0; i < n; i++)
+		all.add(new Sub(2));
+	    Subs scene = new Subs();
+	    RenderList rl = new RenderList(null);
+	    GLState.Buffer base = new GLState.Buffer(null);
+	    int bad = 0;
+	    scene.subs.addAll(all);
+	    rl.setup(scene, base);
+	    bad += check(rl, scene);
+	    scene.subs.clear();
+	    scene.subs.addAll(all.subList(n - (n * 3 / 10), n));
+	    rl.setup(scene, base);
+	    bad += check(rl, scene);
+	    for(Sub s : scene.subs) {
+		s.gen++;
+		s.np = 1;
+	    }
+	    rl.setup(scene, base);
+	    bad += check(rl, scene);
+	    scene.subs.clear();
+	    for(Sub s : all) {
+		s.retain = false;
+		s.np = 2;
+		scene.subs.add(s);
+	    }
+	    rl.setup(scene, base);
+	    bad += check(rl, scene);
+	    out.printf("resized scene: %d mismatched%n", bad);
+	    return(bad);
+	} finally {
+	    Config.retain = pr;
+	    Config.parsetup = pt;
+	}
+    }
+
+    public int check(java.io.PrintStream out) {
+	return(checkresize(out, 1000));
+    }
+
+    public List<Result> run() {
+	List<Result> ret = new ArrayList<Result>();
+	ret.add(run("serial", 0, false));
+	for(int t : threads)
+	    ret.add(run(t + " thr", t, false));
+	ret.add(run("retained", 0, true));
+	for(int t : threads)
+	    ret.add(run("ret " + t + " thr", t, true));
+	return(ret);
+    }
+
+    protected String opts() {return("c:n:p:");}
+    protected String synopsis() {return("[-c CHANGE] [-n SUBTREES] [-p PARTS] [THREADS...]");}
+
+    protected void opt(char c, String arg) {
+	switch(c) {
+	case 'c':
+	    change = Double.parseDouble(arg);
+	    break;
+	case 'n':
+	    n = Integer.parseInt(arg);
+	    break;
+	case 'p':
+	    parts = Integer.parseInt(arg);
+	    break;
+	}
+    }
+
+    protected boolean args(String[] rest) {
+	if(rest.length > 0) {
+	    threads = new int[rest.length];
+	    for(int i = 0; i < threads.length; i++)
+		threads[i] = Integer.parseInt(rest[i]);
+	} else {
+	    int nc = Runtime.getRuntime().availableProcessors();
+	    List<Integer> tl = new ArrayList<Integer>();
+	    for(int t = 1; t < nc; t *= 2)
+		tl.add(t);
+	    tl.add(nc);
+	    threads = new int[tl.size()];
+	    for(int i = 0; i < threads.length; i++)
+		threads[i] = tl.get(i);
+	}
+	return(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+	Bench.main(new SetupBench(), args);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import haven.glsl.*;
+import java.util.*;
+import java.io.*;
+
+/*
+ * Generates the GLSL of the shader macro combinations that the
+ * client commonly uses, without any GL context, timing the
+ * generation of each program. Given a golden file, the sources are
+ * compared against it, so that changes to the generated code show
+ * up as failures; with -u, the golden file is written instead.
+ */
+public class ShaderBench extends Bench {
+    public String golden = null;
+    public boolean update = false;
+
+    public ShaderBench() {
+	time = 0.05;
+	warm = 0;
+    }
+
+    public static class Variant {
+	public final String name;
+	public final ShaderMacro[] sh;
+
+	public Variant(String name, ShaderMacro... sh) {
+	    this.name = name;
+	    this.sh = sh;
+	}
+    }
+
+    public static class Combo {
+	public final String name;
+	public final List<ShaderMacro> mods;
+
+	public Combo(String name, List<ShaderMacro> mods) {
+	    this.name = name;
+	    this.mods = mods;
+	}
+    }
+
+    private static ShaderMacro[] cat(ShaderMacro[]... parts) {
+	List<ShaderMacro> ret = new ArrayList<ShaderMacro>();
+	for(ShaderMacro[] p : parts)
+	    ret.addAll(Arrays.asList(p));
+	return(ret.toArray(new ShaderMacro[0]));
+    }
+
+    /* The axes along which materials vary, as set up by Material,
+     * Light, ShadowMap, TexGL and Location instancing. */
+    public static List<Variant[]> axes() {
+	ShaderMacro[] vl = Light.vlights.shaders(), pl = Light.plights.shaders();
+	ShaderMacro[] cel = Light.celshade.shaders();
+	/* The shadow map of the main view. */
+	ShaderMacro[] sh = {new ShadowMap.Shader(1.0 / 2048, 1.0 / 2048, 4, 1.0 / 5000)};
+	ShaderMacro[] tex = {Tex2D.mod}, clip = {Tex2D.clip};
+	List<Variant[]> ret = new ArrayList<Variant[]>();
+	ret.add(new Variant[] {
+		new Variant("unlit"),
+		new Variant("vlight", vl),
+		new Variant("vlight-cel", cat(vl, cel)),
+		new Variant("plight", pl),
+		new Variant("plight-cel", cat(pl, cel)),
+		new Variant("plight-shadow", cat(pl, sh)),
+		new Variant("plight-cel-shadow", cat(pl, cel, sh)),
+	    });
+	ret.add(new Variant[] {
+		new Variant("notex"),
+		new Variant("tex", tex),
+		new Variant("texcentroid", cat(tex, new ShaderMacro[] {TexGL.mkcentroid})),
+		new Variant("texclip", cat(tex, clip)),
+	    });
+	ret.add(new Variant[] {
+		new Variant(""),
+		new Variant("vcol", States.vertexcolor.shaders()),
+	    });
+	ret.add(new Variant[] {
+		new Variant(""),
+		new Variant("inst", Location.Chain.instancer.inststate(null).shaders()),
+	    });
+	return(ret);
+    }
+
+    public static List<Combo> combos() {
+	List<Combo> ret = new ArrayList<Combo>();
+	List<Variant[]> axes = axes();
+	int[] idx = new int[axes.size()];
+	while(true) {
+	    StringBuilder name = new StringBuilder();
+	    List<ShaderMacro> mods = new ArrayList<ShaderMacro>();
+	    for(int i = 0; i < idx.length; i++) {
+		Variant v = axes.get(i)[idx[i]];
+		if(v.name.length() > 0) {
+		    if(name.length() > 0)
+			name.append('+');
+		    name.append(v.name);
+		}
+		mods.addAll(Arrays.asList(v.sh));
+	    }
+	    ret.add(new Combo(name.toString(), mods));
+	    int i;
+	    for(i = idx.length - 1; i >= 0; i--) {
+		if(++idx[i] < axes.get(i).length)
+		    break;
+		idx[i] = 0;
+	    }
+	    if(i < 0)
+		break;
+	}
+	for(int i = 0; i < 4; i++) {
+	    boolean sym = (i & 2) != 0, ms = (i & 1) != 0;
+	    ret.add(new Combo("outlines" + (sym?"-sym":"") + (ms?"-ms":""), Arrays.asList(Outlines.shaders(sym, ms))));
+	}
+	return(ret);
+    }
+
+    public static String source(GLProgram prog) {
+	StringBuilder buf = new StringBuilder();
+	for(GLShader sh : prog.shaders) {
+	    buf.append("--- ");
+	    buf.append((sh instanceof GLShader.VertexShader)?"vertex":"fragment");
+	    buf.append('\n');
+	    buf.append(sh.source);
+	}
+	return(buf.toString());
+    }
+
+    public static class Result extends Bench.Result {
+	public final String source;
+	public String bad = null;
+
+	public Result(String name, String source, int builds, double time) {
+	    super(name, builds, time);
+	    this.source = source;
+	}
+
+	public String toString() {
+	    String ret = String.format("%-44s %8.1f us/build %6d bytes", name, (time * 1e6) / runs, source.length());
+	    if(bad != null)
+		ret += "  MISMATCH: " + bad;
+	    return(ret);
+	}
+    }
+
+    public Result run(Combo c) {
+	String src = source(ShaderMacro.Program.build(c.mods));
+	Timer t = timer();
+	do {
+	    ShaderMacro.Program.build(c.mods);
+	} while(t.next());
+	return(new Result(c.name, src, t.runs, t.time()));
+    }
+
+    public List<Result> run() {
+	List<Result> ret = new ArrayList<Result>();
+	for(Combo c : combos())
+	    ret.add(run(c));
+	return(ret);
+    }
+
+    public static Map<String, String> readgolden(Reader in) throws IOException {
+	Map<String, String> ret = new LinkedHashMap<String, String>();
+	BufferedReader r = new BufferedReader(in);
+	String ln, name = null;
+	StringBuilder buf = null;
+	while((ln = r.readLine()) != null) {
+	    if(ln.startsWith("=== ")) {
+		if(name != null)
+		    ret.put(name, buf.toString());
+		name = ln.substring(4);
+		buf = new StringBuilder();
+	    } else if(buf != null) {
+		buf.append(ln);
+		buf.append('\n');
+	    }
+	}
+	if(name != null)
+	    ret.put(name, buf.toString());
+	return(ret);
+    }
+
+    public static void writegolden(Writer out, List<? extends Bench.Result> res) throws IOException {
+	for(Bench.Result b : res) {
+	    Result r = (Result)b;
+	    out.write("=== " + r.name + "\n");
+	    out.write(r.source);
+	}
+    }
+
+    /* Describes the first difference between two sources. */
+    public static String diff(String a, String b) {
+	String[] al = a.split("\n", -1), bl = b.split("\n", -1);
+	for(int i = 0; i < Math.max(al.length, bl.length); i++) {
+	    String x = (i < al.length)?al[i]:"(end)", y = (i < bl.length)?bl[i]:"(end)";
+	    if(!x.equals(y))
+		return(String.format("line %d: expected \"%s\", got \"%s\"", i + 1, x.trim(), y.trim()));
+	}
+	return(null);
+    }
+
+    public static int checkgolden(List<? extends Bench.Result> res, Map<String, String> golden) {
+	int bad = 0;
+	Set<String> seen = new HashSet<String>();
+	for(Bench.Result b : res) {
+	    Result r = (Result)b;
+	    seen.add(r.name);
+	    String g = golden.get(r.name);
+	    if(g == null)
+		r.bad = "not in golden file";
+	    else if(!g.equals(r.source))
+		r.bad = diff(g, r.source);
+	    if(r.bad != null)
+		bad++;
+	}
+	for(String nm : golden.keySet()) {
+	    if(!seen.contains(nm)) {
+		System.out.println(nm + ": in golden file, but no longer generated");
+		bad++;
+	    }
+	}
+	return(bad);
+    }
+
+    public int report(PrintStream out, List<? extends Bench.Result> res) throws Exception {
+	int bad = 0;
+	if(update) {
+	    Writer fp = new OutputStreamWriter(new FileOutputStream(golden), "UTF-8");
+	    try {
+		writegolden(fp, res);
+	    } finally {
+		fp.close();
+	    }
+	} else if(golden != null) {
+	    Reader in = new InputStreamReader(new FileInputStream(golden), "UTF-8");
+	    try {
+		bad = checkgolden(res, readgolden(in));
+	    } finally {
+		in.close();
+	    }
+	}
+	super.report(out, res);
+	double tt = 0;
+	for(Bench.Result r : res)
+	    tt += r.time / r.runs;
+	out.println(String.format("%d programs, %.1f us/program on average", res.size(), (tt * 1e6) / res.size()));
+	if(golden != null)
+	    out.println(update?("Wrote " + golden):(bad + " mismatched"));
+	return(bad);
+    }
+
+    protected String opts() {return("ug:");}
+    protected String synopsis() {return("[-u] [-g GOLDEN]");}
+    protected boolean seeded() {return(false);}
+
+    protected void opt(char c, String arg) {
+	switch(c) {
+	case 'u':
+	    update = true;
+	    break;
+	case 'g':
+	    golden = arg;
+	    break;
+	}
+    }
+
+    protected boolean args(String[] rest) {
+	return((rest.length == 0) && (!update || (golden != null)));
+    }
+
+    public static void main(String[] args) throws Exception {
+	Bench.main(new ShaderBench(), args);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Compares grouping and diffing the state buffers of a synthetic
+ * scene, in which many gob-like renderings share a few combinations
+ * of material states but each has a location of its own, by hashing
+ * and comparing the buffers themselves and by their interned
+ * snapshots. Every run checks that both ways group and diff the
+ * buffers alike.
+ */
+public class StateBench extends Bench {
+    public int n = 20000, combos = 64;
+
+    private static final GLState.Slot<Tint> tslot = new GLState.Slot<Tint>(GLState.Slot.Type.DRAW, Tint.class);
+    private static class Tint extends GLState {
+	public void apply(GOut g) {}
+	public void unapply(GOut g) {}
+	public void prep(Buffer buf) {buf.put(tslot, this);}
+    }
+
+    private static final GLState.Slot<Mat> mslot = new GLState.Slot<Mat>(GLState.Slot.Type.DRAW, Mat.class);
+    private static class Mat extends GLState {
+	public void apply(GOut g) {}
+	public void unapply(GOut g) {}
+	public void prep(Buffer buf) {buf.put(mslot, this);}
+	public int capplyfrom(GLState from) {return((from instanceof Mat)?1:-1);}
+    }
+
+    private static final GLState.Slot<Amb> aslot = new GLState.Slot<Amb>(GLState.Slot.Type.SYS, Amb.class);
+    private static class Amb extends GLState {
+	public void apply(GOut g) {}
+	public void unapply(GOut g) {}
+	public void prep(Buffer buf) {buf.put(aslot, this);}
+    }
+
+    public static class Result extends Bench.Result {
+	public final int bufs, groups, bad;
+
+	public Result(String name, int bufs, int groups, int runs, double time, int bad) {
+	    super(name, runs, time);
+	    this.bufs = bufs;
+	    this.groups = groups;
+	    this.bad = bad;
+	}
+
+	public String toString() {
+	    return(String.format("%-10s %7d bufs %6d groups %10.2f us/frame %8.2f ns/buf %4d mismatched", name, bufs, groups, (time * 1e6) / runs, (time * 1e9) / ((double)runs * bufs), bad));
+	}
+    }
+
+    private GLState.Buffer[] bufs = null;
+    private Tint[] btint;
+    private int[] groups;
+    private boolean[][] diffs;
+
+    /* Buffers are made in the order they would be drawn in, grouped
+     * by their materials. */
+    private void mkscene() {
+	Random rnd = new Random(seed);
+	int nt = Math.max((int)Math.sqrt(combos), 1), nm = Math.max(combos / nt, 1);
+	Tint[] tints = new Tint[nt];
+	for(int i = 0; i < nt; i++)
+	    tints[i] = new Tint();
+	Mat[] mats = new Mat[nm];
+	for(int i = 0; i < nm; i++)
+	    mats[i] = new Mat();
+	Amb amb = new Amb();
+	long[] order = new long[n];
+	for(int i = 0; i < n; i++)
+	    order[i] = (((long)rnd.nextInt(nt * nm)) << 32) | i;
+	Arrays.sort(order);
+	bufs = new GLState.Buffer[n];
+	btint = new Tint[n];
+	for(int i = 0; i < n; i++) {
+	    int c = (int)(order[i] >> 32);
+	    GLState.Buffer buf = new GLState.Buffer(null);
+	    amb.prep(buf);
+	    btint[i] = tints[c % nt];
+	    btint[i].prep(buf);
+	    mats[c / nt].prep(buf);
+	    Location.xlate(new Coord3f(rnd.nextFloat() * 1000, rnd.nextFloat() * 1000, 0)).prep(buf);
+	    bufs[i] = buf;
+	}
+    }
+
+    /* Transitions are compared with replacements taking precedence,
+     * as the Applier does. */
+    private static boolean[] norm(boolean[] trans, boolean[] repl) {
+	boolean[] ret = new boolean[trans.length * 2];
+	for(int i = 0; i < trans.length; i++) {
+	    ret[i * 2] = trans[i] && !repl[i];
+	    ret[(i * 2) + 1] = repl[i];
+	}
+	return(ret);
+    }
+
+    private int check(int[] groups, boolean[][] diffs) {
+	if(this.groups == null) {
+	    this.groups = groups;
+	    this.diffs = diffs;
+	    return(0);
+	}
+	int bad = 0;
+	for(int i = 0; i < groups.length; i++) {
+	    if((groups[i] != this.groups[i]) || !Arrays.equals(diffs[i], this.diffs[i]))
+		bad++;
+	}
+	return(bad);
+    }
+
+    /* Groups and diffs the buffers once, recording the outcome if
+     * GROUPS is given. */
+    private int frame(boolean snap, boolean[] trans, boolean[] repl, int[] groups, boolean[][] diffs) {
+	/* As in a real frame, the buffers are all prepared anew
+	 * before they are drawn. */
+	for(int i = 0; i < n; i++)
+	    btint[i].prep(bufs[i]);
+	int ng = 0;
+	if(snap) {
+	    GLState.Snapshot[] snaps = new GLState.Snapshot[n];
+	    for(int i = 0; i < n; i++)
+		snaps[i] = bufs[i].snapshot();
+	    for(int i = 0; i < n; i++) {
+		if((i == 0) || (snaps[i] != snaps[i - 1]))
+		    ng++;
+		if(i > 0)
+		    GLState.bufdiff(bufs[i - 1], snaps[i - 1], bufs[i], snaps[i], trans, repl);
+		if(groups != null) {
+		    groups[i] = ng;
+		    diffs[i] = norm(trans, repl);
+		}
+	    }
+	} else {
+	    int[] hash = new int[n];
+	    for(int i = 0; i < n; i++)
+		hash[i] = bufs[i].ihash();
+	    for(int i = 0; i < n; i++) {
+		if((i == 0) || (hash[i] != hash[i - 1]) || !bufs[i].iequals(bufs[i - 1]))
+		    ng++;
+		if(i > 0)
+		    GLState.bufdiff(bufs[i - 1], bufs[i], trans, repl);
+		if(groups != null) {
+		    groups[i] = ng;
+		    diffs[i] = norm(trans, repl);
+		}
+	    }
+	}
+	return(ng);
+    }
+
+    /* A buffer that is kept as it is, as those of retained slots
+     * are, must keep its snapshot interned over cleanings of the
+     * intern table, so that buffers set up anew still share it. */
+    public static int checkkept(java.io.PrintStream out) {
+	Tint t = new Tint(), o1 = new Tint(), o2 = new Tint();
+	Mat m = new Mat();
+	GLState.Buffer kept = new GLState.Buffer(null);
+	t.prep(kept); m.prep(kept);
+	GLState.Snapshot ks = kept.snapshot();
+	GLState.Buffer other = new GLState.Buffer(null);
+	m.prep(other);
+	/* Enough lookups for a few cleanings, which happen as new
+	 * snapshots are interned, with the kept buffer looked at once
+	 * every "frame" in between. */
+	for(int i = 0; i < (1 << 19); i++) {
+	    if((i % 1000) == 0) {
+		new Tint().prep(other);
+		kept.snapshot();
+	    } else {
+		(((i & 1) == 0)?o1:o2).prep(other);
+	    }
+	    other.snapshot();
+	}
+	GLState.Buffer fresh = new GLState.Buffer(null);
+	t.prep(fresh); m.prep(fresh);
+	if((fresh.snapshot() != kept.snapshot()) || (kept.snapshot() != ks)) {
+	    out.println("snapshot of a kept buffer was not kept interned");
+	    return(1);
+	}
+	return(0);
+    }
+
+    public Result run(String name, boolean snap) {
+	if(bufs == null)
+	    mkscene();
+	boolean[] trans = new boolean[256], repl = new boolean[256];
+	int ng = 0;
+	Timer t = timer();
+	do {
+	    ng = frame(snap, trans, repl, null, null);
+	} while(t.next());
+	int[] groups = new int[n];
+	boolean[][] diffs = new boolean[n][];
+	Arrays.fill(trans, false); Arrays.fill(repl, false);
+	frame(snap, trans, repl, groups, diffs);
+	return(new Result(name, n, ng, t.runs, t.time(), check(groups, diffs)));
+    }
+
+    public List<Result> run() {
+	List<Result> ret = new ArrayList<Result>();
+	ret.add(run("buffers", false));
+	ret.add(run("snapshots", true));
+	return(ret);
+    }
+
+    public int check(java.io.PrintStream out) {
+	return(checkkept(out));
+    }
+
+    public int report(java.io.PrintStream out, List<? extends Bench.Result> res) throws Exception {
+	int ret = super.report(out, res);
+	out.println(GLState.Snapshot.interned() + " snapshots interned");
+	return(ret);
+    }
+
+    protected String opts() {return("c:n:");}
+    protected String synopsis() {return("[-c COMBINATIONS] [-n BUFFERS]");}
+
+    protected void opt(char c, String arg) {
+	switch(c) {
+	case 'c':
+	    combos = Integer.parseInt(arg);
+	    break;
+	case 'n':
+	    n = Integer.parseInt(arg);
+	    break;
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	Bench.main(new StateBench(), args);
+    }
+}